@@ -1,7 +1,8 @@
 package com.limelight;
 
 import java.io.IOException;
-import java.io.StringReader;
+import java.security.MessageDigest;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 
@@ -57,7 +58,7 @@ public class AppView extends Activity implements AdapterFragmentCallbacks {
     private ComputerDetails computer;
     private ComputerManagerService.ApplistPoller poller;
     private SpinnerDialog blockingLoadSpinner;
-    private String lastRawApplist;
+    private byte[] lastAppListHash;
     private int lastRunningAppId;
     private boolean suspendGridUpdates;
     private boolean inForeground;
@@ -230,7 +231,7 @@ public class AppView extends Activity implements AdapterFragmentCallbacks {
                 }
 
                 // App list is the same or empty
-                if (details.rawAppList == null || details.rawAppList.equals(lastRawApplist)) {
+                if (details.appList == null || MessageDigest.isEqual(details.appListHash, lastAppListHash)) {
 
                     // Let's check if the running app ID changed
                     if (details.runningGameId != lastRunningAppId) {
@@ -243,18 +244,14 @@ public class AppView extends Activity implements AdapterFragmentCallbacks {
                 }
 
                 lastRunningAppId = details.runningGameId;
-                lastRawApplist = details.rawAppList;
+                lastAppListHash = details.appListHash;
 
-                try {
-                    updateUiWithAppList(NvHTTP.getAppListByReader(new StringReader(details.rawAppList)));
-                    updateUiWithServerinfo(details);
+                updateUiWithAppList(details.appList);
+                updateUiWithServerinfo(details);
 
-                    if (blockingLoadSpinner != null) {
-                        blockingLoadSpinner.dismiss();
-                        blockingLoadSpinner = null;
-                    }
-                } catch (XmlPullParserException | IOException e) {
-                    e.printStackTrace();
+                if (blockingLoadSpinner != null) {
+                    blockingLoadSpinner.dismiss();
+                    blockingLoadSpinner = null;
                 }
             }
         });
@@ -335,15 +332,17 @@ public class AppView extends Activity implements AdapterFragmentCallbacks {
     }
 
     private void populateAppGridWithCache() {
+        byte[] rawApplist = null;
         try {
             // Try to load from cache
-            lastRawApplist = CacheHelper.readInputStreamToString(CacheHelper.openCacheFileForInput(getCacheDir(), "applist", uuidString));
-            List<NvApp> applist = NvHTTP.getAppListByReader(new StringReader(lastRawApplist));
+            rawApplist = CacheHelper.readInputStreamToBytes(CacheHelper.openCacheFileForInput(getCacheDir(), "applist", uuidString));
+            List<NvApp> applist = NvHTTP.getAppListByBytes(rawApplist);
+            lastAppListHash = NvHTTP.getAppListHash(rawApplist);
             updateUiWithAppList(applist);
             LimeLog.info("Loaded applist from cache");
         } catch (IOException | XmlPullParserException e) {
-            if (lastRawApplist != null) {
-                LimeLog.warning("Saved applist corrupted: "+lastRawApplist);
+            if (rawApplist != null) {
+                LimeLog.warning("Saved applist corrupted: "+new String(rawApplist));
                 e.printStackTrace();
             }
             LimeLog.info("Loading applist from the network");
@@ -547,72 +546,25 @@ public class AppView extends Activity implements AdapterFragmentCallbacks {
         AppView.this.runOnUiThread(new Runnable() {
             @Override
             public void run() {
-                boolean updated = false;
-
-                // First handle app updates and additions
-                for (NvApp app : appList) {
-                    boolean foundExistingApp = false;
-
-                    // Try to update an existing app in the list first
-                    for (int i = 0; i < appGridAdapter.getCount(); i++) {
-                        AppObject existingApp = (AppObject) appGridAdapter.getItem(i);
-                        if (existingApp.app.getAppId() == app.getAppId()) {
-                            // Found the app; update its properties
-                            if (!existingApp.app.getAppName().equals(app.getAppName())) {
-                                existingApp.app.setAppName(app.getAppName());
-                                updated = true;
-                            }
-
-                            foundExistingApp = true;
-                            break;
-                        }
-                    }
-
-                    if (!foundExistingApp) {
-                        // This app must be new
-                        appGridAdapter.addApp(new AppObject(app));
-
-                        // We could have a leftover shortcut from last time this PC was paired
-                        // or if this app was removed then added again. Enable those shortcuts
-                        // again if present.
-                        shortcutHelper.enableAppShortcut(computer, app);
+                ArrayList<NvApp> addedApps = new ArrayList<>();
+                ArrayList<NvApp> removedApps = new ArrayList<>();
 
-                        updated = true;
-                    }
+                if (!appGridAdapter.updateApps(appList, addedApps, removedApps)) {
+                    return;
                 }
 
-                // Next handle app removals
-                int i = 0;
-                while (i < appGridAdapter.getCount()) {
-                    boolean foundExistingApp = false;
-                    AppObject existingApp = (AppObject) appGridAdapter.getItem(i);
-
-                    // Check if this app is in the latest list
-                    for (NvApp app : appList) {
-                        if (existingApp.app.getAppId() == app.getAppId()) {
-                            foundExistingApp = true;
-                            break;
-                        }
-                    }
-
-                    // This app was removed in the latest app list
-                    if (!foundExistingApp) {
-                        shortcutHelper.disableAppShortcut(computer, existingApp.app, "App removed from PC");
-                        appGridAdapter.removeApp(existingApp);
-                        updated = true;
-
-                        // Check this same index again because the item at i+1 is now at i after
-                        // the removal
-                        continue;
-                    }
-
-                    // Move on to the next item
-                    i++;
+                // We could have a leftover shortcut from last time this PC was paired
+                // or if this app was removed then added again. Enable those shortcuts
+                // again if present.
+                for (NvApp app : addedApps) {
+                    shortcutHelper.enableAppShortcut(computer, app);
                 }
 
-                if (updated) {
-                    appGridAdapter.notifyDataSetChanged();
+                for (NvApp app : removedApps) {
+                    shortcutHelper.disableAppShortcut(computer, app, "App removed from PC");
                 }
+
+                appGridAdapter.notifyDataSetChanged();
             }
         });
     }
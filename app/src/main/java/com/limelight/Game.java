@@ -2,10 +2,13 @@ package com.limelight;
 
 
 import com.limelight.binding.PlatformBinding;
+import com.limelight.binding.audio.AAudioRenderer;
 import com.limelight.binding.audio.AndroidAudioRenderer;
 import com.limelight.binding.input.ControllerHandler;
 import com.limelight.binding.input.GameInputDevice;
+import com.limelight.binding.input.InputLatencyTracker;
 import com.limelight.binding.input.KeyboardTranslator;
+import com.limelight.binding.input.MouseMotionCoalescer;
 import com.limelight.binding.input.capture.InputCaptureManager;
 import com.limelight.binding.input.capture.InputCaptureProvider;
 import com.limelight.binding.input.touch.AbsoluteTouchContext;
@@ -17,10 +20,13 @@ import com.limelight.binding.input.virtual_controller.VirtualController;
 import com.limelight.binding.video.CrashListener;
 import com.limelight.binding.video.MediaCodecDecoderRenderer;
 import com.limelight.binding.video.MediaCodecHelper;
+import com.limelight.binding.video.PerfOverlayFormatter;
 import com.limelight.binding.video.PerfOverlayListener;
+import com.limelight.binding.video.PerfOverlaySnapshot;
 import com.limelight.nvstream.NvConnection;
 import com.limelight.nvstream.NvConnectionListener;
 import com.limelight.nvstream.StreamConfiguration;
+import com.limelight.nvstream.av.audio.AudioRenderer;
 import com.limelight.nvstream.http.ComputerDetails;
 import com.limelight.nvstream.http.NvApp;
 import com.limelight.nvstream.http.NvHTTP;
@@ -87,6 +93,7 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.nio.charset.StandardCharsets;
@@ -123,6 +130,12 @@ public class Game extends Activity implements SurfaceHolder.Callback,
 
     private ControllerHandler controllerHandler;
     private KeyboardTranslator keyboardTranslator;
+    private MouseMotionCoalescer mouseMotionCoalescer;
+    private final InputLatencyTracker inputLatencyTracker = new InputLatencyTracker();
+
+    // Set if the MotionEvent being handled was passed to the mouseMotionCoalescer, which
+    // records its latency once the motion is actually sent.
+    private boolean motionEventCoalesced;
     public VirtualController virtualController;
 
     private PreferenceConfiguration prefConfig;
@@ -227,6 +240,31 @@ public class Game extends Activity implements SurfaceHolder.Callback,
         }
     };
 
+    private static final String INPUT_LATENCY_FILE_NAME = "input_latency.csv";
+
+    // The performance overlay is refreshed from the latest decoder stats on the UI thread
+    private static final int PERF_OVERLAY_UPDATE_INTERVAL_MS = 1000;
+    private final Handler perfOverlayHandler = new Handler(Looper.getMainLooper());
+    private final PerfOverlaySnapshot perfOverlaySnapshot = new PerfOverlaySnapshot();
+    private PerfOverlayFormatter perfOverlayFormatter;
+
+    private final Runnable updatePerfOverlay = new Runnable() {
+        @Override
+        public void run() {
+            if (decoderRenderer != null && decoderRenderer.readPerfOverlaySnapshot(perfOverlaySnapshot)) {
+                if (perfOverlayFormatter == null) {
+                    perfOverlayFormatter = new PerfOverlayFormatter(Game.this);
+                }
+
+                inputLatencyTracker.readPerfOverlaySnapshot(perfOverlaySnapshot);
+                int length = perfOverlayFormatter.format(perfOverlaySnapshot);
+                performanceOverlayView.setText(perfOverlayFormatter.getChars(), 0, length);
+            }
+
+            perfOverlayHandler.postDelayed(this, PERF_OVERLAY_UPDATE_INTERVAL_MS);
+        }
+    };
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -535,8 +573,10 @@ public class Game extends Activity implements SurfaceHolder.Callback,
                 new ComputerDetails.AddressTuple(host, port),
                 httpsPort, uniqueId, config,
                 PlatformBinding.getCryptoProvider(this), serverCert);
-        controllerHandler = new ControllerHandler(this, conn, this, prefConfig);
+        controllerHandler = new ControllerHandler(this, conn, this, prefConfig, inputLatencyTracker);
         keyboardTranslator = new KeyboardTranslator();
+        mouseMotionCoalescer = new MouseMotionCoalescer(conn, inputLatencyTracker, prefConfig.mouseReportRate);
+        mouseMotionCoalescer.start();
 
         InputManager inputManager = (InputManager) getSystemService(Context.INPUT_SERVICE);
         inputManager.registerInputDeviceListener(keyboardTranslator, null);
@@ -1187,9 +1227,19 @@ public class Game extends Activity implements SurfaceHolder.Callback,
 
         instance = null;
 
+        perfOverlayHandler.removeCallbacks(updatePerfOverlay);
+
         if (controllerHandler != null) {
             controllerHandler.destroy();
         }
+        if (mouseMotionCoalescer != null) {
+            mouseMotionCoalescer.stop();
+        }
+
+        inputLatencyTracker.logStats();
+        if (prefConfig != null && prefConfig.enableFrameTrace) {
+            inputLatencyTracker.writeCsv(new File(getFilesDir(), INPUT_LATENCY_FILE_NAME));
+        }
         if (keyboardTranslator != null) {
             InputManager inputManager = (InputManager) getSystemService(Context.INPUT_SERVICE);
             inputManager.unregisterInputDeviceListener(keyboardTranslator);
@@ -1279,6 +1329,14 @@ public class Game extends Activity implements SurfaceHolder.Callback,
                     }
 
                     message += "]";
+
+                    if (averageDecoderLat > 0) {
+                        message += "\n" + getResources().getString(R.string.conn_hardware_latency_percentiles,
+                                decoderRenderer.getDecoderLatencyPercentile(50),
+                                decoderRenderer.getDecoderLatencyPercentile(95),
+                                decoderRenderer.getDecoderLatencyPercentile(99),
+                                decoderRenderer.getDecoderLatencyPercentile(100));
+                    }
                 }
 
                 if (message != null) {
@@ -1465,6 +1523,26 @@ public class Game extends Activity implements SurfaceHolder.Callback,
 
     @Override
     public boolean handleKeyDown(KeyEvent event) {
+        // Key events reach us from several paths (onKeyDown(), onKey() and the StreamView's
+        // onKeyPreIme()), so input latency is recorded here where they all meet
+        boolean handled;
+        boolean sentInput;
+        conn.beginInputBatch();
+        try {
+            handled = handleKeyDownInBatch(event);
+        } finally {
+            sentInput = conn.endInputBatch();
+        }
+
+        // Repeats and special keys may be handled without sending anything
+        if (handled && sentInput) {
+            inputLatencyTracker.recordKeyEvent(event, ControllerHandler.isGameControllerDevice(event.getDevice()));
+        }
+
+        return handled;
+    }
+
+    private boolean handleKeyDownInBatch(KeyEvent event) {
         // Pass-through navigation keys
         if ((event.getFlags() & KeyEvent.FLAG_VIRTUAL_HARD_KEY) != 0) {
             return false;
@@ -1482,6 +1560,7 @@ public class Game extends Activity implements SurfaceHolder.Callback,
             // are disabled. If they are enabled, handleMotionEvent() will take
             // care of this.
             if (!prefConfig.mouseNavButtons) {
+                mouseMotionCoalescer.flush();
                 conn.sendMouseButtonDown(MouseButtonPacket.BUTTON_RIGHT);
             }
 
@@ -1547,6 +1626,23 @@ public class Game extends Activity implements SurfaceHolder.Callback,
 
     @Override
     public boolean handleKeyUp(KeyEvent event) {
+        boolean handled;
+        boolean sentInput;
+        conn.beginInputBatch();
+        try {
+            handled = handleKeyUpInBatch(event);
+        } finally {
+            sentInput = conn.endInputBatch();
+        }
+
+        if (handled && sentInput) {
+            inputLatencyTracker.recordKeyEvent(event, ControllerHandler.isGameControllerDevice(event.getDevice()));
+        }
+
+        return handled;
+    }
+
+    private boolean handleKeyUpInBatch(KeyEvent event) {
         // Pass-through virtual navigation keys
         if ((event.getFlags() & KeyEvent.FLAG_VIRTUAL_HARD_KEY) != 0) {
             return false;
@@ -1563,6 +1659,7 @@ public class Game extends Activity implements SurfaceHolder.Callback,
             // are disabled. If they are enabled, handleMotionEvent() will take
             // care of this.
             if (!prefConfig.mouseNavButtons) {
+                mouseMotionCoalescer.flush();
                 conn.sendMouseButtonUp(MouseButtonPacket.BUTTON_RIGHT);
             }
 
@@ -1929,6 +2026,28 @@ public class Game extends Activity implements SurfaceHolder.Callback,
             return false;
         }
 
+        // A single MotionEvent can carry many historical samples and pointers, so we
+        // submit all input generated by it to the native code in one batch.
+        boolean handled;
+        boolean sentInput;
+        motionEventCoalesced = false;
+        conn.beginInputBatch();
+        try {
+            handled = handleMotionEventInBatch(view, event);
+        } finally {
+            sentInput = conn.endInputBatch();
+        }
+
+        // Events like hover and cursor hiding may be handled without sending anything,
+        // so only events that produced input count towards input latency
+        if (handled && sentInput && !motionEventCoalesced) {
+            inputLatencyTracker.recordMotionEvent(event);
+        }
+
+        return handled;
+    }
+
+    private boolean handleMotionEventInBatch(View view, MotionEvent event) {
         int eventSource = event.getSource();
         int deviceSources = event.getDevice() != null ? event.getDevice().getSources() : 0;
         if ((eventSource & InputDevice.SOURCE_CLASS_JOYSTICK) != 0) {
@@ -1986,18 +2105,25 @@ public class Game extends Activity implements SurfaceHolder.Callback,
                 // dealing with a stylus without hover support, our position might be
                 // significantly different than before.
                 if (inputCaptureProvider.eventHasRelativeMouseAxes(event)) {
-                    // Send the deltas straight from the motion event
-                    short deltaX = (short)inputCaptureProvider.getRelativeAxisX(event);
-                    short deltaY = (short)inputCaptureProvider.getRelativeAxisY(event);
+                    if (prefConfig.absoluteMouseMode) {
+                        // Send the deltas straight from the motion event
+                        short deltaX = (short)inputCaptureProvider.getRelativeAxisX(event);
+                        short deltaY = (short)inputCaptureProvider.getRelativeAxisY(event);
 
-                    if (deltaX != 0 || deltaY != 0) {
-                        if (prefConfig.absoluteMouseMode) {
+                        if (deltaX != 0 || deltaY != 0) {
                             // NB: view may be null, but we can unconditionally use streamView because we don't need to adjust
                             // relative axis deltas for the position of the streamView within the parent's coordinate system.
                             conn.sendMouseMoveAsMousePosition(deltaX, deltaY, (short)streamView.getWidth(), (short)streamView.getHeight());
                         }
-                        else {
-                            conn.sendMouseMove(deltaX, deltaY);
+                    }
+                    else {
+                        // Coalesce the deltas to the configured report rate, keeping any fractional part
+                        float deltaX = inputCaptureProvider.getRelativeAxisX(event);
+                        float deltaY = inputCaptureProvider.getRelativeAxisY(event);
+
+                        if (deltaX != 0 || deltaY != 0) {
+                            mouseMotionCoalescer.addMotion(deltaX, deltaY, InputLatencyTracker.getEventTimeNanos(event));
+                            motionEventCoalesced = true;
                         }
                     }
                 }
@@ -2036,6 +2162,11 @@ public class Game extends Activity implements SurfaceHolder.Callback,
                     updateMousePosition(view, event);
                 }
 
+                // Button and scroll events must not overtake motion still waiting to be reported
+                if (changedButtons != 0 || event.getActionMasked() == MotionEvent.ACTION_SCROLL) {
+                    mouseMotionCoalescer.flush();
+                }
+
                 if (event.getActionMasked() == MotionEvent.ACTION_SCROLL) {
                     // Send the vertical scroll packet
                     conn.sendMouseHighResScroll((short)(event.getAxisValue(MotionEvent.AXIS_VSCROLL) * 120));
@@ -2351,6 +2482,21 @@ public class Game extends Activity implements SurfaceHolder.Callback,
             view.requestUnbufferedDispatch(event);
         }
 
+        // The on-screen controls are drawn above us without taking touches themselves,
+        // so we hand them any touches that land on them first.
+        if (virtualController != null) {
+            MotionEvent remainingEvent = virtualController.handleTouchEvent(view, event);
+            if (remainingEvent != event) {
+                if (remainingEvent != null) {
+                    handleMotionEvent(view, remainingEvent);
+                    remainingEvent.recycle();
+                }
+
+                // Keep receiving this gesture so the controls see the rest of it
+                return true;
+            }
+        }
+
         return handleMotionEvent(view, event);
     }
 
@@ -2660,8 +2806,15 @@ public class Game extends Activity implements SurfaceHolder.Callback,
             UiHelper.notifyStreamConnecting(Game.this);
 
             decoderRenderer.setRenderTarget(holder);
-            conn.start(new AndroidAudioRenderer(Game.this, prefConfig.enableAudioFx),
-                    decoderRenderer, Game.this);
+            AudioRenderer audioRenderer;
+            if (prefConfig.enableAAudio) {
+                audioRenderer = new AAudioRenderer(Game.this, prefConfig.enableAudioFx);
+            }
+            else {
+                audioRenderer = new AndroidAudioRenderer(Game.this, prefConfig.enableAudioFx);
+            }
+
+            conn.start(audioRenderer, decoderRenderer, Game.this);
         }
     }
 
@@ -2719,7 +2872,7 @@ public class Game extends Activity implements SurfaceHolder.Callback,
 
     @Override
     public void mouseMove(int deltaX, int deltaY) {
-        conn.sendMouseMove((short) deltaX, (short) deltaY);
+        mouseMotionCoalescer.addMotion(deltaX, deltaY, 0);
     }
 
     @Override
@@ -2748,6 +2901,7 @@ public class Game extends Activity implements SurfaceHolder.Callback,
             return;
         }
 
+        mouseMotionCoalescer.flush();
         if (down) {
             conn.sendMouseButtonDown(buttonIndex);
         }
@@ -2758,11 +2912,13 @@ public class Game extends Activity implements SurfaceHolder.Callback,
 
     @Override
     public void mouseVScroll(byte amount) {
+        mouseMotionCoalescer.flush();
         conn.sendMouseScroll(amount);
     }
 
     @Override
     public void mouseHScroll(byte amount) {
+        mouseMotionCoalescer.flush();
         conn.sendMouseHScroll(amount);
     }
 
@@ -2800,16 +2956,6 @@ public class Game extends Activity implements SurfaceHolder.Callback,
         }
     }
 
-    @Override
-    public void onPerfUpdate(final String text) {
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                performanceOverlayView.setText(text);
-            }
-        });
-    }
-
     @Override
     public boolean isPerfOverlayVisible() {
         return requestedPerformanceOverlayVisibility == View.VISIBLE;
@@ -2917,6 +3063,12 @@ public class Game extends Activity implements SurfaceHolder.Callback,
             requestedPerformanceOverlayVisibility = View.VISIBLE;
         }
         performanceOverlayView.setVisibility(requestedPerformanceOverlayVisibility);
+
+        // Only poll for new stats while the overlay is shown
+        perfOverlayHandler.removeCallbacks(updatePerfOverlay);
+        if (requestedPerformanceOverlayVisibility == View.VISIBLE) {
+            perfOverlayHandler.post(updatePerfOverlay);
+        }
     }
 
     public void toggleVirtualController() {
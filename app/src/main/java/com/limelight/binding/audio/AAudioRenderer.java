@@ -0,0 +1,97 @@
+package com.limelight.binding.audio;
+
+import android.content.Context;
+import android.os.Build;
+
+import com.limelight.LimeLog;
+import com.limelight.nvstream.av.audio.AudioRenderer;
+import com.limelight.nvstream.jni.MoonBridge;
+
+import java.nio.ByteBuffer;
+
+// Plays audio through a native AAudio stream which pulls decoded audio straight from the
+// decoder on its own callback thread, avoiding the AudioTrack and Java audio thread entirely.
+// If AAudio can't be used, this falls back to playing audio with AndroidAudioRenderer.
+public class AAudioRenderer implements AudioRenderer {
+    private final AndroidAudioRenderer fallbackRenderer;
+    private final boolean enableAudioFx;
+
+    private boolean usingAAudio;
+
+    public AAudioRenderer(Context context, boolean enableAudioFx) {
+        this.fallbackRenderer = new AndroidAudioRenderer(context, enableAudioFx);
+        this.enableAudioFx = enableAudioFx;
+    }
+
+    public static boolean isSupported() {
+        // AAudio was introduced in Android 8.0, but it had serious bugs until 8.1
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1;
+    }
+
+    @Override
+    public int setup(MoonBridge.AudioConfiguration audioConfiguration, int sampleRate, int samplesPerFrame) {
+        // Audio effects require an AudioTrack session. We also only use AAudio for stereo,
+        // since surround channel masks can't be specified for AAudio streams until Android 12L.
+        if (isSupported() && !enableAudioFx && audioConfiguration.channelCount == 2) {
+            int err = MoonBridge.openAAudioStream(audioConfiguration.channelCount, sampleRate);
+            if (err == 0) {
+                LimeLog.info("Using AAudio for audio playback");
+                usingAAudio = true;
+                return 0;
+            }
+
+            LimeLog.warning("Unable to open AAudio stream: "+err+". Falling back to AudioTrack.");
+        }
+
+        return fallbackRenderer.setup(audioConfiguration, sampleRate, samplesPerFrame);
+    }
+
+    @Override
+    public int getSubmitMode() {
+        return usingAAudio ? MoonBridge.AR_SUBMIT_MODE_NATIVE : fallbackRenderer.getSubmitMode();
+    }
+
+    @Override
+    public void setDirectBuffer(ByteBuffer buffer) {
+        fallbackRenderer.setDirectBuffer(buffer);
+    }
+
+    @Override
+    public void playDecodedAudio(short[] audioData) {
+        fallbackRenderer.playDecodedAudio(audioData);
+    }
+
+    @Override
+    public void start() {
+        if (usingAAudio) {
+            int err = MoonBridge.startAAudioStream();
+            if (err != 0) {
+                LimeLog.severe("Failed to start AAudio stream: "+err);
+            }
+        }
+        else {
+            fallbackRenderer.start();
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (usingAAudio) {
+            MoonBridge.stopAAudioStream();
+        }
+        else {
+            fallbackRenderer.stop();
+        }
+    }
+
+    @Override
+    public void cleanup() {
+        if (usingAAudio) {
+            MoonBridge.closeAAudioStream();
+            usingAAudio = false;
+        }
+        else {
+            fallbackRenderer.cleanup();
+        }
+    }
+}
@@ -8,11 +8,16 @@ import android.media.AudioManager;
 import android.media.AudioTrack;
 import android.media.audiofx.AudioEffect;
 import android.os.Build;
+import android.os.Process;
 
 import com.limelight.LimeLog;
 import com.limelight.nvstream.av.audio.AudioRenderer;
 import com.limelight.nvstream.jni.MoonBridge;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
 public class AndroidAudioRenderer implements AudioRenderer {
 
     private final Context context;
@@ -20,6 +25,18 @@ public class AndroidAudioRenderer implements AudioRenderer {
 
     private AudioTrack track;
 
+    // Decoded audio is shared with the native decoder through this buffer and
+    // written to the AudioTrack by the audio thread.
+    private ByteBuffer decodedAudioBuffer;
+    private ShortBuffer decodedAudioSamples;
+    private Thread audioThread;
+
+    private int channelCount;
+    private int sampleRate;
+    private int samplesPerFrame;
+    private int trackBufferFrames;
+    private AudioLatencyController latencyController;
+
     public AndroidAudioRenderer(Context context, boolean enableAudioFx) {
         this.context = context;
         this.enableAudioFx = enableAudioFx;
@@ -95,6 +112,10 @@ public class AndroidAudioRenderer implements AudioRenderer {
 
         bytesPerFrame = audioConfiguration.channelCount * samplesPerFrame * 2;
 
+        this.channelCount = audioConfiguration.channelCount;
+        this.sampleRate = sampleRate;
+        this.samplesPerFrame = samplesPerFrame;
+
         // We're not supposed to request less than the minimum
         // buffer size for our buffer, but it appears that we can
         // do this on many devices and it lowers audio latency.
@@ -159,11 +180,26 @@ public class AndroidAudioRenderer implements AudioRenderer {
             }
 
             try {
-                track = createAudioTrack(channelConfig, sampleRate, bufferSize, lowLatency);
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N && (i == 0 || i == 2)) {
+                    // Allocate enough capacity to grow the buffer at runtime if we encounter
+                    // underruns, but start with the small buffer size for low latency.
+                    int capacity = Math.max(AudioTrack.getMinBufferSize(sampleRate,
+                            channelConfig,
+                            AudioFormat.ENCODING_PCM_16BIT),
+                            bytesPerFrame * 8);
+                    capacity = (((capacity + (bytesPerFrame - 1)) / bytesPerFrame) * bytesPerFrame);
+
+                    track = createAudioTrack(channelConfig, sampleRate, capacity, lowLatency);
+                    track.setBufferSizeInFrames(bufferSize / (audioConfiguration.channelCount * 2));
+                }
+                else {
+                    track = createAudioTrack(channelConfig, sampleRate, bufferSize, lowLatency);
+                }
                 track.play();
 
                 // Successfully created working AudioTrack. We're done here.
                 LimeLog.info("Audio track configuration: "+bufferSize+" "+lowLatency);
+                trackBufferFrames = bufferSize / (audioConfiguration.channelCount * 2);
                 break;
             } catch (Exception e) {
                 // Try to release the AudioTrack if we got far enough
@@ -199,8 +235,70 @@ public class AndroidAudioRenderer implements AudioRenderer {
         }
     }
 
+    @Override
+    public int getSubmitMode() {
+        return MoonBridge.AR_SUBMIT_MODE_DIRECT_BUFFER;
+    }
+
+    @Override
+    public void setDirectBuffer(ByteBuffer buffer) {
+        decodedAudioBuffer = buffer.order(ByteOrder.nativeOrder());
+        decodedAudioSamples = decodedAudioBuffer.asShortBuffer();
+    }
+
+    private void startAudioThread() {
+        audioThread = new Thread() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+
+                while (!isInterrupted()) {
+                    // The native decoder bounds the amount of queued audio, so we can block here
+                    // without building up unbounded latency.
+                    long decodedAudio = MoonBridge.waitForDecodedAudio(100);
+                    if (decodedAudio < 0) {
+                        continue;
+                    }
+
+                    int offset = (int)(decodedAudio >> 32);
+                    int length = (int)decodedAudio;
+
+                    int compression = latencyController.onPacketDecoded(MoonBridge.getDecodedAudioArrivalTime(),
+                            MoonBridge.getDecodedAudioQueueDepth());
+                    int samplesWritten;
+                    if (compression == 0) {
+                        decodedAudioBuffer.limit(offset + length);
+                        decodedAudioBuffer.position(offset);
+                        samplesWritten = track.write(decodedAudioBuffer, length, AudioTrack.WRITE_BLOCKING) / 2;
+                    }
+                    else {
+                        // We're falling behind, so play a shortened version of this packet
+                        decodedAudioSamples.limit((offset + length) / 2);
+                        decodedAudioSamples.position(offset / 2);
+                        latencyController.compress(decodedAudioSamples, length / 2, compression);
+                        samplesWritten = track.write(latencyController.getOutputSamples(), 0,
+                                latencyController.getOutputSampleCount());
+                    }
+                    if (samplesWritten > 0) {
+                        latencyController.onPacketWritten(samplesWritten / channelCount);
+                    }
+
+                    MoonBridge.releaseDecodedAudio();
+                }
+            }
+        };
+        audioThread.setName("Audio - Renderer");
+        audioThread.start();
+    }
+
     @Override
     public void start() {
+        if (decodedAudioBuffer != null) {
+            latencyController = new AudioLatencyController(track, channelCount, sampleRate, samplesPerFrame,
+                    decodedAudioBuffer.capacity() / (channelCount * samplesPerFrame * 2), trackBufferFrames);
+            startAudioThread();
+        }
+
         if (enableAudioFx) {
             // Open an audio effect control session to allow equalizers to apply audio effects
             Intent i = new Intent(AudioEffect.ACTION_OPEN_AUDIO_EFFECT_CONTROL_SESSION);
@@ -213,6 +311,21 @@ public class AndroidAudioRenderer implements AudioRenderer {
 
     @Override
     public void stop() {
+        if (audioThread != null) {
+            audioThread.interrupt();
+
+            try {
+                audioThread.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+
+                // InterruptedException clears the thread's interrupt status. Since we can't
+                // handle that here, we will re-interrupt the thread to set the interrupt
+                // status back to true.
+                Thread.currentThread().interrupt();
+            }
+        }
+
         if (enableAudioFx) {
             // Close our audio effect control session when we're stopping
             Intent i = new Intent(AudioEffect.ACTION_CLOSE_AUDIO_EFFECT_CONTROL_SESSION);
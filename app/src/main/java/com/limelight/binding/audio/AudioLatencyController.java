@@ -0,0 +1,233 @@
+package com.limelight.binding.audio;
+
+import android.annotation.TargetApi;
+import android.media.AudioTrack;
+import android.os.Build;
+import android.os.SystemClock;
+
+import com.limelight.LimeLog;
+import com.limelight.nvstream.jni.MoonBridge;
+
+import java.nio.ShortBuffer;
+
+// Adapts the amount of audio buffered for playback to current network conditions.
+//
+// On Android 7.0 and later, the AudioTrack buffer size is grown by one packet each time the
+// track underruns, and is shrunk again by one packet after a quiet period if the measured packet
+// arrival jitter leaves enough headroom. This converges on the lowest buffer size that plays
+// without glitches on the current network.
+//
+// On all versions, the total latency of decoded audio is measured as the packets queued by the
+// decoder plus the frames written to the AudioTrack that its playback position hasn't reached
+// yet. Whenever that exceeds the track's buffer size plus an allowance for jitter, the excess is
+// shed by time-compressing packets rather than dropping them whole, which is much less audible.
+// The decoder only drops packets once the queue is beyond what compression can catch up on.
+class AudioLatencyController {
+    // How long to go without an underrun before trying a smaller buffer
+    private static final int SHRINK_INTERVAL_MS = 5000;
+
+    // Time compression applied to each packet while audio is backed up, in 1/256ths
+    private static final int COMPRESSION_LIGHT = 32; // 12.5%
+    private static final int COMPRESSION_HEAVY = 64; // 25%
+
+    private final AudioTrack track;
+    private final int channelCount;
+    private final int samplesPerPacket;
+    private final float packetDurationMs;
+
+    private final int queuedPacketLimit;
+
+    // Latency beyond the target (in packets) that triggers heavy compression
+    private final int heavyCompressionExcess;
+
+    // Frames written to the AudioTrack. This wraps like its playback head position does.
+    private int framesWritten;
+    private int decodedAudioQueueLimit;
+
+    private int minBufferFrames;
+    private int maxBufferFrames;
+    private int bufferFrames;
+    private int lastUnderrunCount;
+    private long lastBufferChangeTimeMs;
+
+    // Smoothed packet inter-arrival jitter, as in RFC 3550
+    private long lastArrivalTimeMs;
+    private float jitterMs;
+
+    private final short[] inputSamples;
+    private final short[] outputSamples;
+    private int outputSampleCount;
+
+    // trackBufferFrames is the size of the AudioTrack's buffer, which can only be queried or
+    // changed on newer versions of Android
+    AudioLatencyController(AudioTrack track, int channelCount, int sampleRate, int samplesPerPacket,
+                           int queuedPacketLimit, int trackBufferFrames) {
+        this.track = track;
+        this.channelCount = channelCount;
+        this.samplesPerPacket = samplesPerPacket;
+        this.packetDurationMs = (samplesPerPacket * 1000.0f) / sampleRate;
+        this.queuedPacketLimit = queuedPacketLimit;
+        this.bufferFrames = trackBufferFrames;
+
+        // Any packet beyond the target triggers light compression. With 10 ms packets the
+        // decoder only queues 4 of them, so the heavy threshold must scale with its size.
+        this.heavyCompressionExcess = Math.max(2, queuedPacketLimit / 2);
+        this.decodedAudioQueueLimit = queuedPacketLimit;
+
+        this.inputSamples = new short[channelCount * samplesPerPacket];
+        this.outputSamples = new short[channelCount * samplesPerPacket];
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            initializeBufferSize();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.N)
+    private void initializeBufferSize() {
+        // Never go below 2 packets, since that's where setup() starts
+        minBufferFrames = Math.min(samplesPerPacket * 2, track.getBufferCapacityInFrames());
+        maxBufferFrames = track.getBufferCapacityInFrames();
+        bufferFrames = track.getBufferSizeInFrames();
+        lastUnderrunCount = track.getUnderrunCount();
+        lastBufferChangeTimeMs = SystemClock.uptimeMillis();
+
+        LimeLog.info("Audio buffer size: "+bufferFrames+" frames (capacity: "+maxBufferFrames+")");
+    }
+
+    @TargetApi(Build.VERSION_CODES.N)
+    private void setBufferSize(int frames) {
+        int actualFrames = track.setBufferSizeInFrames(frames);
+        if (actualFrames > 0) {
+            bufferFrames = actualFrames;
+        }
+        lastBufferChangeTimeMs = SystemClock.uptimeMillis();
+    }
+
+    @TargetApi(Build.VERSION_CODES.N)
+    private void adjustBufferSize() {
+        long now = SystemClock.uptimeMillis();
+        int underrunCount = track.getUnderrunCount();
+
+        if (underrunCount != lastUnderrunCount) {
+            lastUnderrunCount = underrunCount;
+
+            if (bufferFrames < maxBufferFrames) {
+                setBufferSize(Math.min(bufferFrames + samplesPerPacket, maxBufferFrames));
+                LimeLog.info("Audio underrun; increasing buffer size to "+bufferFrames+" frames");
+            }
+            else {
+                lastBufferChangeTimeMs = now;
+            }
+        }
+        else if (now - lastBufferChangeTimeMs >= SHRINK_INTERVAL_MS && bufferFrames > minBufferFrames) {
+            // Only shrink if the buffer would still absorb twice the current jitter
+            int jitterFrames = getJitterFrames();
+            int newBufferFrames = Math.max(bufferFrames - samplesPerPacket, minBufferFrames);
+            if (newBufferFrames >= jitterFrames) {
+                setBufferSize(newBufferFrames);
+                LimeLog.info("Audio stable; decreasing buffer size to "+bufferFrames+" frames");
+            }
+            else {
+                lastBufferChangeTimeMs = now;
+            }
+        }
+    }
+
+    // Returns the number of frames needed to absorb twice the current jitter
+    private int getJitterFrames() {
+        return (int)(2 * jitterMs * samplesPerPacket / packetDurationMs);
+    }
+
+    // Lets the decoder queue enough packets to absorb jitter and to be caught up on by heavy
+    // compression, and drop anything beyond that
+    private void updateDecodedAudioQueueLimit(int jitterFrames) {
+        int jitterPackets = (jitterFrames + samplesPerPacket - 1) / samplesPerPacket;
+        int limit = Math.max(2, Math.min(queuedPacketLimit, jitterPackets + heavyCompressionExcess + 1));
+        if (limit != decodedAudioQueueLimit) {
+            decodedAudioQueueLimit = limit;
+            MoonBridge.setDecodedAudioQueueLimit(limit);
+        }
+    }
+
+    // Called on the audio thread for each decoded packet before it's written to the AudioTrack.
+    // arrivalTimeMs is when the packet was received from the network, since the audio thread
+    // itself is paced by blocking AudioTrack writes and can't observe network timing.
+    // Returns the amount of time compression to apply to the packet, in 1/256ths.
+    int onPacketDecoded(long arrivalTimeMs, int queuedPackets) {
+        if (lastArrivalTimeMs != 0) {
+            float deviation = Math.abs((arrivalTimeMs - lastArrivalTimeMs) - packetDurationMs);
+            jitterMs += (deviation - jitterMs) / 16;
+        }
+        lastArrivalTimeMs = arrivalTimeMs;
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            adjustBufferSize();
+        }
+
+        int jitterFrames = getJitterFrames();
+        updateDecodedAudioQueueLimit(jitterFrames);
+
+        // Frames the AudioTrack hasn't played yet. This includes any excess left over after its
+        // buffer was shrunk, or that built up in a buffer we can't resize.
+        int trackQueuedFrames = Math.max(0, framesWritten - track.getPlaybackHeadPosition());
+
+        // If more audio is queued than the AudioTrack's buffer plus the jitter allowance, we're
+        // falling behind real time. Shed that latency gradually before the decoder has to drop
+        // whole packets.
+        int excessFrames = (queuedPackets * samplesPerPacket) + trackQueuedFrames - (bufferFrames + jitterFrames);
+        if (excessFrames >= heavyCompressionExcess * samplesPerPacket) {
+            return COMPRESSION_HEAVY;
+        }
+        else if (excessFrames >= samplesPerPacket) {
+            return COMPRESSION_LIGHT;
+        }
+        else {
+            return 0;
+        }
+    }
+
+    // Called on the audio thread after each packet is written to the AudioTrack
+    void onPacketWritten(int frames) {
+        framesWritten += frames;
+    }
+
+    // Reads a packet of interleaved 16-bit samples from pcmData, and resamples it to be shorter
+    // by the specified compression (in 1/256ths). The result is available via getOutputSamples().
+    void compress(ShortBuffer pcmData, int sampleCount, int compression) {
+        int inputFrames = sampleCount / channelCount;
+        int outputFrames = Math.max(1, inputFrames - ((inputFrames * compression) >> 8));
+
+        pcmData.get(inputSamples, 0, sampleCount);
+
+        if (outputFrames == 1 || inputFrames == 1) {
+            System.arraycopy(inputSamples, 0, outputSamples, 0, channelCount);
+            outputSampleCount = channelCount;
+            return;
+        }
+
+        // Linearly interpolate between input frames in 16.16 fixed point
+        long step = ((long)(inputFrames - 1) << 16) / (outputFrames - 1);
+        long position = 0;
+        for (int i = 0; i < outputFrames; i++, position += step) {
+            int index = (int)(position >> 16);
+            int fraction = (int)(position & 0xFFFF);
+            int nextIndex = Math.min(index + 1, inputFrames - 1);
+
+            for (int ch = 0; ch < channelCount; ch++) {
+                int a = inputSamples[index * channelCount + ch];
+                int b = inputSamples[nextIndex * channelCount + ch];
+                outputSamples[i * channelCount + ch] = (short)(a + (int)(((long)(b - a) * fraction) >> 16));
+            }
+        }
+
+        outputSampleCount = outputFrames * channelCount;
+    }
+
+    short[] getOutputSamples() {
+        return outputSamples;
+    }
+
+    int getOutputSampleCount() {
+        return outputSampleCount;
+    }
+}
@@ -8,6 +8,7 @@ import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
+import android.hardware.display.DisplayManager;
 import android.hardware.input.InputManager;
 import android.hardware.lights.Light;
 import android.hardware.lights.LightState;
@@ -26,6 +27,7 @@ import android.os.VibrationEffect;
 import android.os.Vibrator;
 import android.os.VibratorManager;
 import android.util.SparseArray;
+import android.view.Display;
 import android.view.InputDevice;
 import android.view.InputEvent;
 import android.view.KeyEvent;
@@ -54,6 +56,7 @@ import org.cgutman.shieldcontrollerextensions.SceManager;
 import java.lang.reflect.InvocationTargetException;
 import java.util.Map;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 public class ControllerHandler implements InputManager.InputDeviceListener, UsbDriverListener {
@@ -72,6 +75,9 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
 
     private static final int BATTERY_RECHECK_INTERVAL_MS = 120 * 1000;
 
+    // Sensor sampling is restricted to <= 200 Hz without the HIGH_SAMPLING_RATE_SENSORS permission
+    private static final int MAX_MOTION_SAMPLING_RATE_HZ = 200;
+
     private static final Map<Integer, Integer> ANDROID_TO_LI_BUTTON_MAP = Map.ofEntries(
             Map.entry(KeyEvent.KEYCODE_BUTTON_A, ControllerPacket.A_FLAG),
             Map.entry(KeyEvent.KEYCODE_BUTTON_B, ControllerPacket.B_FLAG),
@@ -112,6 +118,12 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
     private final SparseArray<InputDeviceContext> inputDeviceContexts = new SparseArray<>();
     private final SparseArray<UsbDeviceContext> usbDeviceContexts = new SparseArray<>();
 
+    // Contexts sharing each controller number, so sending input only needs to look at the
+    // contexts that will be merged into the packet. This is rebuilt lazily whenever
+    // contexts are added, removed, or assigned a controller number.
+    private final ControllerAggregate[] controllerAggregates = new ControllerAggregate[MAX_GAMEPADS];
+    private volatile boolean controllerAggregatesDirty = true;
+
     private final NvConnection conn;
     private final Activity activityContext;
     private final double stickDeadzone;
@@ -125,18 +137,40 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
     private final Handler mainThreadHandler;
     private final HandlerThread backgroundHandlerThread;
     private final Handler backgroundThreadHandler;
+    private final DisplayManager displayManager;
     private boolean hasGameController;
+
+    // Rotation of the display, used to remap device motion sensor axes. This is cached rather
+    // than queried for every sensor event, since that requires a binder call.
+    private volatile int deviceRotation;
+    private final DisplayManager.DisplayListener displayListener = new DisplayManager.DisplayListener() {
+        @Override
+        public void onDisplayAdded(int displayId) {}
+
+        @Override
+        public void onDisplayRemoved(int displayId) {}
+
+        @Override
+        public void onDisplayChanged(int displayId) {
+            // A 180 degree rotation doesn't cause a configuration change, so we
+            // must listen for display changes rather than configuration changes.
+            updateDeviceRotation();
+        }
+    };
     private boolean stopped = false;
     private boolean oscArrivalSent = false;
 
     private final PreferenceConfiguration prefConfig;
+    private final InputLatencyTracker latencyTracker;
     private short currentControllers, initialControllers;
 
-    public ControllerHandler(Activity activityContext, NvConnection conn, GameGestures gestures, PreferenceConfiguration prefConfig) {
+    public ControllerHandler(Activity activityContext, NvConnection conn, GameGestures gestures, PreferenceConfiguration prefConfig,
+                             InputLatencyTracker latencyTracker) {
         this.activityContext = activityContext;
         this.conn = conn;
         this.gestures = gestures;
         this.prefConfig = prefConfig;
+        this.latencyTracker = latencyTracker;
         this.deviceVibrator = (Vibrator) activityContext.getSystemService(Context.VIBRATOR_SERVICE);
         this.deviceSensorManager = (SensorManager) activityContext.getSystemService(Context.SENSOR_SERVICE);
         this.inputManager = (InputManager) activityContext.getSystemService(Context.INPUT_SERVICE);
@@ -148,6 +182,10 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
         this.backgroundHandlerThread.start();
         this.backgroundThreadHandler = new Handler(backgroundHandlerThread.getLooper());
 
+        this.displayManager = (DisplayManager) activityContext.getSystemService(Context.DISPLAY_SERVICE);
+        updateDeviceRotation();
+        this.displayManager.registerDisplayListener(displayListener, backgroundThreadHandler);
+
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
             this.deviceVibratorManager = (VibratorManager) activityContext.getSystemService(Context.VIBRATOR_MANAGER_SERVICE);
         }
@@ -242,6 +280,7 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
             releaseControllerNumber(context);
             context.destroy();
             inputDeviceContexts.remove(deviceId);
+            controllerAggregatesDirty = true;
         }
     }
 
@@ -266,6 +305,7 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
         InputDeviceContext newContext = createInputDeviceContextForDevice(device);
         newContext.migrateContext(existingContext);
         inputDeviceContexts.put(deviceId, newContext);
+        controllerAggregatesDirty = true;
     }
 
     public void stop() {
@@ -301,9 +341,15 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
         }
 
         sceManager.stop();
+        displayManager.unregisterDisplayListener(displayListener);
         backgroundHandlerThread.quit();
     }
 
+    private void updateDeviceRotation() {
+        Display display = activityContext.getWindowManager().getDefaultDisplay();
+        deviceRotation = display.getRotation();
+    }
+
     public void disableSensors() {
         for (int i = 0; i < inputDeviceContexts.size(); i++) {
             InputDeviceContext deviceContext = inputDeviceContexts.valueAt(i);
@@ -430,6 +476,10 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
                     (short) 0, (short) 0,
                     (short) 0, (short) 0);
         }
+
+        // This also forgets the input last sent for each controller, since we just sent
+        // input that bypassed change detection.
+        controllerAggregatesDirty = true;
     }
 
     private boolean isAssociatedJoystick(InputDevice originalDevice, InputDevice possibleAssociatedJoystick) {
@@ -565,6 +615,7 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
 
         LimeLog.info("Assigned as controller "+context.controllerNumber);
         context.assignedControllerNumber = true;
+        controllerAggregatesDirty = true;
 
         // Report attributes of this new controller to the host
         context.sendControllerArrival();
@@ -1202,7 +1253,8 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
         }
     }
 
-    private void sendControllerInputPacket(GenericControllerContext originalContext) {
+    // Returns true if any input was sent to the host
+    private boolean sendControllerInputPacket(GenericControllerContext originalContext) {
         assignControllerNumberIfNeeded(originalContext);
 
         // Take the context's controller number and fuse all inputs with the same number
@@ -1218,28 +1270,13 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
         // In order to properly handle controllers that are split into multiple devices,
         // we must aggregate all controllers with the same controller number into a single
         // device before we send it.
-        for (int i = 0; i < inputDeviceContexts.size(); i++) {
-            GenericControllerContext context = inputDeviceContexts.valueAt(i);
-            if (context.assignedControllerNumber &&
-                    context.controllerNumber == controllerNumber &&
-                    context.mouseEmulationActive == originalContext.mouseEmulationActive) {
-                inputMap |= context.inputMap;
-                leftTrigger |= maxByMagnitude(leftTrigger, context.leftTrigger);
-                rightTrigger |= maxByMagnitude(rightTrigger, context.rightTrigger);
-                leftStickX |= maxByMagnitude(leftStickX, context.leftStickX);
-                leftStickY |= maxByMagnitude(leftStickY, context.leftStickY);
-                rightStickX |= maxByMagnitude(rightStickX, context.rightStickX);
-                rightStickY |= maxByMagnitude(rightStickY, context.rightStickY);
-            }
-        }
-        for (int i = 0; i < usbDeviceContexts.size(); i++) {
-            GenericControllerContext context = usbDeviceContexts.valueAt(i);
-            if (context.assignedControllerNumber &&
-                    context.controllerNumber == controllerNumber &&
-                    context.mouseEmulationActive == originalContext.mouseEmulationActive) {
-                inputMap |= context.inputMap;
-                leftTrigger |= maxByMagnitude(leftTrigger, context.leftTrigger);
-                rightTrigger |= maxByMagnitude(rightTrigger, context.rightTrigger);
+        ControllerAggregate aggregate = getControllerAggregate(controllerNumber);
+        for (int i = 0; i < aggregate.contextCount; i++) {
+            GenericControllerContext context = aggregate.contexts[i];
+            if (context.mouseEmulationActive == originalContext.mouseEmulationActive) {
+                inputMap |= context.inputMap | context.heldInputMap;
+                leftTrigger |= maxByMagnitude(leftTrigger, maxByMagnitude(context.leftTrigger, context.heldLeftTrigger));
+                rightTrigger |= maxByMagnitude(rightTrigger, maxByMagnitude(context.rightTrigger, context.heldRightTrigger));
                 leftStickX |= maxByMagnitude(leftStickX, context.leftStickX);
                 leftStickY |= maxByMagnitude(leftStickY, context.leftStickY);
                 rightStickX |= maxByMagnitude(rightStickX, context.rightStickX);
@@ -1247,9 +1284,9 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
             }
         }
         if (defaultContext.controllerNumber == controllerNumber) {
-            inputMap |= defaultContext.inputMap;
-            leftTrigger |= maxByMagnitude(leftTrigger, defaultContext.leftTrigger);
-            rightTrigger |= maxByMagnitude(rightTrigger, defaultContext.rightTrigger);
+            inputMap |= defaultContext.inputMap | defaultContext.heldInputMap;
+            leftTrigger |= maxByMagnitude(leftTrigger, maxByMagnitude(defaultContext.leftTrigger, defaultContext.heldLeftTrigger));
+            rightTrigger |= maxByMagnitude(rightTrigger, maxByMagnitude(defaultContext.rightTrigger, defaultContext.heldRightTrigger));
             leftStickX |= maxByMagnitude(leftStickX, defaultContext.leftStickX);
             leftStickY |= maxByMagnitude(leftStickY, defaultContext.leftStickY);
             rightStickX |= maxByMagnitude(rightStickX, defaultContext.rightStickX);
@@ -1258,6 +1295,7 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
 
         if (originalContext.mouseEmulationActive) {
             int changedMask = inputMap ^  originalContext.mouseEmulationLastInputMap;
+            boolean sentInput = false;
 
             boolean aDown = (inputMap & ControllerPacket.A_FLAG) != 0;
             boolean bDown = (inputMap & ControllerPacket.B_FLAG) != 0;
@@ -1271,6 +1309,7 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
                 else {
                     conn.sendMouseButtonUp(MouseButtonPacket.BUTTON_LEFT);
                 }
+                sentInput = true;
             }
             if ((changedMask & ControllerPacket.B_FLAG) != 0) {
                 if (bDown) {
@@ -1279,37 +1318,106 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
                 else {
                     conn.sendMouseButtonUp(MouseButtonPacket.BUTTON_RIGHT);
                 }
+                sentInput = true;
             }
             if ((changedMask & ControllerPacket.UP_FLAG) != 0) {
                 if ((inputMap & ControllerPacket.UP_FLAG) != 0) {
                     conn.sendMouseScroll((byte) 1);
+                    sentInput = true;
                 }
             }
             if ((changedMask & ControllerPacket.DOWN_FLAG) != 0) {
                 if ((inputMap & ControllerPacket.DOWN_FLAG) != 0) {
                     conn.sendMouseScroll((byte) -1);
+                    sentInput = true;
                 }
             }
             if ((changedMask & ControllerPacket.RIGHT_FLAG) != 0) {
                 if ((inputMap & ControllerPacket.RIGHT_FLAG) != 0) {
                     conn.sendMouseHScroll((byte) 1);
+                    sentInput = true;
                 }
             }
             if ((changedMask & ControllerPacket.LEFT_FLAG) != 0) {
                 if ((inputMap & ControllerPacket.LEFT_FLAG) != 0) {
                     conn.sendMouseHScroll((byte) -1);
+                    sentInput = true;
                 }
             }
 
-            conn.sendControllerInput(controllerNumber, getActiveControllerMask(),
+            sentInput |= sendControllerInputIfChanged(aggregate, controllerNumber,
                     (short)0, (byte)0, (byte)0, (short)0, (short)0, (short)0, (short)0);
+            return sentInput;
         }
         else {
-            conn.sendControllerInput(controllerNumber, getActiveControllerMask(),
+            return sendControllerInputIfChanged(aggregate, controllerNumber,
+                    inputMap,
+                    leftTrigger, rightTrigger,
+                    leftStickX, leftStickY,
+                    rightStickX, rightStickY);
+        }
+    }
+
+    private boolean sendControllerInputIfChanged(ControllerAggregate aggregate, short controllerNumber,
+                                              int inputMap, byte leftTrigger, byte rightTrigger,
+                                              short leftStickX, short leftStickY,
+                                              short rightStickX, short rightStickY) {
+        short activeMask = getActiveControllerMask();
+
+        // Many events don't change the aggregate state (axis movement within the deadzone,
+        // buttons already held on another device with this number, etc), so don't send
+        // a duplicate packet for those.
+        //
+        // USB controllers send from their own threads, so the packet is sent under the same
+        // lock as the last sent state. Otherwise two threads could record their states in one
+        // order and send them in the other, leaving the host with a state we think is stale.
+        // If this thread is batching input, the batch must be flushed before the lock is
+        // released for the same reason, since USB controller threads never batch.
+        synchronized (controllerAggregates) {
+            if (!aggregate.updateSentInput(activeMask, inputMap, leftTrigger, rightTrigger,
+                    leftStickX, leftStickY, rightStickX, rightStickY)) {
+                return false;
+            }
+
+            conn.sendControllerInput(controllerNumber, activeMask,
                     inputMap,
                     leftTrigger, rightTrigger,
                     leftStickX, leftStickY,
                     rightStickX, rightStickY);
+            conn.flushInputBatch();
+            return true;
+        }
+    }
+
+    // USB controllers report input on their own threads, so this may be called concurrently
+    private ControllerAggregate getControllerAggregate(short controllerNumber) {
+        synchronized (controllerAggregates) {
+            if (controllerAggregatesDirty) {
+                controllerAggregatesDirty = false;
+
+                for (int i = 0; i < MAX_GAMEPADS; i++) {
+                    if (controllerAggregates[i] == null) {
+                        controllerAggregates[i] = new ControllerAggregate();
+                    }
+                    controllerAggregates[i].reset();
+                }
+
+                // The defaultContext is handled separately by sendControllerInputPacket()
+                for (int i = 0; i < inputDeviceContexts.size(); i++) {
+                    GenericControllerContext context = inputDeviceContexts.valueAt(i);
+                    if (context.assignedControllerNumber && context.controllerNumber < MAX_GAMEPADS) {
+                        controllerAggregates[context.controllerNumber].addContext(context);
+                    }
+                }
+                for (int i = 0; i < usbDeviceContexts.size(); i++) {
+                    GenericControllerContext context = usbDeviceContexts.valueAt(i);
+                    if (context.assignedControllerNumber && context.controllerNumber < MAX_GAMEPADS) {
+                        controllerAggregates[context.controllerNumber].addContext(context);
+                    }
+                }
+            }
+
+            return controllerAggregates[controllerNumber];
         }
     }
 
@@ -1661,6 +1769,7 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
             }
         }
 
+        releaseRepressedHeldButtons(context);
         sendControllerInputPacket(context);
     }
 
@@ -2149,88 +2258,147 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
         }
     }
 
-    private SensorEventListener createSensorListener(final short controllerNumber, final byte motionType, final boolean needsDeviceOrientationCorrection) {
-        return new SensorEventListener() {
-            private float[] lastValues = new float[3];
+    // Forwards motion sensor samples to the host at the report rate it requested. All samples
+    // within a report period are averaged into a single motion event. Periods are measured
+    // with the sensor timestamps, so batched samples are still reported at the right cadence.
+    private class MotionSensorListener implements SensorEventListener {
+        private final short controllerNumber;
+        private final byte motionType;
+        private final boolean needsDeviceOrientationCorrection;
+        private final long reportPeriodNs;
 
-            @Override
-            public void onSensorChanged(SensorEvent sensorEvent) {
-                // Android will invoke our callback any time we get a new reading,
-                // even if the values are the same as last time. Don't report a
-                // duplicate set of values to save bandwidth.
-                if (sensorEvent.values[0] == lastValues[0] &&
-                        sensorEvent.values[1] == lastValues[1] &&
-                        sensorEvent.values[2] == lastValues[2]) {
-                    return;
-                }
-                else {
-                    lastValues[0] = sensorEvent.values[0];
-                    lastValues[1] = sensorEvent.values[1];
-                    lastValues[2] = sensorEvent.values[2];
-                }
-
-                int x = 0;
-                int y = 1;
-                int z = 2;
-                int xFactor = 1;
-                int yFactor = 1;
-                int zFactor = 1;
-
-                if (needsDeviceOrientationCorrection) {
-                    int deviceRotation = activityContext.getWindowManager().getDefaultDisplay().getRotation();
-                    switch (deviceRotation) {
-                        case Surface.ROTATION_0:
-                        case Surface.ROTATION_180:
-                            x = 0;
-                            y = 2;
-                            z = 1;
-                            break;
-
-                        case Surface.ROTATION_90:
-                        case Surface.ROTATION_270:
-                            x = 1;
-                            y = 2;
-                            z = 0;
-                            break;
-                    }
+        private final float[] sums = new float[3];
+        private final float[] values = new float[3];
+        private int sampleCount;
+        private long periodStartNs = Long.MIN_VALUE;
+        private final float[] lastValues = new float[3];
 
-                    switch (deviceRotation) {
-                        case Surface.ROTATION_0:
-                            zFactor = -1;
-                            break;
-                        case Surface.ROTATION_90:
-                            xFactor = -1;
-                            zFactor = -1;
-                            break;
-                        case Surface.ROTATION_180:
-                            xFactor = -1;
-                            break;
-                        case Surface.ROTATION_270:
-                            break;
-                    }
+        MotionSensorListener(short controllerNumber, byte motionType, boolean needsDeviceOrientationCorrection, short reportRateHz) {
+            this.controllerNumber = controllerNumber;
+            this.motionType = motionType;
+            this.needsDeviceOrientationCorrection = needsDeviceOrientationCorrection;
+            this.reportPeriodNs = 1000000000L / reportRateHz;
+        }
+
+        @Override
+        public void onSensorChanged(SensorEvent sensorEvent) {
+            sums[0] += sensorEvent.values[0];
+            sums[1] += sensorEvent.values[1];
+            sums[2] += sensorEvent.values[2];
+            sampleCount++;
+
+            if (periodStartNs == Long.MIN_VALUE) {
+                // Report the first sample immediately
+                periodStartNs = sensorEvent.timestamp;
+            }
+            else if (sensorEvent.timestamp - periodStartNs >= reportPeriodNs) {
+                // Advance by a whole period to keep a steady cadence, unless
+                // we've fallen so far behind that we need to start over.
+                periodStartNs += reportPeriodNs;
+                if (sensorEvent.timestamp - periodStartNs >= reportPeriodNs) {
+                    periodStartNs = sensorEvent.timestamp;
                 }
+            }
+            else {
+                // Wait for the rest of this period's samples
+                return;
+            }
+
+            values[0] = sums[0] / sampleCount;
+            values[1] = sums[1] / sampleCount;
+            values[2] = sums[2] / sampleCount;
+            sums[0] = sums[1] = sums[2] = 0;
+            sampleCount = 0;
 
-                if (motionType == MoonBridge.LI_MOTION_TYPE_GYRO) {
-                    // Convert from rad/s to deg/s
-                    conn.sendControllerMotionEvent((byte) controllerNumber,
-                            motionType,
-                            sensorEvent.values[x] * xFactor * 57.2957795f,
-                            sensorEvent.values[y] * yFactor * 57.2957795f,
-                            sensorEvent.values[z] * zFactor * 57.2957795f);
+            // Android will invoke our callback any time we get a new reading,
+            // even if the values are the same as last time. Don't report a
+            // duplicate set of values to save bandwidth.
+            if (values[0] == lastValues[0] &&
+                    values[1] == lastValues[1] &&
+                    values[2] == lastValues[2]) {
+                return;
+            }
+            else {
+                lastValues[0] = values[0];
+                lastValues[1] = values[1];
+                lastValues[2] = values[2];
+            }
+
+            int x = 0;
+            int y = 1;
+            int z = 2;
+            int xFactor = 1;
+            int yFactor = 1;
+            int zFactor = 1;
+
+            if (needsDeviceOrientationCorrection) {
+                int deviceRotation = ControllerHandler.this.deviceRotation;
+                switch (deviceRotation) {
+                    case Surface.ROTATION_0:
+                    case Surface.ROTATION_180:
+                        x = 0;
+                        y = 2;
+                        z = 1;
+                        break;
+
+                    case Surface.ROTATION_90:
+                    case Surface.ROTATION_270:
+                        x = 1;
+                        y = 2;
+                        z = 0;
+                        break;
                 }
-                else {
-                    // Pass m/s^2 directly without conversion
-                    conn.sendControllerMotionEvent((byte) controllerNumber,
-                            motionType,
-                            sensorEvent.values[x] * xFactor,
-                            sensorEvent.values[y] * yFactor,
-                            sensorEvent.values[z] * zFactor);
+
+                switch (deviceRotation) {
+                    case Surface.ROTATION_0:
+                        zFactor = -1;
+                        break;
+                    case Surface.ROTATION_90:
+                        xFactor = -1;
+                        zFactor = -1;
+                        break;
+                    case Surface.ROTATION_180:
+                        xFactor = -1;
+                        break;
+                    case Surface.ROTATION_270:
+                        break;
                 }
             }
 
-            @Override
-            public void onAccuracyChanged(Sensor sensor, int accuracy) {}
-        };
+            if (motionType == MoonBridge.LI_MOTION_TYPE_GYRO) {
+                // Convert from rad/s to deg/s
+                conn.sendControllerMotionEvent((byte) controllerNumber,
+                        motionType,
+                        values[x] * xFactor * 57.2957795f,
+                        values[y] * yFactor * 57.2957795f,
+                        values[z] * zFactor * 57.2957795f);
+            }
+            else {
+                // Pass m/s^2 directly without conversion
+                conn.sendControllerMotionEvent((byte) controllerNumber,
+                        motionType,
+                        values[x] * xFactor,
+                        values[y] * yFactor,
+                        values[z] * zFactor);
+            }
+
+            latencyTracker.recordSensorEvent(sensorEvent);
+        }
+
+        @Override
+        public void onAccuracyChanged(Sensor sensor, int accuracy) {}
+    }
+
+    private SensorEventListener registerMotionSensorListener(SensorManager sm, Sensor sensor, short controllerNumber,
+                                                             byte motionType, boolean needsDeviceOrientationCorrection,
+                                                             short reportRateHz) {
+        SensorEventListener listener = new MotionSensorListener(controllerNumber, motionType, needsDeviceOrientationCorrection, reportRateHz);
+
+        // Sample at up to twice the report rate, so each report averages out some noise. Samples
+        // may be batched by the sensor hub for up to one report period to reduce wakeups.
+        int samplingRateHz = Math.min(MAX_MOTION_SAMPLING_RATE_HZ, reportRateHz * 2);
+        sm.registerListener(listener, sensor, 1000000 / samplingRateHz, 1000000 / reportRateHz, backgroundThreadHandler);
+        return listener;
     }
 
     public void handleSetMotionEventState(final short controllerNumber, final byte motionType, short reportRateHz) {
@@ -2238,8 +2406,7 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
             return;
         }
 
-        // Report rate is restricted to <= 200 Hz without the HIGH_SAMPLING_RATE_SENSORS permission
-        reportRateHz = (short) Math.min(200, reportRateHz);
+        reportRateHz = (short) Math.min(MAX_MOTION_SAMPLING_RATE_HZ, reportRateHz);
 
         for (int i = 0; i < inputDeviceContexts.size(); i++) {
             InputDeviceContext deviceContext = inputDeviceContexts.valueAt(i);
@@ -2275,8 +2442,8 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
                         // Enable the accelerometer if requested
                         Sensor accelSensor = sm.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
                         if (reportRateHz != 0 && accelSensor != null) {
-                            deviceContext.accelListener = createSensorListener(controllerNumber, motionType, sm == deviceSensorManager);
-                            sm.registerListener(deviceContext.accelListener, accelSensor, 1000000 / reportRateHz);
+                            deviceContext.accelListener = registerMotionSensorListener(sm, accelSensor, controllerNumber,
+                                    motionType, sm == deviceSensorManager, reportRateHz);
                         }
                         break;
                     case MoonBridge.LI_MOTION_TYPE_GYRO:
@@ -2288,8 +2455,8 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
                         // Enable the gyroscope if requested
                         Sensor gyroSensor = sm.getDefaultSensor(Sensor.TYPE_GYROSCOPE);
                         if (reportRateHz != 0 && gyroSensor != null) {
-                            deviceContext.gyroListener = createSensorListener(controllerNumber, motionType, sm == deviceSensorManager);
-                            sm.registerListener(deviceContext.gyroListener, gyroSensor, 1000000 / reportRateHz);
+                            deviceContext.gyroListener = registerMotionSensorListener(sm, gyroSensor, controllerNumber,
+                                    motionType, sm == deviceSensorManager, reportRateHz);
                         }
                         break;
                 }
@@ -2321,8 +2488,8 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
 
                     Sensor accelSensor = sm.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
                     if (reportRateHz != 0 && accelSensor != null) {
-                        defaultContext.accelListener = createSensorListener(controllerNumber, motionType, true);
-                        sm.registerListener(defaultContext.accelListener, accelSensor, 1000000 / reportRateHz);
+                        defaultContext.accelListener = registerMotionSensorListener(sm, accelSensor, controllerNumber,
+                                motionType, true, reportRateHz);
                     }
                     break;
                 case MoonBridge.LI_MOTION_TYPE_GYRO:
@@ -2333,8 +2500,8 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
 
                     Sensor gyroSensor = sm.getDefaultSensor(Sensor.TYPE_GYROSCOPE);
                     if (reportRateHz != 0 && gyroSensor != null) {
-                        defaultContext.gyroListener = createSensorListener(controllerNumber, motionType, true);
-                        sm.registerListener(defaultContext.gyroListener, gyroSensor, 1000000 / reportRateHz);
+                        defaultContext.gyroListener = registerMotionSensorListener(sm, gyroSensor, controllerNumber,
+                                motionType, true, reportRateHz);
                     }
                     break;
             }
@@ -2391,25 +2558,9 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
             keyCode = handleFlipFaceButtons(keyCode);
         }
 
-        // If the button hasn't been down long enough, sleep for a bit before sending the up event
-        // This allows "instant" button presses (like OUYA's virtual menu button) to work. This
-        // path should not be triggered during normal usage.
-        int buttonDownTime = (int)(event.getEventTime() - event.getDownTime());
-        if (buttonDownTime < ControllerHandler.MINIMUM_BUTTON_DOWN_TIME_MS)
-        {
-            // Since our sleep time is so short (<= 25 ms), it shouldn't cause a problem doing this
-            // in the UI thread.
-            try {
-                Thread.sleep(ControllerHandler.MINIMUM_BUTTON_DOWN_TIME_MS - buttonDownTime);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-
-                // InterruptedException clears the thread's interrupt status. Since we can't
-                // handle that here, we will re-interrupt the thread to set the interrupt
-                // status back to true.
-                Thread.currentThread().interrupt();
-            }
-        }
+        int previousInputMap = context.inputMap;
+        byte previousLeftTrigger = context.leftTrigger;
+        byte previousRightTrigger = context.rightTrigger;
 
         switch (keyCode) {
         case KeyEvent.KEYCODE_BUTTON_MODE:
@@ -2603,6 +2754,17 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
             }
         }
 
+        // If the button hasn't been down long enough, keep reporting it as pressed until it has.
+        // This allows "instant" button presses (like OUYA's virtual menu button) to work. This
+        // path should not be triggered during normal usage.
+        int buttonDownTime = (int)(event.getEventTime() - event.getDownTime());
+        if (buttonDownTime < ControllerHandler.MINIMUM_BUTTON_DOWN_TIME_MS) {
+            holdReleasedButtons(context, previousInputMap & ~context.inputMap,
+                    context.leftTrigger != previousLeftTrigger ? previousLeftTrigger : 0,
+                    context.rightTrigger != previousRightTrigger ? previousRightTrigger : 0,
+                    ControllerHandler.MINIMUM_BUTTON_DOWN_TIME_MS - buttonDownTime);
+        }
+
         sendControllerInputPacket(context);
 
         if (context.pendingExit && context.inputMap == 0) {
@@ -2613,6 +2775,54 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
         return true;
     }
 
+    // Keeps the given buttons pressed on the host for delayMs longer. The release is posted back
+    // to the main thread, so it's ordered with the other input from this controller without
+    // blocking it meanwhile.
+    private void holdReleasedButtons(GenericControllerContext context, int releasedFlags,
+                                     byte releasedLeftTrigger, byte releasedRightTrigger, int delayMs) {
+        if (releasedFlags == 0 && releasedLeftTrigger == 0 && releasedRightTrigger == 0) {
+            return;
+        }
+
+        context.heldInputMap |= releasedFlags;
+        context.heldLeftTrigger = maxByMagnitude(context.heldLeftTrigger, releasedLeftTrigger);
+        context.heldRightTrigger = maxByMagnitude(context.heldRightTrigger, releasedRightTrigger);
+
+        // Anything already held is released along with these buttons
+        mainThreadHandler.removeCallbacks(context.releaseHeldButtonsRunnable);
+        mainThreadHandler.postDelayed(context.releaseHeldButtonsRunnable, delayMs);
+    }
+
+    // If a held button is pressed again before its hold expires, the held buttons are released
+    // immediately. Otherwise the hold would merge both presses into a single one on the host.
+    // This must be called before the state with the new press is sent.
+    private void releaseRepressedHeldButtons(GenericControllerContext context) {
+        boolean leftTriggerRepressed = context.heldLeftTrigger != 0 && context.leftTrigger != 0;
+        boolean rightTriggerRepressed = context.heldRightTrigger != 0 && context.rightTrigger != 0;
+        if ((context.heldInputMap & context.inputMap) == 0 && !leftTriggerRepressed && !rightTriggerRepressed) {
+            return;
+        }
+
+        int inputMap = context.inputMap;
+        byte leftTrigger = context.leftTrigger;
+        byte rightTrigger = context.rightTrigger;
+
+        // Send the state without the held buttons first
+        context.inputMap &= ~context.heldInputMap;
+        if (context.heldLeftTrigger != 0) {
+            context.leftTrigger = 0;
+        }
+        if (context.heldRightTrigger != 0) {
+            context.rightTrigger = 0;
+        }
+        mainThreadHandler.removeCallbacks(context.releaseHeldButtonsRunnable);
+        context.releaseHeldButtonsRunnable.run();
+
+        context.inputMap = inputMap;
+        context.leftTrigger = leftTrigger;
+        context.rightTrigger = rightTrigger;
+    }
+
     public boolean handleButtonDown(KeyEvent event) {
         InputDeviceContext context = getContextForEvent(event);
         if (context == null) {
@@ -2834,6 +3044,7 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
         // We don't need to send repeat key down events, but the platform
         // sends us events that claim to be repeats but they're from different
         // devices, so we just send them all and deal with some duplicates.
+        releaseRepressedHeldButtons(context);
         sendControllerInputPacket(context);
         return true;
     }
@@ -2910,7 +3121,8 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
     public void reportControllerState(int controllerId, int buttonFlags,
                                       float leftStickX, float leftStickY,
                                       float rightStickX, float rightStickY,
-                                      float leftTrigger, float rightTrigger) {
+                                      float leftTrigger, float rightTrigger,
+                                      long eventTimeNanos) {
         GenericControllerContext context = usbDeviceContexts.get(controllerId);
         if (context == null) {
             return;
@@ -2942,7 +3154,9 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
 
         context.inputMap = buttonFlags;
 
-        sendControllerInputPacket(context);
+        if (sendControllerInputPacket(context)) {
+            latencyTracker.record(InputLatencyTracker.INPUT_GAMEPAD, eventTimeNanos);
+        }
     }
 
     @Override
@@ -2953,6 +3167,7 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
             releaseControllerNumber(context);
             context.destroy();
             usbDeviceContexts.remove(controller.getControllerId());
+            controllerAggregatesDirty = true;
         }
     }
 
@@ -2989,6 +3204,23 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
         public short leftStickX = 0x0000;
         public short leftStickY = 0x0000;
 
+        // Buttons that were released before MINIMUM_BUTTON_DOWN_TIME_MS, which are still
+        // reported as pressed until releaseHeldButtonsRunnable runs. Only used on the main thread.
+        public int heldInputMap = 0;
+        public byte heldLeftTrigger = 0x00;
+        public byte heldRightTrigger = 0x00;
+
+        public final Runnable releaseHeldButtonsRunnable = new Runnable() {
+            @Override
+            public void run() {
+                heldInputMap = 0;
+                heldLeftTrigger = 0;
+                heldRightTrigger = 0;
+
+                sendControllerInputPacket(GenericControllerContext.this);
+            }
+        };
+
         public boolean mouseEmulationActive;
         public int mouseEmulationLastInputMap;
         public final int mouseEmulationReportPeriod = 50;
@@ -3153,6 +3385,7 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
             }
 
             backgroundThreadHandler.removeCallbacks(enableSensorRunnable);
+            mainThreadHandler.removeCallbacks(releaseHeldButtonsRunnable);
 
             if (gyroListener != null) {
                 sensorManager.unregisterListener(gyroListener);
@@ -3358,6 +3591,56 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
         }
     }
 
+    private static class ControllerAggregate {
+        public GenericControllerContext[] contexts = new GenericControllerContext[2];
+        public int contextCount;
+
+        // The input last sent to the host for this controller number
+        public boolean sentInput;
+        public short sentActiveMask;
+        public int sentInputMap;
+        public byte sentLeftTrigger, sentRightTrigger;
+        public short sentLeftStickX, sentLeftStickY;
+        public short sentRightStickX, sentRightStickY;
+
+        public void reset() {
+            Arrays.fill(contexts, null);
+            contextCount = 0;
+            sentInput = false;
+        }
+
+        public void addContext(GenericControllerContext context) {
+            if (contextCount == contexts.length) {
+                contexts = Arrays.copyOf(contexts, contexts.length * 2);
+            }
+            contexts[contextCount++] = context;
+        }
+
+        // Returns false if this input is identical to the input that was last sent
+        public boolean updateSentInput(short activeMask, int inputMap,
+                                       byte leftTrigger, byte rightTrigger,
+                                       short leftStickX, short leftStickY,
+                                       short rightStickX, short rightStickY) {
+            if (sentInput && sentActiveMask == activeMask && sentInputMap == inputMap &&
+                    sentLeftTrigger == leftTrigger && sentRightTrigger == rightTrigger &&
+                    sentLeftStickX == leftStickX && sentLeftStickY == leftStickY &&
+                    sentRightStickX == rightStickX && sentRightStickY == rightStickY) {
+                return false;
+            }
+
+            sentInput = true;
+            sentActiveMask = activeMask;
+            sentInputMap = inputMap;
+            sentLeftTrigger = leftTrigger;
+            sentRightTrigger = rightTrigger;
+            sentLeftStickX = leftStickX;
+            sentLeftStickY = leftStickY;
+            sentRightStickX = rightStickX;
+            sentRightStickY = rightStickY;
+            return true;
+        }
+    }
+
     class UsbDeviceContext extends GenericControllerContext {
         public AbstractController device;
 
@@ -0,0 +1,151 @@
+package com.limelight.binding.input;
+
+import android.hardware.SensorEvent;
+import android.os.Build;
+import android.os.SystemClock;
+import android.view.InputDevice;
+import android.view.InputEvent;
+import android.view.KeyEvent;
+import android.view.MotionEvent;
+
+import com.limelight.LimeLog;
+import com.limelight.binding.video.LatencyHistogram;
+import com.limelight.binding.video.PerfOverlaySnapshot;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+// Measures the time from when an input event was timestamped (by Android, or by our USB driver
+// when a report arrives) to when we finished sending it to the native code, per type of input.
+// Times are recorded in units of LATENCY_UNIT_US into histograms that never allocate, so this can
+// stay enabled for every event. Reported values are scaled back to microseconds.
+//
+// Input event times use the SystemClock.uptimeMillis() clock (or its nanosecond equivalent on
+// Android 14 and later), which is the same monotonic clock as System.nanoTime().
+public class InputLatencyTracker {
+    // These index the perf_overlay_input_types array
+    public static final int INPUT_MOUSE = 0;
+    public static final int INPUT_KEYBOARD = 1;
+    public static final int INPUT_TOUCH = 2;
+    public static final int INPUT_PEN = 3;
+    public static final int INPUT_GAMEPAD = 4;
+    public static final int INPUT_MOTION_SENSOR = 5;
+    private static final int INPUT_TYPE_COUNT = PerfOverlaySnapshot.INPUT_TYPE_COUNT;
+
+    // LatencyHistogram clamps at 65535, which would be only 65 ms in microseconds. Recording in
+    // 10 us steps extends that to 655 ms, so slow events still show up in the percentiles.
+    private static final int LATENCY_UNIT_US = 10;
+
+    private static final String[] INPUT_TYPE_NAMES = {"mouse", "keyboard", "touch", "pen", "gamepad", "sensor"};
+
+    // Guarded by this
+    private final LatencyHistogram[] histograms = new LatencyHistogram[INPUT_TYPE_COUNT];
+
+    public InputLatencyTracker() {
+        for (int i = 0; i < INPUT_TYPE_COUNT; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    private static int toMicroseconds(int value) {
+        return value * LATENCY_UNIT_US;
+    }
+
+    public static long getEventTimeNanos(InputEvent event) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.UPSIDE_DOWN_CAKE) {
+            return event.getEventTimeNanos();
+        }
+        else {
+            return event.getEventTime() * 1000000L;
+        }
+    }
+
+    private static int getInputType(MotionEvent event) {
+        if ((event.getSource() & InputDevice.SOURCE_CLASS_JOYSTICK) != 0) {
+            return INPUT_GAMEPAD;
+        }
+
+        switch (event.getToolType(0)) {
+            case MotionEvent.TOOL_TYPE_STYLUS:
+            case MotionEvent.TOOL_TYPE_ERASER:
+                return INPUT_PEN;
+            case MotionEvent.TOOL_TYPE_FINGER:
+                if ((event.getSource() & InputDevice.SOURCE_TOUCHSCREEN) == InputDevice.SOURCE_TOUCHSCREEN) {
+                    return INPUT_TOUCH;
+                }
+                // Fingers on a touchpad drive the mouse
+                return INPUT_MOUSE;
+            default:
+                return INPUT_MOUSE;
+        }
+    }
+
+    // Called once all input for the event has been sent. An eventTimeNanos of 0 means the
+    // event time is unknown and nothing is recorded.
+    public synchronized void record(int inputType, long eventTimeNanos) {
+        if (eventTimeNanos != 0) {
+            histograms[inputType].record((System.nanoTime() - eventTimeNanos) / (1000 * LATENCY_UNIT_US));
+        }
+    }
+
+    public void recordMotionEvent(MotionEvent event) {
+        record(getInputType(event), getEventTimeNanos(event));
+    }
+
+    public void recordKeyEvent(KeyEvent event, boolean gamepad) {
+        record(gamepad ? INPUT_GAMEPAD : INPUT_KEYBOARD, getEventTimeNanos(event));
+    }
+
+    // Sensor timestamps use the SystemClock.elapsedRealtimeNanos() clock, which unlike
+    // System.nanoTime() keeps running in deep sleep, so they're converted before recording
+    public void recordSensorEvent(SensorEvent event) {
+        record(INPUT_MOTION_SENSOR, event.timestamp + (System.nanoTime() - SystemClock.elapsedRealtimeNanos()));
+    }
+
+    public synchronized void readPerfOverlaySnapshot(PerfOverlaySnapshot snapshot) {
+        for (int i = 0; i < INPUT_TYPE_COUNT; i++) {
+            snapshot.setInputLatency(i, histograms[i], LATENCY_UNIT_US);
+        }
+    }
+
+    public synchronized void logStats() {
+        for (int i = 0; i < INPUT_TYPE_COUNT; i++) {
+            LatencyHistogram histogram = histograms[i];
+            if (histogram.getCount() != 0) {
+                LimeLog.info("Input latency ("+INPUT_TYPE_NAMES[i]+"): "+histogram.getCount()+" events, p50/p95/p99/max "+
+                        toMicroseconds(histogram.getPercentile(50))+"/"+toMicroseconds(histogram.getPercentile(95))+"/"+
+                        toMicroseconds(histogram.getPercentile(99))+"/"+toMicroseconds(histogram.getMax())+" us");
+            }
+        }
+    }
+
+    // Writes one row of percentiles per type of input that was recorded
+    public synchronized void writeCsv(File file) {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
+            writer.write("type,count,p50_us,p90_us,p95_us,p99_us,max_us");
+            writer.newLine();
+
+            for (int i = 0; i < INPUT_TYPE_COUNT; i++) {
+                LatencyHistogram histogram = histograms[i];
+                if (histogram.getCount() == 0) {
+                    continue;
+                }
+
+                writer.write(INPUT_TYPE_NAMES[i] + "," +
+                        histogram.getCount() + "," +
+                        toMicroseconds(histogram.getPercentile(50)) + "," +
+                        toMicroseconds(histogram.getPercentile(90)) + "," +
+                        toMicroseconds(histogram.getPercentile(95)) + "," +
+                        toMicroseconds(histogram.getPercentile(99)) + "," +
+                        toMicroseconds(histogram.getMax()));
+                writer.newLine();
+            }
+
+            LimeLog.info("Wrote input latency statistics to "+file);
+        } catch (IOException e) {
+            LimeLog.warning("Failed to write input latency statistics: "+e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.limelight.binding.input;
+
+import android.os.Process;
+
+import com.limelight.LimeLog;
+import com.limelight.nvstream.NvConnection;
+
+// Combines relative mouse motion into at most one packet per report interval. High polling
+// rate mice can deliver thousands of events per second, which otherwise means a JNI call
+// and a packet to the host for each one.
+//
+// Motion is accumulated as floating point, so fractional deltas (like those from touchpads
+// in pointer capture mode) are carried over to later reports instead of being truncated.
+//
+// Motion that arrives after a quiet period of at least one interval is sent immediately, so
+// this only adds latency when the mouse reports faster than the configured rate.
+public class MouseMotionCoalescer {
+    private final NvConnection conn;
+    private final InputLatencyTracker latencyTracker;
+    private final long reportIntervalNs;
+
+    // Held while sending, so motion taken by one thread can't be reordered with a flush()
+    // on another. This is never acquired while holding the lock on this object.
+    private final Object sendLock = new Object();
+
+    // Guarded by this
+    private Thread flushThread;
+    private float pendingX, pendingY;
+    private long lastReportTimeNs;
+    private long pendingEventTimeNs;
+    private boolean flushScheduled;
+    private boolean stopped;
+    private long eventCount;
+    private long packetCount;
+
+    // A report rate of 0 sends motion as soon as it arrives
+    public MouseMotionCoalescer(NvConnection conn, InputLatencyTracker latencyTracker, int reportRateHz) {
+        this.conn = conn;
+        this.latencyTracker = latencyTracker;
+        this.reportIntervalNs = reportRateHz > 0 ? 1000000000L / reportRateHz : 0;
+    }
+
+    private boolean hasPendingMotion() {
+        return (int)pendingX != 0 || (int)pendingY != 0;
+    }
+
+    // Takes the pending motion under the lock, but sends it after releasing it, so adding
+    // motion never waits for a send in progress on another thread
+    private void sendPendingMotion() {
+        synchronized (sendLock) {
+            short deltaX, deltaY;
+            long eventTimeNs;
+
+            synchronized (this) {
+                // Only send whole units and keep the remainder for later
+                int wholeX = (int)Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, pendingX));
+                int wholeY = (int)Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, pendingY));
+                if (wholeX == 0 && wholeY == 0) {
+                    return;
+                }
+
+                pendingX -= wholeX;
+                pendingY -= wholeY;
+                deltaX = (short)wholeX;
+                deltaY = (short)wholeY;
+
+                // Latency is measured from the oldest event included in this report
+                eventTimeNs = pendingEventTimeNs;
+                pendingEventTimeNs = 0;
+
+                lastReportTimeNs = System.nanoTime();
+                packetCount++;
+            }
+
+            conn.sendMouseMove(deltaX, deltaY);
+            latencyTracker.record(InputLatencyTracker.INPUT_MOUSE, eventTimeNs);
+        }
+    }
+
+    // An eventTimeNanos of 0 means the time of the motion is unknown
+    public void addMotion(float deltaX, float deltaY, long eventTimeNanos) {
+        synchronized (this) {
+            if (stopped) {
+                return;
+            }
+
+            eventCount++;
+            pendingX += deltaX;
+            pendingY += deltaY;
+            if (pendingEventTimeNs == 0) {
+                pendingEventTimeNs = eventTimeNanos;
+            }
+
+            if (reportIntervalNs != 0 && flushThread != null) {
+                if (!flushScheduled && hasPendingMotion()) {
+                    // The flush thread is either idle or will see this motion when it wakes up
+                    // for the next report. Only wake it in the former case.
+                    flushScheduled = true;
+                    notify();
+                }
+                return;
+            }
+        }
+
+        sendPendingMotion();
+    }
+
+    // Sends any pending motion on the calling thread. This must be called before sending
+    // mouse button or scroll events, so they aren't reordered ahead of earlier motion.
+    public void flush() {
+        sendPendingMotion();
+    }
+
+    private void runFlushLoop() throws InterruptedException {
+        for (;;) {
+            synchronized (this) {
+                if (stopped) {
+                    return;
+                }
+
+                if (!flushScheduled) {
+                    wait();
+                    continue;
+                }
+
+                long waitNs = lastReportTimeNs + reportIntervalNs - System.nanoTime();
+                if (waitNs > 0) {
+                    // Motion that arrives while we wait is added to this report
+                    wait(waitNs / 1000000, (int)(waitNs % 1000000));
+                    continue;
+                }
+            }
+
+            sendPendingMotion();
+
+            synchronized (this) {
+                // Motion beyond the range of a single packet is sent in the next report
+                flushScheduled = hasPendingMotion();
+            }
+        }
+    }
+
+    public void start() {
+        if (reportIntervalNs == 0) {
+            return;
+        }
+
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_DISPLAY);
+
+                try {
+                    runFlushLoop();
+                } catch (InterruptedException ignored) {}
+            }
+        };
+        thread.setName("Input - Mouse Motion");
+        thread.start();
+
+        synchronized (this) {
+            flushThread = thread;
+        }
+    }
+
+    public void stop() {
+        Thread thread;
+        synchronized (this) {
+            stopped = true;
+            notify();
+
+            thread = flushThread;
+            flushThread = null;
+        }
+
+        if (thread != null) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+
+                // InterruptedException clears the thread's interrupt status. Since we can't
+                // handle that here, we will re-interrupt the thread to set the interrupt
+                // status back to true.
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        synchronized (this) {
+            LimeLog.info("Mouse motion: "+eventCount+" events in, "+packetCount+" packets out");
+        }
+    }
+}
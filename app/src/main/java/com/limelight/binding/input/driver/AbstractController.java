@@ -8,6 +8,8 @@ public abstract class AbstractController {
 
     private UsbDriverListener listener;
 
+    private final ControllerOutputQueue outputQueue = new ControllerOutputQueue(this);
+
     protected int buttonFlags, supportedButtonFlags;
     protected float leftTrigger, rightTrigger;
     protected float rightStickX, rightStickY;
@@ -48,9 +50,10 @@ public abstract class AbstractController {
         }
     }
 
-    protected void reportInput() {
+    // eventTimeNanos is when the input was received from the device, using System.nanoTime()
+    protected void reportInput(long eventTimeNanos) {
         listener.reportControllerState(deviceId, buttonFlags, leftStickX, leftStickY,
-                rightStickX, rightStickY, leftTrigger, rightTrigger);
+                rightStickX, rightStickY, leftTrigger, rightTrigger, eventTimeNanos);
     }
 
     public abstract boolean start();
@@ -63,9 +66,39 @@ public abstract class AbstractController {
         this.productId = productId;
     }
 
-    public abstract void rumble(short lowFreqMotor, short highFreqMotor);
+    // Rumble and LED changes are sent asynchronously by the output queue, since the
+    // caller may be a thread that must not block on USB transfers.
+    public void rumble(short lowFreqMotor, short highFreqMotor) {
+        outputQueue.submitRumble(lowFreqMotor, highFreqMotor);
+    }
+
+    public void rumbleTriggers(short leftTrigger, short rightTrigger) {
+        outputQueue.submitTriggerRumble(leftTrigger, rightTrigger);
+    }
 
-    public abstract void rumbleTriggers(short leftTrigger, short rightTrigger);
+    protected void setLed(int ledState) {
+        outputQueue.submitLed(ledState);
+    }
+
+    protected void startOutput() {
+        outputQueue.start();
+    }
+
+    // Sends any pending rumble or LED changes before returning
+    protected void stopOutput() {
+        outputQueue.stop();
+    }
+
+    // These are called on the output thread with the latest requested state.
+    // They return false if the state could not be sent to the device.
+    protected abstract boolean sendRumble(short lowFreqMotor, short highFreqMotor);
+
+    protected abstract boolean sendTriggerRumble(short leftTrigger, short rightTrigger);
+
+    protected boolean sendLed(int ledState) {
+        // LED not supported by default
+        return true;
+    }
 
     protected void notifyDeviceRemoved() {
         listener.deviceRemoved(this);
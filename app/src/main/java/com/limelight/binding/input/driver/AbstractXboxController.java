@@ -5,7 +5,8 @@ import android.hardware.usb.UsbDevice;
 import android.hardware.usb.UsbDeviceConnection;
 import android.hardware.usb.UsbEndpoint;
 import android.hardware.usb.UsbInterface;
-import android.os.SystemClock;
+import android.hardware.usb.UsbRequest;
+import android.os.Build;
 
 import com.limelight.LimeLog;
 import com.limelight.nvstream.input.ControllerPacket;
@@ -13,13 +14,30 @@ import com.limelight.nvstream.jni.MoonBridge;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.concurrent.TimeoutException;
 
 public abstract class AbstractXboxController extends AbstractController {
+    // Number of input reads to keep queued on the IN endpoint
+    private static final int INPUT_REQUEST_COUNT = 4;
+    private static final long INPUT_WAIT_TIMEOUT_MS = 250;
+
+    // How long stop() waits for the input thread to reap its requests
+    private static final int INPUT_THREAD_JOIN_TIMEOUT_MS = 1000;
+
     protected final UsbDevice device;
     protected final UsbDeviceConnection connection;
 
     private Thread inputThread;
-    private boolean stopped;
+    private volatile boolean stopped;
+
+    // Guards queueing input requests against stop() cancelling them
+    private final Object inputRequestLock = new Object();
+    private UsbRequest[] inputRequests;
+
+    // Number of requests owned by the kernel. Only the input thread queues and reaps requests,
+    // including when it calls stop() itself. When stop() runs on any other thread, it just
+    // cancels the requests and leaves reaping them to the input thread.
+    private int queuedRequestCount;
 
     protected UsbEndpoint inEndpt, outEndpt;
 
@@ -37,6 +55,165 @@ public abstract class AbstractXboxController extends AbstractController {
                         ControllerPacket.BACK_FLAG | ControllerPacket.PLAY_FLAG | ControllerPacket.SPECIAL_BUTTON_FLAG;
     }
 
+    // Must be called with inputRequestLock held
+    private boolean queueInputRequest(UsbRequest request, ByteBuffer buffer) {
+        buffer.clear();
+
+        boolean queued;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            queued = request.queue(buffer);
+        }
+        else {
+            queued = request.queue(buffer, buffer.capacity());
+        }
+
+        if (queued) {
+            queuedRequestCount++;
+        }
+        return queued;
+    }
+
+    // Returns null on a device error or if the wait timed out
+    private UsbRequest waitForInputRequest() {
+        UsbRequest request;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            // Use a timeout on O+ so we notice stop() even if a wakeup is somehow missed
+            try {
+                request = connection.requestWait(INPUT_WAIT_TIMEOUT_MS);
+            } catch (TimeoutException e) {
+                return null;
+            }
+        }
+        else {
+            request = connection.requestWait();
+        }
+
+        if (request != null) {
+            queuedRequestCount--;
+        }
+        return request;
+    }
+
+    // Cancels and reaps every outstanding input request, then frees them. The kernel owns a
+    // queued request until it's reaped, so it must not be closed or reused before then. This
+    // must only be called on the input thread.
+    private void releaseInputRequests() {
+        UsbRequest[] requests;
+        synchronized (inputRequestLock) {
+            requests = inputRequests;
+            if (requests == null) {
+                return;
+            }
+            inputRequests = null;
+
+            for (UsbRequest request : requests) {
+                if (request != null) {
+                    request.cancel();
+                }
+            }
+        }
+
+        // Cancelled requests complete right away, so this won't wait long
+        while (queuedRequestCount > 0) {
+            if (connection.requestWait() == null) {
+                // The connection failed, so there's nothing left to reap
+                break;
+            }
+            queuedRequestCount--;
+        }
+
+        for (UsbRequest request : requests) {
+            if (request != null) {
+                request.close();
+            }
+        }
+    }
+
+    private void readInput() {
+        UsbRequest[] requests = new UsbRequest[INPUT_REQUEST_COUNT];
+        int bufferSize = Math.max(inEndpt.getMaxPacketSize(), 64);
+
+        try {
+            // Keep several IN requests queued at all times, so the host controller always has
+            // a buffer to complete into while we're processing the previous report.
+            synchronized (inputRequestLock) {
+                if (stopped) {
+                    return;
+                }
+                inputRequests = requests;
+
+                for (int i = 0; i < requests.length; i++) {
+                    UsbRequest request = new UsbRequest();
+                    if (!request.initialize(connection, inEndpt)) {
+                        LimeLog.warning("Failed to initialize input request");
+                        break;
+                    }
+                    requests[i] = request;
+
+                    ByteBuffer buffer = ByteBuffer.allocateDirect(bufferSize).order(ByteOrder.LITTLE_ENDIAN);
+                    request.setClientData(buffer);
+                    if (!queueInputRequest(request, buffer)) {
+                        LimeLog.warning("Failed to queue input request");
+                        break;
+                    }
+                }
+            }
+
+            if (requests[requests.length - 1] == null || queuedRequestCount != requests.length) {
+                AbstractXboxController.this.stop();
+                return;
+            }
+
+            while (!stopped) {
+                // Wait for the next input state packet. stop() cancels the outstanding
+                // requests, which completes them and wakes us up.
+                UsbRequest request = waitForInputRequest();
+                if (request == null) {
+                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && queuedRequestCount > 0 && !stopped) {
+                        // Just a timeout, so check whether we've been stopped and wait again
+                        continue;
+                    }
+                    if (!stopped) {
+                        LimeLog.warning("Detected device I/O error");
+                        AbstractXboxController.this.stop();
+                    }
+                    break;
+                }
+
+                // This is as close as we can get to when the report arrived
+                long receiveTimeNanos = System.nanoTime();
+
+                // The request leaves the buffer's position at the end of the received data
+                ByteBuffer buffer = (ByteBuffer) request.getClientData();
+                buffer.flip();
+
+                if (!stopped && buffer.hasRemaining() && handleRead(buffer)) {
+                    // Report input if handleRead() returns true
+                    reportInput(receiveTimeNanos);
+                }
+
+                // Requeue under the lock, so stop() either sees this request as queued
+                // and cancels it, or we see that we've been stopped
+                synchronized (inputRequestLock) {
+                    if (stopped) {
+                        break;
+                    }
+                    if (!queueInputRequest(request, buffer)) {
+                        LimeLog.warning("Failed to requeue input request");
+                    }
+                    else {
+                        continue;
+                    }
+                }
+
+                AbstractXboxController.this.stop();
+                break;
+            }
+        } finally {
+            releaseInputRequests();
+        }
+    }
+
     private Thread createInputThread() {
         return new Thread() {
             public void run() {
@@ -54,44 +231,7 @@ public abstract class AbstractXboxController extends AbstractController {
                 // Report that we're added _before_ reporting input
                 notifyDeviceAdded();
 
-                while (!isInterrupted() && !stopped) {
-                    byte[] buffer = new byte[64];
-
-                    int res;
-
-                    //
-                    // There's no way that I can tell to determine if a device has failed
-                    // or if the timeout has simply expired. We'll check how long the transfer
-                    // took to fail and assume the device failed if it happened before the timeout
-                    // expired.
-                    //
-
-                    do {
-                        // Read the next input state packet
-                        long lastMillis = SystemClock.uptimeMillis();
-                        res = connection.bulkTransfer(inEndpt, buffer, buffer.length, 3000);
-
-                        // If we get a zero length response, treat it as an error
-                        if (res == 0) {
-                            res = -1;
-                        }
-
-                        if (res == -1 && SystemClock.uptimeMillis() - lastMillis < 1000) {
-                            LimeLog.warning("Detected device I/O error");
-                            AbstractXboxController.this.stop();
-                            break;
-                        }
-                    } while (res == -1 && !isInterrupted() && !stopped);
-
-                    if (res == -1 || stopped) {
-                        break;
-                    }
-
-                    if (handleRead(ByteBuffer.wrap(buffer, 0, res).order(ByteOrder.LITTLE_ENDIAN))) {
-                        // Report input if handleRead() returns true
-                        reportInput();
-                    }
-                }
+                readInput();
             }
         };
     }
@@ -138,6 +278,9 @@ public abstract class AbstractXboxController extends AbstractController {
             return false;
         }
 
+        // Start sending rumble and LED changes
+        startOutput();
+
         // Start listening for controller input
         inputThread = createInputThread();
         inputThread.start();
@@ -152,16 +295,44 @@ public abstract class AbstractXboxController extends AbstractController {
 
         stopped = true;
 
-        // Cancel any rumble effects
+        // Cancel any rumble effects and wait for that to be sent
         rumble((short)0, (short)0);
+        stopOutput();
 
         // Stop the input thread
-        if (inputThread != null) {
-            inputThread.interrupt();
-            inputThread = null;
+        Thread thread = inputThread;
+        inputThread = null;
+        if (thread == Thread.currentThread()) {
+            // We're stopping because of an error on the input thread itself
+            releaseInputRequests();
+        }
+        else if (thread != null) {
+            // Cancelling the outstanding requests wakes the input thread if it's waiting for
+            // input, then it reaps them before exiting. The interrupt covers its startup delay.
+            synchronized (inputRequestLock) {
+                if (inputRequests != null) {
+                    for (UsbRequest request : inputRequests) {
+                        if (request != null) {
+                            request.cancel();
+                        }
+                    }
+                }
+            }
+            thread.interrupt();
+
+            try {
+                thread.join(INPUT_THREAD_JOIN_TIMEOUT_MS);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+
+                // InterruptedException clears the thread's interrupt status. Since we can't
+                // handle that here, we will re-interrupt the thread to set the interrupt
+                // status back to true.
+                Thread.currentThread().interrupt();
+            }
         }
 
-        // Close the USB connection
+        // Close the USB connection now that no requests are outstanding
         connection.close();
 
         // Report the device removed
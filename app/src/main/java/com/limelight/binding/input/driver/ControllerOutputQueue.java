@@ -0,0 +1,191 @@
+package com.limelight.binding.input.driver;
+
+import com.limelight.LimeLog;
+
+// Sends rumble and LED commands to a controller on a dedicated thread, so a slow or stalled
+// USB endpoint can't block the caller (usually the connection's control stream thread).
+//
+// Only the latest state of each output is kept. If an output changes again before its
+// previous state could be sent, the old state is coalesced away rather than queued.
+class ControllerOutputQueue {
+    private static final int OUTPUT_RUMBLE = 0;
+    private static final int OUTPUT_TRIGGER_RUMBLE = 1;
+    private static final int OUTPUT_LED = 2;
+    private static final int OUTPUT_COUNT = 3;
+
+    // How long to wait for pending outputs to be sent when stopping
+    private static final int STOP_TIMEOUT_MS = 500;
+
+    private final AbstractController controller;
+    private Thread outputThread;
+    private boolean stopping;
+
+    // Latest unsent state of each output, guarded by this
+    private final boolean[] pending = new boolean[OUTPUT_COUNT];
+    private final int[] values = new int[OUTPUT_COUNT];
+    private final long[] submitTimesNs = new long[OUTPUT_COUNT];
+
+    // Only accessed by the output thread, except when logged after it has stopped
+    private int sentCount;
+    private int failedCount;
+    private long totalLatencyNs;
+    private long maxLatencyNs;
+
+    // Guarded by this
+    private int coalescedCount;
+    private int droppedCount;
+
+    ControllerOutputQueue(AbstractController controller) {
+        this.controller = controller;
+    }
+
+    private static int packShorts(short high, short low) {
+        return (high << 16) | (low & 0xFFFF);
+    }
+
+    private synchronized void submit(int output, int value) {
+        if (stopping) {
+            droppedCount++;
+            return;
+        }
+
+        if (pending[output]) {
+            coalescedCount++;
+        }
+
+        pending[output] = true;
+        values[output] = value;
+        submitTimesNs[output] = System.nanoTime();
+        notify();
+    }
+
+    void submitRumble(short lowFreqMotor, short highFreqMotor) {
+        submit(OUTPUT_RUMBLE, packShorts(lowFreqMotor, highFreqMotor));
+    }
+
+    void submitTriggerRumble(short leftTrigger, short rightTrigger) {
+        submit(OUTPUT_TRIGGER_RUMBLE, packShorts(leftTrigger, rightTrigger));
+    }
+
+    void submitLed(int ledState) {
+        submit(OUTPUT_LED, ledState);
+    }
+
+    private boolean send(int output, int value) {
+        switch (output) {
+            case OUTPUT_RUMBLE:
+                return controller.sendRumble((short)(value >> 16), (short)value);
+            case OUTPUT_TRIGGER_RUMBLE:
+                return controller.sendTriggerRumble((short)(value >> 16), (short)value);
+            case OUTPUT_LED:
+                return controller.sendLed(value);
+            default:
+                // Unreachable
+                throw new IllegalArgumentException();
+        }
+    }
+
+    private void runOutputLoop() {
+        int output;
+        int value;
+        long submitTimeNs;
+
+        for (;;) {
+            synchronized (this) {
+                output = -1;
+                for (;;) {
+                    for (int i = 0; i < OUTPUT_COUNT; i++) {
+                        if (pending[i]) {
+                            output = i;
+                            break;
+                        }
+                    }
+
+                    // Once we're stopping, we exit after the last pending output is sent
+                    if (output >= 0 || stopping) {
+                        break;
+                    }
+
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+
+                if (output < 0) {
+                    return;
+                }
+
+                pending[output] = false;
+                value = values[output];
+                submitTimeNs = submitTimesNs[output];
+            }
+
+            if (send(output, value)) {
+                long latencyNs = System.nanoTime() - submitTimeNs;
+
+                sentCount++;
+                totalLatencyNs += latencyNs;
+                maxLatencyNs = Math.max(maxLatencyNs, latencyNs);
+            }
+            else {
+                failedCount++;
+            }
+        }
+    }
+
+    // Outputs submitted before this is called are held until the output thread starts
+    void start() {
+        outputThread = new Thread() {
+            @Override
+            public void run() {
+                runOutputLoop();
+            }
+        };
+        outputThread.setName("Controller - Output "+controller.getControllerId());
+        outputThread.start();
+    }
+
+    // Sends any pending outputs, then stops the output thread. Outputs submitted
+    // after this is called are dropped.
+    void stop() {
+        synchronized (this) {
+            stopping = true;
+            notify();
+        }
+
+        if (outputThread == null) {
+            return;
+        }
+
+        try {
+            outputThread.join(STOP_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+
+            // InterruptedException clears the thread's interrupt status. Since we can't
+            // handle that here, we will re-interrupt the thread to set the interrupt
+            // status back to true.
+            Thread.currentThread().interrupt();
+        }
+
+        if (outputThread.isAlive()) {
+            LimeLog.warning("Timed out waiting for controller output to complete");
+            outputThread.interrupt();
+        }
+        else {
+            logStats();
+        }
+
+        outputThread = null;
+    }
+
+    private synchronized void logStats() {
+        LimeLog.info("Controller "+controller.getControllerId()+" output: "+
+                sentCount+" sent, "+coalescedCount+" coalesced, "+
+                failedCount+" failed, "+droppedCount+" dropped, latency avg "+
+                (sentCount != 0 ? (totalLatencyNs / sentCount) / 1000 : 0)+" us, max "+
+                (maxLatencyNs / 1000)+" us");
+    }
+}
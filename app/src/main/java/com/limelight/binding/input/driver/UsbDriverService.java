@@ -44,10 +44,12 @@ public class UsbDriverService extends Service implements UsbDriverListener {
 
     @Override
     public void reportControllerState(int controllerId, int buttonFlags, float leftStickX, float leftStickY,
-                                      float rightStickX, float rightStickY, float leftTrigger, float rightTrigger) {
+                                      float rightStickX, float rightStickY, float leftTrigger, float rightTrigger,
+                                      long eventTimeNanos) {
         // Call through to the client's listener
         if (listener != null) {
-            listener.reportControllerState(controllerId, buttonFlags, leftStickX, leftStickY, rightStickX, rightStickY, leftTrigger, rightTrigger);
+            listener.reportControllerState(controllerId, buttonFlags, leftStickX, leftStickY, rightStickX, rightStickY, leftTrigger, rightTrigger,
+                    eventTimeNanos);
         }
     }
 
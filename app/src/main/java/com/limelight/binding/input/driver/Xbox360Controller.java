@@ -138,15 +138,19 @@ public class Xbox360Controller extends AbstractXboxController {
 
     @Override
     protected boolean doInit() {
-        // Turn the LED on corresponding to our device ID
-        sendLedCommand((byte)(2 + (getControllerId() % 4)));
-
-        // No need to fail init if the LED command fails
+        // Turn the LED on corresponding to our device ID. This is sent once the output
+        // thread starts, and there's no need to fail init if the LED command fails.
+        setLed(2 + (getControllerId() % 4));
         return true;
     }
 
     @Override
-    public void rumble(short lowFreqMotor, short highFreqMotor) {
+    protected boolean sendLed(int ledState) {
+        return sendLedCommand((byte)ledState);
+    }
+
+    @Override
+    protected boolean sendRumble(short lowFreqMotor, short highFreqMotor) {
         byte[] data = {
                 0x00, 0x08, 0x00,
                 (byte)(lowFreqMotor >> 8), (byte)(highFreqMotor >> 8),
@@ -155,11 +159,15 @@ public class Xbox360Controller extends AbstractXboxController {
         int res = connection.bulkTransfer(outEndpt, data, data.length, 100);
         if (res != data.length) {
             LimeLog.warning("Rumble transfer failed: "+res);
+            return false;
         }
+
+        return true;
     }
 
     @Override
-    public void rumbleTriggers(short leftTrigger, short rightTrigger) {
+    protected boolean sendTriggerRumble(short leftTrigger, short rightTrigger) {
         // Trigger motors not present on Xbox 360 controllers
+        return true;
     }
 }
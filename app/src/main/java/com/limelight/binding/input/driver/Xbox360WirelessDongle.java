@@ -137,12 +137,14 @@ public class Xbox360WirelessDongle extends AbstractController {
     }
 
     @Override
-    public void rumble(short lowFreqMotor, short highFreqMotor) {
+    protected boolean sendRumble(short lowFreqMotor, short highFreqMotor) {
         // Unreachable.
+        return false;
     }
 
     @Override
-    public void rumbleTriggers(short leftTrigger, short rightTrigger) {
+    protected boolean sendTriggerRumble(short leftTrigger, short rightTrigger) {
         // Unreachable.
+        return false;
     }
 }
@@ -182,7 +182,7 @@ public class XboxOneController extends AbstractXboxController {
         return true;
     }
 
-    private void sendRumblePacket() {
+    private boolean sendRumblePacket() {
         byte[] data = {
                 0x09, 0x00, seqNum++, 0x09, 0x00,
                 0x0F,
@@ -195,21 +195,24 @@ public class XboxOneController extends AbstractXboxController {
         int res = connection.bulkTransfer(outEndpt, data, data.length, 100);
         if (res != data.length) {
             LimeLog.warning("Rumble transfer failed: "+res);
+            return false;
         }
+
+        return true;
     }
 
     @Override
-    public void rumble(short lowFreqMotor, short highFreqMotor) {
+    protected boolean sendRumble(short lowFreqMotor, short highFreqMotor) {
         this.lowFreqMotor = lowFreqMotor;
         this.highFreqMotor = highFreqMotor;
-        sendRumblePacket();
+        return sendRumblePacket();
     }
 
     @Override
-    public void rumbleTriggers(short leftTrigger, short rightTrigger) {
+    protected boolean sendTriggerRumble(short leftTrigger, short rightTrigger) {
         this.leftTriggerMotor = leftTrigger;
         this.rightTriggerMotor = rightTrigger;
-        sendRumblePacket();
+        return sendRumblePacket();
     }
 
     private static class InitPacket {
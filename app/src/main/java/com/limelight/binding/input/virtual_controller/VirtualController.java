@@ -7,7 +7,9 @@ package com.limelight.binding.input.virtual_controller;
 import android.content.Context;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.util.DisplayMetrics;
+import android.view.MotionEvent;
 import android.view.View;
 import android.widget.Button;
 import android.widget.FrameLayout;
@@ -38,6 +40,9 @@ public class VirtualController {
 
     private static final boolean _PRINT_DEBUG_INFORMATION = false;
 
+    // Pointer IDs are always less than this
+    private static final int MAX_POINTER_ID = 32;
+
     private final ControllerHandler controllerHandler;
     private final Context context;
     private final Handler handler;
@@ -58,6 +63,18 @@ public class VirtualController {
 
     private List<VirtualControllerElement> elements = new ArrayList<>();
 
+    private final VirtualControllerOverlay overlay;
+
+    // The element that each claimed pointer is sending its touches to. Pointers that landed on
+    // an element that was already being touched are claimed without an element, so they are
+    // swallowed like a second touch on a view would be.
+    private final VirtualControllerElement[] pointerElements = new VirtualControllerElement[MAX_POINTER_ID];
+    private int claimedPointerIdBits;
+
+    // Reused to build events with the claimed pointers removed
+    private MotionEvent.PointerProperties[] splitPointerProperties = new MotionEvent.PointerProperties[0];
+    private MotionEvent.PointerCoords[] splitPointerCoords = new MotionEvent.PointerCoords[0];
+
 //    public VirtualController(final ControllerHandler controllerHandler, FrameLayout layout, final Context context) {
 //        this.controllerHandler = controllerHandler;
 //        this.frame_layout = layout;
@@ -102,6 +119,10 @@ public class VirtualController {
         this.frame_layout = layout;
         this.context = context;
         this.handler = new Handler(Looper.getMainLooper());
+
+        this.overlay = new VirtualControllerOverlay(context, elements);
+        frame_layout.addView(overlay, new FrameLayout.LayoutParams(
+                FrameLayout.LayoutParams.MATCH_PARENT, FrameLayout.LayoutParams.MATCH_PARENT));
     }
 
     public void toggleConfigurationMode(Context context) {
@@ -131,26 +152,23 @@ public class VirtualController {
     }
 
     public void hide() {
-        for (VirtualControllerElement element : elements) {
-            element.setVisibility(View.INVISIBLE);
-        }
+        cancelElementTouches();
+        overlay.setVisibility(View.INVISIBLE);
 
 //        buttonConfigure.setVisibility(View.INVISIBLE);
     }
 
     public void show() {
-        for (VirtualControllerElement element : elements) {
-            element.setVisibility(View.VISIBLE);
-        }
+        overlay.setVisibility(View.VISIBLE);
 
 //        buttonConfigure.setVisibility(View.VISIBLE);
     }
 
     public void removeElements() {
-        for (VirtualControllerElement element : elements) {
-            frame_layout.removeView(element);
-        }
+        cancelElementTouches();
         elements.clear();
+        overlay.rebuildGrid();
+        overlay.invalidate();
 
         frame_layout.removeView(buttonConfigure);
     }
@@ -167,7 +185,246 @@ public class VirtualController {
         FrameLayout.LayoutParams layoutParams = new FrameLayout.LayoutParams(width, height);
         layoutParams.setMargins(x, y, 0, 0);
 
-        frame_layout.addView(element, layoutParams);
+        element.setLayoutParams(layoutParams);
+        layoutElement(element);
+    }
+
+    // Elements keep their position and size in their layout params, like they would if they
+    // were children of the FrameLayout, so they must be laid out again when those change.
+    void layoutElement(VirtualControllerElement element) {
+        FrameLayout.LayoutParams layoutParams = (FrameLayout.LayoutParams) element.getLayoutParams();
+        overlay.layoutElement(element, layoutParams.leftMargin, layoutParams.topMargin,
+                layoutParams.width, layoutParams.height);
+    }
+
+    void invalidateOverlay() {
+        overlay.invalidate();
+    }
+
+    private boolean isElementTouched(VirtualControllerElement element) {
+        for (VirtualControllerElement pointerElement : pointerElements) {
+            if (pointerElement == element) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void dispatchElementTouch(VirtualControllerElement element, MotionEvent event, int pointerIndex,
+                                      int action, float offsetX, float offsetY) {
+        // Elements see a single pointer in their own coordinates, just like they would if
+        // the touch had been split off to them by their parent view.
+        MotionEvent elementEvent = MotionEvent.obtain(event.getDownTime(), event.getEventTime(), action,
+                event.getX(pointerIndex) + offsetX - element.getLeft(),
+                event.getY(pointerIndex) + offsetY - element.getTop(),
+                event.getMetaState());
+        elementEvent.setSource(event.getSource());
+        element.onTouchEvent(elementEvent);
+        elementEvent.recycle();
+    }
+
+    // The pointers stay claimed, so the rest of their touches are still swallowed
+    private void cancelElementTouches() {
+        for (int i = 0; i < MAX_POINTER_ID; i++) {
+            VirtualControllerElement element = pointerElements[i];
+            if (element != null) {
+                long now = SystemClock.uptimeMillis();
+                MotionEvent cancelEvent = MotionEvent.obtain(now, now, MotionEvent.ACTION_CANCEL, 0, 0, 0);
+                element.onTouchEvent(cancelEvent);
+                cancelEvent.recycle();
+
+                pointerElements[i] = null;
+            }
+        }
+    }
+
+    private boolean isPointerClaimed(int pointerId) {
+        return pointerId < MAX_POINTER_ID && (claimedPointerIdBits & (1 << pointerId)) != 0;
+    }
+
+    // Sends touches that land on the on-screen controls to their elements. The view is the one
+    // that received the event, which must share a parent with the controls.
+    //
+    // Returns the event if none of its pointers are on the controls, null if all of them are,
+    // or otherwise a new event with only the remaining pointers that the caller must recycle.
+    public MotionEvent handleTouchEvent(View view, MotionEvent event) {
+        boolean visible = overlay.getVisibility() == View.VISIBLE;
+        if (!visible && claimedPointerIdBits == 0) {
+            return event;
+        }
+
+        float offsetX = view.getX() - overlay.getX();
+        float offsetY = view.getY() - overlay.getY();
+        int action = event.getActionMasked();
+        int actionIndex = event.getActionIndex();
+        int pointerCount = event.getPointerCount();
+
+        if (action == MotionEvent.ACTION_DOWN) {
+            // A new gesture starts with nothing claimed
+            releasePointer(event.getPointerId(actionIndex));
+        }
+
+        if (visible && (action == MotionEvent.ACTION_DOWN || action == MotionEvent.ACTION_POINTER_DOWN)) {
+            int pointerId = event.getPointerId(actionIndex);
+            VirtualControllerElement element = pointerId < MAX_POINTER_ID ?
+                    overlay.findElementAt(event.getX(actionIndex) + offsetX, event.getY(actionIndex) + offsetY) : null;
+            if (element != null) {
+                claimedPointerIdBits |= 1 << pointerId;
+                if (!isElementTouched(element)) {
+                    pointerElements[pointerId] = element;
+                }
+            }
+        }
+
+        int remainingCount = 0;
+        for (int i = 0; i < pointerCount; i++) {
+            int pointerId = event.getPointerId(i);
+            if (!isPointerClaimed(pointerId)) {
+                remainingCount++;
+                continue;
+            }
+
+            VirtualControllerElement element = pointerElements[pointerId];
+            if (element == null) {
+                continue;
+            }
+
+            int elementAction;
+            if (action == MotionEvent.ACTION_CANCEL) {
+                elementAction = MotionEvent.ACTION_CANCEL;
+            }
+            else if (i != actionIndex) {
+                elementAction = MotionEvent.ACTION_MOVE;
+            }
+            else if (action == MotionEvent.ACTION_DOWN || action == MotionEvent.ACTION_POINTER_DOWN) {
+                elementAction = MotionEvent.ACTION_DOWN;
+            }
+            else if (action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_POINTER_UP) {
+                elementAction = MotionEvent.ACTION_UP;
+            }
+            else {
+                elementAction = MotionEvent.ACTION_MOVE;
+            }
+
+            dispatchElementTouch(element, event, i, elementAction, offsetX, offsetY);
+        }
+
+        MotionEvent remainingEvent;
+        if (remainingCount == pointerCount) {
+            remainingEvent = event;
+        }
+        else if (remainingCount == 0) {
+            remainingEvent = null;
+        }
+        else {
+            remainingEvent = splitTouchEvent(event, remainingCount);
+        }
+
+        // Release the pointers that are going up
+        if (action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_CANCEL) {
+            for (int i = 0; i < pointerCount; i++) {
+                releasePointer(event.getPointerId(i));
+            }
+        }
+        else if (action == MotionEvent.ACTION_POINTER_UP) {
+            releasePointer(event.getPointerId(actionIndex));
+        }
+
+        return remainingEvent;
+    }
+
+    private void releasePointer(int pointerId) {
+        if (pointerId < MAX_POINTER_ID) {
+            claimedPointerIdBits &= ~(1 << pointerId);
+            pointerElements[pointerId] = null;
+        }
+    }
+
+    // Builds an event with the claimed pointers removed, including their historical samples
+    private MotionEvent splitTouchEvent(MotionEvent event, int remainingCount) {
+        if (splitPointerProperties.length < remainingCount) {
+            splitPointerProperties = new MotionEvent.PointerProperties[remainingCount];
+            splitPointerCoords = new MotionEvent.PointerCoords[remainingCount];
+            for (int i = 0; i < remainingCount; i++) {
+                splitPointerProperties[i] = new MotionEvent.PointerProperties();
+                splitPointerCoords[i] = new MotionEvent.PointerCoords();
+            }
+        }
+
+        int action = event.getActionMasked();
+        int actionIndex = event.getActionIndex();
+        int splitActionIndex = -1;
+        for (int i = 0, j = 0; i < event.getPointerCount(); i++) {
+            if (!isPointerClaimed(event.getPointerId(i))) {
+                if (i == actionIndex) {
+                    splitActionIndex = j;
+                }
+                event.getPointerProperties(i, splitPointerProperties[j++]);
+            }
+        }
+
+        int splitAction;
+        switch (action) {
+            case MotionEvent.ACTION_DOWN:
+            case MotionEvent.ACTION_POINTER_DOWN:
+                if (splitActionIndex < 0) {
+                    splitAction = MotionEvent.ACTION_MOVE;
+                }
+                else if (remainingCount == 1) {
+                    splitAction = MotionEvent.ACTION_DOWN;
+                }
+                else {
+                    splitAction = MotionEvent.ACTION_POINTER_DOWN |
+                            (splitActionIndex << MotionEvent.ACTION_POINTER_INDEX_SHIFT);
+                }
+                break;
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_POINTER_UP:
+                if (splitActionIndex < 0) {
+                    splitAction = MotionEvent.ACTION_MOVE;
+                }
+                else if (remainingCount == 1) {
+                    splitAction = MotionEvent.ACTION_UP;
+                }
+                else {
+                    splitAction = MotionEvent.ACTION_POINTER_UP |
+                            (splitActionIndex << MotionEvent.ACTION_POINTER_INDEX_SHIFT);
+                }
+                break;
+            default:
+                splitAction = action;
+                break;
+        }
+
+        // The oldest historical sample goes into the new event and the others are added after it
+        MotionEvent splitEvent = null;
+        int historySize = event.getHistorySize();
+        for (int h = 0; h <= historySize; h++) {
+            for (int i = 0, j = 0; i < event.getPointerCount(); i++) {
+                if (!isPointerClaimed(event.getPointerId(i))) {
+                    if (h < historySize) {
+                        event.getHistoricalPointerCoords(i, h, splitPointerCoords[j++]);
+                    }
+                    else {
+                        event.getPointerCoords(i, splitPointerCoords[j++]);
+                    }
+                }
+            }
+
+            long eventTime = h < historySize ? event.getHistoricalEventTime(h) : event.getEventTime();
+            if (splitEvent == null) {
+                splitEvent = MotionEvent.obtain(event.getDownTime(), eventTime, splitAction,
+                        remainingCount, splitPointerProperties, splitPointerCoords,
+                        event.getMetaState(), event.getButtonState(),
+                        event.getXPrecision(), event.getYPrecision(), event.getDeviceId(),
+                        event.getEdgeFlags(), event.getSource(), event.getFlags());
+            }
+            else {
+                splitEvent.addBatch(eventTime, splitPointerCoords, event.getMetaState());
+            }
+        }
+
+        return splitEvent;
     }
 
     public List<VirtualControllerElement> getElements() {
@@ -79,7 +79,7 @@ public abstract class VirtualControllerElement extends View {
         layoutParams.rightMargin = 0;
         layoutParams.bottomMargin = 0;
 
-        requestLayout();
+        virtualController.layoutElement(this);
     }
 
     protected void resizeElement(int pressed_x, int pressed_y, int width, int height) {
@@ -91,7 +91,19 @@ public abstract class VirtualControllerElement extends View {
         layoutParams.height = newHeight > 20 ? newHeight : 20;
         layoutParams.width = newWidth > 20 ? newWidth : 20;
 
-        requestLayout();
+        virtualController.layoutElement(this);
+    }
+
+    // Elements are drawn by the controller's overlay rather than attached to a window, so
+    // redrawing an element means redrawing the overlay.
+    @Override
+    public void invalidate() {
+        super.invalidate();
+
+        // This may be called by View before our constructor has run
+        if (virtualController != null) {
+            virtualController.invalidateOverlay();
+        }
     }
 
     @Override
@@ -341,6 +353,6 @@ public abstract class VirtualControllerElement extends View {
         layoutParams.width = configuration.getInt("WIDTH");
         layoutParams.height = configuration.getInt("HEIGHT");
 
-        requestLayout();
+        virtualController.layoutElement(this);
     }
 }
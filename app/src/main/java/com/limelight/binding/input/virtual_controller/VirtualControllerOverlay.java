@@ -0,0 +1,100 @@
+package com.limelight.binding.input.virtual_controller;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.view.View;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Draws every on-screen controller element into a single view, so the whole controller is one
+// display list for the compositor rather than a view per button. The elements are laid out
+// against this view but never attached to the view hierarchy themselves.
+//
+// This view doesn't take touches. VirtualController routes them to the elements using the
+// grid of element bounds kept here.
+class VirtualControllerOverlay extends View {
+    private static final int GRID_COLUMNS = 8;
+    private static final int GRID_ROWS = 4;
+
+    private final List<VirtualControllerElement> elements;
+
+    // The elements overlapping each grid cell, topmost first
+    private final VirtualControllerElement[][] grid = new VirtualControllerElement[GRID_COLUMNS * GRID_ROWS][];
+    private final List<VirtualControllerElement> cellElements = new ArrayList<>();
+
+    VirtualControllerOverlay(Context context, List<VirtualControllerElement> elements) {
+        super(context);
+        this.elements = elements;
+    }
+
+    void layoutElement(VirtualControllerElement element, int left, int top, int width, int height) {
+        element.layout(left, top, left + width, top + height);
+        rebuildGrid();
+        invalidate();
+    }
+
+    void rebuildGrid() {
+        int cellWidth = Math.max(1, (getWidth() + GRID_COLUMNS - 1) / GRID_COLUMNS);
+        int cellHeight = Math.max(1, (getHeight() + GRID_ROWS - 1) / GRID_ROWS);
+
+        for (int row = 0; row < GRID_ROWS; row++) {
+            for (int column = 0; column < GRID_COLUMNS; column++) {
+                int cellLeft = column * cellWidth;
+                int cellTop = row * cellHeight;
+
+                // Later elements are drawn on top, so they get the first chance at a touch
+                cellElements.clear();
+                for (int i = elements.size() - 1; i >= 0; i--) {
+                    VirtualControllerElement element = elements.get(i);
+                    if (element.getLeft() < cellLeft + cellWidth && element.getRight() > cellLeft &&
+                            element.getTop() < cellTop + cellHeight && element.getBottom() > cellTop) {
+                        cellElements.add(element);
+                    }
+                }
+
+                grid[row * GRID_COLUMNS + column] = cellElements.toArray(new VirtualControllerElement[0]);
+            }
+        }
+    }
+
+    // Coordinates are relative to this view
+    VirtualControllerElement findElementAt(float x, float y) {
+        if (x < 0 || y < 0 || x >= getWidth() || y >= getHeight()) {
+            return null;
+        }
+
+        int cellWidth = Math.max(1, (getWidth() + GRID_COLUMNS - 1) / GRID_COLUMNS);
+        int cellHeight = Math.max(1, (getHeight() + GRID_ROWS - 1) / GRID_ROWS);
+        VirtualControllerElement[] cell = grid[((int)y / cellHeight) * GRID_COLUMNS + (int)x / cellWidth];
+        if (cell == null) {
+            return null;
+        }
+
+        for (VirtualControllerElement element : cell) {
+            if (x >= element.getLeft() && x < element.getRight() &&
+                    y >= element.getTop() && y < element.getBottom()) {
+                return element;
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        rebuildGrid();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        for (VirtualControllerElement element : elements) {
+            int saveCount = canvas.save();
+            canvas.clipRect(element.getLeft(), element.getTop(), element.getRight(), element.getBottom());
+            canvas.translate(element.getLeft(), element.getTop());
+            element.draw(canvas);
+            canvas.restoreToCount(saveCount);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.limelight.binding.video;
+
+import android.annotation.TargetApi;
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+
+// Receives MediaCodec events on a dedicated handler thread when the decoder is running in
+// asynchronous mode. Input buffers are handed to the receive thread as soon as the codec makes
+// them available, and output buffers are passed back to the renderer as soon as they're decoded.
+@TargetApi(Build.VERSION_CODES.M)
+class AsyncCodecCallback extends MediaCodec.Callback {
+    private final MediaCodecDecoderRenderer renderer;
+    private final HandlerThread handlerThread;
+    private final Handler handler;
+
+    // Input buffer indices that the codec has given us, in the order that it gave them.
+    // This is grown if needed, but the codec only has a small fixed number of input buffers.
+    private int[] inputBufferIndices = new int[16];
+    private int inputBufferHead;
+    private int inputBufferCount;
+
+    AsyncCodecCallback(MediaCodecDecoderRenderer renderer) {
+        this.renderer = renderer;
+
+        handlerThread = new HandlerThread("Video - Decoder Callbacks", Process.THREAD_PRIORITY_DEFAULT + Process.THREAD_PRIORITY_MORE_FAVORABLE);
+        handlerThread.start();
+
+        handler = new Handler(handlerThread.getLooper());
+    }
+
+    Handler getHandler() {
+        return handler;
+    }
+
+    // Returns the oldest available input buffer index, waiting up to timeoutMs for one
+    // to become available. Returns -1 on timeout or if woken by wakeInputWaiters().
+    synchronized int takeInputBuffer(long timeoutMs) {
+        if (inputBufferCount == 0) {
+            try {
+                wait(timeoutMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return -1;
+            }
+
+            if (inputBufferCount == 0) {
+                return -1;
+            }
+        }
+
+        int index = inputBufferIndices[inputBufferHead];
+        inputBufferHead = (inputBufferHead + 1) % inputBufferIndices.length;
+        inputBufferCount--;
+        return index;
+    }
+
+    // Input buffer indices are invalidated when the codec is flushed, stopped, or reset
+    synchronized void clearInputBuffers() {
+        inputBufferHead = 0;
+        inputBufferCount = 0;
+    }
+
+    // Wakes the receive thread so it can notice that we're stopping or recovering the codec
+    synchronized void wakeInputWaiters() {
+        notifyAll();
+    }
+
+    void quit() {
+        handlerThread.quit();
+
+        try {
+            handlerThread.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+
+            // InterruptedException clears the thread's interrupt status. Since we can't
+            // handle that here, we will re-interrupt the thread to set the interrupt
+            // status back to true.
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void onInputBufferAvailable(MediaCodec codec, int index) {
+        synchronized (this) {
+            if (inputBufferCount == inputBufferIndices.length) {
+                int[] newIndices = new int[inputBufferIndices.length * 2];
+                for (int i = 0; i < inputBufferCount; i++) {
+                    newIndices[i] = inputBufferIndices[(inputBufferHead + i) % inputBufferIndices.length];
+                }
+                inputBufferIndices = newIndices;
+                inputBufferHead = 0;
+            }
+
+            inputBufferIndices[(inputBufferHead + inputBufferCount) % inputBufferIndices.length] = index;
+            inputBufferCount++;
+
+            notifyAll();
+        }
+    }
+
+    @Override
+    public void onOutputBufferAvailable(MediaCodec codec, int index, MediaCodec.BufferInfo info) {
+        renderer.handleAsyncOutputBuffer(index, info.presentationTimeUs);
+    }
+
+    @Override
+    public void onError(MediaCodec codec, MediaCodec.CodecException e) {
+        renderer.handleAsyncCodecError(e);
+    }
+
+    @Override
+    public void onOutputFormatChanged(MediaCodec codec, MediaFormat format) {
+        renderer.handleAsyncOutputFormatChanged(format);
+    }
+}
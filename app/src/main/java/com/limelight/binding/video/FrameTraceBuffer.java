@@ -0,0 +1,200 @@
+package com.limelight.binding.video;
+
+import com.limelight.LimeLog;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+
+// A preallocated ring of per-frame timing records, keyed by frame number, that keeps the most
+// recent CAPACITY frames of a stream. Each stage of the pipeline fills in its own timestamp as
+// the frame passes through it. The ring can then be exported as CSV for offline analysis.
+//
+// Receive and enqueue times are in SystemClock.uptimeMillis() units as provided by the native
+// code. All other timestamps come from System.nanoTime(). Both use the same monotonic clock.
+//
+// Frames are received and output on the decoder threads, but render times arrive on the codec's
+// callback thread, so every method is synchronized. Tracing is a debugging aid, so the cost of
+// an uncontended lock per event doesn't matter here.
+class FrameTraceBuffer {
+    private static final int CAPACITY = 16384;
+    private static final int MASK = CAPACITY - 1;
+
+    // Maximum number of frames to scan when matching a presentation timestamp to a frame
+    private static final int MAX_PTS_SEARCH = 64;
+
+    private final int[] frameNumbers = new int[CAPACITY];
+    private final int[] frameTypes = new int[CAPACITY];
+    private final int[] frameSizes = new int[CAPACITY];
+    private final char[] hostProcessingLatencies = new char[CAPACITY];
+    private final long[] receiveTimesMs = new long[CAPACITY];
+    private final long[] enqueueTimesMs = new long[CAPACITY];
+    private final long[] queuedTimesNs = new long[CAPACITY];
+    private final long[] presentationTimesUs = new long[CAPACITY];
+    private final long[] outputTimesNs = new long[CAPACITY];
+    private final long[] releaseTimesNs = new long[CAPACITY];
+    private final boolean[] releasedForRender = new boolean[CAPACITY];
+    private final long[] renderTimesNs = new long[CAPACITY];
+
+    private int firstFrameNumber = -1;
+    private int lastFrameNumber = -1;
+
+    // Frame numbers to start searching from when matching output and render events,
+    // since the codec returns frames in the order they were queued.
+    private int nextOutputFrameNumber;
+    private int nextRenderedFrameNumber;
+
+    // Frame number of each output buffer index, from output-available until release
+    private int[] outputBufferFrameNumbers = new int[32];
+
+    FrameTraceBuffer() {
+        Arrays.fill(outputBufferFrameNumbers, -1);
+    }
+
+    // Called on the receive thread before the frame is submitted to the codec
+    synchronized void onFrameReceived(int frameNumber, int frameType, int frameSize, char hostProcessingLatency,
+                         long receiveTimeMs, long enqueueTimeMs) {
+        int slot = frameNumber & MASK;
+
+        frameNumbers[slot] = frameNumber;
+        frameTypes[slot] = frameType;
+        frameSizes[slot] = frameSize;
+        hostProcessingLatencies[slot] = hostProcessingLatency;
+        receiveTimesMs[slot] = receiveTimeMs;
+        enqueueTimesMs[slot] = enqueueTimeMs;
+        queuedTimesNs[slot] = 0;
+        presentationTimesUs[slot] = -1;
+        outputTimesNs[slot] = 0;
+        releaseTimesNs[slot] = 0;
+        releasedForRender[slot] = false;
+        renderTimesNs[slot] = 0;
+
+        if (firstFrameNumber < 0) {
+            firstFrameNumber = frameNumber;
+            nextOutputFrameNumber = frameNumber;
+            nextRenderedFrameNumber = frameNumber;
+        }
+        lastFrameNumber = frameNumber;
+    }
+
+    // Called on the receive thread after the last received frame was queued to the codec with
+    // the given presentation time. This isn't always the enqueue time, because the renderer
+    // bumps the timestamp of frames that were enqueued in the same millisecond.
+    synchronized void onFrameQueued(long presentationTimeUs) {
+        if (lastFrameNumber >= 0) {
+            int slot = lastFrameNumber & MASK;
+            queuedTimesNs[slot] = System.nanoTime();
+            presentationTimesUs[slot] = presentationTimeUs;
+        }
+    }
+
+    // Returns the first frame at or after startFrameNumber with the given presentation time
+    // whose timestamp array entry is still unset, or -1 if there is none.
+    private int findFrameByPts(int startFrameNumber, long presentationTimeUs, long[] timestamps) {
+        int end = lastFrameNumber;
+        int start = Math.max(startFrameNumber, Math.max(firstFrameNumber, end - MAX_PTS_SEARCH));
+
+        for (int frameNumber = start; frameNumber <= end; frameNumber++) {
+            int slot = frameNumber & MASK;
+            if (frameNumbers[slot] == frameNumber && timestamps[slot] == 0 &&
+                    presentationTimesUs[slot] == presentationTimeUs) {
+                return frameNumber;
+            }
+        }
+
+        return -1;
+    }
+
+    // Called when the codec returns a decoded frame in the given output buffer
+    synchronized void onOutputAvailable(int bufferIndex, long presentationTimeUs) {
+        int frameNumber = findFrameByPts(nextOutputFrameNumber, presentationTimeUs, outputTimesNs);
+        if (frameNumber >= 0) {
+            outputTimesNs[frameNumber & MASK] = System.nanoTime();
+            nextOutputFrameNumber = frameNumber + 1;
+        }
+
+        if (bufferIndex >= outputBufferFrameNumbers.length) {
+            int oldLength = outputBufferFrameNumbers.length;
+            outputBufferFrameNumbers = Arrays.copyOf(outputBufferFrameNumbers, bufferIndex * 2);
+            Arrays.fill(outputBufferFrameNumbers, oldLength, outputBufferFrameNumbers.length, -1);
+        }
+        outputBufferFrameNumbers[bufferIndex] = frameNumber;
+    }
+
+    // Called when the given output buffer is released to the display or discarded
+    synchronized void onOutputReleased(int bufferIndex, boolean render) {
+        if (bufferIndex >= outputBufferFrameNumbers.length) {
+            return;
+        }
+
+        int frameNumber = outputBufferFrameNumbers[bufferIndex];
+        if (frameNumber >= 0) {
+            int slot = frameNumber & MASK;
+            if (frameNumbers[slot] == frameNumber) {
+                releaseTimesNs[slot] = System.nanoTime();
+                releasedForRender[slot] = render;
+            }
+            outputBufferFrameNumbers[bufferIndex] = -1;
+        }
+    }
+
+    // Called from OnFrameRenderedListener with the time the frame was presented
+    synchronized void onFrameRendered(long presentationTimeUs, long renderTimeNanos) {
+        int frameNumber = findFrameByPts(nextRenderedFrameNumber, presentationTimeUs, renderTimesNs);
+        if (frameNumber >= 0) {
+            renderTimesNs[frameNumber & MASK] = renderTimeNanos;
+            nextRenderedFrameNumber = frameNumber + 1;
+        }
+    }
+
+    private static String formatRelativeUs(long timeNs, long baseNs) {
+        return timeNs != 0 ? Long.toString((timeNs - baseNs) / 1000) : "";
+    }
+
+    // Writes all retained records as CSV. Timestamps are in microseconds relative to the
+    // receive time of the first retained frame and are left empty if the stage never occurred.
+    // This must only be called once the decoder is stopped.
+    synchronized void writeCsv(File file) {
+        if (lastFrameNumber < 0) {
+            return;
+        }
+
+        int start = Math.max(firstFrameNumber, lastFrameNumber - CAPACITY + 1);
+        while (frameNumbers[start & MASK] != start) {
+            start++;
+        }
+        long baseNs = receiveTimesMs[start & MASK] * 1000000L;
+
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
+            writer.write("frame,type,size,host_latency_ms,receive_us,enqueue_us,queued_us,output_us,released_us,rendered,displayed_us");
+            writer.newLine();
+
+            for (int frameNumber = start; frameNumber <= lastFrameNumber; frameNumber++) {
+                int slot = frameNumber & MASK;
+                if (frameNumbers[slot] != frameNumber) {
+                    // Frame was lost on the network
+                    continue;
+                }
+
+                writer.write(frameNumber + "," +
+                        frameTypes[slot] + "," +
+                        frameSizes[slot] + "," +
+                        (hostProcessingLatencies[slot] / 10.0f) + "," +
+                        formatRelativeUs(receiveTimesMs[slot] * 1000000L, baseNs) + "," +
+                        formatRelativeUs(enqueueTimesMs[slot] * 1000000L, baseNs) + "," +
+                        formatRelativeUs(queuedTimesNs[slot], baseNs) + "," +
+                        formatRelativeUs(outputTimesNs[slot], baseNs) + "," +
+                        formatRelativeUs(releaseTimesNs[slot], baseNs) + "," +
+                        (releasedForRender[slot] ? 1 : 0) + "," +
+                        formatRelativeUs(renderTimesNs[slot], baseNs));
+                writer.newLine();
+            }
+
+            LimeLog.info("Wrote frame trace for "+(lastFrameNumber - start + 1)+" frames to "+file);
+        } catch (IOException e) {
+            LimeLog.warning("Failed to write frame trace: "+e.getMessage());
+        }
+    }
+}
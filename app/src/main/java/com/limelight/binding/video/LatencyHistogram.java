@@ -0,0 +1,109 @@
+package com.limelight.binding.video;
+
+import java.util.Arrays;
+
+// A fixed-size histogram of latency values that never allocates after creation. Video latencies
+// are recorded in milliseconds, while input latencies are recorded in 10 microsecond steps.
+//
+// Values below SUB_BUCKET_COUNT are counted exactly. Larger values are grouped into logarithmic
+// buckets, each power of two being split into 8 linear sub-buckets, so a reported percentile is
+// within 12.5% of the true value. Values above MAX_VALUE are clamped to it.
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKET_HALF_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_COUNT = SUB_BUCKET_HALF_COUNT << 1;
+
+    public static final int MAX_VALUE = 0xFFFF;
+    private static final int BUCKET_COUNT = bucketIndex(MAX_VALUE) + 1;
+
+    private final int[] counts = new int[BUCKET_COUNT];
+    private int totalCount;
+    private int maxValue;
+
+    private static int bucketIndex(int value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return value;
+        }
+
+        // Position of the highest set bit, which is at least SUB_BUCKET_BITS + 1 here
+        int exponent = 31 - Integer.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+
+        // The top bit is always set, so only the SUB_BUCKET_BITS below it select the sub-bucket
+        int subBucket = (value >> shift) - SUB_BUCKET_HALF_COUNT;
+        return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF_COUNT + subBucket;
+    }
+
+    // Returns the largest value that would be counted in the specified bucket
+    private static int highestValueInBucket(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+
+        int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF_COUNT + 1;
+        int subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF_COUNT;
+        return ((SUB_BUCKET_HALF_COUNT + subBucket + 1) << shift) - 1;
+    }
+
+    public void record(long value) {
+        if (value < 0) {
+            return;
+        }
+
+        int clampedValue = (int) Math.min(value, MAX_VALUE);
+        counts[bucketIndex(clampedValue)]++;
+        totalCount++;
+        maxValue = Math.max(maxValue, clampedValue);
+    }
+
+    public int getCount() {
+        return totalCount;
+    }
+
+    public int getMax() {
+        return maxValue;
+    }
+
+    // Returns an upper bound of the latency that the specified percentage of values fall under.
+    // A percentile of 100 returns the exact maximum value.
+    public int getPercentile(int percentile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+        else if (percentile >= 100) {
+            return maxValue;
+        }
+
+        // Number of values that must be at or below the returned value (rounded up)
+        long targetCount = Math.max(1, ((long) totalCount * percentile + 99) / 100);
+        long runningCount = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            runningCount += counts[i];
+            if (runningCount >= targetCount) {
+                return Math.min(highestValueInBucket(i), maxValue);
+            }
+        }
+
+        return maxValue;
+    }
+
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            this.counts[i] += other.counts[i];
+        }
+        this.totalCount += other.totalCount;
+        this.maxValue = Math.max(this.maxValue, other.maxValue);
+    }
+
+    public void copy(LatencyHistogram other) {
+        System.arraycopy(other.counts, 0, this.counts, 0, BUCKET_COUNT);
+        this.totalCount = other.totalCount;
+        this.maxValue = other.maxValue;
+    }
+
+    public void clear() {
+        Arrays.fill(this.counts, 0);
+        this.totalCount = 0;
+        this.maxValue = 0;
+    }
+}
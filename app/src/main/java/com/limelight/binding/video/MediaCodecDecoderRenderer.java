@@ -1,12 +1,12 @@
 package com.limelight.binding.video;
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.jcodec.codecs.h264.H264Utils;
@@ -15,7 +15,6 @@ import org.jcodec.codecs.h264.io.model.VUIParameters;
 
 import com.limelight.BuildConfig;
 import com.limelight.LimeLog;
-import com.limelight.R;
 import com.limelight.nvstream.av.video.VideoDecoderRenderer;
 import com.limelight.nvstream.jni.MoonBridge;
 import com.limelight.preferences.PreferenceConfiguration;
@@ -40,6 +39,8 @@ import android.view.SurfaceHolder;
 public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements Choreographer.FrameCallback {
 
     private static final boolean USE_FRAME_RENDER_TIME = false;
+
+    private static final String FRAME_TRACE_FILE_NAME = "frame_trace.csv";
     private static final boolean FRAME_RENDER_TIME_ONLY = USE_FRAME_RENDER_TIME && false;
 
     // Used on versions < 5.0
@@ -58,10 +59,19 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
     private int nextInputBufferIndex = -1;
     private ByteBuffer nextInputBuffer;
 
+    // Returned by prepareFrame() when nextInputBuffer is ready for picture data
+    private static final int DU_READY_FOR_PICDATA = 1;
+    private long preparedTimestampUs;
+    private int preparedCodecFlags;
+
+    // What to report for the last frame that getDirectSubmitBuffer() couldn't prepare a buffer for
+    private int directSubmitStatus;
+
     private Context context;
     private Activity activity;
     private MediaCodec videoDecoder;
     private Thread rendererThread;
+    private AsyncCodecCallback asyncCallback;
     private boolean needsSpsBitstreamFixup, isExynos4;
     private boolean adaptivePlayback, directSubmit, fusedIdrFrame;
     private boolean constrainedHighProfile;
@@ -111,13 +121,27 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
     private VideoStats lastWindowVideoStats;
     private VideoStats globalVideoStats;
 
+    // Preallocated so that updating the performance overlay doesn't allocate
+    private final VideoStats overlayVideoStats = new VideoStats();
+    private final VideoStatsFps overlayFps = new VideoStatsFps();
+    private final PerfOverlayPublisher perfOverlayPublisher = new PerfOverlayPublisher();
+
+    // Only allocated if frame tracing is enabled
+    private FrameTraceBuffer frameTrace;
+
+    // Decode and render latency are reported on the codec's output and callback threads, so
+    // they're collected here under their own locks and merged into the active stats window by
+    // the receive thread
+    private final LatencyHistogram pendingDecodeLatency = new LatencyHistogram();
+    private final LatencyHistogram pendingRenderLatency = new LatencyHistogram();
+
     private long lastTimestampUs;
     private int lastFrameNumber;
     private int refreshRate;
     private PreferenceConfiguration prefs;
 
-    private LinkedBlockingQueue<Integer> outputBufferQueue = new LinkedBlockingQueue<>();
     private static final int OUTPUT_BUFFER_QUEUE_LIMIT = 2;
+    private final OutputBufferRing outputBufferQueue = new OutputBufferRing(OUTPUT_BUFFER_QUEUE_LIMIT);
     private long lastRenderedFrameTimeNanos;
     private HandlerThread choreographerHandlerThread;
     private Handler choreographerHandler;
@@ -346,6 +370,10 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
         this.lastWindowVideoStats = new VideoStats();
         this.globalVideoStats = new VideoStats();
 
+        if (prefs.enableFrameTrace) {
+            this.frameTrace = new FrameTraceBuffer();
+        }
+
         avcDecoder = findAvcDecoder(prefs);
         if (avcDecoder != null) {
             LimeLog.info("Selected AVC decoder: "+avcDecoder.getName());
@@ -571,6 +599,12 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
 
         LimeLog.info("Configuring with format: "+format);
 
+        if (asyncCallback != null) {
+            // The callback must be set before configure() to put the codec in asynchronous mode
+            videoDecoder.setCallback(asyncCallback, asyncCallback.getHandler());
+            asyncCallback.clearInputBuffers();
+        }
+
         videoDecoder.configure(format, renderTarget.getSurface(), null, 0);
 
         configuredFormat = format;
@@ -717,12 +751,19 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
             }
         }
 
-        if (USE_FRAME_RENDER_TIME && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
             videoDecoder.setOnFrameRenderedListener(new MediaCodec.OnFrameRenderedListener() {
                 @Override
                 public void onFrameRendered(MediaCodec mediaCodec, long presentationTimeUs, long renderTimeNanos) {
+                    if (frameTrace != null) {
+                        frameTrace.onFrameRendered(presentationTimeUs, renderTimeNanos);
+                    }
+
                     long delta = (renderTimeNanos / 1000000L) - (presentationTimeUs / 1000);
                     if (delta >= 0 && delta < 1000) {
+                        synchronized (pendingRenderLatency) {
+                            pendingRenderLatency.record(delta);
+                        }
                         if (USE_FRAME_RENDER_TIME) {
                             activeWindowVideoStats.totalTimeMs += delta;
                         }
@@ -741,7 +782,18 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
         this.videoFormat = format;
         this.refreshRate = redrawRate;
 
-        return initializeDecoder(false);
+        if (prefs.asyncDecoder && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            LimeLog.info("Using asynchronous decoder mode");
+            asyncCallback = new AsyncCodecCallback(this);
+        }
+
+        int err = initializeDecoder(false);
+        if (err != 0 && asyncCallback != null) {
+            asyncCallback.quit();
+            asyncCallback = null;
+        }
+
+        return err;
     }
 
     // All threads that interact with the MediaCodec instance must call this function regularly!
@@ -759,6 +811,11 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
                 // If we have no choreographer thread, we can just mark that as quiesced right now.
                 codecRecoveryThreadQuiescedFlags |= CR_FLAG_CHOREOGRAPHER;
             }
+            if (asyncCallback != null) {
+                // There's no renderer thread in asynchronous mode. The callback thread never waits
+                // for recovery, but it can't touch the codec while we hold codecRecoveryMonitor.
+                codecRecoveryThreadQuiescedFlags |= CR_FLAG_RENDER_THREAD;
+            }
 
             codecRecoveryThreadQuiescedFlags |= quiescenceFlag;
 
@@ -774,6 +831,12 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
                     LimeLog.warning("Flushing decoder");
                     try {
                         videoDecoder.flush();
+                        if (asyncCallback != null) {
+                            // In asynchronous mode, the codec must be restarted after a flush
+                            // and all previously available input buffers are invalidated.
+                            asyncCallback.clearInputBuffers();
+                            videoDecoder.start();
+                        }
                         codecRecoveryType.set(CR_RECOVERY_TYPE_NONE);
                     } catch (IllegalStateException e) {
                         e.printStackTrace();
@@ -1025,8 +1088,8 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
             // NB: Since the queue limit is 2, we won't starve the decoder of output buffers
             // by holding onto them for too long. This also ensures we will have that 1 extra
             // frame of buffer to smooth over network/rendering jitter.
-            Integer nextOutputBuffer = outputBufferQueue.poll();
-            if (nextOutputBuffer != null) {
+            int nextOutputBuffer = outputBufferQueue.poll();
+            if (nextOutputBuffer >= 0) {
                 try {
                     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
                         videoDecoder.releaseOutputBuffer(nextOutputBuffer, frameTimeNanos);
@@ -1037,10 +1100,17 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
 
                     lastRenderedFrameTimeNanos = frameTimeNanos;
                     activeWindowVideoStats.totalFramesRendered++;
+                    if (frameTrace != null) {
+                        frameTrace.onOutputReleased(nextOutputBuffer, true);
+                    }
                 } catch (IllegalStateException ignored) {
                     try {
                         // Try to avoid leaking the output buffer by releasing it without rendering
                         videoDecoder.releaseOutputBuffer(nextOutputBuffer, false);
+                        activeWindowVideoStats.framesDroppedByConsumer++;
+                        if (frameTrace != null) {
+                            frameTrace.onOutputReleased(nextOutputBuffer, false);
+                        }
                     } catch (IllegalStateException e) {
                         // This will leak nextOutputBuffer, but there's really nothing else we can do
                         e.printStackTrace();
@@ -1078,6 +1148,68 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
         });
     }
 
+    // Renders or queues a decoded output buffer according to the frame pacing mode
+    private void handleOutputBuffer(int outIndex, long presentationTimeUs) {
+        if (prefs.framePacing != PreferenceConfiguration.FRAME_PACING_BALANCED) {
+            if (prefs.framePacing == PreferenceConfiguration.FRAME_PACING_MAX_SMOOTHNESS ||
+                    prefs.framePacing == PreferenceConfiguration.FRAME_PACING_CAP_FPS) {
+                // In max smoothness or cap FPS mode, we want to never drop frames
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                    // Use a PTS that will cause this frame to never be dropped
+                    videoDecoder.releaseOutputBuffer(outIndex, 0);
+                }
+                else {
+                    videoDecoder.releaseOutputBuffer(outIndex, true);
+                }
+            }
+            else {
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                    // Use a PTS that will cause this frame to be dropped if another comes in within
+                    // the same V-sync period
+                    videoDecoder.releaseOutputBuffer(outIndex, System.nanoTime());
+                }
+                else {
+                    videoDecoder.releaseOutputBuffer(outIndex, true);
+                }
+            }
+
+            activeWindowVideoStats.totalFramesRendered++;
+            if (frameTrace != null) {
+                frameTrace.onOutputReleased(outIndex, true);
+            }
+        }
+        else {
+            // For balanced frame pacing case, the Choreographer callback will handle rendering.
+            // We just put all frames into the output buffer queue and let it handle things.
+
+            // Add this buffer and discard the oldest buffer if we've exceeded our limit.
+            //
+            // NB: We have to do this on the producer side because the consumer may not
+            // run for a while (if there is a huge mismatch between stream FPS and display
+            // refresh rate).
+            int droppedIndex = outputBufferQueue.offerDropOldest(outIndex);
+            if (droppedIndex >= 0) {
+                videoDecoder.releaseOutputBuffer(droppedIndex, false);
+                activeWindowVideoStats.framesDroppedByProducer++;
+                if (frameTrace != null) {
+                    frameTrace.onOutputReleased(droppedIndex, false);
+                }
+            }
+        }
+
+        // Add delta time to the totals (excluding probable outliers)
+        long delta = SystemClock.uptimeMillis() - (presentationTimeUs / 1000);
+        if (delta >= 0 && delta < 1000) {
+            activeWindowVideoStats.decoderTimeMs += delta;
+            synchronized (pendingDecodeLatency) {
+                pendingDecodeLatency.record(delta);
+            }
+            if (!USE_FRAME_RENDER_TIME) {
+                activeWindowVideoStats.totalTimeMs += delta;
+            }
+        }
+    }
+
     private void startRendererThread()
     {
         rendererThread = new Thread() {
@@ -1093,74 +1225,27 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
                             int lastIndex = outIndex;
 
                             numFramesOut++;
+                            if (frameTrace != null) {
+                                frameTrace.onOutputAvailable(outIndex, presentationTimeUs);
+                            }
 
-                            // Render the latest frame now if frame pacing isn't in balanced mode
+                            // Get the last output buffer in the queue if frame pacing isn't in balanced mode
                             if (prefs.framePacing != PreferenceConfiguration.FRAME_PACING_BALANCED) {
-                                // Get the last output buffer in the queue
                                 while ((outIndex = videoDecoder.dequeueOutputBuffer(info, 0)) >= 0) {
                                     videoDecoder.releaseOutputBuffer(lastIndex, false);
+                                    if (frameTrace != null) {
+                                        frameTrace.onOutputReleased(lastIndex, false);
+                                        frameTrace.onOutputAvailable(outIndex, info.presentationTimeUs);
+                                    }
 
                                     numFramesOut++;
 
                                     lastIndex = outIndex;
                                     presentationTimeUs = info.presentationTimeUs;
                                 }
-
-                                if (prefs.framePacing == PreferenceConfiguration.FRAME_PACING_MAX_SMOOTHNESS ||
-                                        prefs.framePacing == PreferenceConfiguration.FRAME_PACING_CAP_FPS) {
-                                    // In max smoothness or cap FPS mode, we want to never drop frames
-                                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-                                        // Use a PTS that will cause this frame to never be dropped
-                                        videoDecoder.releaseOutputBuffer(lastIndex, 0);
-                                    }
-                                    else {
-                                        videoDecoder.releaseOutputBuffer(lastIndex, true);
-                                    }
-                                }
-                                else {
-                                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-                                        // Use a PTS that will cause this frame to be dropped if another comes in within
-                                        // the same V-sync period
-                                        videoDecoder.releaseOutputBuffer(lastIndex, System.nanoTime());
-                                    }
-                                    else {
-                                        videoDecoder.releaseOutputBuffer(lastIndex, true);
-                                    }
-                                }
-
-                                activeWindowVideoStats.totalFramesRendered++;
-                            }
-                            else {
-                                // For balanced frame pacing case, the Choreographer callback will handle rendering.
-                                // We just put all frames into the output buffer queue and let it handle things.
-
-                                // Discard the oldest buffer if we've exceeded our limit.
-                                //
-                                // NB: We have to do this on the producer side because the consumer may not
-                                // run for a while (if there is a huge mismatch between stream FPS and display
-                                // refresh rate).
-                                if (outputBufferQueue.size() == OUTPUT_BUFFER_QUEUE_LIMIT) {
-                                    try {
-                                        videoDecoder.releaseOutputBuffer(outputBufferQueue.take(), false);
-                                    } catch (InterruptedException e) {
-                                        // We're shutting down, so we can just drop this buffer on the floor
-                                        // and it will be reclaimed when the codec is released.
-                                        return;
-                                    }
-                                }
-
-                                // Add this buffer
-                                outputBufferQueue.add(lastIndex);
                             }
 
-                            // Add delta time to the totals (excluding probable outliers)
-                            long delta = SystemClock.uptimeMillis() - (presentationTimeUs / 1000);
-                            if (delta >= 0 && delta < 1000) {
-                                activeWindowVideoStats.decoderTimeMs += delta;
-                                if (!USE_FRAME_RENDER_TIME) {
-                                    activeWindowVideoStats.totalTimeMs += delta;
-                                }
-                            }
+                            handleOutputBuffer(lastIndex, presentationTimeUs);
                         } else {
                             switch (outIndex) {
                                 case MediaCodec.INFO_TRY_AGAIN_LATER:
@@ -1187,6 +1272,44 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
         rendererThread.start();
     }
 
+    // Called on the AsyncCodecCallback thread when the codec has decoded a frame
+    void handleAsyncOutputBuffer(int outIndex, long presentationTimeUs) {
+        try {
+            // Hold the recovery monitor so the codec can't be flushed or reset underneath us
+            synchronized (codecRecoveryMonitor) {
+                // Output buffers will be invalidated by the pending codec recovery
+                if (stopping || codecRecoveryType.get() != CR_RECOVERY_TYPE_NONE) {
+                    return;
+                }
+
+                numFramesOut++;
+                if (frameTrace != null) {
+                    frameTrace.onOutputAvailable(outIndex, presentationTimeUs);
+                }
+                handleOutputBuffer(outIndex, presentationTimeUs);
+            }
+        } catch (IllegalStateException e) {
+            handleDecoderException(e);
+            asyncCallback.wakeInputWaiters();
+        }
+    }
+
+    // Called on the AsyncCodecCallback thread when the codec encounters an error
+    void handleAsyncCodecError(CodecException e) {
+        handleDecoderException(e);
+
+        // Wake the receive thread if it's waiting for an input buffer, so it can
+        // perform the codec recovery promptly.
+        asyncCallback.wakeInputWaiters();
+    }
+
+    // Called on the AsyncCodecCallback thread when the output format changes
+    void handleAsyncOutputFormatChanged(MediaFormat format) {
+        LimeLog.info("Output format changed");
+        outputFormat = format;
+        LimeLog.info("New output format: " + outputFormat);
+    }
+
     private boolean fetchNextInputBuffer() {
         long startTime;
         boolean codecRecovered;
@@ -1201,7 +1324,18 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
         try {
             // If we don't have an input buffer index yet, fetch one now
             while (nextInputBufferIndex < 0 && !stopping) {
-                nextInputBufferIndex = videoDecoder.dequeueInputBuffer(10000);
+                if (asyncCallback != null) {
+                    // Wait for the codec to give us an input buffer. We'll be woken early
+                    // if the codec reports an error or we begin stopping.
+                    nextInputBufferIndex = asyncCallback.takeInputBuffer(100);
+                    if (nextInputBufferIndex < 0 && codecRecoveryType.get() != CR_RECOVERY_TYPE_NONE) {
+                        // Leave the loop so we can participate in codec recovery
+                        break;
+                    }
+                }
+                else {
+                    nextInputBufferIndex = videoDecoder.dequeueInputBuffer(10000);
+                }
             }
 
             // Get the backing ByteBuffer for the input buffer index
@@ -1263,7 +1397,10 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
 
     @Override
     public void start() {
-        startRendererThread();
+        // In asynchronous mode, output buffers are handled by the codec callbacks instead
+        if (asyncCallback == null) {
+            startRendererThread();
+        }
         startChoreographerThread();
     }
 
@@ -1277,6 +1414,11 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
             rendererThread.interrupt();
         }
 
+        // Wake the receive thread if it's waiting for an input buffer
+        if (asyncCallback != null) {
+            asyncCallback.wakeInputWaiters();
+        }
+
         // Stop any active codec recovery operations
         synchronized (codecRecoveryMonitor) {
             codecRecoveryType.set(CR_RECOVERY_TYPE_NONE);
@@ -1317,22 +1459,33 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
             }
         }
 
-        // Wait for the renderer thread to shut down
-        try {
-            rendererThread.join();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+        // Wait for the renderer thread to shut down (if we have one)
+        if (rendererThread != null) {
+            try {
+                rendererThread.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
 
-            // InterruptedException clears the thread's interrupt status. Since we can't
-            // handle that here, we will re-interrupt the thread to set the interrupt
-            // status back to true.
-            Thread.currentThread().interrupt();
+                // InterruptedException clears the thread's interrupt status. Since we can't
+                // handle that here, we will re-interrupt the thread to set the interrupt
+                // status back to true.
+                Thread.currentThread().interrupt();
+            }
         }
     }
 
     @Override
     public void cleanup() {
         videoDecoder.release();
+
+        if (frameTrace != null) {
+            frameTrace.writeCsv(new File(context.getFilesDir(), FRAME_TRACE_FILE_NAME));
+        }
+
+        // No more callbacks will be delivered after the codec is released
+        if (asyncCallback != null) {
+            asyncCallback.quit();
+        }
     }
 
     @Override
@@ -1426,11 +1579,255 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
         }
     }
 
-    @SuppressWarnings("deprecation")
+    private void batchParameterSet(byte[] frameData, int offset, int length, int bufferType) {
+        // H264 SPS
+        if (bufferType == MoonBridge.BUFFER_TYPE_SPS && (videoFormat & MoonBridge.VIDEO_FORMAT_MASK_H264) != 0) {
+            numSpsIn++;
+
+            ByteBuffer spsBuf = ByteBuffer.wrap(frameData, offset, length);
+            int startSeqLen = frameData[offset + 2] == 0x01 ? 3 : 4;
+
+            // Skip to the start of the NALU data
+            spsBuf.position(offset + startSeqLen + 1);
+
+            // The H264Utils.readSPS function safely handles
+            // Annex B NALUs (including NALUs with escape sequences)
+            SeqParameterSet sps = H264Utils.readSPS(spsBuf);
+
+            // Some decoders rely on H264 level to decide how many buffers are needed
+            // Since we only need one frame buffered, we'll set the level as low as we can
+            // for known resolution combinations. Reference frame invalidation may need
+            // these, so leave them be for those decoders.
+            if (!refFrameInvalidationActive) {
+                if (initialWidth <= 720 && initialHeight <= 480 && refreshRate <= 60) {
+                    // Max 5 buffered frames at 720x480x60
+                    LimeLog.info("Patching level_idc to 31");
+                    sps.levelIdc = 31;
+                }
+                else if (initialWidth <= 1280 && initialHeight <= 720 && refreshRate <= 60) {
+                    // Max 5 buffered frames at 1280x720x60
+                    LimeLog.info("Patching level_idc to 32");
+                    sps.levelIdc = 32;
+                }
+                else if (initialWidth <= 1920 && initialHeight <= 1080 && refreshRate <= 60) {
+                    // Max 4 buffered frames at 1920x1080x64
+                    LimeLog.info("Patching level_idc to 42");
+                    sps.levelIdc = 42;
+                }
+                else {
+                    // Leave the profile alone (currently 5.0)
+                }
+            }
+
+            // TI OMAP4 requires a reference frame count of 1 to decode successfully. Exynos 4
+            // also requires this fixup.
+            //
+            // I'm doing this fixup for all devices because I haven't seen any devices that
+            // this causes issues for. At worst, it seems to do nothing and at best it fixes
+            // issues with video lag, hangs, and crashes.
+            //
+            // It does break reference frame invalidation, so we will not do that for decoders
+            // where we've enabled reference frame invalidation.
+            if (!refFrameInvalidationActive) {
+                LimeLog.info("Patching num_ref_frames in SPS");
+                sps.numRefFrames = 1;
+            }
+
+            // GFE 2.5.11 changed the SPS to add additional extensions. Some devices don't like these
+            // so we remove them here on old devices unless these devices also support HEVC.
+            // See getPreferredColorSpace() for further information.
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O &&
+                    sps.vuiParams != null &&
+                    hevcDecoder == null &&
+                    av1Decoder == null) {
+                sps.vuiParams.videoSignalTypePresentFlag = false;
+                sps.vuiParams.colourDescriptionPresentFlag = false;
+                sps.vuiParams.chromaLocInfoPresentFlag = false;
+            }
+
+            // Some older devices used to choke on a bitstream restrictions, so we won't provide them
+            // unless explicitly whitelisted. For newer devices, leave the bitstream restrictions present.
+            if (needsSpsBitstreamFixup || isExynos4 || Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                // The SPS that comes in the current H264 bytestream doesn't set bitstream_restriction_flag
+                // or max_dec_frame_buffering which increases decoding latency on Tegra.
+
+                // If the encoder didn't include VUI parameters in the SPS, add them now
+                if (sps.vuiParams == null) {
+                    LimeLog.info("Adding VUI parameters");
+                    sps.vuiParams = new VUIParameters();
+                }
+
+                // GFE 2.5.11 started sending bitstream restrictions
+                if (sps.vuiParams.bitstreamRestriction == null) {
+                    LimeLog.info("Adding bitstream restrictions");
+                    sps.vuiParams.bitstreamRestriction = new VUIParameters.BitstreamRestriction();
+                    sps.vuiParams.bitstreamRestriction.motionVectorsOverPicBoundariesFlag = true;
+                    sps.vuiParams.bitstreamRestriction.maxBytesPerPicDenom = 2;
+                    sps.vuiParams.bitstreamRestriction.maxBitsPerMbDenom = 1;
+                    sps.vuiParams.bitstreamRestriction.log2MaxMvLengthHorizontal = 16;
+                    sps.vuiParams.bitstreamRestriction.log2MaxMvLengthVertical = 16;
+                    sps.vuiParams.bitstreamRestriction.numReorderFrames = 0;
+                }
+                else {
+                    LimeLog.info("Patching bitstream restrictions");
+                }
+
+                // Some devices throw errors if maxDecFrameBuffering < numRefFrames
+                sps.vuiParams.bitstreamRestriction.maxDecFrameBuffering = sps.numRefFrames;
+
+                // These values are the defaults for the fields, but they are more aggressive
+                // than what GFE sends in 2.5.11, but it doesn't seem to cause picture problems.
+                // We'll leave these alone for "modern" devices just in case they care.
+                if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+                    sps.vuiParams.bitstreamRestriction.maxBytesPerPicDenom = 2;
+                    sps.vuiParams.bitstreamRestriction.maxBitsPerMbDenom = 1;
+                }
+
+                // log2_max_mv_length_horizontal and log2_max_mv_length_vertical are set to more
+                // conservative values by GFE 2.5.11. We'll let those values stand.
+            }
+            else if (sps.vuiParams != null) {
+                // Devices that didn't/couldn't get bitstream restrictions before GFE 2.5.11
+                // will continue to not receive them now
+                sps.vuiParams.bitstreamRestriction = null;
+            }
+
+            // If we need to hack this SPS to say we're baseline, do so now
+            if (needsBaselineSpsHack) {
+                LimeLog.info("Hacking SPS to baseline");
+                sps.profileIdc = 66;
+                savedSps = sps;
+            }
+
+            // Patch the SPS constraint flags
+            doProfileSpecificSpsPatching(sps);
+
+            // The H264Utils.writeSPS function safely handles
+            // Annex B NALUs (including NALUs with escape sequences)
+            ByteBuffer escapedNalu = H264Utils.writeSPS(sps, length);
+
+            // Construct the patched SPS
+            byte[] naluBuffer = new byte[startSeqLen + 1 + escapedNalu.limit()];
+            System.arraycopy(frameData, offset, naluBuffer, 0, startSeqLen + 1);
+            escapedNalu.get(naluBuffer, startSeqLen + 1, escapedNalu.limit());
+
+            // Batch this to submit together with other CSD per AOSP docs
+            spsBuffers.add(naluBuffer);
+        }
+        else if (bufferType == MoonBridge.BUFFER_TYPE_VPS) {
+            numVpsIn++;
+
+            // Batch this to submit together with other CSD per AOSP docs
+            byte[] naluBuffer = new byte[length];
+            System.arraycopy(frameData, offset, naluBuffer, 0, length);
+            vpsBuffers.add(naluBuffer);
+        }
+        // Only the HEVC SPS hits this path (H.264 is handled above)
+        else if (bufferType == MoonBridge.BUFFER_TYPE_SPS) {
+            numSpsIn++;
+
+            // Batch this to submit together with other CSD per AOSP docs
+            byte[] naluBuffer = new byte[length];
+            System.arraycopy(frameData, offset, naluBuffer, 0, length);
+            spsBuffers.add(naluBuffer);
+        }
+        else if (bufferType == MoonBridge.BUFFER_TYPE_PPS) {
+            numPpsIn++;
+
+            // Batch this to submit together with other CSD per AOSP docs
+            byte[] naluBuffer = new byte[length];
+            System.arraycopy(frameData, offset, naluBuffer, 0, length);
+            ppsBuffers.add(naluBuffer);
+        }
+    }
+
+    @Override
+    public int submitFrame(byte[] frameData, int[] descriptors, int descriptorCount,
+                           int frameNumber, int frameType, char frameHostProcessingLatency,
+                           long receiveTimeMs, long enqueueTimeMs) {
+        int picDataLength = 0;
+        for (int i = 0; i < descriptorCount; i++) {
+            if (descriptors[i * MoonBridge.FRAME_DESCRIPTOR_SIZE + MoonBridge.FRAME_DESCRIPTOR_TYPE] == MoonBridge.BUFFER_TYPE_PICDATA) {
+                picDataLength += descriptors[i * MoonBridge.FRAME_DESCRIPTOR_SIZE + MoonBridge.FRAME_DESCRIPTOR_LENGTH];
+            }
+        }
+
+        int ret = prepareFrame(frameData, descriptors, descriptorCount, picDataLength,
+                frameNumber, frameType, frameHostProcessingLatency, receiveTimeMs, enqueueTimeMs);
+        if (ret != DU_READY_FOR_PICDATA) {
+            return ret;
+        }
+
+        // Copy the picture data from the frame buffer into the input buffer
+        for (int i = 0; i < descriptorCount; i++) {
+            int descriptorBase = i * MoonBridge.FRAME_DESCRIPTOR_SIZE;
+            if (descriptors[descriptorBase + MoonBridge.FRAME_DESCRIPTOR_TYPE] == MoonBridge.BUFFER_TYPE_PICDATA) {
+                nextInputBuffer.put(frameData,
+                        descriptors[descriptorBase + MoonBridge.FRAME_DESCRIPTOR_OFFSET],
+                        descriptors[descriptorBase + MoonBridge.FRAME_DESCRIPTOR_LENGTH]);
+            }
+        }
+
+        return queuePreparedDecodeUnit();
+    }
+
+    @Override
+    public int getSubmitMode() {
+        return MoonBridge.DR_SUBMIT_MODE_DIRECT_BUFFER;
+    }
+
     @Override
-    public int submitDecodeUnit(byte[] decodeUnitData, int decodeUnitLength, int decodeUnitType,
-                                int frameNumber, int frameType, char frameHostProcessingLatency,
-                                long receiveTimeMs, long enqueueTimeMs) {
+    public ByteBuffer getDirectSubmitBuffer(byte[] csdData, int[] csdDescriptors, int csdDescriptorCount,
+                                            int picDataLength, int frameNumber, int frameType,
+                                            char frameHostProcessingLatency, long receiveTimeMs, long enqueueTimeMs) {
+        int ret = prepareFrame(csdData, csdDescriptors, csdDescriptorCount, picDataLength,
+                frameNumber, frameType, frameHostProcessingLatency, receiveTimeMs, enqueueTimeMs);
+        if (ret != DU_READY_FOR_PICDATA) {
+            // This is DR_OK if we're just dropping the frame because we're stopping
+            directSubmitStatus = ret;
+            return null;
+        }
+
+        return nextInputBuffer;
+    }
+
+    @Override
+    public int getDirectSubmitStatus() {
+        return directSubmitStatus;
+    }
+
+    @Override
+    public int submitDirectDecodeUnit(byte[] fallbackData, int decodeUnitLength) {
+        if (fallbackData != null) {
+            nextInputBuffer.put(fallbackData, 0, decodeUnitLength);
+        }
+        else {
+            // The native code has already written the data after our current position
+            nextInputBuffer.position(nextInputBuffer.position() + decodeUnitLength);
+        }
+
+        return queuePreparedDecodeUnit();
+    }
+
+    private int queuePreparedDecodeUnit() {
+        if (frameTrace != null) {
+            frameTrace.onFrameQueued(preparedTimestampUs);
+        }
+
+        if (!queueNextInputBuffer(preparedTimestampUs, preparedCodecFlags)) {
+            return MoonBridge.DR_NEED_IDR;
+        }
+
+        return MoonBridge.DR_OK;
+    }
+
+    // Returns DU_READY_FOR_PICDATA if nextInputBuffer is ready to receive picDataLength bytes of
+    // picture data for this frame. Otherwise, the return value should be passed back to the common
+    // library. Any parameter sets described by descriptors are batched and submitted as CSD.
+    @SuppressWarnings("deprecation")
+    private int prepareFrame(byte[] frameData, int[] descriptors, int descriptorCount, int picDataLength,
+                             int frameNumber, int frameType, char frameHostProcessingLatency,
+                             long receiveTimeMs, long enqueueTimeMs) {
         if (stopping) {
             // Don't bother if we're stopping
             return MoonBridge.DR_OK;
@@ -1438,16 +1835,14 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
 
         if (lastFrameNumber == 0) {
             activeWindowVideoStats.measurementStartTimestamp = SystemClock.uptimeMillis();
-        } else if (frameNumber != lastFrameNumber && frameNumber != lastFrameNumber + 1) {
-            // We can receive the same "frame" multiple times if it's an IDR frame.
-            // In that case, each frame start NALU is submitted independently.
+        } else if (frameNumber != lastFrameNumber + 1) {
             activeWindowVideoStats.framesLost += frameNumber - lastFrameNumber - 1;
             activeWindowVideoStats.totalFrames += frameNumber - lastFrameNumber - 1;
             activeWindowVideoStats.frameLossEvents++;
         }
 
         // Reset CSD data for each IDR frame
-        if (lastFrameNumber != frameNumber && frameType == MoonBridge.FRAME_TYPE_IDR) {
+        if (frameType == MoonBridge.FRAME_TYPE_IDR) {
             vpsBuffers.clear();
             spsBuffers.clear();
             ppsBuffers.clear();
@@ -1455,44 +1850,24 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
 
         lastFrameNumber = frameNumber;
 
+        if (frameTrace != null) {
+            frameTrace.onFrameReceived(frameNumber, frameType, picDataLength, frameHostProcessingLatency,
+                    receiveTimeMs, enqueueTimeMs);
+        }
+
         // Flip stats windows roughly every second
         if (SystemClock.uptimeMillis() >= activeWindowVideoStats.measurementStartTimestamp + 1000) {
-            if (perfListener.isPerfOverlayVisible()) {
-                VideoStats lastTwo = new VideoStats();
-                lastTwo.add(lastWindowVideoStats);
-                lastTwo.add(activeWindowVideoStats);
-                VideoStatsFps fps = lastTwo.getFps();
-                String decoder;
-
-                if ((videoFormat & MoonBridge.VIDEO_FORMAT_MASK_H264) != 0) {
-                    decoder = avcDecoder.getName();
-                } else if ((videoFormat & MoonBridge.VIDEO_FORMAT_MASK_H265) != 0) {
-                    decoder = hevcDecoder.getName();
-                } else if ((videoFormat & MoonBridge.VIDEO_FORMAT_MASK_AV1) != 0) {
-                    decoder = av1Decoder.getName();
-                } else {
-                    decoder = "(unknown)";
-                }
+            synchronized (pendingDecodeLatency) {
+                activeWindowVideoStats.decodeLatency.add(pendingDecodeLatency);
+                pendingDecodeLatency.clear();
+            }
+            synchronized (pendingRenderLatency) {
+                activeWindowVideoStats.renderLatency.add(pendingRenderLatency);
+                pendingRenderLatency.clear();
+            }
 
-                float decodeTimeMs = (float)lastTwo.decoderTimeMs / lastTwo.totalFramesReceived;
-                long rttInfo = MoonBridge.getEstimatedRttInfo();
-                StringBuilder sb = new StringBuilder();
-                sb.append(context.getString(R.string.perf_overlay_streamdetails, initialWidth + "x" + initialHeight, fps.totalFps)).append('\n');
-                sb.append(context.getString(R.string.perf_overlay_decoder, decoder)).append('\n');
-                sb.append(context.getString(R.string.perf_overlay_incomingfps, fps.receivedFps)).append('\n');
-                sb.append(context.getString(R.string.perf_overlay_renderingfps, fps.renderedFps)).append('\n');
-                sb.append(context.getString(R.string.perf_overlay_netdrops,
-                        (float)lastTwo.framesLost / lastTwo.totalFrames * 100)).append('\n');
-                sb.append(context.getString(R.string.perf_overlay_netlatency,
-                        (int)(rttInfo >> 32), (int)rttInfo)).append('\n');
-                if (lastTwo.framesWithHostProcessingLatency > 0) {
-                    sb.append(context.getString(R.string.perf_overlay_hostprocessinglatency,
-                            (float)lastTwo.minHostProcessingLatency / 10,
-                            (float)lastTwo.maxHostProcessingLatency / 10,
-                            (float)lastTwo.totalHostProcessingLatency / 10 / lastTwo.framesWithHostProcessingLatency)).append('\n');
-                }
-                sb.append(context.getString(R.string.perf_overlay_dectime, decodeTimeMs));
-                perfListener.onPerfUpdate(sb.toString());
+            if (perfListener.isPerfOverlayVisible()) {
+                publishPerfOverlaySnapshot();
             }
 
             globalVideoStats.add(activeWindowVideoStats);
@@ -1503,172 +1878,30 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
 
         boolean csdSubmittedForThisFrame = false;
 
-        // IDR frames require special handling for CSD buffer submission
-        if (frameType == MoonBridge.FRAME_TYPE_IDR) {
-            // H264 SPS
-            if (decodeUnitType == MoonBridge.BUFFER_TYPE_SPS && (videoFormat & MoonBridge.VIDEO_FORMAT_MASK_H264) != 0) {
-                numSpsIn++;
-
-                ByteBuffer spsBuf = ByteBuffer.wrap(decodeUnitData);
-                int startSeqLen = decodeUnitData[2] == 0x01 ? 3 : 4;
-
-                // Skip to the start of the NALU data
-                spsBuf.position(startSeqLen + 1);
-
-                // The H264Utils.readSPS function safely handles
-                // Annex B NALUs (including NALUs with escape sequences)
-                SeqParameterSet sps = H264Utils.readSPS(spsBuf);
-
-                // Some decoders rely on H264 level to decide how many buffers are needed
-                // Since we only need one frame buffered, we'll set the level as low as we can
-                // for known resolution combinations. Reference frame invalidation may need
-                // these, so leave them be for those decoders.
-                if (!refFrameInvalidationActive) {
-                    if (initialWidth <= 720 && initialHeight <= 480 && refreshRate <= 60) {
-                        // Max 5 buffered frames at 720x480x60
-                        LimeLog.info("Patching level_idc to 31");
-                        sps.levelIdc = 31;
-                    }
-                    else if (initialWidth <= 1280 && initialHeight <= 720 && refreshRate <= 60) {
-                        // Max 5 buffered frames at 1280x720x60
-                        LimeLog.info("Patching level_idc to 32");
-                        sps.levelIdc = 32;
-                    }
-                    else if (initialWidth <= 1920 && initialHeight <= 1080 && refreshRate <= 60) {
-                        // Max 4 buffered frames at 1920x1080x64
-                        LimeLog.info("Patching level_idc to 42");
-                        sps.levelIdc = 42;
-                    }
-                    else {
-                        // Leave the profile alone (currently 5.0)
-                    }
-                }
-
-                // TI OMAP4 requires a reference frame count of 1 to decode successfully. Exynos 4
-                // also requires this fixup.
-                //
-                // I'm doing this fixup for all devices because I haven't seen any devices that
-                // this causes issues for. At worst, it seems to do nothing and at best it fixes
-                // issues with video lag, hangs, and crashes.
-                //
-                // It does break reference frame invalidation, so we will not do that for decoders
-                // where we've enabled reference frame invalidation.
-                if (!refFrameInvalidationActive) {
-                    LimeLog.info("Patching num_ref_frames in SPS");
-                    sps.numRefFrames = 1;
-                }
-
-                // GFE 2.5.11 changed the SPS to add additional extensions. Some devices don't like these
-                // so we remove them here on old devices unless these devices also support HEVC.
-                // See getPreferredColorSpace() for further information.
-                if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O &&
-                        sps.vuiParams != null &&
-                        hevcDecoder == null &&
-                        av1Decoder == null) {
-                    sps.vuiParams.videoSignalTypePresentFlag = false;
-                    sps.vuiParams.colourDescriptionPresentFlag = false;
-                    sps.vuiParams.chromaLocInfoPresentFlag = false;
-                }
-
-                // Some older devices used to choke on a bitstream restrictions, so we won't provide them
-                // unless explicitly whitelisted. For newer devices, leave the bitstream restrictions present.
-                if (needsSpsBitstreamFixup || isExynos4 || Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                    // The SPS that comes in the current H264 bytestream doesn't set bitstream_restriction_flag
-                    // or max_dec_frame_buffering which increases decoding latency on Tegra.
-
-                    // If the encoder didn't include VUI parameters in the SPS, add them now
-                    if (sps.vuiParams == null) {
-                        LimeLog.info("Adding VUI parameters");
-                        sps.vuiParams = new VUIParameters();
-                    }
-
-                    // GFE 2.5.11 started sending bitstream restrictions
-                    if (sps.vuiParams.bitstreamRestriction == null) {
-                        LimeLog.info("Adding bitstream restrictions");
-                        sps.vuiParams.bitstreamRestriction = new VUIParameters.BitstreamRestriction();
-                        sps.vuiParams.bitstreamRestriction.motionVectorsOverPicBoundariesFlag = true;
-                        sps.vuiParams.bitstreamRestriction.maxBytesPerPicDenom = 2;
-                        sps.vuiParams.bitstreamRestriction.maxBitsPerMbDenom = 1;
-                        sps.vuiParams.bitstreamRestriction.log2MaxMvLengthHorizontal = 16;
-                        sps.vuiParams.bitstreamRestriction.log2MaxMvLengthVertical = 16;
-                        sps.vuiParams.bitstreamRestriction.numReorderFrames = 0;
-                    }
-                    else {
-                        LimeLog.info("Patching bitstream restrictions");
-                    }
-
-                    // Some devices throw errors if maxDecFrameBuffering < numRefFrames
-                    sps.vuiParams.bitstreamRestriction.maxDecFrameBuffering = sps.numRefFrames;
-
-                    // These values are the defaults for the fields, but they are more aggressive
-                    // than what GFE sends in 2.5.11, but it doesn't seem to cause picture problems.
-                    // We'll leave these alone for "modern" devices just in case they care.
-                    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
-                        sps.vuiParams.bitstreamRestriction.maxBytesPerPicDenom = 2;
-                        sps.vuiParams.bitstreamRestriction.maxBitsPerMbDenom = 1;
-                    }
-
-                    // log2_max_mv_length_horizontal and log2_max_mv_length_vertical are set to more
-                    // conservative values by GFE 2.5.11. We'll let those values stand.
-                }
-                else if (sps.vuiParams != null) {
-                    // Devices that didn't/couldn't get bitstream restrictions before GFE 2.5.11
-                    // will continue to not receive them now
-                    sps.vuiParams.bitstreamRestriction = null;
-                }
-
-                // If we need to hack this SPS to say we're baseline, do so now
-                if (needsBaselineSpsHack) {
-                    LimeLog.info("Hacking SPS to baseline");
-                    sps.profileIdc = 66;
-                    savedSps = sps;
-                }
-
-                // Patch the SPS constraint flags
-                doProfileSpecificSpsPatching(sps);
-
-                // The H264Utils.writeSPS function safely handles
-                // Annex B NALUs (including NALUs with escape sequences)
-                ByteBuffer escapedNalu = H264Utils.writeSPS(sps, decodeUnitLength);
-
-                // Construct the patched SPS
-                byte[] naluBuffer = new byte[startSeqLen + 1 + escapedNalu.limit()];
-                System.arraycopy(decodeUnitData, 0, naluBuffer, 0, startSeqLen + 1);
-                escapedNalu.get(naluBuffer, startSeqLen + 1, escapedNalu.limit());
-
-                // Batch this to submit together with other CSD per AOSP docs
-                spsBuffers.add(naluBuffer);
-                return MoonBridge.DR_OK;
+        // Batch all parameter sets in an IDR frame to submit together as CSD per AOSP docs.
+        // Parameter sets in other frames are submitted with the picture data below.
+        int inlineParameterSetLength = 0;
+        for (int i = 0; i < descriptorCount; i++) {
+            int descriptorBase = i * MoonBridge.FRAME_DESCRIPTOR_SIZE;
+            int bufferType = descriptors[descriptorBase + MoonBridge.FRAME_DESCRIPTOR_TYPE];
+            if (bufferType == MoonBridge.BUFFER_TYPE_PICDATA) {
+                continue;
             }
-            else if (decodeUnitType == MoonBridge.BUFFER_TYPE_VPS) {
-                numVpsIn++;
 
-                // Batch this to submit together with other CSD per AOSP docs
-                byte[] naluBuffer = new byte[decodeUnitLength];
-                System.arraycopy(decodeUnitData, 0, naluBuffer, 0, decodeUnitLength);
-                vpsBuffers.add(naluBuffer);
-                return MoonBridge.DR_OK;
+            if (frameType == MoonBridge.FRAME_TYPE_IDR) {
+                batchParameterSet(frameData,
+                        descriptors[descriptorBase + MoonBridge.FRAME_DESCRIPTOR_OFFSET],
+                        descriptors[descriptorBase + MoonBridge.FRAME_DESCRIPTOR_LENGTH],
+                        bufferType);
             }
-            // Only the HEVC SPS hits this path (H.264 is handled above)
-            else if (decodeUnitType == MoonBridge.BUFFER_TYPE_SPS) {
-                numSpsIn++;
-
-                // Batch this to submit together with other CSD per AOSP docs
-                byte[] naluBuffer = new byte[decodeUnitLength];
-                System.arraycopy(decodeUnitData, 0, naluBuffer, 0, decodeUnitLength);
-                spsBuffers.add(naluBuffer);
-                return MoonBridge.DR_OK;
+            else {
+                inlineParameterSetLength += descriptors[descriptorBase + MoonBridge.FRAME_DESCRIPTOR_LENGTH];
             }
-            else if (decodeUnitType == MoonBridge.BUFFER_TYPE_PPS) {
-                numPpsIn++;
+        }
 
-                // Batch this to submit together with other CSD per AOSP docs
-                byte[] naluBuffer = new byte[decodeUnitLength];
-                System.arraycopy(decodeUnitData, 0, naluBuffer, 0, decodeUnitLength);
-                ppsBuffers.add(naluBuffer);
-                return MoonBridge.DR_OK;
-            }
-            else if ((videoFormat & (MoonBridge.VIDEO_FORMAT_MASK_H264 | MoonBridge.VIDEO_FORMAT_MASK_H265)) != 0) {
+        // IDR frames require special handling for CSD buffer submission
+        if (frameType == MoonBridge.FRAME_TYPE_IDR) {
+            if ((videoFormat & (MoonBridge.VIDEO_FORMAT_MASK_H264 | MoonBridge.VIDEO_FORMAT_MASK_H265)) != 0) {
                 // If this is the first CSD blob or we aren't supporting fused IDR frames, we will
                 // submit the CSD blob in a separate input buffer for each IDR frame.
                 if (!submittedCsd || !fusedIdrFrame) {
@@ -1676,7 +1909,7 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
                         return MoonBridge.DR_NEED_IDR;
                     }
 
-                    // Submit all CSD when we receive the first non-CSD blob in an IDR frame
+                    // Submit all CSD ahead of the picture data in this IDR frame
                     for (byte[] vpsBuffer : vpsBuffers) {
                         nextInputBuffer.put(vpsBuffer);
                     }
@@ -1731,6 +1964,7 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
             // caused by a slow decoder.
             activeWindowVideoStats.totalTimeMs += enqueueTimeMs - receiveTimeMs;
         }
+        activeWindowVideoStats.receiveLatency.record(enqueueTimeMs - receiveTimeMs);
 
         if (!fetchNextInputBuffer()) {
             return MoonBridge.DR_NEED_IDR;
@@ -1765,9 +1999,9 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
 
         numFramesIn++;
 
-        if (decodeUnitLength > nextInputBuffer.limit() - nextInputBuffer.position()) {
+        if (inlineParameterSetLength + picDataLength > nextInputBuffer.limit() - nextInputBuffer.position()) {
             IllegalArgumentException exception = new IllegalArgumentException(
-                    "Decode unit length "+decodeUnitLength+" too large for input buffer "+nextInputBuffer.limit());
+                    "Decode unit length "+(inlineParameterSetLength + picDataLength)+" too large for input buffer "+nextInputBuffer.limit());
             if (!reportedCrash) {
                 reportedCrash = true;
                 crashListener.notifyCrash(exception);
@@ -1775,14 +2009,22 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
             throw new RendererException(this, exception);
         }
 
-        // Copy data from our buffer list into the input buffer
-        nextInputBuffer.put(decodeUnitData, 0, decodeUnitLength);
-
-        if (!queueNextInputBuffer(timestampUs, codecFlags)) {
-            return MoonBridge.DR_NEED_IDR;
+        // Parameter sets outside of an IDR frame aren't CSD, so they're passed to the decoder
+        // as bitstream data ahead of the picture data in this frame
+        if (inlineParameterSetLength != 0) {
+            for (int i = 0; i < descriptorCount; i++) {
+                int descriptorBase = i * MoonBridge.FRAME_DESCRIPTOR_SIZE;
+                if (descriptors[descriptorBase + MoonBridge.FRAME_DESCRIPTOR_TYPE] != MoonBridge.BUFFER_TYPE_PICDATA) {
+                    nextInputBuffer.put(frameData,
+                            descriptors[descriptorBase + MoonBridge.FRAME_DESCRIPTOR_OFFSET],
+                            descriptors[descriptorBase + MoonBridge.FRAME_DESCRIPTOR_LENGTH]);
+                }
+            }
         }
 
-        return MoonBridge.DR_OK;
+        preparedTimestampUs = timestampUs;
+        preparedCodecFlags = codecFlags;
+        return DU_READY_FOR_PICDATA;
     }
 
     private boolean replaySps() {
@@ -1837,6 +2079,58 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
         return capabilities;
     }
 
+    // Called on the receive thread to publish stats for the last two windows to the overlay
+    private void publishPerfOverlaySnapshot() {
+        VideoStats lastTwo = overlayVideoStats;
+        lastTwo.copy(lastWindowVideoStats);
+        lastTwo.add(activeWindowVideoStats);
+        lastTwo.getFps(overlayFps);
+
+        PerfOverlaySnapshot snapshot = perfOverlayPublisher.beginWrite();
+
+        if ((videoFormat & MoonBridge.VIDEO_FORMAT_MASK_H264) != 0) {
+            snapshot.decoderName = avcDecoder.getName();
+        } else if ((videoFormat & MoonBridge.VIDEO_FORMAT_MASK_H265) != 0) {
+            snapshot.decoderName = hevcDecoder.getName();
+        } else if ((videoFormat & MoonBridge.VIDEO_FORMAT_MASK_AV1) != 0) {
+            snapshot.decoderName = av1Decoder.getName();
+        } else {
+            snapshot.decoderName = "(unknown)";
+        }
+
+        long rttInfo = MoonBridge.getEstimatedRttInfo();
+
+        snapshot.width = initialWidth;
+        snapshot.height = initialHeight;
+        snapshot.totalFps = overlayFps.totalFps;
+        snapshot.receivedFps = overlayFps.receivedFps;
+        snapshot.renderedFps = overlayFps.renderedFps;
+        snapshot.networkDropPercent = (float)lastTwo.framesLost / lastTwo.totalFrames * 100;
+        snapshot.rttMs = (int)(rttInfo >> 32);
+        snapshot.rttVarianceMs = (int)rttInfo;
+
+        snapshot.hasHostProcessingLatency = lastTwo.framesWithHostProcessingLatency > 0;
+        if (snapshot.hasHostProcessingLatency) {
+            snapshot.minHostProcessingLatencyMs = (float)lastTwo.minHostProcessingLatency / 10;
+            snapshot.maxHostProcessingLatencyMs = (float)lastTwo.maxHostProcessingLatency / 10;
+            snapshot.avgHostProcessingLatencyMs = (float)lastTwo.totalHostProcessingLatency / 10 / lastTwo.framesWithHostProcessingLatency;
+        }
+
+        snapshot.avgDecodeTimeMs = (float)lastTwo.decoderTimeMs / lastTwo.totalFramesReceived;
+        snapshot.setPercentiles(snapshot.receiveLatencyPercentiles, lastTwo.receiveLatency);
+        snapshot.setPercentiles(snapshot.decodeLatencyPercentiles, lastTwo.decodeLatency);
+        snapshot.hasRenderLatency = lastTwo.renderLatency.getCount() > 0;
+        snapshot.setPercentiles(snapshot.renderLatencyPercentiles, lastTwo.renderLatency);
+
+        perfOverlayPublisher.publish();
+    }
+
+    // Copies the latest performance overlay stats into snapshot. Returns false if no
+    // new stats have been published since snapshot was last updated.
+    public boolean readPerfOverlaySnapshot(PerfOverlaySnapshot snapshot) {
+        return perfOverlayPublisher.read(snapshot);
+    }
+
     public int getAverageEndToEndLatency() {
         if (globalVideoStats.totalFramesReceived == 0) {
             return 0;
@@ -1851,6 +2145,12 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
         return (int)(globalVideoStats.decoderTimeMs / globalVideoStats.totalFramesReceived);
     }
 
+    // Returns the specified percentile of hardware decoder latency over the whole session.
+    // A percentile of 100 returns the maximum latency.
+    public int getDecoderLatencyPercentile(int percentile) {
+        return globalVideoStats.decodeLatency.getPercentile(percentile);
+    }
+
     static class DecoderHungException extends RuntimeException {
         private int hangTimeMs;
 
@@ -1882,6 +2182,11 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
             return text;
         }
 
+        private static String formatPercentiles(LatencyHistogram histogram) {
+            return histogram.getPercentile(50)+"/"+histogram.getPercentile(95)+"/"+
+                    histogram.getPercentile(99)+"/"+histogram.getMax()+"ms";
+        }
+
         private String generateText(MediaCodecDecoderRenderer renderer, Exception originalException) {
             String str;
 
@@ -1979,9 +2284,13 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
             str += "Frames in-out: "+renderer.numFramesIn+", "+renderer.numFramesOut+DELIMITER;
             str += "Total frames received: "+renderer.globalVideoStats.totalFramesReceived+DELIMITER;
             str += "Total frames rendered: "+renderer.globalVideoStats.totalFramesRendered+DELIMITER;
+            str += "Output frames dropped (producer/consumer): "+renderer.globalVideoStats.framesDroppedByProducer+", "+renderer.globalVideoStats.framesDroppedByConsumer+DELIMITER;
             str += "Frame losses: "+renderer.globalVideoStats.framesLost+" in "+renderer.globalVideoStats.frameLossEvents+" loss events"+DELIMITER;
             str += "Average end-to-end client latency: "+renderer.getAverageEndToEndLatency()+"ms"+DELIMITER;
             str += "Average hardware decoder latency: "+renderer.getAverageDecoderLatency()+"ms"+DELIMITER;
+            str += "Receive latency p50/p95/p99/max: "+formatPercentiles(renderer.globalVideoStats.receiveLatency)+DELIMITER;
+            str += "Decoder latency p50/p95/p99/max: "+formatPercentiles(renderer.globalVideoStats.decodeLatency)+DELIMITER;
+            str += "Render latency p50/p95/p99/max: "+formatPercentiles(renderer.globalVideoStats.renderLatency)+DELIMITER;
             str += "Frame pacing mode: "+renderer.prefs.framePacing+DELIMITER;
 
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
@@ -0,0 +1,69 @@
+package com.limelight.binding.video;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+// A fixed-size queue of MediaCodec output buffer indices with a single producer (the renderer
+// thread) and a single consumer (the Choreographer thread). It never allocates after creation.
+//
+// The producer may also discard the oldest entry when the queue is full, so the head index is
+// advanced with a CAS by both threads. The tail index is only ever written by the producer.
+class OutputBufferRing {
+    private final int[] buffers;
+    private final int mask;
+    private final int limit;
+
+    // Index of the next entry to consume
+    private final AtomicInteger head = new AtomicInteger();
+
+    // Index of the next entry to produce
+    private final AtomicInteger tail = new AtomicInteger();
+
+    OutputBufferRing(int limit) {
+        // Round up to a power of two that is strictly larger than the limit, so the producer
+        // can never write into a slot that the consumer might still be reading.
+        int capacity = Integer.highestOneBit(limit) << 1;
+
+        this.buffers = new int[capacity];
+        this.mask = capacity - 1;
+        this.limit = limit;
+    }
+
+    // Called by the producer. If the queue is already at its limit, the oldest entry is removed
+    // to make room and its buffer index is returned so it can be released. Otherwise returns -1.
+    int offerDropOldest(int bufferIndex) {
+        int droppedIndex = -1;
+        int currentTail = tail.get();
+
+        if (currentTail - head.get() >= limit) {
+            // The consumer may beat us to it, in which case we already have room
+            droppedIndex = poll();
+        }
+
+        buffers[currentTail & mask] = bufferIndex;
+
+        // Publish the new entry to the consumer
+        tail.lazySet(currentTail + 1);
+
+        return droppedIndex;
+    }
+
+    // Returns the oldest buffer index in the queue, or -1 if the queue is empty
+    int poll() {
+        for (;;) {
+            int currentHead = head.get();
+            if (currentHead == tail.get()) {
+                return -1;
+            }
+
+            int bufferIndex = buffers[currentHead & mask];
+            if (head.compareAndSet(currentHead, currentHead + 1)) {
+                return bufferIndex;
+            }
+        }
+    }
+
+    // Must only be called while both the producer and consumer are quiesced
+    void clear() {
+        head.set(tail.get());
+    }
+}
@@ -0,0 +1,316 @@
+package com.limelight.binding.video;
+
+import android.content.Context;
+
+import com.limelight.R;
+
+import java.text.DecimalFormatSymbols;
+import java.util.ArrayList;
+
+// Formats a PerfOverlaySnapshot into a reused char buffer without allocating. The localized
+// perf_overlay_* strings are parsed once into templates, which support the subset of format
+// specifiers that they use (%s, %d, %.Nf and %% with optional argument indexes).
+//
+// The returned buffer may be passed to TextView.setText(char[], int, int) as long as it's
+// only modified again immediately before the next call to setText().
+public class PerfOverlayFormatter {
+    private static final int MAX_ARGS = 5;
+
+    private final Template streamDetails;
+    private final Template decoder;
+    private final Template incomingFps;
+    private final Template renderingFps;
+    private final Template netDrops;
+    private final Template netLatency;
+    private final Template hostProcessingLatency;
+    private final Template decodeTime;
+    private final Template receiveTimePercentiles;
+    private final Template decodeTimePercentiles;
+    private final Template renderTimePercentiles;
+    private final Template inputTimePercentiles;
+    private final String[] inputTypeNames;
+
+    private final char decimalSeparator;
+
+    private final CharSequence[] stringArgs = new CharSequence[MAX_ARGS];
+    private final double[] numberArgs = new double[MAX_ARGS];
+    private final char[] digits = new char[20];
+
+    private char[] buffer = new char[1024];
+    private int length;
+
+    // The resolution is formatted as a string argument, so cache it while it doesn't change
+    private int resolutionWidth, resolutionHeight;
+    private String resolution;
+
+    public PerfOverlayFormatter(Context context) {
+        streamDetails = new Template(context.getString(R.string.perf_overlay_streamdetails));
+        decoder = new Template(context.getString(R.string.perf_overlay_decoder));
+        incomingFps = new Template(context.getString(R.string.perf_overlay_incomingfps));
+        renderingFps = new Template(context.getString(R.string.perf_overlay_renderingfps));
+        netDrops = new Template(context.getString(R.string.perf_overlay_netdrops));
+        netLatency = new Template(context.getString(R.string.perf_overlay_netlatency));
+        hostProcessingLatency = new Template(context.getString(R.string.perf_overlay_hostprocessinglatency));
+        decodeTime = new Template(context.getString(R.string.perf_overlay_dectime));
+        receiveTimePercentiles = new Template(context.getString(R.string.perf_overlay_receivetime_percentiles));
+        decodeTimePercentiles = new Template(context.getString(R.string.perf_overlay_dectime_percentiles));
+        renderTimePercentiles = new Template(context.getString(R.string.perf_overlay_rendertime_percentiles));
+        inputTimePercentiles = new Template(context.getString(R.string.perf_overlay_inputtime_percentiles));
+        inputTypeNames = context.getResources().getStringArray(R.array.perf_overlay_input_types);
+
+        decimalSeparator = DecimalFormatSymbols.getInstance().getDecimalSeparator();
+    }
+
+    public char[] getChars() {
+        return buffer;
+    }
+
+    // Returns the number of characters written to the buffer returned by getChars()
+    public int format(PerfOverlaySnapshot snapshot) {
+        length = 0;
+
+        if (resolution == null || resolutionWidth != snapshot.width || resolutionHeight != snapshot.height) {
+            resolutionWidth = snapshot.width;
+            resolutionHeight = snapshot.height;
+            resolution = resolutionWidth + "x" + resolutionHeight;
+        }
+
+        stringArgs[0] = resolution;
+        numberArgs[1] = snapshot.totalFps;
+        appendLine(streamDetails);
+
+        stringArgs[0] = snapshot.decoderName;
+        appendLine(decoder);
+
+        numberArgs[0] = snapshot.receivedFps;
+        appendLine(incomingFps);
+
+        numberArgs[0] = snapshot.renderedFps;
+        appendLine(renderingFps);
+
+        numberArgs[0] = snapshot.networkDropPercent;
+        appendLine(netDrops);
+
+        numberArgs[0] = snapshot.rttMs;
+        numberArgs[1] = snapshot.rttVarianceMs;
+        appendLine(netLatency);
+
+        if (snapshot.hasHostProcessingLatency) {
+            numberArgs[0] = snapshot.minHostProcessingLatencyMs;
+            numberArgs[1] = snapshot.maxHostProcessingLatencyMs;
+            numberArgs[2] = snapshot.avgHostProcessingLatencyMs;
+            appendLine(hostProcessingLatency);
+        }
+
+        numberArgs[0] = snapshot.avgDecodeTimeMs;
+        appendLine(decodeTime);
+
+        setPercentileArgs(snapshot.receiveLatencyPercentiles);
+        appendLine(receiveTimePercentiles);
+
+        setPercentileArgs(snapshot.decodeLatencyPercentiles);
+        appendLine(decodeTimePercentiles);
+
+        if (snapshot.hasRenderLatency) {
+            setPercentileArgs(snapshot.renderLatencyPercentiles);
+            appendLine(renderTimePercentiles);
+        }
+
+        for (int i = 0; i < PerfOverlaySnapshot.INPUT_TYPE_COUNT; i++) {
+            if (snapshot.inputLatencyCounts[i] != 0) {
+                // Input latencies are recorded in microseconds but shown in milliseconds
+                stringArgs[0] = inputTypeNames[i];
+                for (int j = 0; j < 4; j++) {
+                    numberArgs[j + 1] = snapshot.inputLatencyPercentiles[i][j] / 1000.0;
+                }
+                appendLine(inputTimePercentiles);
+            }
+        }
+
+        // Drop the trailing newline
+        if (length > 0) {
+            length--;
+        }
+
+        return length;
+    }
+
+    private void setPercentileArgs(int[] percentiles) {
+        for (int i = 0; i < percentiles.length; i++) {
+            numberArgs[i] = percentiles[i];
+        }
+    }
+
+    private void appendLine(Template template) {
+        for (int i = 0; i < template.argCount; i++) {
+            append(template.literals[i]);
+
+            switch (template.argTypes[i]) {
+                case 's':
+                    CharSequence str = stringArgs[template.argIndexes[i]];
+                    append(str != null ? str : "null");
+                    break;
+                case 'd':
+                    appendLong((long) numberArgs[template.argIndexes[i]]);
+                    break;
+                case 'f':
+                    appendFixed(numberArgs[template.argIndexes[i]], template.argPrecisions[i]);
+                    break;
+            }
+        }
+        append(template.literals[template.argCount]);
+        append('\n');
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > buffer.length) {
+            char[] newBuffer = new char[Math.max(buffer.length * 2, length + extra)];
+            System.arraycopy(buffer, 0, newBuffer, 0, length);
+            buffer = newBuffer;
+        }
+    }
+
+    private void append(char c) {
+        ensureCapacity(1);
+        buffer[length++] = c;
+    }
+
+    private void append(CharSequence str) {
+        int strLength = str.length();
+        ensureCapacity(strLength);
+        for (int i = 0; i < strLength; i++) {
+            buffer[length++] = str.charAt(i);
+        }
+    }
+
+    private void appendLong(long value) {
+        if (value < 0) {
+            append('-');
+            value = -value;
+        }
+
+        int digitCount = 0;
+        do {
+            digits[digitCount++] = (char) ('0' + (value % 10));
+            value /= 10;
+        } while (value != 0);
+
+        ensureCapacity(digitCount);
+        while (digitCount > 0) {
+            buffer[length++] = digits[--digitCount];
+        }
+    }
+
+    private void appendFixed(double value, int precision) {
+        if (Double.isNaN(value)) {
+            append("NaN");
+            return;
+        }
+        else if (Double.isInfinite(value)) {
+            append(value > 0 ? "Infinity" : "-Infinity");
+            return;
+        }
+
+        if (value < 0) {
+            append('-');
+            value = -value;
+        }
+
+        long scale = 1;
+        for (int i = 0; i < precision; i++) {
+            scale *= 10;
+        }
+
+        long scaled = Math.round(value * scale);
+        appendLong(scaled / scale);
+
+        if (precision > 0) {
+            append(decimalSeparator);
+
+            // Append the fractional digits including leading zeros
+            long fraction = scaled % scale;
+            for (long divisor = scale / 10; divisor > 0; divisor /= 10) {
+                append((char) ('0' + (fraction / divisor) % 10));
+            }
+        }
+    }
+
+    private static class Template {
+        // literals[i] precedes argument i, and literals[argCount] follows the last argument
+        final String[] literals;
+        final char[] argTypes;
+        final int[] argIndexes;
+        final int[] argPrecisions;
+        final int argCount;
+
+        Template(String format) {
+            ArrayList<String> literalList = new ArrayList<>();
+            ArrayList<int[]> argList = new ArrayList<>();
+            StringBuilder literal = new StringBuilder();
+            int nextSequentialIndex = 0;
+
+            int i = 0;
+            while (i < format.length()) {
+                char c = format.charAt(i++);
+                if (c != '%' || i >= format.length()) {
+                    literal.append(c);
+                    continue;
+                }
+
+                if (format.charAt(i) == '%') {
+                    literal.append('%');
+                    i++;
+                    continue;
+                }
+
+                // Parse [index$][.precision]type
+                int specStart = i;
+                int number = -1;
+                int argIndex = -1;
+                int precision = 6;
+                while (i < format.length() && Character.isDigit(format.charAt(i))) {
+                    number = Math.max(number, 0) * 10 + (format.charAt(i++) - '0');
+                }
+                if (i < format.length() && format.charAt(i) == '$' && number > 0) {
+                    argIndex = number - 1;
+                    i++;
+                }
+                if (i < format.length() && format.charAt(i) == '.') {
+                    precision = 0;
+                    i++;
+                    while (i < format.length() && Character.isDigit(format.charAt(i))) {
+                        precision = precision * 10 + (format.charAt(i++) - '0');
+                    }
+                }
+
+                char type = i < format.length() ? format.charAt(i++) : 0;
+                if (argIndex < 0) {
+                    argIndex = nextSequentialIndex++;
+                }
+
+                if ((type != 's' && type != 'd' && type != 'f') || argIndex >= MAX_ARGS) {
+                    // Not something we can format, so keep it verbatim
+                    literal.append('%').append(format, specStart, i);
+                    continue;
+                }
+
+                literalList.add(literal.toString());
+                literal.setLength(0);
+                argList.add(new int[] {type, argIndex, precision});
+            }
+            literalList.add(literal.toString());
+
+            argCount = argList.size();
+            literals = literalList.toArray(new String[0]);
+            argTypes = new char[argCount];
+            argIndexes = new int[argCount];
+            argPrecisions = new int[argCount];
+            for (int j = 0; j < argCount; j++) {
+                int[] arg = argList.get(j);
+                argTypes[j] = (char) arg[0];
+                argIndexes[j] = arg[1];
+                argPrecisions[j] = arg[2];
+            }
+        }
+    }
+}
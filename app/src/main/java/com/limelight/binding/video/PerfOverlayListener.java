@@ -1,6 +1,5 @@
 package com.limelight.binding.video;
 
 public interface PerfOverlayListener {
-    void onPerfUpdate(final String text);
     boolean isPerfOverlayVisible();
 }
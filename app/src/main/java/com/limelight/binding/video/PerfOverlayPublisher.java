@@ -0,0 +1,36 @@
+package com.limelight.binding.video;
+
+// Handoff of PerfOverlaySnapshot from a single writer (the video receive thread) to any reader.
+//
+// The writer fills a snapshot that only it uses, then copies it into the published snapshot
+// under a lock. Readers copy out of the published snapshot under the same lock. Each copy is a
+// few dozen primitives and happens about once a second, so the lock is never held for long.
+class PerfOverlayPublisher {
+    private final PerfOverlaySnapshot writeSnapshot = new PerfOverlaySnapshot();
+
+    // Guarded by this
+    private final PerfOverlaySnapshot publishedSnapshot = new PerfOverlaySnapshot();
+    private int version;
+
+    // Returns the snapshot to fill. publish() must be called once it's filled.
+    PerfOverlaySnapshot beginWrite() {
+        return writeSnapshot;
+    }
+
+    synchronized void publish() {
+        publishedSnapshot.copy(writeSnapshot);
+        publishedSnapshot.version = ++version;
+    }
+
+    // Copies the latest snapshot into out. Returns false if nothing has been published
+    // since out was last updated.
+    synchronized boolean read(PerfOverlaySnapshot out) {
+        if (version == 0 || version == out.version) {
+            return false;
+        }
+
+        out.copy(publishedSnapshot);
+        out.version = version;
+        return true;
+    }
+}
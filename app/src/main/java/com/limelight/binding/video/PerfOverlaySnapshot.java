@@ -0,0 +1,75 @@
+package com.limelight.binding.video;
+
+// A primitive copy of the values shown in the performance overlay. The decoder publishes these
+// through PerfOverlayPublisher and the UI formats them with PerfOverlayFormatter, so neither side
+// needs to allocate to update the overlay.
+public class PerfOverlaySnapshot {
+    // Version of the snapshot that was last copied into this instance
+    int version;
+
+    String decoderName;
+    int width, height;
+    float totalFps;
+    float receivedFps;
+    float renderedFps;
+    float networkDropPercent;
+    int rttMs, rttVarianceMs;
+
+    boolean hasHostProcessingLatency;
+    float minHostProcessingLatencyMs;
+    float maxHostProcessingLatencyMs;
+    float avgHostProcessingLatencyMs;
+
+    float avgDecodeTimeMs;
+
+    // p50/p95/p99/max for each latency histogram
+    final int[] receiveLatencyPercentiles = new int[4];
+    final int[] decodeLatencyPercentiles = new int[4];
+    boolean hasRenderLatency;
+    final int[] renderLatencyPercentiles = new int[4];
+
+    // p50/p95/p99/max in microseconds for each type of input, filled in by the UI rather than
+    // the decoder. Types with no recorded events are not shown.
+    public static final int INPUT_TYPE_COUNT = 6;
+    final int[] inputLatencyCounts = new int[INPUT_TYPE_COUNT];
+    final int[][] inputLatencyPercentiles = new int[INPUT_TYPE_COUNT][4];
+
+    // The histogram's values are in units of unitUs, but the snapshot holds microseconds
+    public void setInputLatency(int inputType, LatencyHistogram histogram, int unitUs) {
+        int[] percentiles = inputLatencyPercentiles[inputType];
+
+        inputLatencyCounts[inputType] = histogram.getCount();
+        setPercentiles(percentiles, histogram);
+        for (int i = 0; i < percentiles.length; i++) {
+            percentiles[i] *= unitUs;
+        }
+    }
+
+    void setPercentiles(int[] percentiles, LatencyHistogram histogram) {
+        percentiles[0] = histogram.getPercentile(50);
+        percentiles[1] = histogram.getPercentile(95);
+        percentiles[2] = histogram.getPercentile(99);
+        percentiles[3] = histogram.getMax();
+    }
+
+    void copy(PerfOverlaySnapshot other) {
+        this.decoderName = other.decoderName;
+        this.width = other.width;
+        this.height = other.height;
+        this.totalFps = other.totalFps;
+        this.receivedFps = other.receivedFps;
+        this.renderedFps = other.renderedFps;
+        this.networkDropPercent = other.networkDropPercent;
+        this.rttMs = other.rttMs;
+        this.rttVarianceMs = other.rttVarianceMs;
+        this.hasHostProcessingLatency = other.hasHostProcessingLatency;
+        this.minHostProcessingLatencyMs = other.minHostProcessingLatencyMs;
+        this.maxHostProcessingLatencyMs = other.maxHostProcessingLatencyMs;
+        this.avgHostProcessingLatencyMs = other.avgHostProcessingLatencyMs;
+        this.avgDecodeTimeMs = other.avgDecodeTimeMs;
+        System.arraycopy(other.receiveLatencyPercentiles, 0, this.receiveLatencyPercentiles, 0, 4);
+        System.arraycopy(other.decodeLatencyPercentiles, 0, this.decodeLatencyPercentiles, 0, 4);
+        this.hasRenderLatency = other.hasRenderLatency;
+        System.arraycopy(other.renderLatencyPercentiles, 0, this.renderLatencyPercentiles, 0, 4);
+    }
+}
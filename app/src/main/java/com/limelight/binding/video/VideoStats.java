@@ -9,6 +9,8 @@ class VideoStats {
     int totalFrames;
     int totalFramesReceived;
     int totalFramesRendered;
+    int framesDroppedByProducer;
+    int framesDroppedByConsumer;
     int frameLossEvents;
     int framesLost;
     char minHostProcessingLatency;
@@ -17,12 +19,20 @@ class VideoStats {
     int framesWithHostProcessingLatency;
     long measurementStartTimestamp;
 
+    // Per-frame latency distributions for network receive to enqueue, enqueue to decoder
+    // output, and enqueue to display (if the OS reports frame render times)
+    final LatencyHistogram receiveLatency = new LatencyHistogram();
+    final LatencyHistogram decodeLatency = new LatencyHistogram();
+    final LatencyHistogram renderLatency = new LatencyHistogram();
+
     void add(VideoStats other) {
         this.decoderTimeMs += other.decoderTimeMs;
         this.totalTimeMs += other.totalTimeMs;
         this.totalFrames += other.totalFrames;
         this.totalFramesReceived += other.totalFramesReceived;
         this.totalFramesRendered += other.totalFramesRendered;
+        this.framesDroppedByProducer += other.framesDroppedByProducer;
+        this.framesDroppedByConsumer += other.framesDroppedByConsumer;
         this.frameLossEvents += other.frameLossEvents;
         this.framesLost += other.framesLost;
 
@@ -34,6 +44,9 @@ class VideoStats {
         this.maxHostProcessingLatency = (char) Math.max(this.maxHostProcessingLatency, other.maxHostProcessingLatency);
         this.totalHostProcessingLatency += other.totalHostProcessingLatency;
         this.framesWithHostProcessingLatency += other.framesWithHostProcessingLatency;
+        this.receiveLatency.add(other.receiveLatency);
+        this.decodeLatency.add(other.decodeLatency);
+        this.renderLatency.add(other.renderLatency);
 
         if (this.measurementStartTimestamp == 0) {
             this.measurementStartTimestamp = other.measurementStartTimestamp;
@@ -48,12 +61,17 @@ class VideoStats {
         this.totalFrames = other.totalFrames;
         this.totalFramesReceived = other.totalFramesReceived;
         this.totalFramesRendered = other.totalFramesRendered;
+        this.framesDroppedByProducer = other.framesDroppedByProducer;
+        this.framesDroppedByConsumer = other.framesDroppedByConsumer;
         this.frameLossEvents = other.frameLossEvents;
         this.framesLost = other.framesLost;
         this.minHostProcessingLatency = other.minHostProcessingLatency;
         this.maxHostProcessingLatency = other.maxHostProcessingLatency;
         this.totalHostProcessingLatency = other.totalHostProcessingLatency;
         this.framesWithHostProcessingLatency = other.framesWithHostProcessingLatency;
+        this.receiveLatency.copy(other.receiveLatency);
+        this.decodeLatency.copy(other.decodeLatency);
+        this.renderLatency.copy(other.renderLatency);
         this.measurementStartTimestamp = other.measurementStartTimestamp;
     }
 
@@ -63,25 +81,33 @@ class VideoStats {
         this.totalFrames = 0;
         this.totalFramesReceived = 0;
         this.totalFramesRendered = 0;
+        this.framesDroppedByProducer = 0;
+        this.framesDroppedByConsumer = 0;
         this.frameLossEvents = 0;
         this.framesLost = 0;
         this.minHostProcessingLatency = 0;
         this.maxHostProcessingLatency = 0;
         this.totalHostProcessingLatency = 0;
         this.framesWithHostProcessingLatency = 0;
+        this.receiveLatency.clear();
+        this.decodeLatency.clear();
+        this.renderLatency.clear();
         this.measurementStartTimestamp = 0;
     }
 
-    VideoStatsFps getFps() {
+    void getFps(VideoStatsFps fps) {
         float elapsed = (SystemClock.uptimeMillis() - this.measurementStartTimestamp) / (float) 1000;
 
-        VideoStatsFps fps = new VideoStatsFps();
         if (elapsed > 0) {
             fps.totalFps = this.totalFrames / elapsed;
             fps.receivedFps = this.totalFramesReceived / elapsed;
             fps.renderedFps = this.totalFramesRendered / elapsed;
         }
-        return fps;
+        else {
+            fps.totalFps = 0;
+            fps.receivedFps = 0;
+            fps.renderedFps = 0;
+        }
     }
 }
 
@@ -5,9 +5,16 @@ import java.security.cert.CertificateEncodingException;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import com.limelight.LimeLog;
 import com.limelight.nvstream.http.ComputerDetails;
@@ -22,6 +29,9 @@ import android.database.sqlite.SQLiteException;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+// The computers in the database are kept in memory, and changes to them are written back to the
+// database in the background. Polling updates each online computer every few seconds, but its
+// persistent fields rarely change, so most updates don't need to touch the database at all.
 public class ComputerDatabaseManager {
     private static final String COMPUTER_DB_NAME = "computers4.db";
     private static final String COMPUTER_TABLE_NAME = "Computers";
@@ -41,8 +51,29 @@ public class ComputerDatabaseManager {
     private static final String MAC_ADDRESS_COLUMN_NAME = "MacAddress";
     private static final String SERVER_CERT_COLUMN_NAME = "ServerCert";
 
+    // How long to wait for more changes before writing them all in one transaction
+    private static final int WRITE_BEHIND_DELAY_MS = 1000;
+
     private SQLiteDatabase computerDb;
 
+    // The persistent fields of each computer by UUID, guarded by this
+    private final HashMap<String, ComputerDetails> computers = new HashMap<>();
+
+    // Changes that haven't been written yet, with null values for deleted computers.
+    // Guarded by this.
+    private final LinkedHashMap<String, ComputerDetails> pendingWrites = new LinkedHashMap<>();
+    private boolean writeScheduled;
+
+    // Held while writing to the database, so pending changes are written in the order
+    // they were taken even when a write happens on the caller's thread
+    private final Object writeLock = new Object();
+
+    private final ScheduledExecutorService writeExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r);
+        t.setName("Computer DB writer");
+        return t;
+    });
+
     public ComputerDatabaseManager(Context c) {
         try {
             // Create or open an existing DB
@@ -53,9 +84,21 @@ public class ComputerDatabaseManager {
             computerDb = c.openOrCreateDatabase(COMPUTER_DB_NAME, 0, null);
         }
         initializeDb(c);
+
+        // Load every computer up front, so lookups never need to hit the database
+        try (final Cursor cursor = computerDb.rawQuery("SELECT * FROM "+COMPUTER_TABLE_NAME, null)) {
+            while (cursor.moveToNext()) {
+                ComputerDetails details = getComputerFromCursor(cursor);
+                computers.put(details.uuid, details);
+            }
+        }
     }
 
     public void close() {
+        // Drop the delayed write and do it here instead. This only waits for a write
+        // that's already in progress on the writer thread.
+        writeExecutor.shutdownNow();
+        writePendingChanges();
         computerDb.close();
     }
 
@@ -69,20 +112,106 @@ public class ComputerDatabaseManager {
         // Move all computers from the old DB (if any) to the new one
         List<ComputerDetails> oldComputers = LegacyDatabaseReader.migrateAllComputers(c);
         for (ComputerDetails computer : oldComputers) {
-            updateComputer(computer);
+            writeComputer(computer);
         }
         oldComputers = LegacyDatabaseReader2.migrateAllComputers(c);
         for (ComputerDetails computer : oldComputers) {
-            updateComputer(computer);
+            writeComputer(computer);
         }
         oldComputers = LegacyDatabaseReader3.migrateAllComputers(c);
         for (ComputerDetails computer : oldComputers) {
-            updateComputer(computer);
+            writeComputer(computer);
+        }
+    }
+
+    private static ComputerDetails.AddressTuple copyTuple(ComputerDetails.AddressTuple tuple) {
+        return tuple != null ? new ComputerDetails.AddressTuple(tuple.address, tuple.port) : null;
+    }
+
+    // Copies only the fields that we persist, like a computer freshly read from the database.
+    // The address tuples are copied because ComputerDetails.update() can modify them in place.
+    private static ComputerDetails copyPersistentFields(ComputerDetails details) {
+        ComputerDetails copy = new ComputerDetails();
+
+        copy.uuid = details.uuid;
+        copy.name = details.name;
+        copy.localAddress = copyTuple(details.localAddress);
+        copy.remoteAddress = copyTuple(details.remoteAddress);
+        copy.manualAddress = copyTuple(details.manualAddress);
+        copy.ipv6Address = copyTuple(details.ipv6Address);
+        copy.macAddress = details.macAddress;
+        copy.serverCert = details.serverCert;
+
+        // External port is persisted in the remote address field
+        if (copy.remoteAddress != null) {
+            copy.externalPort = copy.remoteAddress.port;
+        }
+        else {
+            copy.externalPort = NvHTTP.DEFAULT_HTTP_PORT;
+        }
+
+        return copy;
+    }
+
+    private static boolean persistentFieldsEqual(ComputerDetails a, ComputerDetails b) {
+        return Objects.equals(a.uuid, b.uuid) &&
+                Objects.equals(a.name, b.name) &&
+                Objects.equals(a.localAddress, b.localAddress) &&
+                Objects.equals(a.remoteAddress, b.remoteAddress) &&
+                Objects.equals(a.manualAddress, b.manualAddress) &&
+                Objects.equals(a.ipv6Address, b.ipv6Address) &&
+                Objects.equals(a.macAddress, b.macAddress) &&
+                Objects.equals(a.serverCert, b.serverCert);
+    }
+
+    // Must be called with the lock held
+    private void scheduleWrite(String uuid, ComputerDetails details) {
+        pendingWrites.put(uuid, details);
+
+        if (!writeScheduled) {
+            writeScheduled = true;
+            writeExecutor.schedule(this::writePendingChanges, WRITE_BEHIND_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void writePendingChanges() {
+        synchronized (writeLock) {
+            Map<String, ComputerDetails> writes;
+            synchronized (this) {
+                writeScheduled = false;
+                if (pendingWrites.isEmpty()) {
+                    return;
+                }
+
+                writes = new LinkedHashMap<>(pendingWrites);
+                pendingWrites.clear();
+            }
+
+            computerDb.beginTransaction();
+            try {
+                for (Map.Entry<String, ComputerDetails> write : writes.entrySet()) {
+                    if (write.getValue() != null) {
+                        writeComputer(write.getValue());
+                    }
+                    else {
+                        computerDb.delete(COMPUTER_TABLE_NAME, COMPUTER_UUID_COLUMN_NAME+"=?", new String[]{write.getKey()});
+                    }
+                }
+                computerDb.setTransactionSuccessful();
+            } finally {
+                computerDb.endTransaction();
+            }
         }
     }
 
     public void deleteComputer(ComputerDetails details) {
-        computerDb.delete(COMPUTER_TABLE_NAME, COMPUTER_UUID_COLUMN_NAME+"=?", new String[]{details.uuid});
+        synchronized (this) {
+            computers.remove(details.uuid);
+            pendingWrites.put(details.uuid, null);
+        }
+
+        // Write this now, so a removed PC doesn't come back if we're killed
+        writePendingChanges();
     }
 
     public static JSONObject tupleToJson(ComputerDetails.AddressTuple tuple) throws JSONException {
@@ -107,7 +236,32 @@ public class ComputerDatabaseManager {
                 address.getString(AddressFields.ADDRESS), address.getInt(AddressFields.PORT));
     }
 
-    public boolean updateComputer(ComputerDetails details) {
+    public void updateComputer(ComputerDetails details) {
+        synchronized (this) {
+            ComputerDetails existing = computers.get(details.uuid);
+            if (existing != null && persistentFieldsEqual(existing, details)) {
+                // Nothing we persist has changed
+                return;
+            }
+
+            ComputerDetails copy = copyPersistentFields(details);
+            computers.put(copy.uuid, copy);
+
+            // Only routine changes like addresses are batched. A new PC or a newly pinned
+            // server certificate (after pairing) is written now, so it's not lost if we're
+            // killed before the delayed write.
+            if (existing != null && Objects.equals(existing.serverCert, copy.serverCert)) {
+                scheduleWrite(copy.uuid, copy);
+                return;
+            }
+
+            pendingWrites.put(copy.uuid, copy);
+        }
+
+        writePendingChanges();
+    }
+
+    private void writeComputer(ComputerDetails details) {
         ContentValues values = new ContentValues();
         values.put(COMPUTER_UUID_COLUMN_NAME, details.uuid);
         values.put(COMPUTER_NAME_COLUMN_NAME, details.name);
@@ -135,7 +289,9 @@ public class ComputerDatabaseManager {
             values.put(SERVER_CERT_COLUMN_NAME, (byte[])null);
             e.printStackTrace();
         }
-        return -1 != computerDb.insertWithOnConflict(COMPUTER_TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+        if (computerDb.insertWithOnConflict(COMPUTER_TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_REPLACE) == -1) {
+            LimeLog.warning("Failed to save computer: "+details.uuid);
+        }
     }
 
     private ComputerDetails getComputerFromCursor(Cursor c) {
@@ -180,27 +336,21 @@ public class ComputerDatabaseManager {
         return details;
     }
 
-    public List<ComputerDetails> getAllComputers() {
-        try (final Cursor c = computerDb.rawQuery("SELECT * FROM "+COMPUTER_TABLE_NAME, null)) {
-            LinkedList<ComputerDetails> computerList = new LinkedList<>();
-            while (c.moveToNext()) {
-                computerList.add(getComputerFromCursor(c));
-            }
-            return computerList;
+    public synchronized List<ComputerDetails> getAllComputers() {
+        LinkedList<ComputerDetails> computerList = new LinkedList<>();
+        for (ComputerDetails details : computers.values()) {
+            computerList.add(copyPersistentFields(details));
         }
+        return computerList;
     }
 
-    public ComputerDetails getComputerByUUID(String uuid) {
-        try (final Cursor c = computerDb.query(
-                COMPUTER_TABLE_NAME, null, COMPUTER_UUID_COLUMN_NAME+"=?",
-                new String[]{ uuid }, null, null, null)
-        ) {
-            if (!c.moveToFirst()) {
-                // No matching computer
-                return null;
-            }
-
-            return getComputerFromCursor(c);
+    public synchronized ComputerDetails getComputerByUUID(String uuid) {
+        ComputerDetails details = computers.get(uuid);
+        if (details == null) {
+            // No matching computer
+            return null;
         }
+
+        return copyPersistentFields(details);
     }
 }
@@ -2,13 +2,23 @@ package com.limelight.computers;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.StringReader;
 import java.net.Inet4Address;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.security.MessageDigest;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -44,6 +54,10 @@ import org.xmlpull.v1.XmlPullParserException;
 
 public class ComputerManagerService extends Service {
     private static final int SERVERINFO_POLLING_PERIOD_MS = 1500;
+    private static final int OFFLINE_MAX_POLLING_PERIOD_MS = 30000;
+    private static final int MAX_CONCURRENT_POLLS = 4;
+    private static final int MAX_CONCURRENT_ADDRESS_PROBES = 16;
+    private static final int IDLE_THREAD_TIMEOUT_MS = 30000;
     private static final int APPLIST_POLLING_PERIOD_MS = 30000;
     private static final int APPLIST_FAILED_POLLING_RETRY_MS = 2000;
     private static final int MDNS_QUERY_PERIOD_MS = 1000;
@@ -64,6 +78,12 @@ public class ComputerManagerService extends Service {
     private boolean pollingActive = false;
     private final Lock defaultNetworkLock = new ReentrantLock();
 
+    // Polls of each computer are scheduled here, and the addresses of each computer are probed
+    // in parallel on the address probe executor. These are separate so a poll waiting on its
+    // probes can never keep them from running.
+    private ScheduledThreadPoolExecutor pollScheduler;
+    private ThreadPoolExecutor addressProbeExecutor;
+
     private ConnectivityManager.NetworkCallback networkCallback;
 
     private DiscoveryService.DiscoveryBinder discoveryBinder;
@@ -161,36 +181,86 @@ public class ComputerManagerService extends Service {
         return true;
     }
 
-    private Thread createPollingThread(final PollingTuple tuple) {
-        Thread t = new Thread() {
-            @Override
-            public void run() {
-
-                int offlineCount = 0;
-                while (!isInterrupted() && pollingActive && tuple.thread == this) {
-                    try {
-                        // Only allow one request to the machine at a time
-                        synchronized (tuple.networkLock) {
-                            // Check if this poll has modified the details
-                            if (!runPoll(tuple.computer, false, offlineCount)) {
-                                LimeLog.warning(tuple.computer.name + " is offline (try " + offlineCount + ")");
-                                offlineCount++;
-                            } else {
-                                tuple.lastSuccessfulPollMs = SystemClock.elapsedRealtime();
-                                offlineCount = 0;
-                            }
-                        }
+    private static ThreadFactory createThreadFactory(final String name) {
+        final AtomicInteger threadCount = new AtomicInteger(0);
+        return r -> {
+            Thread t = new Thread(r);
+            t.setName(name + " " + threadCount.incrementAndGet());
+            return t;
+        };
+    }
 
-                        // Wait until the next polling interval
-                        Thread.sleep(SERVERINFO_POLLING_PERIOD_MS);
-                    } catch (InterruptedException e) {
-                        break;
-                    }
+    private static long getPollingDelayMs(PollingTuple tuple) {
+        if (tuple.computer.state != ComputerDetails.State.OFFLINE) {
+            tuple.offlinePolls = 0;
+            return SERVERINFO_POLLING_PERIOD_MS;
+        }
+
+        // Back off exponentially while the computer stays offline
+        long delayMs = (long)SERVERINFO_POLLING_PERIOD_MS << Math.min(tuple.offlinePolls, 5);
+        tuple.offlinePolls++;
+        return Math.min(delayMs, OFFLINE_MAX_POLLING_PERIOD_MS);
+    }
+
+    // Must be called with the pollingTuples lock held. This replaces any poll that was already
+    // scheduled for the computer, so it's also used to poll a computer early after it changes.
+    private void schedulePoll(final PollingTuple tuple, long delayMs) {
+        if (tuple.pollFuture != null) {
+            tuple.pollFuture.cancel(false);
+        }
+
+        // A poll that is already running won't schedule another after this
+        final int generation = ++tuple.pollGeneration;
+        tuple.pollFuture = pollScheduler.schedule(() -> runScheduledPoll(tuple, generation),
+                delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void cancelPoll(PollingTuple tuple) {
+        if (tuple.pollFuture != null) {
+            // Interrupt a poll in progress
+            tuple.pollFuture.cancel(true);
+            tuple.pollFuture = null;
+        }
+        tuple.pollGeneration++;
+    }
+
+    private void runScheduledPoll(PollingTuple tuple, int generation) {
+        synchronized (pollingTuples) {
+            if (!pollingActive || tuple.pollGeneration != generation) {
+                return;
+            }
+        }
+
+        // Only allow one request to the machine at a time. If another request (like an app
+        // list fetch) is in progress, try again later rather than tying up one of the few
+        // polling threads that other computers need.
+        boolean polled = false;
+        if (tuple.networkLock.tryLock()) {
+            try {
+                // Check if this poll has modified the details
+                if (!runPoll(tuple.computer, false, tuple.offlineCount)) {
+                    LimeLog.warning(tuple.computer.name + " is offline (try " + tuple.offlineCount + ")");
+                    tuple.offlineCount++;
+                } else {
+                    tuple.lastSuccessfulPollMs = SystemClock.elapsedRealtime();
+                    tuple.offlineCount = 0;
                 }
+                polled = true;
+            } catch (InterruptedException e) {
+                // Polling was stopped
+                return;
+            } finally {
+                tuple.networkLock.unlock();
             }
-        };
-        t.setName("Polling thread for " + tuple.computer.name);
-        return t;
+        }
+
+        synchronized (pollingTuples) {
+            // Schedule the next poll unless polling stopped or this poll was replaced
+            if (pollingActive && tuple.pollGeneration == generation) {
+                tuple.pollFuture = pollScheduler.schedule(() -> runScheduledPoll(tuple, generation),
+                        polled ? getPollingDelayMs(tuple) : SERVERINFO_POLLING_PERIOD_MS, TimeUnit.MILLISECONDS);
+            }
+        }
     }
 
     public class ComputerManagerBinder extends Binder {
@@ -215,10 +285,9 @@ public class ComputerManagerService extends Service {
                     // Report this computer initially
                     listener.notifyComputerUpdated(tuple.computer);
 
-                    // This polling thread might already be there
-                    if (tuple.thread == null) {
-                        tuple.thread = createPollingThread(tuple);
-                        tuple.thread.start();
+                    // This computer might already be polling
+                    if (tuple.pollFuture == null) {
+                        schedulePoll(tuple, 0);
                     }
                 }
             }
@@ -296,8 +365,16 @@ public class ComputerManagerService extends Service {
                     if (uuid.equals(tuple.computer.uuid)) {
                         // We need the network lock to prevent a concurrent poll
                         // from wiping this change out
-                        synchronized (tuple.networkLock) {
+                        tuple.networkLock.lock();
+                        try {
                             tuple.computer.state = ComputerDetails.State.UNKNOWN;
+                        } finally {
+                            tuple.networkLock.unlock();
+                        }
+
+                        // Find out the new state as soon as possible
+                        if (pollingActive) {
+                            schedulePoll(tuple, 0);
                         }
                     }
                 }
@@ -316,11 +393,7 @@ public class ComputerManagerService extends Service {
         pollingActive = false;
         synchronized (pollingTuples) {
             for (PollingTuple tuple : pollingTuples) {
-                if (tuple.thread != null) {
-                    // Interrupt and remove the thread
-                    tuple.thread.interrupt();
-                    tuple.thread = null;
-                }
+                cancelPoll(tuple);
             }
         }
 
@@ -443,10 +516,11 @@ public class ComputerManagerService extends Service {
                     // Update the saved computer with potentially new details
                     tuple.computer.update(details);
 
-                    // Start a polling thread if polling is active
-                    if (pollingActive && tuple.thread == null) {
-                        tuple.thread = createPollingThread(tuple);
-                        tuple.thread.start();
+                    // Start polling if polling is active. If we were backing off because the
+                    // computer was offline, go back to polling at the normal rate.
+                    if (pollingActive && (tuple.pollFuture == null || tuple.offlinePolls != 0)) {
+                        tuple.offlinePolls = 0;
+                        schedulePoll(tuple, SERVERINFO_POLLING_PERIOD_MS);
                     }
 
                     // Found an entry so we're done
@@ -455,13 +529,10 @@ public class ComputerManagerService extends Service {
             }
 
             // If we got here, we didn't find an entry
-            PollingTuple tuple = new PollingTuple(details, null);
-            if (pollingActive) {
-                tuple.thread = createPollingThread(tuple);
-            }
+            PollingTuple tuple = new PollingTuple(details);
             pollingTuples.add(tuple);
-            if (tuple.thread != null) {
-                tuple.thread.start();
+            if (pollingActive) {
+                schedulePoll(tuple, 0);
             }
         }
     }
@@ -491,7 +562,7 @@ public class ComputerManagerService extends Service {
         if (fakeDetails.state == ComputerDetails.State.ONLINE) {
             LimeLog.info("New PC ("+fakeDetails.name+") is UUID "+fakeDetails.uuid);
 
-            // Start a polling thread for this machine
+            // Start polling this machine
             addTuple(fakeDetails);
             return true;
         }
@@ -512,11 +583,8 @@ public class ComputerManagerService extends Service {
             // Remove the computer from the computer list
             for (PollingTuple tuple : pollingTuples) {
                 if (tuple.computer.uuid.equals(computer.uuid)) {
-                    if (tuple.thread != null) {
-                        // Interrupt the thread on this entry
-                        tuple.thread.interrupt();
-                        tuple.thread = null;
-                    }
+                    // Stop polling this entry
+                    cancelPoll(tuple);
                     pollingTuples.remove(tuple);
                     break;
                 }
@@ -541,7 +609,9 @@ public class ComputerManagerService extends Service {
         }
     }
 
-    private ComputerDetails tryPollIp(ComputerDetails details, ComputerDetails.AddressTuple address) {
+    private ComputerDetails tryPollIp(ParallelPollTuple tuple) {
+        ComputerDetails details = tuple.existingDetails;
+        ComputerDetails.AddressTuple address = tuple.address;
         try {
             // If the current address's port number matches the active address's port number, we can also assume
             // the HTTPS port will also match. This assumption is currently safe because Sunshine sets all ports
@@ -551,6 +621,10 @@ public class ComputerManagerService extends Service {
 
             NvHTTP http = new NvHTTP(address, portMatchesActiveAddress ? details.httpsPort : 0, idManager.getUniqueId(), details.serverCert,
                     PlatformBinding.getCryptoProvider(ComputerManagerService.this));
+            if (!tuple.setHttp(http)) {
+                // Another address already answered
+                return null;
+            }
 
             // If this PC is currently online at this address, extend the timeouts to allow more time for the PC to respond.
             boolean isLikelyOnline = details.state == ComputerDetails.State.ONLINE && address.equals(details.activeAddress);
@@ -579,120 +653,99 @@ public class ComputerManagerService extends Service {
     }
 
     private static class ParallelPollTuple {
-        public ComputerDetails.AddressTuple address;
-        public ComputerDetails existingDetails;
+        public final ComputerDetails.AddressTuple address;
+        public final ComputerDetails existingDetails;
 
-        public boolean complete;
-        public Thread pollingThread;
-        public ComputerDetails returnedDetails;
+        public Future<ComputerDetails> future;
+
+        // Guarded by this
+        private NvHTTP http;
+        private boolean cancelled;
 
         public ParallelPollTuple(ComputerDetails.AddressTuple address, ComputerDetails existingDetails) {
             this.address = address;
             this.existingDetails = existingDetails;
         }
 
-        public void interrupt() {
-            if (pollingThread != null) {
-                pollingThread.interrupt();
+        // Returns false if this probe has already been cancelled
+        public synchronized boolean setHttp(NvHTTP http) {
+            this.http = http;
+            return !cancelled;
+        }
+
+        public ComputerDetails getResult() throws InterruptedException {
+            if (future == null) {
+                return null;
+            }
+
+            try {
+                return future.get();
+            } catch (ExecutionException e) {
+                LimeLog.warning("Polling "+address+" failed: "+e.getCause());
+                return null;
+            } catch (CancellationException e) {
+                return null;
+            }
+        }
+
+        public void cancel() {
+            NvHTTP http;
+            synchronized (this) {
+                cancelled = true;
+                http = this.http;
+            }
+
+            if (future != null) {
+                future.cancel(true);
+            }
+
+            // Interrupting the probe won't stop it while it's blocked on the network
+            if (http != null) {
+                http.cancel();
             }
         }
     }
 
-    private void startParallelPollThread(ParallelPollTuple tuple, HashSet<ComputerDetails.AddressTuple> uniqueAddresses) {
-        // Don't bother starting a polling thread for an address that doesn't exist
+    private void startParallelPoll(final ParallelPollTuple tuple, HashSet<ComputerDetails.AddressTuple> uniqueAddresses) {
+        // Don't bother probing an address that doesn't exist
         // or if the address has already been polled with an earlier tuple
         if (tuple.address == null || !uniqueAddresses.add(tuple.address)) {
-            tuple.complete = true;
-            tuple.returnedDetails = null;
             return;
         }
 
-        tuple.pollingThread = new Thread() {
-            @Override
-            public void run() {
-                ComputerDetails details = tryPollIp(tuple.existingDetails, tuple.address);
-
-                synchronized (tuple) {
-                    tuple.complete = true; // Done
-                    tuple.returnedDetails = details; // Polling result
-
-                    tuple.notify();
-                }
-            }
-        };
-        tuple.pollingThread.setName("Parallel Poll - "+tuple.address+" - "+tuple.existingDetails.name);
-        tuple.pollingThread.start();
+        tuple.future = addressProbeExecutor.submit(() -> tryPollIp(tuple));
     }
 
     private ComputerDetails parallelPollPc(ComputerDetails details) throws InterruptedException {
-        ParallelPollTuple localInfo = new ParallelPollTuple(details.localAddress, details);
-        ParallelPollTuple manualInfo = new ParallelPollTuple(details.manualAddress, details);
-        ParallelPollTuple remoteInfo = new ParallelPollTuple(details.remoteAddress, details);
-        ParallelPollTuple ipv6Info = new ParallelPollTuple(details.ipv6Address, details);
+        // These are in order of precedence for the deduplication algorithm and
+        // for choosing which responding address we use.
+        ParallelPollTuple[] tuples = {
+                new ParallelPollTuple(details.localAddress, details),
+                new ParallelPollTuple(details.manualAddress, details),
+                new ParallelPollTuple(details.remoteAddress, details),
+                new ParallelPollTuple(details.ipv6Address, details),
+        };
 
-        // These must be started in order of precedence for the deduplication algorithm
-        // to result in the correct behavior.
         HashSet<ComputerDetails.AddressTuple> uniqueAddresses = new HashSet<>();
-        startParallelPollThread(localInfo, uniqueAddresses);
-        startParallelPollThread(manualInfo, uniqueAddresses);
-        startParallelPollThread(remoteInfo, uniqueAddresses);
-        startParallelPollThread(ipv6Info, uniqueAddresses);
+        for (ParallelPollTuple tuple : tuples) {
+            startParallelPoll(tuple, uniqueAddresses);
+        }
 
         try {
-            // Check local first
-            synchronized (localInfo) {
-                while (!localInfo.complete) {
-                    localInfo.wait();
-                }
-
-                if (localInfo.returnedDetails != null) {
-                    localInfo.returnedDetails.activeAddress = localInfo.address;
-                    return localInfo.returnedDetails;
-                }
-            }
-
-            // Now manual
-            synchronized (manualInfo) {
-                while (!manualInfo.complete) {
-                    manualInfo.wait();
-                }
-
-                if (manualInfo.returnedDetails != null) {
-                    manualInfo.returnedDetails.activeAddress = manualInfo.address;
-                    return manualInfo.returnedDetails;
-                }
-            }
-
-            // Now remote IPv4
-            synchronized (remoteInfo) {
-                while (!remoteInfo.complete) {
-                    remoteInfo.wait();
-                }
-
-                if (remoteInfo.returnedDetails != null) {
-                    remoteInfo.returnedDetails.activeAddress = remoteInfo.address;
-                    return remoteInfo.returnedDetails;
-                }
-            }
-
-            // Now global IPv6
-            synchronized (ipv6Info) {
-                while (!ipv6Info.complete) {
-                    ipv6Info.wait();
-                }
-
-                if (ipv6Info.returnedDetails != null) {
-                    ipv6Info.returnedDetails.activeAddress = ipv6Info.address;
-                    return ipv6Info.returnedDetails;
+            // Take the first address in order of precedence that responds
+            for (ParallelPollTuple tuple : tuples) {
+                ComputerDetails returnedDetails = tuple.getResult();
+                if (returnedDetails != null) {
+                    returnedDetails.activeAddress = tuple.address;
+                    return returnedDetails;
                 }
             }
         } finally {
             // Stop any further polling if we've found a working address or we've been
             // interrupted by an attempt to stop polling.
-            localInfo.interrupt();
-            manualInfo.interrupt();
-            remoteInfo.interrupt();
-            ipv6Info.interrupt();
+            for (ParallelPollTuple tuple : tuples) {
+                tuple.cancel();
+            }
         }
 
         return null;
@@ -722,6 +775,17 @@ public class ComputerManagerService extends Service {
         // Lookup or generate this device's UID
         idManager = new IdentityManager(this);
 
+        pollScheduler = new ScheduledThreadPoolExecutor(MAX_CONCURRENT_POLLS,
+                createThreadFactory("Polling thread"));
+        pollScheduler.setKeepAliveTime(IDLE_THREAD_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        pollScheduler.allowCoreThreadTimeOut(true);
+        pollScheduler.setRemoveOnCancelPolicy(true);
+
+        addressProbeExecutor = new ThreadPoolExecutor(MAX_CONCURRENT_ADDRESS_PROBES, MAX_CONCURRENT_ADDRESS_PROBES,
+                IDLE_THREAD_TIMEOUT_MS, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                createThreadFactory("Address probe"));
+        addressProbeExecutor.allowCoreThreadTimeOut(true);
+
         // Initialize the DB
         dbManager = new ComputerDatabaseManager(this);
         dbRefCount.set(1);
@@ -750,6 +814,11 @@ public class ComputerManagerService extends Service {
                             if (listener != null) {
                                 listener.notifyComputerUpdated(tuple.computer);
                             }
+
+                            // Poll right away on the new network
+                            if (pollingActive) {
+                                schedulePoll(tuple, 0);
+                            }
                         }
                     }
                 }
@@ -786,6 +855,8 @@ public class ComputerManagerService extends Service {
         }
 
         // FIXME: Should await termination here but we have timeout issues in HttpURLConnection
+        pollScheduler.shutdownNow();
+        addressProbeExecutor.shutdownNow();
 
         // Remove the initial DB reference
         releaseLocalDatabaseReference();
@@ -801,6 +872,7 @@ public class ComputerManagerService extends Service {
         private final ComputerDetails computer;
         private final Object pollEvent = new Object();
         private boolean receivedAppList = false;
+        private byte[] lastAppListHash;
 
         public ApplistPoller(ComputerDetails computer) {
             this.computer = computer;
@@ -870,21 +942,33 @@ public class ComputerManagerService extends Service {
                             NvHTTP http = new NvHTTP(ServerHelper.getCurrentAddressFromComputer(computer), computer.httpsPort, idManager.getUniqueId(),
                                     computer.serverCert, PlatformBinding.getCryptoProvider(ComputerManagerService.this));
 
-                            String appList;
+                            byte[] appList;
                             if (tuple != null) {
                                 // If we're polling this machine too, grab the network lock
                                 // while doing the app list request to prevent other requests
                                 // from being issued in the meantime.
-                                synchronized (tuple.networkLock) {
-                                    appList = http.getAppListRaw();
+                                tuple.networkLock.lock();
+                                try {
+                                    appList = http.getAppListBytes();
+                                } finally {
+                                    tuple.networkLock.unlock();
                                 }
                             }
                             else {
                                 // No polling is happening now, so we just call it directly
-                                appList = http.getAppListRaw();
+                                appList = http.getAppListBytes();
                             }
 
-                            List<NvApp> list = NvHTTP.getAppListByReader(new StringReader(appList));
+                            // Most polls return the same app list as last time, so we compare
+                            // hashes of the response before doing any parsing. There's nothing
+                            // for the cache or the listener to do if it hasn't changed.
+                            byte[] appListHash = NvHTTP.getAppListHash(appList);
+                            if (MessageDigest.isEqual(appListHash, lastAppListHash)) {
+                                receivedAppList = true;
+                                continue;
+                            }
+
+                            List<NvApp> list = NvHTTP.getAppListByBytes(appList);
                             if (list.isEmpty()) {
                                 LimeLog.warning("Empty app list received from "+computer.uuid);
 
@@ -892,13 +976,13 @@ public class ComputerManagerService extends Service {
                                 // in a row, we'll go ahead and believe it.
                                 emptyAppListResponses++;
                             }
-                            if (!appList.isEmpty() &&
+                            if (appList.length != 0 &&
                                     (!list.isEmpty() || emptyAppListResponses >= EMPTY_LIST_THRESHOLD)) {
                                 // Open the cache file
                                 try (final OutputStream cacheOut = CacheHelper.openCacheFileForOutput(
                                         getCacheDir(), "applist", computer.uuid)
                                 ) {
-                                    CacheHelper.writeStringToOutputStream(cacheOut, appList);
+                                    cacheOut.write(appList);
                                 } catch (IOException e) {
                                     e.printStackTrace();
                                 }
@@ -909,7 +993,9 @@ public class ComputerManagerService extends Service {
                                 }
 
                                 // Update the computer
-                                computer.rawAppList = appList;
+                                computer.appList = Collections.unmodifiableList(list);
+                                computer.appListHash = appListHash;
+                                lastAppListHash = appListHash;
                                 receivedAppList = true;
 
                                 // Notify that the app list has been updated
@@ -918,7 +1004,7 @@ public class ComputerManagerService extends Service {
                                     listener.notifyComputerUpdated(computer);
                                 }
                             }
-                            else if (appList.isEmpty()) {
+                            else if (appList.length == 0) {
                                 LimeLog.warning("Null app list received from "+computer.uuid);
                             }
                         } catch (IOException e) {
@@ -946,15 +1032,21 @@ public class ComputerManagerService extends Service {
 }
 
 class PollingTuple {
-    public Thread thread;
     public final ComputerDetails computer;
-    public final Object networkLock;
+    public final Lock networkLock;
     public long lastSuccessfulPollMs;
 
-    public PollingTuple(ComputerDetails computer, Thread thread) {
+    // Guarded by the pollingTuples lock
+    public ScheduledFuture<?> pollFuture;
+    public int pollGeneration;
+    public int offlinePolls;
+
+    // Guarded by networkLock
+    public int offlineCount;
+
+    public PollingTuple(ComputerDetails computer) {
         this.computer = computer;
-        this.thread = thread;
-        this.networkLock = new Object();
+        this.networkLock = new ReentrantLock();
     }
 }
 
@@ -15,11 +15,13 @@ import com.limelight.grid.assets.DiskAssetLoader;
 import com.limelight.grid.assets.MemoryAssetLoader;
 import com.limelight.grid.assets.NetworkAssetLoader;
 import com.limelight.nvstream.http.ComputerDetails;
+import com.limelight.nvstream.http.NvApp;
 import com.limelight.preferences.PreferenceConfiguration;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -130,28 +132,65 @@ public class AppGridAdapter extends GenericGridAdapter<AppView.AppObject> {
         });
     }
 
-    public void addApp(AppView.AppObject app) {
-        // Update hidden state
-        app.isHidden = hiddenAppIds.contains(app.app.getAppId());
+    // Brings the grid up to date with the latest app list from the host, matching apps by ID.
+    // The apps that were added and removed are appended to the given lists. Returns true if
+    // anything changed, in which case the caller must call notifyDataSetChanged().
+    public boolean updateApps(List<NvApp> apps, List<NvApp> addedApps, List<NvApp> removedApps) {
+        HashMap<Integer, AppView.AppObject> staleApps = new HashMap<>();
+        for (AppView.AppObject app : allApps) {
+            staleApps.put(app.app.getAppId(), app);
+        }
+
+        boolean updated = false;
+        for (NvApp app : apps) {
+            AppView.AppObject existingApp = staleApps.remove(app.getAppId());
+            if (existingApp != null) {
+                // Found the app; update its properties
+                if (!existingApp.app.getAppName().equals(app.getAppName())) {
+                    existingApp.app.setAppName(app.getAppName());
+                    updated = true;
+                }
+                existingApp.app.setHdrSupported(app.isHdrSupported());
+                continue;
+            }
 
-        // Always add the app to the all apps list
-        allApps.add(app);
-        sortList(allApps);
+            // This app must be new
+            AppView.AppObject newApp = new AppView.AppObject(app);
+            newApp.isHidden = hiddenAppIds.contains(app.getAppId());
 
-        // Add the app to the adapter data if it's not hidden
-        if (showHiddenApps || !app.isHidden) {
-            // Queue a request to fetch this bitmap into cache
-            loader.queueCacheLoad(app.app);
+            // Always add the app to the all apps list
+            allApps.add(newApp);
 
-            // Add the app to our sorted list
-            itemList.add(app);
+            // Add the app to the adapter data if it's not hidden
+            if (showHiddenApps || !newApp.isHidden) {
+                // Queue a request to fetch this bitmap into cache
+                loader.queueCacheLoad(app);
+                itemList.add(newApp);
+            }
+
+            addedApps.add(app);
+            updated = true;
+        }
+
+        // Anything we didn't find was removed in the latest app list
+        if (!staleApps.isEmpty()) {
+            HashSet<AppView.AppObject> removed = new HashSet<>(staleApps.values());
+            allApps.removeAll(removed);
+            itemList.removeAll(removed);
+
+            for (AppView.AppObject app : removed) {
+                removedApps.add(app.app);
+            }
+            updated = true;
+        }
+
+        // Sort once for the whole update rather than once per added app
+        if (updated) {
+            sortList(allApps);
             sortList(itemList);
         }
-    }
 
-    public void removeApp(AppView.AppObject app) {
-        itemList.remove(app);
-        allApps.remove(app);
+        return updated;
     }
 
     @Override
@@ -0,0 +1,140 @@
+package com.limelight.nvstream;
+
+import com.limelight.nvstream.jni.MoonBridge;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// Encodes input events into a reusable direct buffer so they can be passed to the native code
+// with a single JNI call. Each record is a type byte followed by the arguments of the matching
+// LiSend*() function in native byte order, without any padding.
+class InputBatch {
+    // These must match the INPUT_BATCH_* constants in simplejni.c
+    private static final byte INPUT_BATCH_MOUSE_MOVE = 1;
+    private static final byte INPUT_BATCH_MOUSE_POSITION = 2;
+    private static final byte INPUT_BATCH_MOUSE_MOVE_AS_POSITION = 3;
+    private static final byte INPUT_BATCH_MOUSE_BUTTON = 4;
+    private static final byte INPUT_BATCH_CONTROLLER = 5;
+    private static final byte INPUT_BATCH_KEYBOARD = 6;
+    private static final byte INPUT_BATCH_SCROLL = 7;
+    private static final byte INPUT_BATCH_HSCROLL = 8;
+    private static final byte INPUT_BATCH_TOUCH = 9;
+    private static final byte INPUT_BATCH_PEN = 10;
+    private static final byte INPUT_BATCH_CONTROLLER_TOUCH = 11;
+    private static final byte INPUT_BATCH_CONTROLLER_MOTION = 12;
+
+    private static final int BUFFER_SIZE = 4096;
+
+    // Larger than the largest record, which is a pen event
+    private static final int MAX_RECORD_SIZE = 32;
+
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.nativeOrder());
+
+    // Whether any input was put in this batch or sent around it since takeSentInput()
+    private boolean sentInput;
+
+    private void beginRecord(byte type) {
+        if (buffer.remaining() < MAX_RECORD_SIZE) {
+            flush();
+        }
+
+        buffer.put(type);
+        sentInput = true;
+    }
+
+    // Called for input that had to be sent synchronously while batching
+    void markSentInput() {
+        sentInput = true;
+    }
+
+    boolean takeSentInput() {
+        boolean ret = sentInput;
+        sentInput = false;
+        return ret;
+    }
+
+    void flush() {
+        if (buffer.position() > 0) {
+            MoonBridge.sendInputBatch(buffer, buffer.position());
+            buffer.clear();
+        }
+    }
+
+    void putMouseMove(short deltaX, short deltaY) {
+        beginRecord(INPUT_BATCH_MOUSE_MOVE);
+        buffer.putShort(deltaX).putShort(deltaY);
+    }
+
+    void putMousePosition(short x, short y, short referenceWidth, short referenceHeight) {
+        beginRecord(INPUT_BATCH_MOUSE_POSITION);
+        buffer.putShort(x).putShort(y).putShort(referenceWidth).putShort(referenceHeight);
+    }
+
+    void putMouseMoveAsMousePosition(short deltaX, short deltaY, short referenceWidth, short referenceHeight) {
+        beginRecord(INPUT_BATCH_MOUSE_MOVE_AS_POSITION);
+        buffer.putShort(deltaX).putShort(deltaY).putShort(referenceWidth).putShort(referenceHeight);
+    }
+
+    void putMouseButton(byte buttonEvent, byte mouseButton) {
+        beginRecord(INPUT_BATCH_MOUSE_BUTTON);
+        buffer.put(buttonEvent).put(mouseButton);
+    }
+
+    void putControllerInput(short controllerNumber, short activeGamepadMask, int buttonFlags,
+                            byte leftTrigger, byte rightTrigger,
+                            short leftStickX, short leftStickY,
+                            short rightStickX, short rightStickY) {
+        beginRecord(INPUT_BATCH_CONTROLLER);
+        buffer.putShort(controllerNumber).putShort(activeGamepadMask).putInt(buttonFlags)
+                .put(leftTrigger).put(rightTrigger)
+                .putShort(leftStickX).putShort(leftStickY)
+                .putShort(rightStickX).putShort(rightStickY);
+    }
+
+    void putKeyboardInput(short keyMap, byte keyDirection, byte modifier, byte flags) {
+        beginRecord(INPUT_BATCH_KEYBOARD);
+        buffer.putShort(keyMap).put(keyDirection).put(modifier).put(flags);
+    }
+
+    void putMouseHighResScroll(short scrollAmount) {
+        beginRecord(INPUT_BATCH_SCROLL);
+        buffer.putShort(scrollAmount);
+    }
+
+    void putMouseHighResHScroll(short scrollAmount) {
+        beginRecord(INPUT_BATCH_HSCROLL);
+        buffer.putShort(scrollAmount);
+    }
+
+    void putTouchEvent(byte eventType, int pointerId, float x, float y, float pressureOrDistance,
+                       float contactAreaMajor, float contactAreaMinor, short rotation) {
+        beginRecord(INPUT_BATCH_TOUCH);
+        buffer.put(eventType).putInt(pointerId)
+                .putFloat(x).putFloat(y).putFloat(pressureOrDistance)
+                .putFloat(contactAreaMajor).putFloat(contactAreaMinor)
+                .putShort(rotation);
+    }
+
+    void putPenEvent(byte eventType, byte toolType, byte penButtons, float x, float y,
+                     float pressureOrDistance, float contactAreaMajor, float contactAreaMinor,
+                     short rotation, byte tilt) {
+        beginRecord(INPUT_BATCH_PEN);
+        buffer.put(eventType).put(toolType).put(penButtons)
+                .putFloat(x).putFloat(y).putFloat(pressureOrDistance)
+                .putFloat(contactAreaMajor).putFloat(contactAreaMinor)
+                .putShort(rotation).put(tilt);
+    }
+
+    void putControllerTouchEvent(byte controllerNumber, byte eventType, int pointerId,
+                                 float x, float y, float pressure) {
+        beginRecord(INPUT_BATCH_CONTROLLER_TOUCH);
+        buffer.put(controllerNumber).put(eventType).putInt(pointerId)
+                .putFloat(x).putFloat(y).putFloat(pressure);
+    }
+
+    void putControllerMotionEvent(byte controllerNumber, byte motionType, float x, float y, float z) {
+        beginRecord(INPUT_BATCH_CONTROLLER_MOTION);
+        buffer.put(controllerNumber).put(motionType)
+                .putFloat(x).putFloat(y).putFloat(z);
+    }
+}
@@ -37,6 +37,7 @@ import com.limelight.nvstream.http.LimelightCryptoProvider;
 import com.limelight.nvstream.http.NvApp;
 import com.limelight.nvstream.http.NvHTTP;
 import com.limelight.nvstream.http.PairingManager;
+import com.limelight.nvstream.http.ServerInfo;
 import com.limelight.nvstream.input.MouseButtonPacket;
 import com.limelight.nvstream.jni.MoonBridge;
 
@@ -47,6 +48,21 @@ public class NvConnection {
     private ConnectionContext context;
     private static Semaphore connectionAllowed = new Semaphore(1);
     private final boolean isMonkey;
+
+    // Input sent by inputBatchThread is queued in inputBatch until the outermost
+    // endInputBatch() call, then submitted to the native code with a single JNI call.
+    private final InputBatch inputBatch = new InputBatch();
+    private volatile Thread inputBatchThread;
+    private int inputBatchDepth;
+
+    // Whether the host supports each type of input that may return LI_ERR_UNSUPPORTED. This
+    // can't change during a connection, so once we know the answer from a synchronous send,
+    // later events of that type can be batched. These are accessed by the UI thread and the
+    // threads that send sensor and USB controller input, so each is read once per event.
+    private static final int INPUT_SUPPORT_UNKNOWN = 0;
+    private static final int INPUT_SUPPORTED = 1;
+    private static final int INPUT_UNSUPPORTED = 2;
+    private volatile int touchSupport, penSupport, controllerTouchSupport, controllerMotionSupport;
     private final Context appContext;
 
     public NvConnection(Context appContext, ComputerDetails.AddressTuple host, int httpsPort, String uniqueId, StreamConfiguration config, LimelightCryptoProvider cryptoProvider, X509Certificate serverCert)
@@ -223,9 +239,9 @@ public class NvConnection {
     {
         NvHTTP h = new NvHTTP(context.serverAddress, context.httpsPort, uniqueId, context.serverCert, cryptoProvider);
 
-        String serverInfo = h.getServerInfo(true);
+        ServerInfo serverInfo = h.getServerInfo(true);
         
-        context.serverAppVersion = h.getServerVersion(serverInfo);
+        context.serverAppVersion = serverInfo.getServerVersion();
         if (context.serverAppVersion == null) {
             context.connListener.displayMessage("Server version malformed");
             return false;
@@ -235,14 +251,14 @@ public class NvConnection {
         context.isNvidiaServerSoftware = details.nvidiaServer;
 
         // May be missing for older servers
-        context.serverGfeVersion = h.getGfeVersion(serverInfo);
+        context.serverGfeVersion = serverInfo.getGfeVersion();
                 
-        if (h.getPairState(serverInfo) != PairingManager.PairState.PAIRED) {
+        if (serverInfo.getPairState() != PairingManager.PairState.PAIRED) {
             context.connListener.displayMessage("Device not paired with computer");
             return false;
         }
 
-        context.serverCodecModeSupport = (int)h.getServerCodecModeSupport(serverInfo);
+        context.serverCodecModeSupport = (int)serverInfo.getServerCodecModeSupport();
 
         context.negotiatedHdr = (context.streamConfig.getSupportedVideoFormats() & MoonBridge.VIDEO_FORMAT_MASK_10BIT) != 0;
         if ((context.serverCodecModeSupport & 0x20200) == 0 && context.negotiatedHdr) {
@@ -256,7 +272,7 @@ public class NvConnection {
         
         // Check for a supported stream resolution
         if ((context.streamConfig.getWidth() > 4096 || context.streamConfig.getHeight() > 4096) &&
-                (h.getServerCodecModeSupport(serverInfo) & 0x200) == 0 && context.isNvidiaServerSoftware) {
+                (serverInfo.getServerCodecModeSupport() & 0x200) == 0 && context.isNvidiaServerSoftware) {
             context.connListener.displayMessage("Your host PC does not support streaming at resolutions above 4K.");
             return false;
         }
@@ -265,7 +281,7 @@ public class NvConnection {
             context.connListener.displayMessage("Your streaming device must support HEVC or AV1 to stream at resolutions above 4K.");
             return false;
         }
-        else if (context.streamConfig.getHeight() >= 2160 && !h.supports4K(serverInfo)) {
+        else if (context.streamConfig.getHeight() >= 2160 && !serverInfo.supports4K()) {
             // Client wants 4K but the server can't do it
             context.connListener.displayTransientMessage("You must update GeForce Experience to stream in 4K. The stream will be 1080p.");
             
@@ -308,9 +324,9 @@ public class NvConnection {
         }
         
         // If there's a game running, resume it
-        if (h.getCurrentGame(serverInfo) != 0) {
+        if (serverInfo.getCurrentGame() != 0) {
             try {
-                if (h.getCurrentGame(serverInfo) == app.getAppId()) {
+                if (serverInfo.getCurrentGame() == app.getAppId()) {
                     if (!h.launchApp(context, "resume", app.getAppId(), context.negotiatedHdr)) {
                         context.connListener.displayMessage("Failed to resume existing session");
                         return false;
@@ -450,39 +466,119 @@ public class NvConnection {
         }).start();
     }
     
+    // Input sent on this thread until the matching endInputBatch() call is submitted to the
+    // native code at once. These calls may be nested. Only one thread can batch input at a
+    // time, and input sent from other threads is never batched.
+    public synchronized void beginInputBatch() {
+        if (inputBatchThread == null) {
+            inputBatchThread = Thread.currentThread();
+            inputBatch.takeSentInput();
+        }
+        if (inputBatchThread == Thread.currentThread()) {
+            inputBatchDepth++;
+        }
+    }
+
+    // Returns true if this ended the outermost batch and any input was sent during it
+    public synchronized boolean endInputBatch() {
+        if (inputBatchThread == Thread.currentThread() && --inputBatchDepth == 0) {
+            inputBatch.flush();
+            inputBatchThread = null;
+            return inputBatch.takeSentInput();
+        }
+
+        return false;
+    }
+
+    private boolean isBatchingInput() {
+        return inputBatchThread == Thread.currentThread();
+    }
+
+    // Input that can't be batched must not be reordered ahead of input that already was.
+    // This is called just before sending that input.
+    private void flushInputBatchIfBatching() {
+        if (isBatchingInput()) {
+            inputBatch.flush();
+            inputBatch.markSentInput();
+        }
+    }
+
+    // Submits any input batched so far on this thread without ending the batch. This is for
+    // input that must reach the native code before the caller releases a lock it shares with
+    // threads that don't batch.
+    public void flushInputBatch() {
+        flushInputBatchIfBatching();
+    }
+
+    private static int getInputSupport(int err) {
+        if (err == MoonBridge.LI_ERR_UNSUPPORTED) {
+            return INPUT_UNSUPPORTED;
+        }
+        else if (err == 0) {
+            return INPUT_SUPPORTED;
+        }
+        else {
+            // Any other error doesn't tell us whether the host supports it
+            return INPUT_SUPPORT_UNKNOWN;
+        }
+    }
+
     public void sendMouseMove(final short deltaX, final short deltaY)
     {
         if (!isMonkey) {
-            MoonBridge.sendMouseMove(deltaX, deltaY);
+            if (isBatchingInput()) {
+                inputBatch.putMouseMove(deltaX, deltaY);
+            }
+            else {
+                MoonBridge.sendMouseMove(deltaX, deltaY);
+            }
         }
     }
 
     public void sendMousePosition(short x, short y, short referenceWidth, short referenceHeight)
     {
         if (!isMonkey) {
-            MoonBridge.sendMousePosition(x, y, referenceWidth, referenceHeight);
+            if (isBatchingInput()) {
+                inputBatch.putMousePosition(x, y, referenceWidth, referenceHeight);
+            }
+            else {
+                MoonBridge.sendMousePosition(x, y, referenceWidth, referenceHeight);
+            }
         }
     }
 
     public void sendMouseMoveAsMousePosition(short deltaX, short deltaY, short referenceWidth, short referenceHeight)
     {
         if (!isMonkey) {
-            MoonBridge.sendMouseMoveAsMousePosition(deltaX, deltaY, referenceWidth, referenceHeight);
+            if (isBatchingInput()) {
+                inputBatch.putMouseMoveAsMousePosition(deltaX, deltaY, referenceWidth, referenceHeight);
+            }
+            else {
+                MoonBridge.sendMouseMoveAsMousePosition(deltaX, deltaY, referenceWidth, referenceHeight);
+            }
         }
     }
 
-    public void sendMouseButtonDown(final byte mouseButton)
+    private void sendMouseButton(final byte buttonEvent, final byte mouseButton)
     {
         if (!isMonkey) {
-            MoonBridge.sendMouseButton(MouseButtonPacket.PRESS_EVENT, mouseButton);
+            if (isBatchingInput()) {
+                inputBatch.putMouseButton(buttonEvent, mouseButton);
+            }
+            else {
+                MoonBridge.sendMouseButton(buttonEvent, mouseButton);
+            }
         }
     }
+
+    public void sendMouseButtonDown(final byte mouseButton)
+    {
+        sendMouseButton(MouseButtonPacket.PRESS_EVENT, mouseButton);
+    }
     
     public void sendMouseButtonUp(final byte mouseButton)
     {
-        if (!isMonkey) {
-            MoonBridge.sendMouseButton(MouseButtonPacket.RELEASE_EVENT, mouseButton);
-        }
+        sendMouseButton(MouseButtonPacket.RELEASE_EVENT, mouseButton);
     }
     
     public void sendControllerInput(final short controllerNumber,
@@ -492,95 +588,149 @@ public class NvConnection {
             final short rightStickX, final short rightStickY)
     {
         if (!isMonkey) {
-            MoonBridge.sendMultiControllerInput(controllerNumber, activeGamepadMask, buttonFlags,
-                    leftTrigger, rightTrigger, leftStickX, leftStickY, rightStickX, rightStickY);
+            if (isBatchingInput()) {
+                inputBatch.putControllerInput(controllerNumber, activeGamepadMask, buttonFlags,
+                        leftTrigger, rightTrigger, leftStickX, leftStickY, rightStickX, rightStickY);
+            }
+            else {
+                MoonBridge.sendMultiControllerInput(controllerNumber, activeGamepadMask, buttonFlags,
+                        leftTrigger, rightTrigger, leftStickX, leftStickY, rightStickX, rightStickY);
+            }
         }
     }
 
     public void sendKeyboardInput(final short keyMap, final byte keyDirection, final byte modifier, final byte flags) {
         if (!isMonkey) {
-            MoonBridge.sendKeyboardInput(keyMap, keyDirection, modifier, flags);
+            if (isBatchingInput()) {
+                inputBatch.putKeyboardInput(keyMap, keyDirection, modifier, flags);
+            }
+            else {
+                MoonBridge.sendKeyboardInput(keyMap, keyDirection, modifier, flags);
+            }
         }
     }
     
     public void sendMouseScroll(final byte scrollClicks) {
-        if (!isMonkey) {
-            MoonBridge.sendMouseHighResScroll((short)(scrollClicks * 120)); // WHEEL_DELTA
-        }
+        sendMouseHighResScroll((short)(scrollClicks * 120)); // WHEEL_DELTA
     }
 
     public void sendMouseHScroll(final byte scrollClicks) {
-        if (!isMonkey) {
-            MoonBridge.sendMouseHighResHScroll((short)(scrollClicks * 120)); // WHEEL_DELTA
-        }
+        sendMouseHighResHScroll((short)(scrollClicks * 120)); // WHEEL_DELTA
     }
 
     public void sendMouseHighResScroll(final short scrollAmount) {
         if (!isMonkey) {
-            MoonBridge.sendMouseHighResScroll(scrollAmount);
+            if (isBatchingInput()) {
+                inputBatch.putMouseHighResScroll(scrollAmount);
+            }
+            else {
+                MoonBridge.sendMouseHighResScroll(scrollAmount);
+            }
         }
     }
 
     public void sendMouseHighResHScroll(final short scrollAmount) {
         if (!isMonkey) {
-            MoonBridge.sendMouseHighResHScroll(scrollAmount);
+            if (isBatchingInput()) {
+                inputBatch.putMouseHighResHScroll(scrollAmount);
+            }
+            else {
+                MoonBridge.sendMouseHighResHScroll(scrollAmount);
+            }
         }
     }
 
     public int sendTouchEvent(byte eventType, int pointerId, float x, float y, float pressureOrDistance,
                               float contactAreaMajor, float contactAreaMinor, short rotation) {
-        if (!isMonkey) {
-            return MoonBridge.sendTouchEvent(eventType, pointerId, x, y, pressureOrDistance,
+        int support = touchSupport;
+        if (isMonkey || support == INPUT_UNSUPPORTED) {
+            return MoonBridge.LI_ERR_UNSUPPORTED;
+        }
+        else if (support == INPUT_SUPPORTED && isBatchingInput()) {
+            inputBatch.putTouchEvent(eventType, pointerId, x, y, pressureOrDistance,
                     contactAreaMajor, contactAreaMinor, rotation);
+            return 0;
         }
         else {
-            return MoonBridge.LI_ERR_UNSUPPORTED;
+            flushInputBatchIfBatching();
+            int err = MoonBridge.sendTouchEvent(eventType, pointerId, x, y, pressureOrDistance,
+                    contactAreaMajor, contactAreaMinor, rotation);
+            touchSupport = getInputSupport(err);
+            return err;
         }
     }
 
     public int sendPenEvent(byte eventType, byte toolType, byte penButtons, float x, float y,
                             float pressureOrDistance, float contactAreaMajor, float contactAreaMinor,
                             short rotation, byte tilt) {
-        if (!isMonkey) {
-            return MoonBridge.sendPenEvent(eventType, toolType, penButtons, x, y, pressureOrDistance,
+        int support = penSupport;
+        if (isMonkey || support == INPUT_UNSUPPORTED) {
+            return MoonBridge.LI_ERR_UNSUPPORTED;
+        }
+        else if (support == INPUT_SUPPORTED && isBatchingInput()) {
+            inputBatch.putPenEvent(eventType, toolType, penButtons, x, y, pressureOrDistance,
                     contactAreaMajor, contactAreaMinor, rotation, tilt);
+            return 0;
         }
         else {
-            return MoonBridge.LI_ERR_UNSUPPORTED;
+            flushInputBatchIfBatching();
+            int err = MoonBridge.sendPenEvent(eventType, toolType, penButtons, x, y, pressureOrDistance,
+                    contactAreaMajor, contactAreaMinor, rotation, tilt);
+            penSupport = getInputSupport(err);
+            return err;
         }
     }
 
     public int sendControllerArrivalEvent(byte controllerNumber, short activeGamepadMask, byte type,
                                           int supportedButtonFlags, short capabilities) {
+        flushInputBatchIfBatching();
         return MoonBridge.sendControllerArrivalEvent(controllerNumber, activeGamepadMask, type, supportedButtonFlags, capabilities);
     }
 
     public int sendControllerTouchEvent(byte controllerNumber, byte eventType, int pointerId,
                                         float x, float y, float pressure) {
-        if (!isMonkey) {
-            return MoonBridge.sendControllerTouchEvent(controllerNumber, eventType, pointerId, x, y, pressure);
+        int support = controllerTouchSupport;
+        if (isMonkey || support == INPUT_UNSUPPORTED) {
+            return MoonBridge.LI_ERR_UNSUPPORTED;
+        }
+        else if (support == INPUT_SUPPORTED && isBatchingInput()) {
+            inputBatch.putControllerTouchEvent(controllerNumber, eventType, pointerId, x, y, pressure);
+            return 0;
         }
         else {
-            return MoonBridge.LI_ERR_UNSUPPORTED;
+            flushInputBatchIfBatching();
+            int err = MoonBridge.sendControllerTouchEvent(controllerNumber, eventType, pointerId, x, y, pressure);
+            controllerTouchSupport = getInputSupport(err);
+            return err;
         }
     }
 
     public int sendControllerMotionEvent(byte controllerNumber, byte motionType,
                                          float x, float y, float z) {
-        if (!isMonkey) {
-            return MoonBridge.sendControllerMotionEvent(controllerNumber, motionType, x, y, z);
+        int support = controllerMotionSupport;
+        if (isMonkey || support == INPUT_UNSUPPORTED) {
+            return MoonBridge.LI_ERR_UNSUPPORTED;
+        }
+        else if (support == INPUT_SUPPORTED && isBatchingInput()) {
+            inputBatch.putControllerMotionEvent(controllerNumber, motionType, x, y, z);
+            return 0;
         }
         else {
-            return MoonBridge.LI_ERR_UNSUPPORTED;
+            flushInputBatchIfBatching();
+            int err = MoonBridge.sendControllerMotionEvent(controllerNumber, motionType, x, y, z);
+            controllerMotionSupport = getInputSupport(err);
+            return err;
         }
     }
 
     public void sendControllerBatteryEvent(byte controllerNumber, byte batteryState, byte batteryPercentage) {
+        flushInputBatchIfBatching();
         MoonBridge.sendControllerBatteryEvent(controllerNumber, batteryState, batteryPercentage);
     }
 
     public void sendUtf8Text(final String text) {
         if (!isMonkey) {
+            flushInputBatchIfBatching();
             MoonBridge.sendUtf8Text(text);
         }
     }
@@ -2,6 +2,8 @@ package com.limelight.nvstream.av.audio;
 
 import com.limelight.nvstream.jni.MoonBridge;
 
+import java.nio.ByteBuffer;
+
 public interface AudioRenderer {
     int setup(MoonBridge.AudioConfiguration audioConfiguration, int sampleRate, int samplesPerFrame);
 
@@ -12,4 +14,16 @@ public interface AudioRenderer {
     void playDecodedAudio(short[] audioData);
     
     void cleanup();
+
+    // Renderers that return AR_SUBMIT_MODE_DIRECT_BUFFER will not receive playDecodedAudio()
+    // calls. Instead, decoded audio is written into the buffer passed to setDirectBuffer() and
+    // the renderer must fetch it with MoonBridge.waitForDecodedAudio().
+    default int getSubmitMode() {
+        return MoonBridge.AR_SUBMIT_MODE_SHORT_ARRAY;
+    }
+
+    // Renderers that return AR_SUBMIT_MODE_NATIVE play decoded audio through a native output
+    // stream that they opened in setup() and won't receive decoded audio in Java at all.
+    // This is called after setup() if the renderer is using AR_SUBMIT_MODE_DIRECT_BUFFER
+    default void setDirectBuffer(ByteBuffer buffer) {}
 }
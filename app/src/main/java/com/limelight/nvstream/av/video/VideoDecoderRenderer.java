@@ -1,5 +1,9 @@
 package com.limelight.nvstream.av.video;
 
+import com.limelight.nvstream.jni.MoonBridge;
+
+import java.nio.ByteBuffer;
+
 public abstract class VideoDecoderRenderer {
     public abstract int setup(int format, int width, int height, int redrawRate);
 
@@ -7,15 +11,45 @@ public abstract class VideoDecoderRenderer {
 
     public abstract void stop();
 
-    // This is called once for each frame-start NALU. This means it will be called several times
-    // for an IDR frame which contains several parameter sets and the I-frame data.
-    public abstract int submitDecodeUnit(byte[] decodeUnitData, int decodeUnitLength, int decodeUnitType,
-                                         int frameNumber, int frameType, char frameHostProcessingLatency,
-                                         long receiveTimeMs, long enqueueTimeMs);
-    
+    // This is called once for each frame. All NALUs in the frame are packed into frameData and
+    // described by descriptorCount entries of FRAME_DESCRIPTOR_SIZE ints in descriptors. For IDR
+    // frames, the parameter set entries will precede the picture data entries.
+    public abstract int submitFrame(byte[] frameData, int[] descriptors, int descriptorCount,
+                                    int frameNumber, int frameType, char frameHostProcessingLatency,
+                                    long receiveTimeMs, long enqueueTimeMs);
+
     public abstract void cleanup();
 
     public abstract int getCapabilities();
 
     public abstract void setHdrMode(boolean enabled, byte[] hdrMetadata);
+
+    // Renderers that return DR_SUBMIT_MODE_DIRECT_BUFFER will have picture data written by native
+    // code directly into the buffer returned by getDirectSubmitBuffer() instead of submitFrame().
+    public int getSubmitMode() {
+        return MoonBridge.DR_SUBMIT_MODE_BYTE_ARRAY;
+    }
+
+    // Parameter sets for this frame (if any) are provided in the same form as submitFrame().
+    // Returns a buffer positioned where the picture data should be written, with at least
+    // picDataLength bytes remaining. Returning null drops the frame, and getDirectSubmitStatus()
+    // is then called to find out what to report for it.
+    public ByteBuffer getDirectSubmitBuffer(byte[] csdData, int[] csdDescriptors, int csdDescriptorCount,
+                                            int picDataLength, int frameNumber, int frameType,
+                                            char frameHostProcessingLatency, long receiveTimeMs, long enqueueTimeMs) {
+        return null;
+    }
+
+    // Returns the result for the last frame that getDirectSubmitBuffer() returned null for.
+    // DR_NEED_IDR requests an IDR frame, while DR_OK just drops the frame.
+    public int getDirectSubmitStatus() {
+        return MoonBridge.DR_NEED_IDR;
+    }
+
+    // This is called after the picture data has been written into the buffer returned from
+    // getDirectSubmitBuffer(). If the buffer was not a direct buffer, the picture data will
+    // be provided in fallbackData and must be copied by the renderer.
+    public int submitDirectDecodeUnit(byte[] fallbackData, int decodeUnitLength) {
+        return MoonBridge.DR_NEED_IDR;
+    }
 }
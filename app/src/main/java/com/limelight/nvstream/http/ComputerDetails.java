@@ -1,6 +1,7 @@
 package com.limelight.nvstream.http;
 
 import java.security.cert.X509Certificate;
+import java.util.List;
 import java.util.Objects;
 
 
@@ -74,7 +75,8 @@ public class ComputerDetails {
     public int externalPort;
     public PairingManager.PairState pairState;
     public int runningGameId;
-    public String rawAppList;
+    public List<NvApp> appList;
+    public byte[] appListHash;
     public boolean nvidiaServer;
 
     public ComputerDetails() {
@@ -145,7 +147,11 @@ public class ComputerDetails {
         this.pairState = details.pairState;
         this.runningGameId = details.runningGameId;
         this.nvidiaServer = details.nvidiaServer;
-        this.rawAppList = details.rawAppList;
+        // Serverinfo polls don't carry an app list, so don't let them clear ours
+        if (details.appList != null) {
+            this.appList = details.appList;
+            this.appListHash = details.appListHash;
+        }
     }
 
     @Override
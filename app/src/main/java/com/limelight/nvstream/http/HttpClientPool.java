@@ -0,0 +1,225 @@
+package com.limelight.nvstream.http;
+
+import java.net.Proxy;
+import java.net.Socket;
+import java.security.KeyManagementException;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.NoSuchAlgorithmException;
+import java.security.Principal;
+import java.security.PrivateKey;
+import java.security.SecureRandom;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509KeyManager;
+import javax.net.ssl.X509TrustManager;
+
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+
+// OkHttp clients shared by every NvHTTP instance with the same client certificate and pinned
+// server certificate. NvHTTP objects are created for each poll, app list fetch and box art
+// request, so sharing the clients lets those requests reuse TLS sessions and kept-alive
+// connections instead of doing a full handshake on a new connection every time.
+//
+// Idle connections are kept alive for a short time. This is safe for both GFE and Sunshine:
+// OkHttp retries a request on a new connection if the host closed a pooled one, and the
+// client certificate is checked during the TLS handshake, so a pooled connection can only
+// outlive our pairing, which NvHTTP.unpair() handles by evicting the idle connections.
+class HttpClientPool {
+    // Longer than the polling period, so polls of an online host reuse their connection
+    private static final int KEEP_ALIVE_DURATION_MS = 10000;
+    private static final int MAX_IDLE_CONNECTIONS = 5;
+
+    // Each host and pairing gets an entry, so only keep the most recently used ones
+    private static final int MAX_POOL_ENTRIES = 8;
+
+    static class Clients {
+        final OkHttpClient longConnectTimeout;
+        final OkHttpClient longConnectNoReadTimeout;
+        final OkHttpClient shortConnectTimeout;
+
+        private Clients(OkHttpClient longConnectTimeout) {
+            // Clients built from another share its connection pool and dispatcher
+            this.longConnectTimeout = longConnectTimeout;
+            this.shortConnectTimeout = longConnectTimeout.newBuilder()
+                    .connectTimeout(NvHTTP.SHORT_CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS)
+                    .build();
+            this.longConnectNoReadTimeout = longConnectTimeout.newBuilder()
+                    .readTimeout(0, TimeUnit.MILLISECONDS)
+                    .build();
+        }
+    }
+
+    private static class Key {
+        private final X509Certificate clientCert;
+        private final X509Certificate serverCert;
+
+        private Key(X509Certificate clientCert, X509Certificate serverCert) {
+            this.clientCert = clientCert;
+            this.serverCert = serverCert;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            Key other = (Key) o;
+            return Objects.equals(clientCert, other.clientCert) && Objects.equals(serverCert, other.serverCert);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(clientCert, serverCert);
+        }
+    }
+
+    private static final LinkedHashMap<Key, Clients> pool = new LinkedHashMap<Key, Clients>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Clients> eldest) {
+            if (size() > MAX_POOL_ENTRIES) {
+                // NvHTTP objects still using these clients keep working, but their
+                // connections are no longer kept alive for anyone else
+                eldest.getValue().longConnectTimeout.connectionPool().evictAll();
+                return true;
+            }
+
+            return false;
+        }
+    };
+    private static X509TrustManager defaultTrustManager;
+
+    private static X509TrustManager getDefaultTrustManager() {
+        try {
+            TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            tmf.init((KeyStore) null);
+
+            for (TrustManager tm : tmf.getTrustManagers()) {
+                if (tm instanceof X509TrustManager) {
+                    return (X509TrustManager) tm;
+                }
+            }
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        } catch (KeyStoreException e) {
+            throw new RuntimeException(e);
+        }
+
+        throw new IllegalStateException("No X509 trust manager found");
+    }
+
+    static synchronized Clients getClients(LimelightCryptoProvider cryptoProvider, X509Certificate serverCert) {
+        Key key = new Key(cryptoProvider.getClientCertificate(), serverCert);
+
+        Clients clients = pool.get(key);
+        if (clients == null) {
+            if (defaultTrustManager == null) {
+                defaultTrustManager = getDefaultTrustManager();
+            }
+
+            clients = createClients(cryptoProvider, serverCert, defaultTrustManager);
+            pool.put(key, clients);
+        }
+
+        return clients;
+    }
+
+    private static Clients createClients(final LimelightCryptoProvider cryptoProvider, final X509Certificate serverCert,
+                                         final X509TrustManager defaultTrustManager) {
+        X509KeyManager keyManager = new X509KeyManager() {
+            public String chooseClientAlias(String[] keyTypes,
+                    Principal[] issuers, Socket socket) { return "Limelight-RSA"; }
+            public String chooseServerAlias(String keyType, Principal[] issuers,
+                    Socket socket) { return null; }
+            public X509Certificate[] getCertificateChain(String alias) {
+                return new X509Certificate[] {cryptoProvider.getClientCertificate()};
+            }
+            public String[] getClientAliases(String keyType, Principal[] issuers) { return null; }
+            public PrivateKey getPrivateKey(String alias) {
+                return cryptoProvider.getClientPrivateKey();
+            }
+            public String[] getServerAliases(String keyType, Principal[] issuers) { return null; }
+        };
+
+        X509TrustManager trustManager = new X509TrustManager() {
+            public X509Certificate[] getAcceptedIssuers() {
+                return new X509Certificate[0];
+            }
+            public void checkClientTrusted(X509Certificate[] certs, String authType) {
+                throw new IllegalStateException("Should never be called");
+            }
+            public void checkServerTrusted(X509Certificate[] certs, String authType) throws CertificateException {
+                try {
+                    // Try the default trust manager first to allow pairing with certificates
+                    // that chain up to a trusted root CA. This will raise CertificateException
+                    // if the certificate is not trusted (expected for GFE's self-signed certs).
+                    defaultTrustManager.checkServerTrusted(certs, authType);
+                } catch (CertificateException e) {
+                    // Check the server certificate if we've paired to this host
+                    if (certs.length == 1 && serverCert != null) {
+                        if (!certs[0].equals(serverCert)) {
+                            throw new CertificateException("Certificate mismatch");
+                        }
+                    }
+                    else {
+                        // The cert chain doesn't look like a self-signed cert or we don't have
+                        // a certificate pinned, so re-throw the original validation error.
+                        throw e;
+                    }
+                }
+            }
+        };
+
+        HostnameVerifier hv = new HostnameVerifier() {
+            public boolean verify(String hostname, SSLSession session) {
+                try {
+                    Certificate[] certificates = session.getPeerCertificates();
+                    if (certificates.length == 1 && certificates[0].equals(serverCert)) {
+                        // Allow any hostname if it's our pinned cert
+                        return true;
+                    }
+                } catch (SSLPeerUnverifiedException e) {
+                    e.printStackTrace();
+                }
+
+                // Fall back to default HostnameVerifier for validating CA-issued certs
+                return HttpsURLConnection.getDefaultHostnameVerifier().verify(hostname, session);
+            }
+        };
+
+        // A single SSLContext per pool entry, so its session cache lets later
+        // connections to the same host resume their TLS session
+        SSLContext sc;
+        try {
+            sc = SSLContext.getInstance("TLS");
+            sc.init(new KeyManager[] { keyManager }, new TrustManager[] { trustManager }, new SecureRandom());
+        } catch (NoSuchAlgorithmException | KeyManagementException e) {
+            throw new RuntimeException(e);
+        }
+
+        return new Clients(new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_DURATION_MS, TimeUnit.MILLISECONDS))
+                .sslSocketFactory(sc.getSocketFactory(), trustManager)
+                .hostnameVerifier(hv)
+                .readTimeout(NvHTTP.READ_TIMEOUT, TimeUnit.MILLISECONDS)
+                .connectTimeout(NvHTTP.LONG_CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS)
+                .proxy(Proxy.NO_PROXY)
+                .build());
+    }
+}
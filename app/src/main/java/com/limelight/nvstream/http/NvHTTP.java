@@ -2,6 +2,7 @@ package com.limelight.nvstream.http;
 
 import android.os.Build;
 
+import java.io.ByteArrayInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
@@ -10,37 +11,19 @@ import java.io.Reader;
 import java.io.StringReader;
 import java.net.Inet4Address;
 import java.net.InetAddress;
-import java.net.Proxy;
-import java.net.Socket;
-import java.security.KeyManagementException;
-import java.security.KeyStore;
-import java.security.KeyStoreException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.security.Principal;
-import java.security.PrivateKey;
-import java.security.SecureRandom;
-import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.util.LinkedList;
 import java.util.ListIterator;
 import java.util.Stack;
 import java.util.UUID;
-import java.util.concurrent.TimeUnit;
 
-import javax.net.ssl.HostnameVerifier;
-import javax.net.ssl.HttpsURLConnection;
-import javax.net.ssl.KeyManager;
-import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLHandshakeException;
-import javax.net.ssl.SSLPeerUnverifiedException;
-import javax.net.ssl.SSLSession;
 import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
-import javax.net.ssl.TrustManager;
-import javax.net.ssl.TrustManagerFactory;
-import javax.net.ssl.X509KeyManager;
-import javax.net.ssl.X509TrustManager;
 
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
@@ -49,10 +32,9 @@ import org.xmlpull.v1.XmlPullParserFactory;
 import com.limelight.BuildConfig;
 import com.limelight.LimeLog;
 import com.limelight.nvstream.ConnectionContext;
-import com.limelight.nvstream.http.PairingManager.PairState;
 import com.limelight.nvstream.jni.MoonBridge;
 
-import okhttp3.ConnectionPool;
+import okhttp3.Call;
 import okhttp3.HttpUrl;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
@@ -81,119 +63,40 @@ public class NvHTTP {
     private OkHttpClient httpClientLongConnectNoReadTimeout;
     private OkHttpClient httpClientShortConnectTimeout;
 
-    private X509TrustManager defaultTrustManager;
-    private X509TrustManager trustManager;
-    private X509KeyManager keyManager;
+    private final LimelightCryptoProvider cryptoProvider;
     private X509Certificate serverCert;
 
-    void setServerCert(X509Certificate serverCert) {
-        this.serverCert = serverCert;
-    }
+    // Guarded by this
+    private Call activeCall;
+    private boolean cancelled;
 
-    private static X509TrustManager getDefaultTrustManager() {
-        try {
-            TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
-            tmf.init((KeyStore) null);
+    // Creating a factory looks up the parser implementation, so we only do that once
+    private static XmlPullParserFactory xmlPullParserFactory;
 
-            for (TrustManager tm : tmf.getTrustManagers()) {
-                if (tm instanceof X509TrustManager) {
-                    return (X509TrustManager) tm;
-                }
-            }
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException(e);
-        } catch (KeyStoreException e) {
-            throw new RuntimeException(e);
-        }
+    void setServerCert(X509Certificate serverCert) {
+        this.serverCert = serverCert;
 
-        throw new IllegalStateException("No X509 trust manager found");
+        // The pinned certificate is part of the TLS state, so switch to the clients for it
+        initializeHttpClients();
     }
 
-    private void initializeHttpState(final LimelightCryptoProvider cryptoProvider) {
-        keyManager = new X509KeyManager() {
-            public String chooseClientAlias(String[] keyTypes,
-                    Principal[] issuers, Socket socket) { return "Limelight-RSA"; }
-            public String chooseServerAlias(String keyType, Principal[] issuers,
-                    Socket socket) { return null; }
-            public X509Certificate[] getCertificateChain(String alias) {
-                return new X509Certificate[] {cryptoProvider.getClientCertificate()};
-            }
-            public String[] getClientAliases(String keyType, Principal[] issuers) { return null; }
-            public PrivateKey getPrivateKey(String alias) {
-                return cryptoProvider.getClientPrivateKey();
-            }
-            public String[] getServerAliases(String keyType, Principal[] issuers) { return null; }
-        };
-
-        defaultTrustManager = getDefaultTrustManager();
-        trustManager = new X509TrustManager() {
-            public X509Certificate[] getAcceptedIssuers() {
-                return new X509Certificate[0];
-            }
-            public void checkClientTrusted(X509Certificate[] certs, String authType) {
-                throw new IllegalStateException("Should never be called");
-            }
-            public void checkServerTrusted(X509Certificate[] certs, String authType) throws CertificateException {
-                try {
-                    // Try the default trust manager first to allow pairing with certificates
-                    // that chain up to a trusted root CA. This will raise CertificateException
-                    // if the certificate is not trusted (expected for GFE's self-signed certs).
-                    defaultTrustManager.checkServerTrusted(certs, authType);
-                } catch (CertificateException e) {
-                    // Check the server certificate if we've paired to this host
-                    if (certs.length == 1 && NvHTTP.this.serverCert != null) {
-                        if (!certs[0].equals(NvHTTP.this.serverCert)) {
-                            throw new CertificateException("Certificate mismatch");
-                        }
-                    }
-                    else {
-                        // The cert chain doesn't look like a self-signed cert or we don't have
-                        // a certificate pinned, so re-throw the original validation error.
-                        throw e;
-                    }
-                }
-            }
-        };
-
-        HostnameVerifier hv = new HostnameVerifier() {
-            public boolean verify(String hostname, SSLSession session) {
-                try {
-                    Certificate[] certificates = session.getPeerCertificates();
-                    if (certificates.length == 1 && certificates[0].equals(NvHTTP.this.serverCert)) {
-                        // Allow any hostname if it's our pinned cert
-                        return true;
-                    }
-                } catch (SSLPeerUnverifiedException e) {
-                    e.printStackTrace();
-                }
-
-                // Fall back to default HostnameVerifier for validating CA-issued certs
-                return HttpsURLConnection.getDefaultHostnameVerifier().verify(hostname, session);
-            }
-        };
-
-        httpClientLongConnectTimeout = new OkHttpClient.Builder()
-                .connectionPool(new ConnectionPool(0, 1, TimeUnit.MILLISECONDS))
-                .hostnameVerifier(hv)
-                .readTimeout(READ_TIMEOUT, TimeUnit.MILLISECONDS)
-                .connectTimeout(LONG_CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS)
-                .proxy(Proxy.NO_PROXY)
-                .build();
-
-        httpClientShortConnectTimeout = httpClientLongConnectTimeout.newBuilder()
-                .connectTimeout(SHORT_CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS)
-                .build();
-
-        httpClientLongConnectNoReadTimeout = httpClientLongConnectTimeout.newBuilder()
-                .readTimeout(0, TimeUnit.MILLISECONDS)
-                .build();
+    private void initializeHttpClients() {
+        HttpClientPool.Clients clients = HttpClientPool.getClients(cryptoProvider, serverCert);
+        httpClientLongConnectTimeout = clients.longConnectTimeout;
+        httpClientLongConnectNoReadTimeout = clients.longConnectNoReadTimeout;
+        httpClientShortConnectTimeout = clients.shortConnectTimeout;
     }
 
     public HttpUrl getHttpsUrl(boolean likelyOnline) throws IOException {
         if (httpsPort == 0) {
             // Fetch the HTTPS port if we don't have it already
-            httpsPort = getHttpsPort(openHttpConnectionToString(likelyOnline ? httpClientLongConnectTimeout : httpClientShortConnectTimeout,
-                    baseUrlHttp, "serverinfo"));
+            try {
+                httpsPort = openServerInfo(likelyOnline ? httpClientLongConnectTimeout : httpClientShortConnectTimeout,
+                        baseUrlHttp).getHttpsPort(DEFAULT_HTTPS_PORT);
+            } catch (XmlPullParserException e) {
+                e.printStackTrace();
+                httpsPort = DEFAULT_HTTPS_PORT;
+            }
         }
 
         return new HttpUrl.Builder().scheme("https").host(baseUrlHttp.host()).port(httpsPort).build();
@@ -205,8 +108,9 @@ public class NvHTTP {
         this.uniqueId = "0123456789ABCDEF";
 
         this.serverCert = serverCert;
+        this.cryptoProvider = cryptoProvider;
 
-        initializeHttpState(cryptoProvider);
+        initializeHttpClients();
 
         this.httpsPort = httpsPort;
 
@@ -236,10 +140,17 @@ public class NvHTTP {
         this.pm = new PairingManager(this, cryptoProvider);
     }
 
+    static synchronized XmlPullParser newPullParser() throws XmlPullParserException {
+        if (xmlPullParserFactory == null) {
+            xmlPullParserFactory = XmlPullParserFactory.newInstance();
+            xmlPullParserFactory.setNamespaceAware(true);
+        }
+
+        return xmlPullParserFactory.newPullParser();
+    }
+
     static String getXmlString(Reader r, String tagname, boolean throwIfMissing) throws XmlPullParserException, IOException {
-        XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
-        factory.setNamespaceAware(true);
-        XmlPullParser xpp = factory.newPullParser();
+        XmlPullParser xpp = newPullParser();
 
         xpp.setInput(r);
         int eventType = xpp.getEventType();
@@ -280,7 +191,7 @@ public class NvHTTP {
         return getXmlString(new StringReader(str), tagname, throwIfMissing);
     }
     
-    private static void verifyResponseStatus(XmlPullParser xpp) throws HostHttpResponseException {
+    static void verifyResponseStatus(XmlPullParser xpp) throws HostHttpResponseException {
         // We use Long.parseLong() because in rare cases GFE can send back a status code of
         // 0xFFFFFFFF, which will cause Integer.parseInt() to throw a NumberFormatException due
         // to exceeding Integer.MAX_VALUE. We'll get the desired error code of -1 by just casting
@@ -298,8 +209,14 @@ public class NvHTTP {
         }
     }
     
-    public String getServerInfo(boolean likelyOnline) throws IOException, XmlPullParserException {
-        String resp;
+    private ServerInfo openServerInfo(OkHttpClient client, HttpUrl baseUrl) throws IOException, XmlPullParserException {
+        try (final ResponseBody resp = openHttpConnection(client, baseUrl, "serverinfo")) {
+            return ServerInfo.parse(new InputStreamReader(resp.byteStream()));
+        }
+    }
+
+    public ServerInfo getServerInfo(boolean likelyOnline) throws IOException, XmlPullParserException {
+        ServerInfo resp;
 
         // If we believe the PC is online, give it a little extra time to respond
         OkHttpClient client = likelyOnline ? httpClientLongConnectTimeout : httpClientShortConnectTimeout;
@@ -314,7 +231,7 @@ public class NvHTTP {
         if (serverCert != null) {
             try {
                 try {
-                    resp = openHttpConnectionToString(client, getHttpsUrl(likelyOnline), "serverinfo");
+                    resp = openServerInfo(client, getHttpsUrl(likelyOnline));
                 } catch (SSLHandshakeException e) {
                     // Detect if we failed due to a server cert mismatch
                     if (e.getCause() instanceof CertificateException) {
@@ -327,14 +244,14 @@ public class NvHTTP {
                     }
                 }
 
-                // This will throw an exception if the request came back with a failure status.
+                // Parsing will throw an exception if the request came back with a failure status.
                 // We want this because it will throw us into the HTTP case if the client is unpaired.
-                getServerVersion(resp);
+                resp.getServerVersion();
             }
             catch (HostHttpResponseException e) {
                 if (e.getErrorCode() == 401) {
                     // Cert validation error - fall back to HTTP
-                    return openHttpConnectionToString(client, baseUrlHttp, "serverinfo");
+                    return openServerInfo(client, baseUrlHttp);
                 }
 
                 // If it's not a cert validation error, throw it
@@ -345,7 +262,7 @@ public class NvHTTP {
         }
         else {
             // No pinned cert, so use HTTP
-            return openHttpConnectionToString(client, baseUrlHttp, "serverinfo");
+            return openServerInfo(client, baseUrlHttp);
         }
     }
 
@@ -357,33 +274,32 @@ public class NvHTTP {
         return new ComputerDetails.AddressTuple(address, port);
     }
 
-    public ComputerDetails getComputerDetails(String serverInfo) throws IOException, XmlPullParserException {
+    public ComputerDetails getComputerDetails(ServerInfo serverInfo) throws IOException, XmlPullParserException {
         ComputerDetails details = new ComputerDetails();
 
-        details.name = getXmlString(serverInfo, "hostname", false);
+        details.name = serverInfo.getHostname();
         if (details.name == null || details.name.isEmpty()) {
             details.name = "UNKNOWN";
         }
 
         // UUID is mandatory to determine which machine is responding
-        details.uuid = getXmlString(serverInfo, "uniqueid", true);
+        details.uuid = serverInfo.getUniqueId();
 
-        details.httpsPort = getHttpsPort(serverInfo);
+        details.httpsPort = serverInfo.getHttpsPort(DEFAULT_HTTPS_PORT);
 
-        details.macAddress = getXmlString(serverInfo, "mac", false);
+        details.macAddress = serverInfo.getMacAddress();
 
         // FIXME: Do we want to use the current port?
-        details.localAddress = makeTuple(getXmlString(serverInfo, "LocalIP", false), baseUrlHttp.port());
+        details.localAddress = makeTuple(serverInfo.getLocalIp(), baseUrlHttp.port());
 
         // This is missing on on recent GFE versions, but it's present on Sunshine
-        details.externalPort = getExternalPort(serverInfo);
-        details.remoteAddress = makeTuple(getXmlString(serverInfo, "ExternalIP", false), details.externalPort);
+        details.externalPort = serverInfo.getExternalPort(baseUrlHttp.port());
+        details.remoteAddress = makeTuple(serverInfo.getExternalIp(), details.externalPort);
 
-        details.pairState = getPairState(serverInfo);
-        details.runningGameId = getCurrentGame(serverInfo);
+        details.pairState = serverInfo.getPairState();
+        details.runningGameId = serverInfo.getCurrentGame();
 
-        // The MJOLNIR codename was used by GFE but never by any third-party server
-        details.nvidiaServer = getXmlString(serverInfo, "state", true).contains("MJOLNIR");
+        details.nvidiaServer = serverInfo.isNvidiaServer();
 
         // We could reach it so it's online
         details.state = ComputerDetails.State.ONLINE;
@@ -395,20 +311,6 @@ public class NvHTTP {
         return getComputerDetails(getServerInfo(likelyOnline));
     }
 
-    // This hack is Android-specific but we do it on all platforms
-    // because it doesn't really matter
-    private OkHttpClient performAndroidTlsHack(OkHttpClient client) {
-        // Doing this each time we create a socket is required
-        // to avoid the SSLv3 fallback that causes connection failures
-        try {
-            SSLContext sc = SSLContext.getInstance("TLS");
-            sc.init(new KeyManager[] { keyManager }, new TrustManager[] { trustManager }, new SecureRandom());
-            return client.newBuilder().sslSocketFactory(sc.getSocketFactory(), trustManager).build();
-        } catch (NoSuchAlgorithmException | KeyManagementException e) {
-            throw new RuntimeException(e);
-        }
-    }
-
     private HttpUrl getCompleteUrl(HttpUrl baseUrl, String path, String query) {
         return baseUrl.newBuilder()
                 .addPathSegment(path)
@@ -429,7 +331,14 @@ public class NvHTTP {
     private ResponseBody openHttpConnection(OkHttpClient client, HttpUrl baseUrl, String path, String query) throws IOException {
         HttpUrl completeUrl = getCompleteUrl(baseUrl, path, query);
         Request request = new Request.Builder().url(completeUrl).get().build();
-        Response response = performAndroidTlsHack(client).newCall(request).execute();
+        Call call = client.newCall(request);
+        synchronized (this) {
+            if (cancelled) {
+                throw new IOException("Canceled");
+            }
+            activeCall = call;
+        }
+        Response response = call.execute();
 
         ResponseBody body = response.body();
         
@@ -475,115 +384,8 @@ public class NvHTTP {
         }
     }
 
-    public String getServerVersion(String serverInfo) throws XmlPullParserException, IOException {
-        // appversion is present in all supported GFE versions
-        return getXmlString(serverInfo, "appversion", true);
-    }
-
     public PairingManager.PairState getPairState() throws IOException, XmlPullParserException {
-        return getPairState(getServerInfo(true));
-    }
-
-    public PairingManager.PairState getPairState(String serverInfo) throws IOException, XmlPullParserException {
-        // appversion is present in all supported GFE versions
-        return NvHTTP.getXmlString(serverInfo, "PairStatus", true).equals("1") ?
-                PairState.PAIRED : PairState.NOT_PAIRED;
-    }
-    
-    public long getMaxLumaPixelsH264(String serverInfo) throws XmlPullParserException, IOException {
-        // MaxLumaPixelsH264 wasn't present on old GFE versions
-        String str = getXmlString(serverInfo, "MaxLumaPixelsH264", false);
-        if (str != null) {
-            return Long.parseLong(str);
-        } else {
-            return 0;
-        }
-    }
-    
-    public long getMaxLumaPixelsHEVC(String serverInfo) throws XmlPullParserException, IOException {
-        // MaxLumaPixelsHEVC wasn't present on old GFE versions
-        String str = getXmlString(serverInfo, "MaxLumaPixelsHEVC", false);
-        if (str != null) {
-            return Long.parseLong(str);
-        } else {
-            return 0;
-        }
-    }
-
-    // Possible meaning of bits
-    // Bit 0: H.264 Baseline
-    // Bit 1: H.264 High
-    // ----
-    // Bit 8: HEVC Main
-    // Bit 9: HEVC Main10
-    // Bit 10: HEVC Main10 4:4:4
-    // Bit 11: ???
-    public long getServerCodecModeSupport(String serverInfo) throws XmlPullParserException, IOException {
-        // ServerCodecModeSupport wasn't present on old GFE versions
-        String str = getXmlString(serverInfo, "ServerCodecModeSupport", false);
-        if (str != null) {
-            return Long.parseLong(str);
-        } else {
-            return 0;
-        }
-    }
-    
-    public String getGpuType(String serverInfo) throws XmlPullParserException, IOException {
-        // ServerCodecModeSupport wasn't present on old GFE versions
-        return getXmlString(serverInfo, "gputype", false);
-    }
-
-    public String getGfeVersion(String serverInfo) throws XmlPullParserException, IOException {
-        // ServerCodecModeSupport wasn't present on old GFE versions
-        return getXmlString(serverInfo, "GfeVersion", false);
-    }
-    
-    public boolean supports4K(String serverInfo) throws XmlPullParserException, IOException {
-        // Only allow 4K on GFE 3.x. GfeVersion wasn't present on very old versions of GFE.
-        String gfeVersionStr = getXmlString(serverInfo, "GfeVersion", false);
-        if (gfeVersionStr == null || gfeVersionStr.startsWith("2.")) {
-            return false;
-        }
-
-        return true;
-    }
-
-    public int getCurrentGame(String serverInfo) throws IOException, XmlPullParserException {
-        // GFE 2.8 started keeping currentgame set to the last game played. As a result, it no longer
-        // has the semantics that its name would indicate. To contain the effects of this change as much
-        // as possible, we'll force the current game to zero if the server isn't in a streaming session.
-        if (getXmlString(serverInfo, "state", true).endsWith("_SERVER_BUSY")) {
-            return Integer.parseInt(getXmlString(serverInfo, "currentgame", true));
-        }
-        else {
-            return 0;
-        }
-    }
-
-    public int getHttpsPort(String serverInfo) {
-        try {
-            return Integer.parseInt(getXmlString(serverInfo, "HttpsPort", true));
-        } catch (XmlPullParserException e) {
-            e.printStackTrace();
-            return DEFAULT_HTTPS_PORT;
-        } catch (IOException e) {
-            e.printStackTrace();
-            return DEFAULT_HTTPS_PORT;
-        }
-    }
-
-    public int getExternalPort(String serverInfo) {
-        // This is an extension which is not present in GFE. It is present for Sunshine to be able
-        // to support dynamic HTTP WAN ports without requiring the user to manually enter the port.
-        try {
-            return Integer.parseInt(getXmlString(serverInfo, "ExternalPort", true));
-        } catch (XmlPullParserException e) {
-            // Expected on non-Sunshine servers
-            return baseUrlHttp.port();
-        } catch (IOException e) {
-            e.printStackTrace();
-            return baseUrlHttp.port();
-        }
+        return getServerInfo(true).getPairState();
     }
 
     public NvApp getAppById(int appId) throws IOException, XmlPullParserException {
@@ -610,14 +412,26 @@ public class NvHTTP {
         return null;
     }
 
+    // Aborts the request in progress and fails any later requests. This is used to stop
+    // waiting on hosts whose response we no longer need.
+    public void cancel() {
+        Call call;
+        synchronized (this) {
+            cancelled = true;
+            call = activeCall;
+        }
+
+        if (call != null) {
+            call.cancel();
+        }
+    }
+
     public PairingManager getPairingManager() {
         return pm;
     }
     
     public static LinkedList<NvApp> getAppListByReader(Reader r) throws XmlPullParserException, IOException {
-        XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
-        factory.setNamespaceAware(true);
-        XmlPullParser xpp = factory.newPullParser();
+        XmlPullParser xpp = newPullParser();
 
         xpp.setInput(r);
         int eventType = xpp.getEventType();
@@ -676,9 +490,35 @@ public class NvHTTP {
         return appList;
     }
     
+    public static LinkedList<NvApp> getAppListByBytes(byte[] appList) throws XmlPullParserException, IOException {
+        return getAppListByReader(new InputStreamReader(new ByteArrayInputStream(appList), StandardCharsets.UTF_8));
+    }
+
+    // Identifies an app list response, so an unchanged list can be detected without parsing it
+    public static byte[] getAppListHash(byte[] appList) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(appList);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     public String getAppListRaw() throws IOException {
         return openHttpConnectionToString(httpClientLongConnectTimeout, getHttpsUrl(true), "applist");
     }
+
+    // The undecoded app list response, which is hashed and cached as-is by the app list poller
+    public byte[] getAppListBytes() throws IOException {
+        try (final ResponseBody resp = openHttpConnection(httpClientLongConnectTimeout, getHttpsUrl(true), "applist")) {
+            byte[] appList = resp.bytes();
+
+            if (verbose) {
+                LimeLog.info(getCompleteUrl(getHttpsUrl(true), "applist", null)+" -> "+new String(appList, StandardCharsets.UTF_8));
+            }
+
+            return appList;
+        }
+    }
     
     public LinkedList<NvApp> getAppList() throws HostHttpResponseException, IOException, XmlPullParserException {
         if (verbose) {
@@ -704,6 +544,9 @@ public class NvHTTP {
 
     public void unpair() throws IOException {
         openHttpConnectionToString(httpClientLongConnectTimeout, baseUrlHttp, "unpair");
+
+        // Idle TLS connections were authenticated while we were paired, so don't reuse them
+        httpClientLongConnectTimeout.connectionPool().evictAll();
     }
     
     public InputStream getBoxArt(NvApp app) throws IOException {
@@ -711,26 +554,6 @@ public class NvHTTP {
         return resp.byteStream();
     }
     
-    public int getServerMajorVersion(String serverInfo) throws XmlPullParserException, IOException {
-        return getServerAppVersionQuad(serverInfo)[0];
-    }
-    
-    public int[] getServerAppVersionQuad(String serverInfo) throws XmlPullParserException, IOException {
-        String serverVersion = getServerVersion(serverInfo);
-        if (serverVersion == null) {
-            throw new IllegalArgumentException("Missing server version field");
-        }
-        String[] serverVersionSplit = serverVersion.split("\\.");
-        if (serverVersionSplit.length != 4) {
-            throw new IllegalArgumentException("Malformed server version field: "+serverVersion);
-        }
-        int[] ret = new int[serverVersionSplit.length];
-        for (int i = 0; i < ret.length; i++) {
-            ret[i] = Integer.parseInt(serverVersionSplit[i]);
-        }
-        return ret;
-    }
-
     final private static char[] hexArray = "0123456789ABCDEF".toCharArray();
     private static String bytesToHex(byte[] bytes) {
         char[] hexChars = new char[bytes.length * 2];
@@ -797,7 +620,7 @@ public class NvHTTP {
 
         // Newer GFE versions will just return success even if quitting fails
         // if we're not the original requestor.
-        if (getCurrentGame(getServerInfo(true)) != 0) {
+        if (getServerInfo(true).getCurrentGame() != 0) {
             // Generate a synthetic GfeResponseException letting the caller know
             // that they can't kill someone else's stream.
             throw new HostHttpResponseException(599, "");
@@ -182,10 +182,10 @@ public class PairingManager {
         return serverCert;
     }
     
-    public PairState pair(String serverInfo, String pin) throws IOException, XmlPullParserException {
+    public PairState pair(ServerInfo serverInfo, String pin) throws IOException, XmlPullParserException {
         PairingHashAlgorithm hashAlgo;
 
-        int serverMajorVersion = http.getServerMajorVersion(serverInfo);
+        int serverMajorVersion = serverInfo.getServerMajorVersion();
         LimeLog.info("Pairing with server generation: "+serverMajorVersion);
         if (serverMajorVersion >= 7) {
             // Gen 7+ uses SHA-256 hashing
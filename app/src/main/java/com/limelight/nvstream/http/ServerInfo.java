@@ -0,0 +1,193 @@
+package com.limelight.nvstream.http;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Stack;
+
+// The fields of a serverinfo response. The whole document is parsed in a single pass when
+// the response arrives, rather than once for every field that we look up.
+public class ServerInfo {
+    // The first text in each tag, which is what we'd find by searching the document for it
+    private final Map<String, String> values;
+
+    private ServerInfo(Map<String, String> values) {
+        this.values = Collections.unmodifiableMap(values);
+    }
+
+    public static ServerInfo parse(Reader r) throws XmlPullParserException, IOException {
+        XmlPullParser xpp = NvHTTP.newPullParser();
+
+        xpp.setInput(r);
+        int eventType = xpp.getEventType();
+        HashMap<String, String> values = new HashMap<>();
+        Stack<String> currentTag = new Stack<String>();
+
+        while (eventType != XmlPullParser.END_DOCUMENT) {
+            switch (eventType) {
+            case (XmlPullParser.START_TAG):
+                if (xpp.getName().equals("root")) {
+                    NvHTTP.verifyResponseStatus(xpp);
+                }
+                currentTag.push(xpp.getName());
+                break;
+            case (XmlPullParser.END_TAG):
+                currentTag.pop();
+                break;
+            case (XmlPullParser.TEXT):
+                if (!currentTag.isEmpty() && !values.containsKey(currentTag.peek())) {
+                    values.put(currentTag.peek(), xpp.getText());
+                }
+                break;
+            }
+            eventType = xpp.next();
+        }
+
+        return new ServerInfo(values);
+    }
+
+    private String getString(String tagname, boolean throwIfMissing) throws XmlPullParserException {
+        String value = values.get(tagname);
+        if (value == null && throwIfMissing) {
+            // See NvHTTP.getXmlString() for why this is an XmlPullParserException
+            throw new XmlPullParserException("Missing mandatory field in host response: "+tagname);
+        }
+        return value;
+    }
+
+    private long getLong(String tagname) {
+        String str = values.get(tagname);
+        if (str != null) {
+            return Long.parseLong(str);
+        } else {
+            return 0;
+        }
+    }
+
+    public String getHostname() {
+        return values.get("hostname");
+    }
+
+    public String getUniqueId() throws XmlPullParserException {
+        return getString("uniqueid", true);
+    }
+
+    public String getMacAddress() {
+        return values.get("mac");
+    }
+
+    public String getLocalIp() {
+        return values.get("LocalIP");
+    }
+
+    public String getExternalIp() {
+        return values.get("ExternalIP");
+    }
+
+    public int getHttpsPort(int defaultPort) {
+        String str = values.get("HttpsPort");
+        return str != null ? Integer.parseInt(str) : defaultPort;
+    }
+
+    // This is an extension which is not present in GFE. It is present for Sunshine to be able
+    // to support dynamic HTTP WAN ports without requiring the user to manually enter the port.
+    public int getExternalPort(int defaultPort) {
+        String str = values.get("ExternalPort");
+        return str != null ? Integer.parseInt(str) : defaultPort;
+    }
+
+    public String getState() throws XmlPullParserException {
+        return getString("state", true);
+    }
+
+    // The MJOLNIR codename was used by GFE but never by any third-party server
+    public boolean isNvidiaServer() throws XmlPullParserException {
+        return getState().contains("MJOLNIR");
+    }
+
+    public String getServerVersion() throws XmlPullParserException {
+        // appversion is present in all supported GFE versions
+        return getString("appversion", true);
+    }
+
+    public int getServerMajorVersion() throws XmlPullParserException {
+        return getServerAppVersionQuad()[0];
+    }
+
+    public int[] getServerAppVersionQuad() throws XmlPullParserException {
+        String serverVersion = getServerVersion();
+        String[] serverVersionSplit = serverVersion.split("\\.");
+        if (serverVersionSplit.length != 4) {
+            throw new IllegalArgumentException("Malformed server version field: "+serverVersion);
+        }
+        int[] ret = new int[serverVersionSplit.length];
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] = Integer.parseInt(serverVersionSplit[i]);
+        }
+        return ret;
+    }
+
+    public PairingManager.PairState getPairState() throws XmlPullParserException {
+        return getString("PairStatus", true).equals("1") ?
+                PairingManager.PairState.PAIRED : PairingManager.PairState.NOT_PAIRED;
+    }
+
+    public int getCurrentGame() throws XmlPullParserException {
+        // GFE 2.8 started keeping currentgame set to the last game played. As a result, it no longer
+        // has the semantics that its name would indicate. To contain the effects of this change as much
+        // as possible, we'll force the current game to zero if the server isn't in a streaming session.
+        if (getState().endsWith("_SERVER_BUSY")) {
+            return Integer.parseInt(getString("currentgame", true));
+        }
+        else {
+            return 0;
+        }
+    }
+
+    public long getMaxLumaPixelsH264() {
+        // MaxLumaPixelsH264 wasn't present on old GFE versions
+        return getLong("MaxLumaPixelsH264");
+    }
+
+    public long getMaxLumaPixelsHEVC() {
+        // MaxLumaPixelsHEVC wasn't present on old GFE versions
+        return getLong("MaxLumaPixelsHEVC");
+    }
+
+    // Possible meaning of bits
+    // Bit 0: H.264 Baseline
+    // Bit 1: H.264 High
+    // ----
+    // Bit 8: HEVC Main
+    // Bit 9: HEVC Main10
+    // Bit 10: HEVC Main10 4:4:4
+    // Bit 11: ???
+    public long getServerCodecModeSupport() {
+        // ServerCodecModeSupport wasn't present on old GFE versions
+        return getLong("ServerCodecModeSupport");
+    }
+
+    public String getGpuType() {
+        return values.get("gputype");
+    }
+
+    public String getGfeVersion() {
+        // GfeVersion wasn't present on very old GFE versions
+        return values.get("GfeVersion");
+    }
+
+    public boolean supports4K() {
+        // Only allow 4K on GFE 3.x. GfeVersion wasn't present on very old versions of GFE.
+        String gfeVersionStr = getGfeVersion();
+        if (gfeVersionStr == null || gfeVersionStr.startsWith("2.")) {
+            return false;
+        }
+
+        return true;
+    }
+}
@@ -4,6 +4,8 @@ import com.limelight.nvstream.NvConnectionListener;
 import com.limelight.nvstream.av.audio.AudioRenderer;
 import com.limelight.nvstream.av.video.VideoDecoderRenderer;
 
+import java.nio.ByteBuffer;
+
 public class MoonBridge {
     /* See documentation in Limelight.h for information about these functions and constants */
 
@@ -27,6 +29,12 @@ public class MoonBridge {
     public static final int BUFFER_TYPE_PPS = 2;
     public static final int BUFFER_TYPE_VPS = 3;
 
+    // Each frame descriptor is a (buffer type, offset, length) triplet
+    public static final int FRAME_DESCRIPTOR_TYPE = 0;
+    public static final int FRAME_DESCRIPTOR_OFFSET = 1;
+    public static final int FRAME_DESCRIPTOR_LENGTH = 2;
+    public static final int FRAME_DESCRIPTOR_SIZE = 3;
+
     public static final int FRAME_TYPE_PFRAME = 0;
     public static final int FRAME_TYPE_IDR = 1;
 
@@ -45,6 +53,13 @@ public class MoonBridge {
     public static final int DR_OK = 0;
     public static final int DR_NEED_IDR = -1;
 
+    public static final int DR_SUBMIT_MODE_BYTE_ARRAY = 0;
+    public static final int DR_SUBMIT_MODE_DIRECT_BUFFER = 1;
+
+    public static final int AR_SUBMIT_MODE_SHORT_ARRAY = 0;
+    public static final int AR_SUBMIT_MODE_DIRECT_BUFFER = 1;
+    public static final int AR_SUBMIT_MODE_NATIVE = 2;
+
     public static final int CONN_STATUS_OKAY = 0;
     public static final int CONN_STATUS_POOR = 1;
 
@@ -215,12 +230,52 @@ public class MoonBridge {
         }
     }
 
-    public static int bridgeDrSubmitDecodeUnit(byte[] decodeUnitData, int decodeUnitLength, int decodeUnitType,
-                                               int frameNumber, int frameType, char frameHostProcessingLatency,
-                                               long receiveTimeMs, long enqueueTimeMs) {
+    public static int bridgeDrSubmitFrame(byte[] frameData, int[] descriptors, int descriptorCount,
+                                          int frameNumber, int frameType, char frameHostProcessingLatency,
+                                          long receiveTimeMs, long enqueueTimeMs) {
+        if (videoRenderer != null) {
+            return videoRenderer.submitFrame(frameData, descriptors, descriptorCount,
+                    frameNumber, frameType, frameHostProcessingLatency, receiveTimeMs, enqueueTimeMs);
+        }
+        else {
+            return DR_OK;
+        }
+    }
+
+    public static int bridgeDrGetSubmitMode() {
+        if (videoRenderer != null) {
+            return videoRenderer.getSubmitMode();
+        }
+        else {
+            return DR_SUBMIT_MODE_BYTE_ARRAY;
+        }
+    }
+
+    public static ByteBuffer bridgeDrGetDirectSubmitBuffer(byte[] csdData, int[] csdDescriptors, int csdDescriptorCount,
+                                                           int picDataLength, int frameNumber, int frameType,
+                                                           char frameHostProcessingLatency,
+                                                           long receiveTimeMs, long enqueueTimeMs) {
+        if (videoRenderer != null) {
+            return videoRenderer.getDirectSubmitBuffer(csdData, csdDescriptors, csdDescriptorCount,
+                    picDataLength, frameNumber, frameType, frameHostProcessingLatency, receiveTimeMs, enqueueTimeMs);
+        }
+        else {
+            return null;
+        }
+    }
+
+    public static int bridgeDrGetDirectSubmitStatus() {
+        if (videoRenderer != null) {
+            return videoRenderer.getDirectSubmitStatus();
+        }
+        else {
+            return DR_OK;
+        }
+    }
+
+    public static int bridgeDrSubmitDirectDecodeUnit(byte[] fallbackData, int decodeUnitLength) {
         if (videoRenderer != null) {
-            return videoRenderer.submitDecodeUnit(decodeUnitData, decodeUnitLength,
-                    decodeUnitType, frameNumber, frameType, frameHostProcessingLatency, receiveTimeMs, enqueueTimeMs);
+            return videoRenderer.submitDirectDecodeUnit(fallbackData, decodeUnitLength);
         }
         else {
             return DR_OK;
@@ -260,6 +315,21 @@ public class MoonBridge {
         }
     }
 
+    public static int bridgeArGetSubmitMode() {
+        if (audioRenderer != null) {
+            return audioRenderer.getSubmitMode();
+        }
+        else {
+            return AR_SUBMIT_MODE_SHORT_ARRAY;
+        }
+    }
+
+    public static void bridgeArSetDirectBuffer(ByteBuffer buffer) {
+        if (audioRenderer != null) {
+            audioRenderer.setDirectBuffer(buffer);
+        }
+    }
+
     public static void bridgeClStageStarting(int stage) {
         if (connectionListener != null) {
             connectionListener.stageStarting(getStageName(stage));
@@ -389,12 +459,44 @@ public class MoonBridge {
 
     public static native void sendUtf8Text(String text);
 
+    // Sends the input events encoded in the first length bytes of the direct buffer
+    public static native void sendInputBatch(ByteBuffer buffer, int length);
+
     public static native String getStageName(int stage);
 
     public static native String findExternalAddressIP4(String stunHostName, int stunPort);
 
     public static native int getPendingAudioDuration();
 
+    // Only valid for audio renderers using AR_SUBMIT_MODE_DIRECT_BUFFER. Returns the offset
+    // of the next decoded audio in the upper 32 bits and its length in the lower 32 bits,
+    // or -1 if none was decoded within the timeout.
+    public static native long waitForDecodedAudio(int timeoutMs);
+
+    // Returns when the audio returned by waitForDecodedAudio() was received, in milliseconds
+    // since boot (the same timebase as SystemClock.uptimeMillis())
+    public static native long getDecodedAudioArrivalTime();
+
+    // Returns the number of decoded audio packets waiting behind the current one
+    public static native int getDecodedAudioQueueDepth();
+
+    // Sets how many decoded audio packets may be queued before the decoder drops new ones.
+    // This is clamped to the size of the shared buffer.
+    public static native void setDecodedAudioQueueLimit(int packets);
+
+    // Must be called after the audio returned by waitForDecodedAudio() has been consumed
+    public static native void releaseDecodedAudio();
+
+    // Opens a native AAudio stream that plays decoded audio directly from the decoder
+    // for audio renderers using AR_SUBMIT_MODE_NATIVE. Returns 0 on success.
+    public static native int openAAudioStream(int channelCount, int sampleRate);
+
+    public static native int startAAudioStream();
+
+    public static native void stopAAudioStream();
+
+    public static native void closeAAudioStream();
+
     public static native int getPendingVideoFrames();
 
     public static native int testClientConnectivity(String testServerHostName, int referencePort, int testFlags);
@@ -71,9 +71,13 @@ public class PreferenceConfiguration {
     private static final String ENABLE_AUDIO_FX_PREF_STRING = "checkbox_enable_audiofx";
     private static final String REDUCE_REFRESH_RATE_PREF_STRING = "checkbox_reduce_refresh_rate";
     private static final String FULL_RANGE_PREF_STRING = "checkbox_full_range";
+    private static final String ASYNC_DECODER_PREF_STRING = "checkbox_async_decoder";
+    private static final String FRAME_TRACE_PREF_STRING = "checkbox_frame_trace";
+    private static final String AAUDIO_PREF_STRING = "checkbox_aaudio";
     private static final String GAMEPAD_TOUCHPAD_AS_MOUSE_PREF_STRING = "checkbox_gamepad_touchpad_as_mouse";
     private static final String GAMEPAD_MOTION_SENSORS_PREF_STRING = "checkbox_gamepad_motion_sensors";
     private static final String GAMEPAD_MOTION_FALLBACK_PREF_STRING = "checkbox_gamepad_motion_fallback";
+    private static final String MOUSE_REPORT_RATE_PREF_STRING = "list_mouse_report_rate";
 
     static final String DEFAULT_RESOLUTION = "1280x720";
     static final String DEFAULT_FPS = "60";
@@ -117,9 +121,13 @@ public class PreferenceConfiguration {
     private static final boolean DEFAULT_ENABLE_AUDIO_FX = false;
     private static final boolean DEFAULT_REDUCE_REFRESH_RATE = false;
     private static final boolean DEFAULT_FULL_RANGE = false;
+    private static final boolean DEFAULT_ASYNC_DECODER = false;
+    private static final boolean DEFAULT_FRAME_TRACE = false;
+    private static final boolean DEFAULT_AAUDIO = false;
     private static final boolean DEFAULT_GAMEPAD_TOUCHPAD_AS_MOUSE = false;
     private static final boolean DEFAULT_GAMEPAD_MOTION_SENSORS = true;
     private static final boolean DEFAULT_GAMEPAD_MOTION_FALLBACK = false;
+    private static final String DEFAULT_MOUSE_REPORT_RATE = "0";
 
     public static final int FRAME_PACING_MIN_LATENCY = 0;
     public static final int FRAME_PACING_BALANCED = 1;
@@ -170,9 +178,13 @@ public class PreferenceConfiguration {
     public boolean enableAudioFx;
     public boolean reduceRefreshRate;
     public boolean fullRange;
+    public boolean asyncDecoder;
+    public boolean enableFrameTrace;
+    public boolean enableAAudio;
     public boolean gamepadMotionSensors;
     public boolean gamepadTouchpadAsMouse;
     public boolean gamepadMotionSensorsFallbackToDevice;
+    public int mouseReportRate;
     public String videoDecoderName;
 
     public static boolean isNativeResolution(int width, int height) {
@@ -643,9 +655,13 @@ public class PreferenceConfiguration {
         config.enableAudioFx = prefs.getBoolean(ENABLE_AUDIO_FX_PREF_STRING, DEFAULT_ENABLE_AUDIO_FX);
         config.reduceRefreshRate = prefs.getBoolean(REDUCE_REFRESH_RATE_PREF_STRING, DEFAULT_REDUCE_REFRESH_RATE);
         config.fullRange = prefs.getBoolean(FULL_RANGE_PREF_STRING, DEFAULT_FULL_RANGE);
+        config.asyncDecoder = prefs.getBoolean(ASYNC_DECODER_PREF_STRING, DEFAULT_ASYNC_DECODER);
+        config.enableFrameTrace = prefs.getBoolean(FRAME_TRACE_PREF_STRING, DEFAULT_FRAME_TRACE);
+        config.enableAAudio = prefs.getBoolean(AAUDIO_PREF_STRING, DEFAULT_AAUDIO);
         config.gamepadTouchpadAsMouse = prefs.getBoolean(GAMEPAD_TOUCHPAD_AS_MOUSE_PREF_STRING, DEFAULT_GAMEPAD_TOUCHPAD_AS_MOUSE);
         config.gamepadMotionSensors = prefs.getBoolean(GAMEPAD_MOTION_SENSORS_PREF_STRING, DEFAULT_GAMEPAD_MOTION_SENSORS);
         config.gamepadMotionSensorsFallbackToDevice = prefs.getBoolean(GAMEPAD_MOTION_FALLBACK_PREF_STRING, DEFAULT_GAMEPAD_MOTION_FALLBACK);
+        config.mouseReportRate = Integer.parseInt(prefs.getString(MOUSE_REPORT_RATE_PREF_STRING, DEFAULT_MOUSE_REPORT_RATE));
 
         return config;
     }
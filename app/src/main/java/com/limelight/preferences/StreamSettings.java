@@ -33,6 +33,7 @@ import android.widget.Toast;
 import com.limelight.LimeLog;
 import com.limelight.PcView;
 import com.limelight.R;
+import com.limelight.binding.audio.AAudioRenderer;
 import com.limelight.binding.video.MediaCodecHelper;
 import com.limelight.utils.AspectRatioConverter;
 import com.limelight.utils.Dialog;
@@ -817,6 +818,20 @@ public class StreamSettings extends Activity {
                 }
             });
 
+            // Remove asynchronous decoder preference for devices below Marshmallow
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+                PreferenceCategory category =
+                        (PreferenceCategory) findPreference("category_advanced_settings");
+                category.removePreference(findPreference("checkbox_async_decoder"));
+            }
+
+            // Remove AAudio preference for devices that don't support it
+            if (!AAudioRenderer.isSupported()) {
+                PreferenceCategory category =
+                        (PreferenceCategory) findPreference("category_audio_settings");
+                category.removePreference(findPreference("checkbox_aaudio"));
+            }
+
             // Remove HDR preference for devices below Nougat
             if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
                 LimeLog.info("Excluding HDR toggle based on OS");
@@ -2,6 +2,7 @@ package com.limelight.utils;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -80,6 +81,21 @@ public class CacheHelper {
         return sb.toString();
     }
 
+    public static byte[] readInputStreamToBytes(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        int bytesRead;
+        while ((bytesRead = in.read(buf)) != -1) {
+            out.write(buf, 0, bytesRead);
+        }
+
+        try {
+            in.close();
+        } catch (IOException ignored) {}
+
+        return out.toByteArray();
+    }
+
     public static void writeStringToOutputStream(OutputStream out, String str) throws IOException {
         out.write(str.getBytes("UTF-8"));
     }
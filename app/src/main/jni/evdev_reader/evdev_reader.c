@@ -19,7 +19,8 @@
 
 #include <android/log.h>
 
-#define EVDEV_MAX_EVENT_SIZE 24
+// Maximum number of events sent to the client in a single frame
+#define EVDEV_MAX_FRAME_EVENTS 64
 
 #define REL_X 0x00
 #define REL_Y 0x01
@@ -64,16 +65,27 @@ static int hasKey(int fd, short key) {
     return test_bit(key, keyBitmask);
 }
 
-static void outputEvdevData(char *data, int dataSize) {
-    char packetBuffer[EVDEV_MAX_EVENT_SIZE + sizeof(dataSize)];
+// Events are sent to the client in frames, each containing all events up to and including
+// a SYN_REPORT (or EVDEV_MAX_FRAME_EVENTS events if the device sends more than that). Each
+// frame is the length of the events in bytes followed by the packed events. Everything is in
+// native byte order, and the timestamps are dropped since the client doesn't use them.
+struct PackedEvent {
+    unsigned short type;
+    unsigned short code;
+    int value;
+};
+
+struct EventFrame {
+    int length;
+    struct PackedEvent events[EVDEV_MAX_FRAME_EVENTS];
+};
 
-    // Copy the full packet into our buffer
-    memcpy(packetBuffer, &dataSize, sizeof(dataSize));
-    memcpy(&packetBuffer[sizeof(dataSize)], data, dataSize);
+static void outputEvdevFrame(struct EventFrame *frame, int eventCount) {
+    frame->length = eventCount * sizeof(frame->events[0]);
 
     // Lock to prevent other threads from sending at the same time
     pthread_mutex_lock(&SocketSendLock);
-    send(sock, packetBuffer, dataSize + sizeof(dataSize), 0);
+    send(sock, frame, sizeof(frame->length) + frame->length, 0);
     pthread_mutex_unlock(&SocketSendLock);
 }
 
@@ -81,7 +93,10 @@ void* pollThreadFunc(void* context) {
     struct DeviceEntry *device = context;
     struct pollfd pollinfo;
     int pollres, ret;
-    char data[EVDEV_MAX_EVENT_SIZE];
+    struct input_event data[EVDEV_MAX_FRAME_EVENTS];
+    struct EventFrame frame;
+    int frameEventCount = 0;
+    int i;
 
     __android_log_print(ANDROID_LOG_INFO, "EvdevReader", "Polling /dev/input/%s", device->devName);
 
@@ -105,8 +120,8 @@ void* pollThreadFunc(void* context) {
         while (pollres == 0);
 
         if (pollres > 0 && (pollinfo.revents & POLLIN)) {
-            // We'll have data available now
-            ret = read(device->fd, data, EVDEV_MAX_EVENT_SIZE);
+            // We'll have data available now. Read as many whole events as we can at once.
+            ret = read(device->fd, data, sizeof(data));
             if (ret < 0) {
                 __android_log_print(ANDROID_LOG_ERROR, "EvdevReader",
                                     "read() failed: %d", errno);
@@ -118,8 +133,23 @@ void* pollThreadFunc(void* context) {
                 goto cleanup;
             }
             else if (grabbing) {
-                // Write out the data to our client
-                outputEvdevData(data, ret);
+                for (i = 0; i < ret / (int)sizeof(data[0]); i++) {
+                    frame.events[frameEventCount].type = data[i].type;
+                    frame.events[frameEventCount].code = data[i].code;
+                    frame.events[frameEventCount].value = data[i].value;
+                    frameEventCount++;
+
+                    // Write out the frame to our client once it's complete
+                    if ((data[i].type == EV_SYN && data[i].code == SYN_REPORT) ||
+                            frameEventCount == EVDEV_MAX_FRAME_EVENTS) {
+                        outputEvdevFrame(&frame, frameEventCount);
+                        frameEventCount = 0;
+                    }
+                }
+            }
+            else {
+                // Don't send a partial frame from before we ungrabbed
+                frameEventCount = 0;
             }
         }
         else {
@@ -0,0 +1,354 @@
+#include <jni.h>
+
+#include <dlfcn.h>
+#include <pthread.h>
+#include <stdbool.h>
+#include <stdint.h>
+#include <string.h>
+
+#include <aaudio/AAudio.h>
+#include <android/log.h>
+
+#include "audio_ring.h"
+
+// AAudio was added in Android 8.0, but we must still load on Lollipop, so all AAudio
+// functions are resolved from libaaudio.so at runtime instead of being linked directly.
+static struct {
+    aaudio_result_t (*createStreamBuilder)(AAudioStreamBuilder** builder);
+    const char* (*convertResultToText)(aaudio_result_t result);
+
+    void (*builderSetDirection)(AAudioStreamBuilder* builder, aaudio_direction_t direction);
+    void (*builderSetSharingMode)(AAudioStreamBuilder* builder, aaudio_sharing_mode_t sharingMode);
+    void (*builderSetPerformanceMode)(AAudioStreamBuilder* builder, aaudio_performance_mode_t mode);
+    void (*builderSetFormat)(AAudioStreamBuilder* builder, aaudio_format_t format);
+    void (*builderSetChannelCount)(AAudioStreamBuilder* builder, int32_t channelCount);
+    void (*builderSetSampleRate)(AAudioStreamBuilder* builder, int32_t sampleRate);
+    void (*builderSetDataCallback)(AAudioStreamBuilder* builder, AAudioStream_dataCallback callback, void* userData);
+    void (*builderSetErrorCallback)(AAudioStreamBuilder* builder, AAudioStream_errorCallback callback, void* userData);
+    aaudio_result_t (*builderOpenStream)(AAudioStreamBuilder* builder, AAudioStream** stream);
+    aaudio_result_t (*builderDelete)(AAudioStreamBuilder* builder);
+
+    // Added in Android 9.0, so this may be NULL
+    void (*builderSetUsage)(AAudioStreamBuilder* builder, aaudio_usage_t usage);
+
+    aaudio_result_t (*streamRequestStart)(AAudioStream* stream);
+    aaudio_result_t (*streamRequestStop)(AAudioStream* stream);
+    aaudio_result_t (*streamWaitForStateChange)(AAudioStream* stream, aaudio_stream_state_t inputState,
+                                                aaudio_stream_state_t* nextState, int64_t timeoutNanoseconds);
+    aaudio_result_t (*streamClose)(AAudioStream* stream);
+    aaudio_sharing_mode_t (*streamGetSharingMode)(AAudioStream* stream);
+    int32_t (*streamGetSampleRate)(AAudioStream* stream);
+    int32_t (*streamGetFramesPerBurst)(AAudioStream* stream);
+    int32_t (*streamGetBufferCapacityInFrames)(AAudioStream* stream);
+    aaudio_result_t (*streamSetBufferSizeInFrames)(AAudioStream* stream, int32_t numFrames);
+    int32_t (*streamGetXRunCount)(AAudioStream* stream);
+} AAudio;
+
+static void* AAudioLibrary;
+
+// Protects the stream against concurrent use by the Java renderer and the restart thread
+static pthread_mutex_t StreamMutex = PTHREAD_MUTEX_INITIALIZER;
+static AAudioStream* Stream;
+static bool StreamStarted;
+static int ChannelCount;
+static int SampleRate;
+
+// These are only touched by the data callback while the stream is running
+static char* CurrentSlotData;
+static int CurrentSlotLength;
+static int CurrentSlotOffset;
+static int32_t FramesPerBurst;
+static int32_t BufferCapacityFrames;
+static int32_t BufferSizeFrames;
+static int32_t LastXRunCount;
+
+static bool LoadAAudio(void) {
+    void* lib;
+
+    if (AAudioLibrary != NULL) {
+        return true;
+    }
+
+    lib = dlopen("libaaudio.so", RTLD_NOW);
+    if (lib == NULL) {
+        __android_log_print(ANDROID_LOG_WARN, "moonlight-common-c", "AAudio is not available: %s", dlerror());
+        return false;
+    }
+
+#define LOAD_AAUDIO_FUNCTION(field, name) \
+    if ((AAudio.field = dlsym(lib, name)) == NULL) { \
+        __android_log_print(ANDROID_LOG_WARN, "moonlight-common-c", "Missing AAudio function: %s", name); \
+        goto fail; \
+    }
+
+    LOAD_AAUDIO_FUNCTION(createStreamBuilder, "AAudio_createStreamBuilder");
+    LOAD_AAUDIO_FUNCTION(convertResultToText, "AAudio_convertResultToText");
+    LOAD_AAUDIO_FUNCTION(builderSetDirection, "AAudioStreamBuilder_setDirection");
+    LOAD_AAUDIO_FUNCTION(builderSetSharingMode, "AAudioStreamBuilder_setSharingMode");
+    LOAD_AAUDIO_FUNCTION(builderSetPerformanceMode, "AAudioStreamBuilder_setPerformanceMode");
+    LOAD_AAUDIO_FUNCTION(builderSetFormat, "AAudioStreamBuilder_setFormat");
+    LOAD_AAUDIO_FUNCTION(builderSetChannelCount, "AAudioStreamBuilder_setChannelCount");
+    LOAD_AAUDIO_FUNCTION(builderSetSampleRate, "AAudioStreamBuilder_setSampleRate");
+    LOAD_AAUDIO_FUNCTION(builderSetDataCallback, "AAudioStreamBuilder_setDataCallback");
+    LOAD_AAUDIO_FUNCTION(builderSetErrorCallback, "AAudioStreamBuilder_setErrorCallback");
+    LOAD_AAUDIO_FUNCTION(builderOpenStream, "AAudioStreamBuilder_openStream");
+    LOAD_AAUDIO_FUNCTION(builderDelete, "AAudioStreamBuilder_delete");
+    LOAD_AAUDIO_FUNCTION(streamRequestStart, "AAudioStream_requestStart");
+    LOAD_AAUDIO_FUNCTION(streamRequestStop, "AAudioStream_requestStop");
+    LOAD_AAUDIO_FUNCTION(streamWaitForStateChange, "AAudioStream_waitForStateChange");
+    LOAD_AAUDIO_FUNCTION(streamClose, "AAudioStream_close");
+    LOAD_AAUDIO_FUNCTION(streamGetSharingMode, "AAudioStream_getSharingMode");
+    LOAD_AAUDIO_FUNCTION(streamGetSampleRate, "AAudioStream_getSampleRate");
+    LOAD_AAUDIO_FUNCTION(streamGetFramesPerBurst, "AAudioStream_getFramesPerBurst");
+    LOAD_AAUDIO_FUNCTION(streamGetBufferCapacityInFrames, "AAudioStream_getBufferCapacityInFrames");
+    LOAD_AAUDIO_FUNCTION(streamSetBufferSizeInFrames, "AAudioStream_setBufferSizeInFrames");
+    LOAD_AAUDIO_FUNCTION(streamGetXRunCount, "AAudioStream_getXRunCount");
+
+#undef LOAD_AAUDIO_FUNCTION
+
+    AAudio.builderSetUsage = dlsym(lib, "AAudioStreamBuilder_setUsage");
+
+    AAudioLibrary = lib;
+    return true;
+
+fail:
+    memset(&AAudio, 0, sizeof(AAudio));
+    dlclose(lib);
+    return false;
+}
+
+// Called on the AAudio callback thread whenever the stream needs more audio. This must not
+// block, so it only ever takes audio that the decoder has already placed in the ring and plays
+// silence if there's none. Opus frames and AAudio bursts aren't the same size, so a slot may be
+// consumed across several callbacks.
+static aaudio_data_callback_result_t AAudioDataCallback(AAudioStream* stream, void* userData, void* audioData, int32_t numFrames) {
+    char* output = audioData;
+    int bytesRemaining = numFrames * ChannelCount * sizeof(int16_t);
+    bool droppedSlot = false;
+    int32_t xRunCount;
+
+    while (bytesRemaining > 0) {
+        int copyLength;
+
+        if (CurrentSlotData == NULL) {
+            int queuedSlots = AudioRingPeek(&CurrentSlotData, &CurrentSlotLength);
+            if (queuedSlots == 0) {
+                CurrentSlotData = NULL;
+                break;
+            }
+            CurrentSlotOffset = 0;
+
+            // If a burst of packets has backed up more than half of the ring, skip a frame
+            // to get back down to our target latency. We drop at most one frame per callback
+            // to avoid a large audible gap.
+            if (!droppedSlot && queuedSlots > AudioRingGetSlotCount() / 2) {
+                AudioRingRelease();
+                CurrentSlotData = NULL;
+                droppedSlot = true;
+                continue;
+            }
+        }
+
+        copyLength = CurrentSlotLength - CurrentSlotOffset;
+        if (copyLength > bytesRemaining) {
+            copyLength = bytesRemaining;
+        }
+
+        memcpy(output, CurrentSlotData + CurrentSlotOffset, copyLength);
+        output += copyLength;
+        bytesRemaining -= copyLength;
+        CurrentSlotOffset += copyLength;
+
+        if (CurrentSlotOffset == CurrentSlotLength) {
+            AudioRingRelease();
+            CurrentSlotData = NULL;
+        }
+    }
+
+    if (bytesRemaining > 0) {
+        // We've run out of decoded audio, so play silence until more arrives
+        memset(output, 0, bytesRemaining);
+    }
+
+    // If the stream underran, add another burst of buffering to avoid glitching again
+    xRunCount = AAudio.streamGetXRunCount(stream);
+    if (xRunCount > LastXRunCount) {
+        LastXRunCount = xRunCount;
+        if (BufferSizeFrames + FramesPerBurst <= BufferCapacityFrames) {
+            aaudio_result_t result = AAudio.streamSetBufferSizeInFrames(stream, BufferSizeFrames + FramesPerBurst);
+            if (result > 0) {
+                BufferSizeFrames = result;
+            }
+        }
+    }
+
+    return AAUDIO_CALLBACK_RESULT_CONTINUE;
+}
+
+static void AAudioErrorCallback(AAudioStream* stream, void* userData, aaudio_result_t error);
+
+// Must be called with StreamMutex held
+static aaudio_result_t OpenStream(void) {
+    AAudioStreamBuilder* builder;
+    aaudio_result_t result;
+
+    result = AAudio.createStreamBuilder(&builder);
+    if (result != AAUDIO_OK) {
+        return result;
+    }
+
+    // AAudio will fall back to shared mode if exclusive mode isn't available
+    AAudio.builderSetDirection(builder, AAUDIO_DIRECTION_OUTPUT);
+    AAudio.builderSetSharingMode(builder, AAUDIO_SHARING_MODE_EXCLUSIVE);
+    AAudio.builderSetPerformanceMode(builder, AAUDIO_PERFORMANCE_MODE_LOW_LATENCY);
+    AAudio.builderSetFormat(builder, AAUDIO_FORMAT_PCM_I16);
+    AAudio.builderSetChannelCount(builder, ChannelCount);
+    AAudio.builderSetSampleRate(builder, SampleRate);
+    AAudio.builderSetDataCallback(builder, AAudioDataCallback, NULL);
+    AAudio.builderSetErrorCallback(builder, AAudioErrorCallback, NULL);
+    if (AAudio.builderSetUsage != NULL) {
+        AAudio.builderSetUsage(builder, AAUDIO_USAGE_GAME);
+    }
+
+    result = AAudio.builderOpenStream(builder, &Stream);
+    AAudio.builderDelete(builder);
+    if (result != AAUDIO_OK) {
+        Stream = NULL;
+        return result;
+    }
+
+    // We can't resample, so the stream must run at the rate of the decoded audio
+    if (AAudio.streamGetSampleRate(Stream) != SampleRate) {
+        __android_log_print(ANDROID_LOG_WARN, "moonlight-common-c", "AAudio stream sample rate mismatch: %d",
+                            AAudio.streamGetSampleRate(Stream));
+        AAudio.streamClose(Stream);
+        Stream = NULL;
+        return AAUDIO_ERROR_INVALID_RATE;
+    }
+
+    CurrentSlotData = NULL;
+    FramesPerBurst = AAudio.streamGetFramesPerBurst(Stream);
+    BufferCapacityFrames = AAudio.streamGetBufferCapacityInFrames(Stream);
+    LastXRunCount = 0;
+
+    // Start with two bursts of buffering, which is the minimum for glitch-free playback
+    // on most devices. The data callback will grow this if the stream underruns.
+    BufferSizeFrames = AAudio.streamSetBufferSizeInFrames(Stream, FramesPerBurst * 2);
+    if (BufferSizeFrames <= 0) {
+        BufferSizeFrames = BufferCapacityFrames;
+    }
+
+    __android_log_print(ANDROID_LOG_INFO, "moonlight-common-c", "AAudio stream opened: %s mode, %d frames per burst, %d/%d buffered frames",
+                        AAudio.streamGetSharingMode(Stream) == AAUDIO_SHARING_MODE_EXCLUSIVE ? "exclusive" : "shared",
+                        FramesPerBurst, BufferSizeFrames, BufferCapacityFrames);
+    return AAUDIO_OK;
+}
+
+static void* AAudioRestartThreadProc(void* context) {
+    pthread_mutex_lock(&StreamMutex);
+
+    // Make sure the stream wasn't closed or already restarted while we were starting up
+    if (Stream == context) {
+        aaudio_result_t result;
+
+        AAudio.streamClose(Stream);
+        Stream = NULL;
+
+        result = OpenStream();
+        if (result == AAUDIO_OK && StreamStarted) {
+            result = AAudio.streamRequestStart(Stream);
+        }
+
+        if (result != AAUDIO_OK) {
+            __android_log_print(ANDROID_LOG_ERROR, "moonlight-common-c", "Failed to restart AAudio stream: %s",
+                                AAudio.convertResultToText(result));
+        }
+    }
+
+    pthread_mutex_unlock(&StreamMutex);
+    return NULL;
+}
+
+// Streams are disconnected when the output device changes (headphones being plugged in, etc).
+// Unlike AudioTrack, AAudio doesn't reroute them for us, so we must open a new stream.
+static void AAudioErrorCallback(AAudioStream* stream, void* userData, aaudio_result_t error) {
+    pthread_t thread;
+    pthread_attr_t attr;
+
+    __android_log_print(ANDROID_LOG_WARN, "moonlight-common-c", "AAudio stream error: %s",
+                        AAudio.convertResultToText(error));
+    if (error != AAUDIO_ERROR_DISCONNECTED) {
+        return;
+    }
+
+    // The stream can't be closed on the callback thread, so restart it on a new thread
+    pthread_attr_init(&attr);
+    pthread_attr_setdetachstate(&attr, PTHREAD_CREATE_DETACHED);
+    pthread_create(&thread, &attr, AAudioRestartThreadProc, stream);
+    pthread_attr_destroy(&attr);
+}
+
+JNIEXPORT jint JNICALL
+Java_com_limelight_nvstream_jni_MoonBridge_openAAudioStream(JNIEnv *env, jclass clazz, jint channelCount, jint sampleRate) {
+    aaudio_result_t result;
+
+    if (!LoadAAudio()) {
+        return -1;
+    }
+
+    pthread_mutex_lock(&StreamMutex);
+    ChannelCount = channelCount;
+    SampleRate = sampleRate;
+    StreamStarted = false;
+    result = OpenStream();
+    pthread_mutex_unlock(&StreamMutex);
+
+    if (result != AAUDIO_OK) {
+        __android_log_print(ANDROID_LOG_WARN, "moonlight-common-c", "Failed to open AAudio stream: %s",
+                            AAudio.convertResultToText(result));
+    }
+
+    return result;
+}
+
+JNIEXPORT jint JNICALL
+Java_com_limelight_nvstream_jni_MoonBridge_startAAudioStream(JNIEnv *env, jclass clazz) {
+    aaudio_result_t result = AAUDIO_OK;
+
+    pthread_mutex_lock(&StreamMutex);
+    StreamStarted = true;
+    if (Stream != NULL) {
+        result = AAudio.streamRequestStart(Stream);
+    }
+    pthread_mutex_unlock(&StreamMutex);
+
+    return result;
+}
+
+// Returns once the data callback has stopped reading from the decoded audio ring
+JNIEXPORT void JNICALL
+Java_com_limelight_nvstream_jni_MoonBridge_stopAAudioStream(JNIEnv *env, jclass clazz) {
+    pthread_mutex_lock(&StreamMutex);
+    StreamStarted = false;
+    if (Stream != NULL && AAudio.streamRequestStop(Stream) == AAUDIO_OK) {
+        aaudio_stream_state_t state = AAUDIO_STREAM_STATE_STOPPING;
+
+        while (state == AAUDIO_STREAM_STATE_STOPPING) {
+            if (AAudio.streamWaitForStateChange(Stream, AAUDIO_STREAM_STATE_STOPPING, &state, 100 * 1000000LL) != AAUDIO_OK) {
+                break;
+            }
+        }
+    }
+    pthread_mutex_unlock(&StreamMutex);
+}
+
+JNIEXPORT void JNICALL
+Java_com_limelight_nvstream_jni_MoonBridge_closeAAudioStream(JNIEnv *env, jclass clazz) {
+    pthread_mutex_lock(&StreamMutex);
+    if (Stream != NULL) {
+        // This waits for any in-progress callbacks to return
+        AAudio.streamClose(Stream);
+        Stream = NULL;
+    }
+    pthread_mutex_unlock(&StreamMutex);
+}
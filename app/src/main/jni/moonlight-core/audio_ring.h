@@ -0,0 +1,13 @@
+#pragma once
+
+// Consumer side of the ring of decoded audio in callbacks.c. Each slot holds one decoded
+// Opus frame of interleaved 16-bit PCM. There must only be a single consumer at a time.
+
+// Returns the number of decoded slots available and points data and length at the oldest one,
+// or returns 0 if the ring is empty. The slot remains valid until AudioRingRelease() is called.
+int AudioRingPeek(char** data, int* length);
+
+// Returns the slot from the last successful AudioRingPeek() call to the decoder
+void AudioRingRelease(void);
+
+int AudioRingGetSlotCount(void);
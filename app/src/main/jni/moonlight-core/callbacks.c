@@ -1,7 +1,11 @@
 #include <jni.h>
 
+#include <errno.h>
 #include <pthread.h>
+#include <stdatomic.h>
+#include <stdlib.h>
 #include <string.h>
+#include <time.h>
 
 #include <Limelight.h>
 
@@ -10,6 +14,26 @@
 
 #include <cpu-features.h>
 
+#include "audio_ring.h"
+
+// These must match the DR_SUBMIT_MODE_* constants in MoonBridge.java
+#define DR_SUBMIT_MODE_BYTE_ARRAY    0
+#define DR_SUBMIT_MODE_DIRECT_BUFFER 1
+
+// These must match the FRAME_DESCRIPTOR_* constants in MoonBridge.java
+#define FRAME_DESCRIPTOR_TYPE   0
+#define FRAME_DESCRIPTOR_OFFSET 1
+#define FRAME_DESCRIPTOR_LENGTH 2
+#define FRAME_DESCRIPTOR_SIZE   3
+
+// These must match the AR_SUBMIT_MODE_* constants in MoonBridge.java
+#define AR_SUBMIT_MODE_SHORT_ARRAY   0
+#define AR_SUBMIT_MODE_DIRECT_BUFFER 1
+#define AR_SUBMIT_MODE_NATIVE        2
+
+// Maximum amount of decoded audio to queue for the audio renderer in direct buffer or native mode
+#define AUDIO_RING_MAX_QUEUED_MS 40
+
 static OpusMSDecoder* Decoder;
 static OPUS_MULTISTREAM_CONFIGURATION OpusConfig;
 
@@ -21,12 +45,19 @@ static jmethodID BridgeDrSetupMethod;
 static jmethodID BridgeDrStartMethod;
 static jmethodID BridgeDrStopMethod;
 static jmethodID BridgeDrCleanupMethod;
-static jmethodID BridgeDrSubmitDecodeUnitMethod;
+static jmethodID BridgeDrSubmitFrameMethod;
+static jmethodID BridgeDrGetSubmitModeMethod;
+static jmethodID BridgeDrGetDirectSubmitBufferMethod;
+static jmethodID BridgeDrGetDirectSubmitStatusMethod;
+static jmethodID BridgeDrSubmitDirectDecodeUnitMethod;
+static jmethodID BufferPositionMethod;
 static jmethodID BridgeArInitMethod;
 static jmethodID BridgeArStartMethod;
 static jmethodID BridgeArStopMethod;
 static jmethodID BridgeArCleanupMethod;
 static jmethodID BridgeArPlaySampleMethod;
+static jmethodID BridgeArGetSubmitModeMethod;
+static jmethodID BridgeArSetDirectBufferMethod;
 static jmethodID BridgeClStageStartingMethod;
 static jmethodID BridgeClStageCompleteMethod;
 static jmethodID BridgeClStageFailedMethod;
@@ -39,7 +70,28 @@ static jmethodID BridgeClRumbleTriggersMethod;
 static jmethodID BridgeClSetMotionEventStateMethod;
 static jmethodID BridgeClSetControllerLEDMethod;
 static jbyteArray DecodedFrameBuffer;
+static jintArray FrameDescriptorArray;
+static jint* FrameDescriptors;
+static int FrameDescriptorCapacity;
+static int DrSubmitMode;
 static jshortArray DecodedAudioBuffer;
+static int ArSubmitMode;
+
+// In direct buffer mode, decoded audio is passed to the Java audio thread through a ring of
+// fixed-size slots that is shared with Java as a direct ByteBuffer. There is a single producer
+// (the audio decoding thread) and a single consumer (the Java audio thread). The indexes are
+// free-running and only ever incremented by their respective owners.
+static jobject AudioRingByteBuffer;
+static char* AudioRingData;
+static int* AudioRingSlotLengths;
+static jlong* AudioRingSlotArrivalTimesMs;
+static int AudioRingSlotSize;
+static int AudioRingSlotCount;
+static atomic_uint AudioRingReadIndex;
+static atomic_uint AudioRingWriteIndex;
+static atomic_int AudioRingQueueLimit;
+static pthread_mutex_t AudioRingMutex = PTHREAD_MUTEX_INITIALIZER;
+static pthread_cond_t AudioRingCond = PTHREAD_COND_INITIALIZER;
 
 void DetachThread(void* context) {
     (*JVM)->DetachCurrentThread(JVM);
@@ -85,12 +137,19 @@ Java_com_limelight_nvstream_jni_MoonBridge_init(JNIEnv *env, jclass clazz) {
     BridgeDrStartMethod = (*env)->GetStaticMethodID(env, clazz, "bridgeDrStart", "()V");
     BridgeDrStopMethod = (*env)->GetStaticMethodID(env, clazz, "bridgeDrStop", "()V");
     BridgeDrCleanupMethod = (*env)->GetStaticMethodID(env, clazz, "bridgeDrCleanup", "()V");
-    BridgeDrSubmitDecodeUnitMethod = (*env)->GetStaticMethodID(env, clazz, "bridgeDrSubmitDecodeUnit", "([BIIIICJJ)I");
+    BridgeDrSubmitFrameMethod = (*env)->GetStaticMethodID(env, clazz, "bridgeDrSubmitFrame", "([B[IIIICJJ)I");
+    BridgeDrGetSubmitModeMethod = (*env)->GetStaticMethodID(env, clazz, "bridgeDrGetSubmitMode", "()I");
+    BridgeDrGetDirectSubmitBufferMethod = (*env)->GetStaticMethodID(env, clazz, "bridgeDrGetDirectSubmitBuffer", "([B[IIIIICJJ)Ljava/nio/ByteBuffer;");
+    BridgeDrGetDirectSubmitStatusMethod = (*env)->GetStaticMethodID(env, clazz, "bridgeDrGetDirectSubmitStatus", "()I");
+    BridgeDrSubmitDirectDecodeUnitMethod = (*env)->GetStaticMethodID(env, clazz, "bridgeDrSubmitDirectDecodeUnit", "([BI)I");
+    BufferPositionMethod = (*env)->GetMethodID(env, (*env)->FindClass(env, "java/nio/Buffer"), "position", "()I");
     BridgeArInitMethod = (*env)->GetStaticMethodID(env, clazz, "bridgeArInit", "(III)I");
     BridgeArStartMethod = (*env)->GetStaticMethodID(env, clazz, "bridgeArStart", "()V");
     BridgeArStopMethod = (*env)->GetStaticMethodID(env, clazz, "bridgeArStop", "()V");
     BridgeArCleanupMethod = (*env)->GetStaticMethodID(env, clazz, "bridgeArCleanup", "()V");
     BridgeArPlaySampleMethod = (*env)->GetStaticMethodID(env, clazz, "bridgeArPlaySample", "([S)V");
+    BridgeArGetSubmitModeMethod = (*env)->GetStaticMethodID(env, clazz, "bridgeArGetSubmitMode", "()I");
+    BridgeArSetDirectBufferMethod = (*env)->GetStaticMethodID(env, clazz, "bridgeArSetDirectBuffer", "(Ljava/nio/ByteBuffer;)V");
     BridgeClStageStartingMethod = (*env)->GetStaticMethodID(env, clazz, "bridgeClStageStarting", "(I)V");
     BridgeClStageCompleteMethod = (*env)->GetStaticMethodID(env, clazz, "bridgeClStageComplete", "(I)V");
     BridgeClStageFailedMethod = (*env)->GetStaticMethodID(env, clazz, "bridgeClStageFailed", "(II)V");
@@ -120,6 +179,17 @@ int BridgeDrSetup(int videoFormat, int width, int height, int redrawRate, void*
     // Use a 32K frame buffer that will increase if needed
     DecodedFrameBuffer = (*env)->NewGlobalRef(env, (*env)->NewByteArray(env, 32768));
 
+    // Start with room for 8 frame descriptors which will also increase if needed
+    FrameDescriptorCapacity = 8;
+    FrameDescriptors = malloc(FrameDescriptorCapacity * FRAME_DESCRIPTOR_SIZE * sizeof(jint));
+    FrameDescriptorArray = (*env)->NewGlobalRef(env, (*env)->NewIntArray(env, FrameDescriptorCapacity * FRAME_DESCRIPTOR_SIZE));
+
+    // Ask the renderer whether it can accept picture data written directly into its input buffers
+    DrSubmitMode = (*env)->CallStaticIntMethod(env, GlobalBridgeClass, BridgeDrGetSubmitModeMethod);
+    if ((*env)->ExceptionCheck(env)) {
+        return -1;
+    }
+
     return 0;
 }
 
@@ -139,57 +209,173 @@ void BridgeDrCleanup(void) {
     JNIEnv* env = GetThreadEnv();
 
     (*env)->DeleteGlobalRef(env, DecodedFrameBuffer);
+    (*env)->DeleteGlobalRef(env, FrameDescriptorArray);
+    free(FrameDescriptors);
+    FrameDescriptors = NULL;
 
     (*env)->CallStaticVoidMethod(env, GlobalBridgeClass, BridgeDrCleanupMethod);
 }
 
-int BridgeDrSubmitDecodeUnit(PDECODE_UNIT decodeUnit) {
-    JNIEnv* env = GetThreadEnv();
-    int ret;
-
+static void EnsureFrameBufferCapacity(JNIEnv* env, int length) {
     // Increase the size of our frame data buffer if our frame won't fit
-    if ((*env)->GetArrayLength(env, DecodedFrameBuffer) < decodeUnit->fullLength) {
+    if ((*env)->GetArrayLength(env, DecodedFrameBuffer) < length) {
         (*env)->DeleteGlobalRef(env, DecodedFrameBuffer);
-        DecodedFrameBuffer = (*env)->NewGlobalRef(env, (*env)->NewByteArray(env, decodeUnit->fullLength));
+        DecodedFrameBuffer = (*env)->NewGlobalRef(env, (*env)->NewByteArray(env, length));
     }
+}
 
+// Packs the NALUs of the decode unit into DecodedFrameBuffer and describes each of them
+// in FrameDescriptorArray. Contiguous picture data entries are merged into one descriptor.
+// If includePicData is false, only the parameter sets are packed. Returns the descriptor count.
+static int PackDecodeUnit(JNIEnv* env, PDECODE_UNIT decodeUnit, bool includePicData) {
     PLENTRY currentEntry;
+    int entryCount;
+    int descriptorCount;
     int offset;
 
-    currentEntry = decodeUnit->bufferList;
+    entryCount = 0;
+    for (currentEntry = decodeUnit->bufferList; currentEntry != NULL; currentEntry = currentEntry->next) {
+        entryCount++;
+    }
+
+    // Increase the size of our descriptor arrays if all entries won't fit
+    if (FrameDescriptorCapacity < entryCount) {
+        FrameDescriptorCapacity = entryCount;
+        FrameDescriptors = realloc(FrameDescriptors, FrameDescriptorCapacity * FRAME_DESCRIPTOR_SIZE * sizeof(jint));
+        (*env)->DeleteGlobalRef(env, FrameDescriptorArray);
+        FrameDescriptorArray = (*env)->NewGlobalRef(env, (*env)->NewIntArray(env, FrameDescriptorCapacity * FRAME_DESCRIPTOR_SIZE));
+    }
+
+    EnsureFrameBufferCapacity(env, decodeUnit->fullLength);
+
+    descriptorCount = 0;
     offset = 0;
-    while (currentEntry != NULL) {
-        // Submit parameter set NALUs separately from picture data
-        if (currentEntry->bufferType != BUFFER_TYPE_PICDATA) {
-            // Use the beginning of the buffer each time since this is a separate
-            // invocation of the decoder each time.
-            (*env)->SetByteArrayRegion(env, DecodedFrameBuffer, 0, currentEntry->length, (jbyte*)currentEntry->data);
-
-            ret = (*env)->CallStaticIntMethod(env, GlobalBridgeClass, BridgeDrSubmitDecodeUnitMethod,
-                                              DecodedFrameBuffer, currentEntry->length, currentEntry->bufferType,
-                                              decodeUnit->frameNumber, decodeUnit->frameType, (jchar)decodeUnit->frameHostProcessingLatency,
-                                              (jlong)decodeUnit->receiveTimeMs, (jlong)decodeUnit->enqueueTimeMs);
-            if ((*env)->ExceptionCheck(env)) {
-                // We will crash here
-                (*JVM)->DetachCurrentThread(JVM);
-                return DR_OK;
-            }
-            else if (ret != DR_OK) {
-                return ret;
-            }
+    for (currentEntry = decodeUnit->bufferList; currentEntry != NULL; currentEntry = currentEntry->next) {
+        if (currentEntry->bufferType == BUFFER_TYPE_PICDATA && !includePicData) {
+            continue;
+        }
+
+        (*env)->SetByteArrayRegion(env, DecodedFrameBuffer, offset, currentEntry->length, (jbyte*)currentEntry->data);
+
+        jint* lastDescriptor = descriptorCount > 0 ? &FrameDescriptors[(descriptorCount - 1) * FRAME_DESCRIPTOR_SIZE] : NULL;
+        if (currentEntry->bufferType == BUFFER_TYPE_PICDATA && lastDescriptor != NULL &&
+                lastDescriptor[FRAME_DESCRIPTOR_TYPE] == BUFFER_TYPE_PICDATA) {
+            // Extend the previous picture data descriptor since the data is contiguous
+            lastDescriptor[FRAME_DESCRIPTOR_LENGTH] += currentEntry->length;
         }
         else {
-            (*env)->SetByteArrayRegion(env, DecodedFrameBuffer, offset, currentEntry->length, (jbyte*)currentEntry->data);
-            offset += currentEntry->length;
+            jint* descriptor = &FrameDescriptors[descriptorCount * FRAME_DESCRIPTOR_SIZE];
+            descriptor[FRAME_DESCRIPTOR_TYPE] = currentEntry->bufferType;
+            descriptor[FRAME_DESCRIPTOR_OFFSET] = offset;
+            descriptor[FRAME_DESCRIPTOR_LENGTH] = currentEntry->length;
+            descriptorCount++;
         }
 
-        currentEntry = currentEntry->next;
+        offset += currentEntry->length;
+    }
+
+    (*env)->SetIntArrayRegion(env, FrameDescriptorArray, 0, descriptorCount * FRAME_DESCRIPTOR_SIZE, FrameDescriptors);
+
+    return descriptorCount;
+}
+
+static int SubmitDecodeUnitDirect(JNIEnv* env, PDECODE_UNIT decodeUnit) {
+    PLENTRY currentEntry;
+    int csdDescriptorCount;
+    int picDataLength;
+    int ret;
+
+    // Parameter sets are small and must be parsed by the renderer, so they are packed
+    // into the frame buffer while the picture data is written into the input buffer.
+    csdDescriptorCount = PackDecodeUnit(env, decodeUnit, false);
+
+    picDataLength = 0;
+    for (currentEntry = decodeUnit->bufferList; currentEntry != NULL; currentEntry = currentEntry->next) {
+        if (currentEntry->bufferType == BUFFER_TYPE_PICDATA) {
+            picDataLength += currentEntry->length;
+        }
+    }
+
+    jobject inputBuffer = (*env)->CallStaticObjectMethod(env, GlobalBridgeClass, BridgeDrGetDirectSubmitBufferMethod,
+                                                         DecodedFrameBuffer, FrameDescriptorArray, csdDescriptorCount,
+                                                         picDataLength, decodeUnit->frameNumber, decodeUnit->frameType,
+                                                         (jchar)decodeUnit->frameHostProcessingLatency,
+                                                         (jlong)decodeUnit->receiveTimeMs, (jlong)decodeUnit->enqueueTimeMs);
+    if ((*env)->ExceptionCheck(env)) {
+        // We will crash here
+        (*JVM)->DetachCurrentThread(JVM);
+        return DR_OK;
+    }
+    else if (inputBuffer == NULL) {
+        // The renderer dropped the frame, either because it needs an IDR frame
+        // or because it's stopping
+        ret = (*env)->CallStaticIntMethod(env, GlobalBridgeClass, BridgeDrGetDirectSubmitStatusMethod);
+        if ((*env)->ExceptionCheck(env)) {
+            // We will crash here
+            (*JVM)->DetachCurrentThread(JVM);
+            return DR_OK;
+        }
+
+        return ret;
+    }
+
+    jbyteArray fallbackData = NULL;
+    char* inputBufferAddress = (*env)->GetDirectBufferAddress(env, inputBuffer);
+    if (inputBufferAddress != NULL) {
+        // The renderer has already checked that the picture data will fit after the current position
+        char* dest = inputBufferAddress + (*env)->CallIntMethod(env, inputBuffer, BufferPositionMethod);
+
+        for (currentEntry = decodeUnit->bufferList; currentEntry != NULL; currentEntry = currentEntry->next) {
+            if (currentEntry->bufferType == BUFFER_TYPE_PICDATA) {
+                memcpy(dest, currentEntry->data, currentEntry->length);
+                dest += currentEntry->length;
+            }
+        }
+    }
+    else {
+        // This isn't a direct buffer, so hand the data to the renderer to copy
+        int offset = 0;
+
+        EnsureFrameBufferCapacity(env, picDataLength);
+        for (currentEntry = decodeUnit->bufferList; currentEntry != NULL; currentEntry = currentEntry->next) {
+            if (currentEntry->bufferType == BUFFER_TYPE_PICDATA) {
+                (*env)->SetByteArrayRegion(env, DecodedFrameBuffer, offset, currentEntry->length, (jbyte*)currentEntry->data);
+                offset += currentEntry->length;
+            }
+        }
+
+        fallbackData = DecodedFrameBuffer;
+    }
+
+    (*env)->DeleteLocalRef(env, inputBuffer);
+
+    ret = (*env)->CallStaticIntMethod(env, GlobalBridgeClass, BridgeDrSubmitDirectDecodeUnitMethod,
+                                      fallbackData, picDataLength);
+    if ((*env)->ExceptionCheck(env)) {
+        // We will crash here
+        (*JVM)->DetachCurrentThread(JVM);
+        return DR_OK;
+    }
+    else {
+        return ret;
+    }
+}
+
+int BridgeDrSubmitDecodeUnit(PDECODE_UNIT decodeUnit) {
+    JNIEnv* env = GetThreadEnv();
+    int descriptorCount;
+    int ret;
+
+    if (DrSubmitMode == DR_SUBMIT_MODE_DIRECT_BUFFER) {
+        return SubmitDecodeUnitDirect(env, decodeUnit);
     }
 
-    ret = (*env)->CallStaticIntMethod(env, GlobalBridgeClass, BridgeDrSubmitDecodeUnitMethod,
-                                       DecodedFrameBuffer, offset, BUFFER_TYPE_PICDATA,
-                                       decodeUnit->frameNumber, decodeUnit->frameType, (jchar)decodeUnit->frameHostProcessingLatency,
-                                       (jlong)decodeUnit->receiveTimeMs, (jlong)decodeUnit->enqueueTimeMs);
+    descriptorCount = PackDecodeUnit(env, decodeUnit, true);
+
+    ret = (*env)->CallStaticIntMethod(env, GlobalBridgeClass, BridgeDrSubmitFrameMethod,
+                                      DecodedFrameBuffer, FrameDescriptorArray, descriptorCount,
+                                      decodeUnit->frameNumber, decodeUnit->frameType, (jchar)decodeUnit->frameHostProcessingLatency,
+                                      (jlong)decodeUnit->receiveTimeMs, (jlong)decodeUnit->enqueueTimeMs);
     if ((*env)->ExceptionCheck(env)) {
         // We will crash here
         (*JVM)->DetachCurrentThread(JVM);
@@ -200,6 +386,8 @@ int BridgeDrSubmitDecodeUnit(PDECODE_UNIT decodeUnit) {
     }
 }
 
+void BridgeArCleanup(void);
+
 int BridgeArInit(int audioConfiguration, POPUS_MULTISTREAM_CONFIGURATION opusConfig, void* context, int flags) {
     JNIEnv* env = GetThreadEnv();
     int err;
@@ -222,8 +410,51 @@ int BridgeArInit(int audioConfiguration, POPUS_MULTISTREAM_CONFIGURATION opusCon
             return -1;
         }
 
-        // We know ahead of time what the buffer size will be for decoded audio, so pre-allocate it
-        DecodedAudioBuffer = (*env)->NewGlobalRef(env, (*env)->NewShortArray(env, opusConfig->channelCount * opusConfig->samplesPerFrame));
+        // Ask the renderer whether it wants decoded audio through a shared direct buffer,
+        // or whether it's consumed by a native output stream like AAudio. A native stream
+        // is opened by the renderer's setup() and starts pulling from the ring in start().
+        ArSubmitMode = (*env)->CallStaticIntMethod(env, GlobalBridgeClass, BridgeArGetSubmitModeMethod);
+        if ((*env)->ExceptionCheck(env)) {
+            // Clear the exception before making any more JNI calls
+            (*env)->ExceptionClear(env);
+            ArSubmitMode = AR_SUBMIT_MODE_SHORT_ARRAY;
+        }
+
+        if (ArSubmitMode == AR_SUBMIT_MODE_DIRECT_BUFFER || ArSubmitMode == AR_SUBMIT_MODE_NATIVE) {
+            int frameDurationMs = (opusConfig->samplesPerFrame * 1000) / opusConfig->sampleRate;
+
+            // Each slot holds one decoded Opus frame
+            AudioRingSlotSize = opusConfig->channelCount * opusConfig->samplesPerFrame * sizeof(opus_int16);
+            AudioRingSlotCount = AUDIO_RING_MAX_QUEUED_MS / (frameDurationMs > 0 ? frameDurationMs : 1);
+            if (AudioRingSlotCount < 2) {
+                AudioRingSlotCount = 2;
+            }
+
+            AudioRingData = malloc(AudioRingSlotSize * AudioRingSlotCount);
+            AudioRingSlotLengths = calloc(AudioRingSlotCount, sizeof(int));
+            AudioRingSlotArrivalTimesMs = calloc(AudioRingSlotCount, sizeof(jlong));
+            atomic_store(&AudioRingReadIndex, 0);
+            atomic_store(&AudioRingWriteIndex, 0);
+            atomic_store(&AudioRingQueueLimit, AudioRingSlotCount);
+        }
+
+        if (ArSubmitMode == AR_SUBMIT_MODE_DIRECT_BUFFER) {
+            AudioRingByteBuffer = (*env)->NewGlobalRef(env, (*env)->NewDirectByteBuffer(env, AudioRingData, AudioRingSlotSize * AudioRingSlotCount));
+            (*env)->CallStaticVoidMethod(env, GlobalBridgeClass, BridgeArSetDirectBufferMethod, AudioRingByteBuffer);
+            if ((*env)->ExceptionCheck(env)) {
+                // Clear the exception before making any more JNI calls
+                (*env)->ExceptionClear(env);
+
+                // Cleanup isn't called if init fails, so destroy the decoder, free the ring
+                // and clean up the renderer ourselves
+                BridgeArCleanup();
+                return -1;
+            }
+        }
+        else if (ArSubmitMode == AR_SUBMIT_MODE_SHORT_ARRAY) {
+            // We know ahead of time what the buffer size will be for decoded audio, so pre-allocate it
+            DecodedAudioBuffer = (*env)->NewGlobalRef(env, (*env)->NewShortArray(env, opusConfig->channelCount * opusConfig->samplesPerFrame));
+        }
     }
 
     return err;
@@ -241,17 +472,79 @@ void BridgeArStop(void) {
     (*env)->CallStaticVoidMethod(env, GlobalBridgeClass, BridgeArStopMethod);
 }
 
-void BridgeArCleanup() {
+void BridgeArCleanup(void) {
     JNIEnv* env = GetThreadEnv();
 
     opus_multistream_decoder_destroy(Decoder);
 
-    (*env)->DeleteGlobalRef(env, DecodedAudioBuffer);
+    if (ArSubmitMode == AR_SUBMIT_MODE_DIRECT_BUFFER || ArSubmitMode == AR_SUBMIT_MODE_NATIVE) {
+        // The audio thread or native output stream has already been stopped by BridgeArStop()
+        if (AudioRingByteBuffer != NULL) {
+            (*env)->DeleteGlobalRef(env, AudioRingByteBuffer);
+            AudioRingByteBuffer = NULL;
+        }
+        free(AudioRingData);
+        AudioRingData = NULL;
+        free(AudioRingSlotLengths);
+        AudioRingSlotLengths = NULL;
+        free(AudioRingSlotArrivalTimesMs);
+        AudioRingSlotArrivalTimesMs = NULL;
+    }
+    else {
+        (*env)->DeleteGlobalRef(env, DecodedAudioBuffer);
+        DecodedAudioBuffer = NULL;
+    }
 
     (*env)->CallStaticVoidMethod(env, GlobalBridgeClass, BridgeArCleanupMethod);
 }
 
+static jlong GetMonotonicTimeMs(void) {
+    struct timespec now;
+
+    // CLOCK_MONOTONIC is the clock behind SystemClock.uptimeMillis()
+    clock_gettime(CLOCK_MONOTONIC, &now);
+    return ((jlong)now.tv_sec * 1000) + (now.tv_nsec / 1000000);
+}
+
+static void DecodeSampleToAudioRing(char* sampleData, int sampleLength) {
+    // Timestamp the packet before decoding, so the audio renderer can measure network jitter
+    // independently of when it gets around to playing the packet
+    jlong arrivalTimeMs = GetMonotonicTimeMs();
+    unsigned int writeIndex = atomic_load_explicit(&AudioRingWriteIndex, memory_order_relaxed);
+    unsigned int readIndex = atomic_load_explicit(&AudioRingReadIndex, memory_order_acquire);
+
+    // If the audio renderer has fallen too far behind, drop this sample to bound latency. The
+    // renderer lowers the limit below the ring size when there's little jitter to absorb.
+    if (writeIndex - readIndex >= (unsigned int)atomic_load_explicit(&AudioRingQueueLimit, memory_order_relaxed)) {
+        return;
+    }
+
+    int slot = writeIndex % AudioRingSlotCount;
+    int decodeLen = opus_multistream_decode(Decoder,
+                                            (const unsigned char*)sampleData,
+                                            sampleLength,
+                                            (opus_int16*)(AudioRingData + (slot * AudioRingSlotSize)),
+                                            OpusConfig.samplesPerFrame,
+                                            0);
+    if (decodeLen > 0) {
+        AudioRingSlotLengths[slot] = decodeLen * OpusConfig.channelCount * sizeof(opus_int16);
+        AudioRingSlotArrivalTimesMs[slot] = arrivalTimeMs;
+
+        // Publish the slot and wake the Java audio thread if it's waiting
+        atomic_store_explicit(&AudioRingWriteIndex, writeIndex + 1, memory_order_release);
+        pthread_mutex_lock(&AudioRingMutex);
+        pthread_cond_signal(&AudioRingCond);
+        pthread_mutex_unlock(&AudioRingMutex);
+    }
+}
+
 void BridgeArDecodeAndPlaySample(char* sampleData, int sampleLength) {
+    if (ArSubmitMode == AR_SUBMIT_MODE_DIRECT_BUFFER || ArSubmitMode == AR_SUBMIT_MODE_NATIVE) {
+        // No need to call into Java here. The audio renderer will pick this up from the ring.
+        DecodeSampleToAudioRing(sampleData, sampleLength);
+        return;
+    }
+
     JNIEnv* env = GetThreadEnv();
 
     jshort* decodedData = (*env)->GetPrimitiveArrayCritical(env, DecodedAudioBuffer, NULL);
@@ -278,6 +571,99 @@ void BridgeArDecodeAndPlaySample(char* sampleData, int sampleLength) {
     }
 }
 
+// Returns the offset of the next decoded audio slot in the shared ByteBuffer in the upper 32 bits
+// and its length in the lower 32 bits, or -1 if no audio was decoded within the timeout.
+JNIEXPORT jlong JNICALL
+Java_com_limelight_nvstream_jni_MoonBridge_waitForDecodedAudio(JNIEnv *env, jclass clazz, jint timeoutMs) {
+    unsigned int readIndex = atomic_load_explicit(&AudioRingReadIndex, memory_order_relaxed);
+
+    if (atomic_load_explicit(&AudioRingWriteIndex, memory_order_acquire) == readIndex) {
+        struct timespec deadline;
+
+        clock_gettime(CLOCK_REALTIME, &deadline);
+        deadline.tv_sec += timeoutMs / 1000;
+        deadline.tv_nsec += (timeoutMs % 1000) * 1000000L;
+        if (deadline.tv_nsec >= 1000000000L) {
+            deadline.tv_sec++;
+            deadline.tv_nsec -= 1000000000L;
+        }
+
+        pthread_mutex_lock(&AudioRingMutex);
+        while (atomic_load_explicit(&AudioRingWriteIndex, memory_order_acquire) == readIndex) {
+            if (pthread_cond_timedwait(&AudioRingCond, &AudioRingMutex, &deadline) == ETIMEDOUT) {
+                break;
+            }
+        }
+        pthread_mutex_unlock(&AudioRingMutex);
+    }
+
+    char* data;
+    int length;
+    if (AudioRingPeek(&data, &length) == 0) {
+        return -1;
+    }
+
+    return ((jlong)(data - AudioRingData) << 32) | length;
+}
+
+// Returns the arrival time of the slot from the last successful waitForDecodedAudio() call
+JNIEXPORT jlong JNICALL
+Java_com_limelight_nvstream_jni_MoonBridge_getDecodedAudioArrivalTime(JNIEnv *env, jclass clazz) {
+    unsigned int readIndex = atomic_load_explicit(&AudioRingReadIndex, memory_order_relaxed);
+
+    return AudioRingSlotArrivalTimesMs[readIndex % AudioRingSlotCount];
+}
+
+// Returns the number of decoded audio slots queued behind the one currently being consumed
+JNIEXPORT jint JNICALL
+Java_com_limelight_nvstream_jni_MoonBridge_getDecodedAudioQueueDepth(JNIEnv *env, jclass clazz) {
+    char* data;
+    int length;
+    int queuedSlots = AudioRingPeek(&data, &length);
+
+    return queuedSlots > 0 ? queuedSlots - 1 : 0;
+}
+
+JNIEXPORT void JNICALL
+Java_com_limelight_nvstream_jni_MoonBridge_setDecodedAudioQueueLimit(JNIEnv *env, jclass clazz, jint packets) {
+    if (packets < 1) {
+        packets = 1;
+    }
+    else if (packets > AudioRingSlotCount) {
+        packets = AudioRingSlotCount;
+    }
+
+    atomic_store_explicit(&AudioRingQueueLimit, packets, memory_order_relaxed);
+}
+
+// Returns the slot from the last successful waitForDecodedAudio() call to the decoder
+JNIEXPORT void JNICALL
+Java_com_limelight_nvstream_jni_MoonBridge_releaseDecodedAudio(JNIEnv *env, jclass clazz) {
+    AudioRingRelease();
+}
+
+int AudioRingPeek(char** data, int* length) {
+    unsigned int readIndex = atomic_load_explicit(&AudioRingReadIndex, memory_order_relaxed);
+    unsigned int writeIndex = atomic_load_explicit(&AudioRingWriteIndex, memory_order_acquire);
+
+    if (writeIndex == readIndex) {
+        return 0;
+    }
+
+    int slot = readIndex % AudioRingSlotCount;
+    *data = AudioRingData + (slot * AudioRingSlotSize);
+    *length = AudioRingSlotLengths[slot];
+    return (int)(writeIndex - readIndex);
+}
+
+void AudioRingRelease(void) {
+    atomic_fetch_add_explicit(&AudioRingReadIndex, 1, memory_order_release);
+}
+
+int AudioRingGetSlotCount(void) {
+    return AudioRingSlotCount;
+}
+
 void BridgeClStageStarting(int stage) {
     JNIEnv* env = GetThreadEnv();
 
@@ -112,6 +112,168 @@ Java_com_limelight_nvstream_jni_MoonBridge_sendMouseHighResHScroll(JNIEnv *env,
     LiSendHighResHScrollEvent(scrollAmount);
 }
 
+// These must match the INPUT_BATCH_* constants in InputBatch.java
+#define INPUT_BATCH_MOUSE_MOVE             1
+#define INPUT_BATCH_MOUSE_POSITION         2
+#define INPUT_BATCH_MOUSE_MOVE_AS_POSITION 3
+#define INPUT_BATCH_MOUSE_BUTTON           4
+#define INPUT_BATCH_CONTROLLER             5
+#define INPUT_BATCH_KEYBOARD               6
+#define INPUT_BATCH_SCROLL                 7
+#define INPUT_BATCH_HSCROLL                8
+#define INPUT_BATCH_TOUCH                  9
+#define INPUT_BATCH_PEN                    10
+#define INPUT_BATCH_CONTROLLER_TOUCH       11
+#define INPUT_BATCH_CONTROLLER_MOTION      12
+
+// Records are packed, so fields may be unaligned
+static jbyte ReadBatchByte(const char** data) {
+    jbyte value = **data;
+    *data += sizeof(value);
+    return value;
+}
+
+static jshort ReadBatchShort(const char** data) {
+    jshort value;
+    memcpy(&value, *data, sizeof(value));
+    *data += sizeof(value);
+    return value;
+}
+
+static jint ReadBatchInt(const char** data) {
+    jint value;
+    memcpy(&value, *data, sizeof(value));
+    *data += sizeof(value);
+    return value;
+}
+
+static jfloat ReadBatchFloat(const char** data) {
+    jfloat value;
+    memcpy(&value, *data, sizeof(value));
+    *data += sizeof(value);
+    return value;
+}
+
+JNIEXPORT void JNICALL
+Java_com_limelight_nvstream_jni_MoonBridge_sendInputBatch(JNIEnv *env, jclass clazz, jobject buffer, jint length) {
+    const char* data = (*env)->GetDirectBufferAddress(env, buffer);
+    const char* end = data + length;
+
+    // Fields are read into locals first, since the order that function arguments are
+    // evaluated in is unspecified.
+    while (data < end) {
+        switch (ReadBatchByte(&data)) {
+            case INPUT_BATCH_MOUSE_MOVE: {
+                jshort deltaX = ReadBatchShort(&data);
+                jshort deltaY = ReadBatchShort(&data);
+                LiSendMouseMoveEvent(deltaX, deltaY);
+                break;
+            }
+            case INPUT_BATCH_MOUSE_POSITION: {
+                jshort x = ReadBatchShort(&data);
+                jshort y = ReadBatchShort(&data);
+                jshort referenceWidth = ReadBatchShort(&data);
+                jshort referenceHeight = ReadBatchShort(&data);
+                LiSendMousePositionEvent(x, y, referenceWidth, referenceHeight);
+                break;
+            }
+            case INPUT_BATCH_MOUSE_MOVE_AS_POSITION: {
+                jshort deltaX = ReadBatchShort(&data);
+                jshort deltaY = ReadBatchShort(&data);
+                jshort referenceWidth = ReadBatchShort(&data);
+                jshort referenceHeight = ReadBatchShort(&data);
+                LiSendMouseMoveAsMousePositionEvent(deltaX, deltaY, referenceWidth, referenceHeight);
+                break;
+            }
+            case INPUT_BATCH_MOUSE_BUTTON: {
+                jbyte buttonEvent = ReadBatchByte(&data);
+                jbyte mouseButton = ReadBatchByte(&data);
+                LiSendMouseButtonEvent(buttonEvent, mouseButton);
+                break;
+            }
+            case INPUT_BATCH_CONTROLLER: {
+                jshort controllerNumber = ReadBatchShort(&data);
+                jshort activeGamepadMask = ReadBatchShort(&data);
+                jint buttonFlags = ReadBatchInt(&data);
+                jbyte leftTrigger = ReadBatchByte(&data);
+                jbyte rightTrigger = ReadBatchByte(&data);
+                jshort leftStickX = ReadBatchShort(&data);
+                jshort leftStickY = ReadBatchShort(&data);
+                jshort rightStickX = ReadBatchShort(&data);
+                jshort rightStickY = ReadBatchShort(&data);
+                LiSendMultiControllerEvent(controllerNumber, activeGamepadMask, buttonFlags,
+                    leftTrigger, rightTrigger, leftStickX, leftStickY, rightStickX, rightStickY);
+                break;
+            }
+            case INPUT_BATCH_KEYBOARD: {
+                jshort keyCode = ReadBatchShort(&data);
+                jbyte keyAction = ReadBatchByte(&data);
+                jbyte modifiers = ReadBatchByte(&data);
+                jbyte flags = ReadBatchByte(&data);
+                LiSendKeyboardEvent2(keyCode, keyAction, modifiers, flags);
+                break;
+            }
+            case INPUT_BATCH_SCROLL:
+                LiSendHighResScrollEvent(ReadBatchShort(&data));
+                break;
+            case INPUT_BATCH_HSCROLL:
+                LiSendHighResHScrollEvent(ReadBatchShort(&data));
+                break;
+            case INPUT_BATCH_TOUCH: {
+                jbyte eventType = ReadBatchByte(&data);
+                jint pointerId = ReadBatchInt(&data);
+                jfloat x = ReadBatchFloat(&data);
+                jfloat y = ReadBatchFloat(&data);
+                jfloat pressureOrDistance = ReadBatchFloat(&data);
+                jfloat contactAreaMajor = ReadBatchFloat(&data);
+                jfloat contactAreaMinor = ReadBatchFloat(&data);
+                jshort rotation = ReadBatchShort(&data);
+                LiSendTouchEvent(eventType, pointerId, x, y, pressureOrDistance,
+                                 contactAreaMajor, contactAreaMinor, rotation);
+                break;
+            }
+            case INPUT_BATCH_PEN: {
+                jbyte eventType = ReadBatchByte(&data);
+                jbyte toolType = ReadBatchByte(&data);
+                jbyte penButtons = ReadBatchByte(&data);
+                jfloat x = ReadBatchFloat(&data);
+                jfloat y = ReadBatchFloat(&data);
+                jfloat pressureOrDistance = ReadBatchFloat(&data);
+                jfloat contactAreaMajor = ReadBatchFloat(&data);
+                jfloat contactAreaMinor = ReadBatchFloat(&data);
+                jshort rotation = ReadBatchShort(&data);
+                jbyte tilt = ReadBatchByte(&data);
+                LiSendPenEvent(eventType, toolType, penButtons, x, y, pressureOrDistance,
+                               contactAreaMajor, contactAreaMinor, rotation, tilt);
+                break;
+            }
+            case INPUT_BATCH_CONTROLLER_TOUCH: {
+                jbyte controllerNumber = ReadBatchByte(&data);
+                jbyte eventType = ReadBatchByte(&data);
+                jint pointerId = ReadBatchInt(&data);
+                jfloat x = ReadBatchFloat(&data);
+                jfloat y = ReadBatchFloat(&data);
+                jfloat pressure = ReadBatchFloat(&data);
+                LiSendControllerTouchEvent(controllerNumber, eventType, pointerId, x, y, pressure);
+                break;
+            }
+            case INPUT_BATCH_CONTROLLER_MOTION: {
+                jbyte controllerNumber = ReadBatchByte(&data);
+                jbyte motionType = ReadBatchByte(&data);
+                jfloat x = ReadBatchFloat(&data);
+                jfloat y = ReadBatchFloat(&data);
+                jfloat z = ReadBatchFloat(&data);
+                LiSendControllerMotionEvent(controllerNumber, motionType, x, y, z);
+                break;
+            }
+            default:
+                // We can't know the size of an unknown record, so we must drop the rest
+                __android_log_print(ANDROID_LOG_ERROR, "moonlight-common-c", "Unknown input batch record: %d", data[-1]);
+                return;
+        }
+    }
+}
+
 JNIEXPORT void JNICALL
 Java_com_limelight_nvstream_jni_MoonBridge_sendUtf8Text(JNIEnv *env, jclass clazz, jstring text) {
     const char* utf8Text = (*env)->GetStringUTFChars(env, text, NULL);
@@ -11,10 +11,11 @@ import com.limelight.binding.input.capture.InputCaptureProvider;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 
 public class EvdevCaptureProvider extends InputCaptureProvider {
 
@@ -22,11 +23,10 @@ public class EvdevCaptureProvider extends InputCaptureProvider {
     private final String libraryPath;
 
     private boolean shutdown = false;
-    private InputStream evdevIn;
     private OutputStream evdevOut;
     private Process su;
-    private ServerSocket servSock;
-    private Socket evdevSock;
+    private ServerSocketChannel servSock;
+    private SocketChannel evdevSock;
     private Activity activity;
     private boolean started = false;
 
@@ -43,13 +43,15 @@ public class EvdevCaptureProvider extends InputCaptureProvider {
 
             // Bind a local listening socket for evdevreader to connect to
             try {
-                servSock = new ServerSocket(0, 1);
+                servSock = ServerSocketChannel.open();
+                servSock.socket().bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0), 1);
             } catch (IOException e) {
                 e.printStackTrace();
                 return;
             }
 
-            final String evdevReaderCmd = libraryPath+File.separatorChar+"libevdev_reader.so "+servSock.getLocalPort();
+            final int port = servSock.socket().getLocalPort();
+            final String evdevReaderCmd = libraryPath+File.separatorChar+"libevdev_reader.so "+port;
 
             // On Nougat and later, we'll need to pass the command directly to SU.
             // Writing to SU's input stream after it has started doesn't seem to work anymore.
@@ -88,111 +90,112 @@ public class EvdevCaptureProvider extends InputCaptureProvider {
             }
 
             // Wait for evdevreader's connection
-            LimeLog.info("Waiting for EvdevReader connection to port "+servSock.getLocalPort());
+            LimeLog.info("Waiting for EvdevReader connection to port "+port);
+            EvdevReader reader;
             try {
                 evdevSock = servSock.accept();
-                evdevIn = evdevSock.getInputStream();
-                evdevOut = evdevSock.getOutputStream();
+                evdevOut = evdevSock.socket().getOutputStream();
+                reader = new EvdevReader(evdevSock);
             } catch (IOException e) {
                 e.printStackTrace();
                 return;
             }
-            LimeLog.info("EvdevReader connected from port "+evdevSock.getPort());
+            LimeLog.info("EvdevReader connected from port "+evdevSock.socket().getPort());
 
             while (!isInterrupted() && !shutdown) {
-                EvdevEvent event;
                 try {
-                    event = EvdevReader.read(evdevIn);
+                    reader.readFrame();
                 } catch (IOException e) {
-                    event = null;
-                }
-                if (event == null) {
                     break;
                 }
 
                 // Note: The EvdevReader process already filters input events when grabbing
                 // is not enabled, so we don't need to that here.
-
-                switch (event.type) {
-                    case EvdevEvent.EV_SYN:
-                        if (deltaX != 0 || deltaY != 0) {
-                            listener.mouseMove(deltaX, deltaY);
-                            deltaX = deltaY = 0;
-                        }
-                        if (deltaVScroll != 0) {
-                            listener.mouseVScroll(deltaVScroll);
-                            deltaVScroll = 0;
-                        }
-                        if (deltaHScroll != 0) {
-                            listener.mouseHScroll(deltaHScroll);
-                            deltaHScroll = 0;
-                        }
-                        break;
-
-                    case EvdevEvent.EV_REL:
-                        switch (event.code) {
-                            case EvdevEvent.REL_X:
-                                deltaX = event.value;
-                                break;
-                            case EvdevEvent.REL_Y:
-                                deltaY = event.value;
-                                break;
-                            case EvdevEvent.REL_HWHEEL:
-                                deltaHScroll = (byte) event.value;
-                                break;
-                            case EvdevEvent.REL_WHEEL:
-                                deltaVScroll = (byte) event.value;
-                                break;
-                        }
-                        break;
-
-                    case EvdevEvent.EV_KEY:
-                        switch (event.code) {
-                            case EvdevEvent.BTN_LEFT:
-                                listener.mouseButtonEvent(EvdevListener.BUTTON_LEFT,
-                                        event.value != 0);
-                                break;
-                            case EvdevEvent.BTN_MIDDLE:
-                                listener.mouseButtonEvent(EvdevListener.BUTTON_MIDDLE,
-                                        event.value != 0);
-                                break;
-                            case EvdevEvent.BTN_RIGHT:
-                                listener.mouseButtonEvent(EvdevListener.BUTTON_RIGHT,
-                                        event.value != 0);
-                                break;
-
-                            case EvdevEvent.BTN_SIDE:
-                                listener.mouseButtonEvent(EvdevListener.BUTTON_X1,
-                                        event.value != 0);
-                                break;
-
-                            case EvdevEvent.BTN_EXTRA:
-                                listener.mouseButtonEvent(EvdevListener.BUTTON_X2,
-                                        event.value != 0);
-                                break;
-
-                            case EvdevEvent.BTN_FORWARD:
-                            case EvdevEvent.BTN_BACK:
-                            case EvdevEvent.BTN_TASK:
-                                // Other unhandled mouse buttons
-                                break;
-
-                            default:
-                                // We got some unrecognized button. This means
-                                // someone is trying to use the other device in this
-                                // "combination" input device. We'll try to handle
-                                // it via keyboard, but we're not going to disconnect
-                                // if we can't
-                                short keyCode = EvdevTranslator.translateEvdevKeyCode(event.code);
-                                if (keyCode != 0) {
-                                    listener.keyboardEvent(event.value != 0, keyCode);
-                                }
-                                break;
-                        }
-                        break;
-
-                    case EvdevEvent.EV_MSC:
-                        break;
+                while (reader.nextEvent()) {
+                    short code = reader.getCode();
+                    int value = reader.getValue();
+
+                    switch (reader.getType()) {
+                        case EvdevEvent.EV_SYN:
+                            if (deltaX != 0 || deltaY != 0) {
+                                listener.mouseMove(deltaX, deltaY);
+                                deltaX = deltaY = 0;
+                            }
+                            if (deltaVScroll != 0) {
+                                listener.mouseVScroll(deltaVScroll);
+                                deltaVScroll = 0;
+                            }
+                            if (deltaHScroll != 0) {
+                                listener.mouseHScroll(deltaHScroll);
+                                deltaHScroll = 0;
+                            }
+                            break;
+
+                        case EvdevEvent.EV_REL:
+                            switch (code) {
+                                case EvdevEvent.REL_X:
+                                    deltaX = value;
+                                    break;
+                                case EvdevEvent.REL_Y:
+                                    deltaY = value;
+                                    break;
+                                case EvdevEvent.REL_HWHEEL:
+                                    deltaHScroll = (byte) value;
+                                    break;
+                                case EvdevEvent.REL_WHEEL:
+                                    deltaVScroll = (byte) value;
+                                    break;
+                            }
+                            break;
+
+                        case EvdevEvent.EV_KEY:
+                            switch (code) {
+                                case EvdevEvent.BTN_LEFT:
+                                    listener.mouseButtonEvent(EvdevListener.BUTTON_LEFT,
+                                            value != 0);
+                                    break;
+                                case EvdevEvent.BTN_MIDDLE:
+                                    listener.mouseButtonEvent(EvdevListener.BUTTON_MIDDLE,
+                                            value != 0);
+                                    break;
+                                case EvdevEvent.BTN_RIGHT:
+                                    listener.mouseButtonEvent(EvdevListener.BUTTON_RIGHT,
+                                            value != 0);
+                                    break;
+
+                                case EvdevEvent.BTN_SIDE:
+                                    listener.mouseButtonEvent(EvdevListener.BUTTON_X1,
+                                            value != 0);
+                                    break;
+
+                                case EvdevEvent.BTN_EXTRA:
+                                    listener.mouseButtonEvent(EvdevListener.BUTTON_X2,
+                                            value != 0);
+                                    break;
+
+                                case EvdevEvent.BTN_FORWARD:
+                                case EvdevEvent.BTN_BACK:
+                                case EvdevEvent.BTN_TASK:
+                                    // Other unhandled mouse buttons
+                                    break;
+
+                                default:
+                                    // We got some unrecognized button. This means
+                                    // someone is trying to use the other device in this
+                                    // "combination" input device. We'll try to handle
+                                    // it via keyboard, but we're not going to disconnect
+                                    // if we can't
+                                    short keyCode = EvdevTranslator.translateEvdevKeyCode(code);
+                                    if (keyCode != 0) {
+                                        listener.keyboardEvent(value != 0, keyCode);
+                                    }
+                                    break;
+                            }
+                            break;
+
+                        case EvdevEvent.EV_MSC:
+                            break;
+                    }
                 }
             }
         }
@@ -318,14 +321,6 @@ public class EvdevCaptureProvider extends InputCaptureProvider {
                     }
                 }
 
-                if (evdevIn != null) {
-                    try {
-                        evdevIn.close();
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                }
-
                 if (evdevOut != null) {
                     try {
                         evdevOut.close();
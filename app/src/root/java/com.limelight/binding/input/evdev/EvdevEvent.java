@@ -1,8 +1,8 @@
 package com.limelight.binding.input.evdev;
 
 public class EvdevEvent {
-    public static final int EVDEV_MIN_EVENT_SIZE = 16;
-    public static final int EVDEV_MAX_EVENT_SIZE = 24;
+    // Size of each event sent by evdev_reader (type, code and value without the timestamp)
+    public static final int EVDEV_PACKED_EVENT_SIZE = 8;
 
     /* Event types */
     public static final short EV_SYN = 0x00;
@@ -25,14 +25,4 @@ public class EvdevEvent {
     public static final short BTN_FORWARD = 0x115;
     public static final short BTN_BACK = 0x116;
     public static final short BTN_TASK = 0x117;
-
-    public final short type;
-    public final short code;
-    public final int value;
-
-    public EvdevEvent(short type, short code, int value) {
-        this.type = type;
-        this.code = code;
-        this.value = value;
-    }
 }
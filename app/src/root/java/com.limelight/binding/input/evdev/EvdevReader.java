@@ -1,58 +1,86 @@
 package com.limelight.binding.input.evdev;
 
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
 
-import com.limelight.LimeLog;
-
+// Decodes the frames of events sent by evdev_reader. Each frame is a 4-byte length followed by
+// the packed events up to and including a SYN_REPORT, all in native byte order.
+//
+// Socket data is read into a reused direct buffer, which may hold several frames at once, and
+// events are decoded in place without allocating.
 public class EvdevReader {
-    private static void readAll(InputStream in, ByteBuffer bb) throws IOException {
-        byte[] buf = bb.array();
-        int ret;
-        int offset = 0;
-
-        while (offset < buf.length) {
-            ret = in.read(buf, offset, buf.length-offset);
-            if (ret <= 0) {
-                throw new IOException("Read failed: "+ret);
-            }
+    private static final int MAX_FRAME_EVENTS = 64;
+    private static final int MAX_FRAME_SIZE = MAX_FRAME_EVENTS * EvdevEvent.EVDEV_PACKED_EVENT_SIZE;
+
+    private final ReadableByteChannel channel;
+    private final ByteBuffer buffer;
+    private int frameEnd;
+
+    // The most recent event returned by nextEvent()
+    private short type;
+    private short code;
+    private int value;
+
+    public EvdevReader(ReadableByteChannel channel) {
+        this.channel = channel;
 
-            offset += ret;
+        // Room for a few full frames so a single read can pick up several of them
+        this.buffer = ByteBuffer.allocateDirect(4 * (4 + MAX_FRAME_SIZE)).order(ByteOrder.nativeOrder());
+        this.buffer.limit(0);
+    }
+
+    // Waits until at least the specified number of bytes are buffered
+    private void fill(int length) throws IOException {
+        while (buffer.remaining() < length) {
+            buffer.compact();
+            int ret = channel.read(buffer);
+            buffer.flip();
+
+            if (ret < 0) {
+                throw new EOFException("EvdevReader disconnected");
+            }
         }
     }
 
-    // Takes a byte buffer to use to read the output into.
-    // This buffer MUST be in native byte order and at least
-    // EVDEV_MAX_EVENT_SIZE bytes long.
-    public static EvdevEvent read(InputStream input) throws IOException {
-        ByteBuffer bb;
-        int packetLength;
-
-        // Read the packet length
-        bb = ByteBuffer.allocate(4).order(ByteOrder.nativeOrder());
-        readAll(input, bb);
-        packetLength = bb.getInt();
-
-        if (packetLength < EvdevEvent.EVDEV_MIN_EVENT_SIZE) {
-            LimeLog.warning("Short read: "+packetLength);
-            return null;
+    // Reads the next frame of events, which can then be retrieved using nextEvent()
+    public void readFrame() throws IOException {
+        // Skip any events that weren't consumed from the last frame
+        buffer.position(Math.max(buffer.position(), frameEnd));
+
+        fill(4);
+        int frameLength = buffer.getInt();
+        if (frameLength < 0 || frameLength > MAX_FRAME_SIZE || frameLength % EvdevEvent.EVDEV_PACKED_EVENT_SIZE != 0) {
+            throw new IOException("Invalid frame length: "+frameLength);
         }
 
-        // Read the rest of the packet
-        bb = ByteBuffer.allocate(packetLength).order(ByteOrder.nativeOrder());
-        readAll(input, bb);
-
-        // Throw away the time stamp
-        if (packetLength == EvdevEvent.EVDEV_MAX_EVENT_SIZE) {
-            bb.getLong();
-            bb.getLong();
-        } else {
-            bb.getInt();
-            bb.getInt();
+        fill(frameLength);
+        frameEnd = buffer.position() + frameLength;
+    }
+
+    // Returns false once all events in the current frame have been read
+    public boolean nextEvent() {
+        if (buffer.position() >= frameEnd) {
+            return false;
         }
 
-        return new EvdevEvent(bb.getShort(), bb.getShort(), bb.getInt());
+        type = buffer.getShort();
+        code = buffer.getShort();
+        value = buffer.getInt();
+        return true;
+    }
+
+    public short getType() {
+        return type;
+    }
+
+    public short getCode() {
+        return code;
+    }
+
+    public int getValue() {
+        return value;
     }
 }